@@ -18,6 +18,7 @@ package org.socraticgrid.hl7.ucs.nifi.api;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import org.slf4j.LoggerFactory;
 import org.socraticgrid.hl7.services.uc.exceptions.InvalidContentException;
 import org.socraticgrid.hl7.services.uc.exceptions.InvalidMessageException;
@@ -27,6 +28,8 @@ import org.socraticgrid.hl7.services.uc.exceptions.UnknownServiceException;
 import org.socraticgrid.hl7.services.uc.exceptions.UpdateException;
 import org.socraticgrid.hl7.services.uc.interfaces.AlertingIntf;
 import org.socraticgrid.hl7.services.uc.model.AlertMessage;
+import org.socraticgrid.hl7.ucs.nifi.core.NiFiCommandBatch;
+import org.socraticgrid.hl7.ucs.nifi.core.NiFiCommandSender;
 import org.socraticgrid.hl7.ucs.nifi.core.NiFiHTTPBroker;
 
 /**
@@ -37,23 +40,20 @@ public class AlertingImpl implements AlertingIntf {
 
     private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(AlertingImpl.class);
     
-    private final NiFiHTTPBroker niFiHTTPBroker;
+    private final NiFiCommandSender commandSender;
     
-    protected AlertingImpl(NiFiHTTPBroker niFiHTTPBroker) {
-        this.niFiHTTPBroker = niFiHTTPBroker;
+    /**
+     * @param commandSender a {@link NiFiHTTPBroker} or, to send the commands 
+     * of this instance in a single request, a {@link NiFiCommandBatch}.
+     */
+    protected AlertingImpl(NiFiCommandSender commandSender) {
+        this.commandSender = commandSender;
     }
     
     @Override
     public boolean updateAlert(AlertMessage alert) throws InvalidMessageException, InvalidContentException, UnknownServiceException, ServiceAdapterFaultException, UpdateException, ReadOnlyException {
         try {
-            
-            List<String> args = new ArrayList<>();
-            args.add(alert.getHeader().getMessageId());
-            args.add(alert.getHeader().getAlertStatus().name());
-            
-            niFiHTTPBroker.sendAlertingCommand("updateAlertMessage", Optional.of(args), true);
-            
-            return true;
+            return Futures.get(this.updateAlertAsync(alert));
         } catch (InvalidMessageException | ServiceAdapterFaultException | UpdateException | ReadOnlyException ex) {
             throw ex;
         } catch (Exception ex) {
@@ -62,4 +62,17 @@ public class AlertingImpl implements AlertingIntf {
         }
     }
     
+    /**
+     * Asynchronous version of {@link #updateAlert(org.socraticgrid.hl7.services.uc.model.AlertMessage)}.
+     * @param alert
+     * @return 
+     */
+    public CompletableFuture<Boolean> updateAlertAsync(AlertMessage alert) {
+        List<String> args = new ArrayList<>();
+        args.add(alert.getHeader().getMessageId());
+        args.add(alert.getHeader().getAlertStatus().name());
+
+        return Futures.map(commandSender.sendAlertingCommandAsync("updateAlertMessage", Optional.of(args)), result -> true);
+    }
+    
 }
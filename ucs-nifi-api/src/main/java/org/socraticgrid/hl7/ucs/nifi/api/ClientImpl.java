@@ -15,11 +15,16 @@
  */
 package org.socraticgrid.hl7.ucs.nifi.api;
 
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.slf4j.LoggerFactory;
 import org.socraticgrid.hl7.services.uc.exceptions.BadBodyException;
@@ -47,11 +52,19 @@ import org.socraticgrid.hl7.services.uc.model.MessageSummary;
 import org.socraticgrid.hl7.services.uc.model.QueryScope;
 import org.socraticgrid.hl7.services.uc.model.Recipient;
 import org.socraticgrid.hl7.services.uc.model.UserContactInfo;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageChanges;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageSubmissionResult;
 import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.model.Page;
 import org.socraticgrid.hl7.ucs.nifi.common.model.XMLListWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.query.MessageQuery;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageChangesSerializer;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializationException;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializer;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSubmissionResultSerializer;
+import org.socraticgrid.hl7.ucs.nifi.core.NiFiCommandBatch;
 import org.socraticgrid.hl7.ucs.nifi.core.NiFiCommandResponse;
+import org.socraticgrid.hl7.ucs.nifi.core.NiFiCommandSender;
 import org.socraticgrid.hl7.ucs.nifi.core.NiFiHTTPBroker;
 
 /**
@@ -62,83 +75,449 @@ public class ClientImpl implements ClientIntf {
 
     private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(ClientImpl.class);
     
+    public static final int DEFAULT_PAGE_SIZE = 500;
+    private static final String NEXT_CURSOR_HEADER = "Ucs.next.cursor";
+    
     private final NiFiHTTPBroker niFiHTTPBroker;
+    private final NiFiCommandSender commandSender;
+    private final MessageCache messageCache;
     
     protected ClientImpl(NiFiHTTPBroker niFiHTTPBroker) {
+        this(niFiHTTPBroker, null);
+    }
+    
+    /**
+     * @param niFiHTTPBroker
+     * @param messageCache the cache used to serve {@link #listMessages()} and
+     * {@link #queryMessage(java.lang.String)}. Can be null.
+     */
+    protected ClientImpl(NiFiHTTPBroker niFiHTTPBroker, MessageCache messageCache) {
+        this(niFiHTTPBroker, niFiHTTPBroker, messageCache);
+    }
+    
+    /**
+     * @param niFiHTTPBroker used to send messages.
+     * @param commandSender used to send commands: the broker itself or, to
+     * send the commands of this instance in a single request, a 
+     * {@link NiFiCommandBatch}.
+     * @param messageCache the cache used to serve {@link #listMessages()} and
+     * {@link #queryMessage(java.lang.String)}. Can be null.
+     */
+    protected ClientImpl(NiFiHTTPBroker niFiHTTPBroker, NiFiCommandSender commandSender, MessageCache messageCache) {
         this.niFiHTTPBroker = niFiHTTPBroker;
+        this.commandSender = commandSender;
+        this.messageCache = messageCache;
     }
     
     @Override
     public <T extends Message> String sendMessage(MessageModel<T> messageModel) throws InvalidMessageException, InvalidContentException, MissingBodyTypeException, BadBodyException, InvalidAddressException, UnknownServiceException, DeliveryException, MessageDeliveryTimeoutException, ServiceAdapterFaultException, UndeliverableMessageException, FeatureNotSupportedException, ServiceOfflineException, UpdateException, ReadOnlyException {
         try {
-            T message = messageModel.getMessageType();
-            
-            String messageId = message.getHeader().getMessageId();
-            if (messageId == null){
-                messageId = UUID.randomUUID().toString();
-                message.getHeader().setMessageId(messageId);
+            return Futures.get(this.sendMessageAsync(messageModel));
+        } catch (InvalidMessageException | UndeliverableMessageException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            LOG.error("Unexpected exception while sending message to Nifi.", ex);
+            throw new IllegalStateException("Unexpected exception while sending message to Nifi. Check the logs for more details.", ex);
+        }
+    }
+    
+    /**
+     * Asynchronous version of {@link #sendMessage(org.socraticgrid.hl7.services.uc.model.MessageModel)}.
+     * @param <T>
+     * @param messageModel
+     * @return a future completed with the id of the message or, exceptionally,
+     * with an InvalidMessageException or an UndeliverableMessageException.
+     */
+    public <T extends Message> CompletableFuture<String> sendMessageAsync(MessageModel<T> messageModel) {
+        T message = messageModel.getMessageType();
+
+        if (message.getHeader().getMessageId() == null){
+            message.getHeader().setMessageId(UUID.randomUUID().toString());
+        }
+        final String messageId = message.getHeader().getMessageId();
+        
+        CompletableFuture<String> result = new CompletableFuture<>();
+        niFiHTTPBroker.sendMessageAsync(message).whenComplete((v, error) -> {
+            if (error == null) {
+                this.invalidateMessageCache();
+                result.complete(messageId);
+                return;
             }
-            niFiHTTPBroker.sendMessage(message);
-            
-            return messageId;
+            Throwable cause = Futures.unwrap(error);
+            if (cause instanceof MessageSerializationException) {
+                LOG.error("Message coulnd't be serialized", cause);
+                result.completeExceptionally(new InvalidMessageException("Message coulnd't be serialized. Check the logs for more details."));
+            } else {
+                LOG.error("NiFi response was not OK", cause);
+                result.completeExceptionally(new UndeliverableMessageException("NiFi response was not OK. Check the logs for more details."));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Sends a batch of messages to UCS in a single request, even if this
+     * instance sends its commands through a {@link NiFiCommandBatch}.
+     * Messages without an id get a new one before being sent.
+     * Each message of the batch is validated independently by UCS: an
+     * invalid message doesn't prevent the rest of the batch from being
+     * processed.
+     * @param messageModels
+     * @return the validation result of each message, in the same order as
+     * the messages in the batch.
+     * @throws InvalidMessageException if the batch couldn't be serialized.
+     * @throws UndeliverableMessageException if UCS couldn't process the
+     * batch.
+     */
+    public List<MessageSubmissionResult> sendMessages(List<? extends MessageModel> messageModels) throws InvalidMessageException, UndeliverableMessageException {
+        try {
+            return Futures.get(this.sendMessagesAsync(messageModels));
+        } catch (InvalidMessageException | UndeliverableMessageException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            LOG.error("Unexpected exception while sending messages to Nifi.", ex);
+            throw new IllegalStateException("Unexpected exception while sending messages to Nifi. Check the logs for more details.", ex);
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #sendMessages(java.util.List)}.
+     * @param messageModels
+     * @return a future completed with the validation result of each message
+     * or, exceptionally, with an InvalidMessageException or an
+     * UndeliverableMessageException.
+     */
+    public CompletableFuture<List<MessageSubmissionResult>> sendMessagesAsync(List<? extends MessageModel> messageModels) {
+        List<MessageWrapper> messageWrappers = new ArrayList<>(messageModels.size());
+        for (MessageModel<?> messageModel : messageModels) {
+            Message message = messageModel.getMessageType();
+            if (message.getHeader().getMessageId() == null){
+                message.getHeader().setMessageId(UUID.randomUUID().toString());
+            }
+            messageWrappers.add(new MessageWrapper(message));
+        }
+
+        String serializedBatch;
+        try {
+            serializedBatch = MessageSerializer.serializeMessageWrappers(messageWrappers);
         } catch (MessageSerializationException ex) {
-            LOG.error("Message coulnd't be serialized", ex);
-            throw new InvalidMessageException("Message coulnd't be serialized. Check the logs for more details.");
-        } catch (IOException ex) {
-            LOG.error("NiFi response was not OK", ex);
-            throw new UndeliverableMessageException("NiFi response was not OK. Check the logs for more details.");
+            LOG.error("Messages coulnd't be serialized", ex);
+            return Futures.failed(new InvalidMessageException("Messages coulnd't be serialized. Check the logs for more details."));
         }
+
+        CompletableFuture<List<MessageSubmissionResult>> result = new CompletableFuture<>();
+        //the batch is the content of the request: it is never part of a
+        //NiFiCommandBatch.
+        niFiHTTPBroker.sendClientCommandAsync("sendMessages", serializedBatch).whenComplete((response, error) -> {
+            if (error == null) {
+                this.invalidateMessageCache();
+                try {
+                    result.complete(MessageSubmissionResultSerializer.deserializeMessageSubmissionResults(response.getBody()).getItems());
+                } catch (MessageSerializationException ex) {
+                    LOG.error("NiFi response couldn't be deserialized", ex);
+                    result.completeExceptionally(new UndeliverableMessageException("NiFi response couldn't be deserialized. Check the logs for more details."));
+                }
+                return;
+            }
+            LOG.error("NiFi response was not OK", Futures.unwrap(error));
+            result.completeExceptionally(new UndeliverableMessageException("NiFi response was not OK. Check the logs for more details."));
+        });
+        return result;
     }
-    
+
     /**
      * {@link #queryMessage(java.lang.String) } sometimes is not enough because 
      * {@link MessageSummary} doesn't contain all the information of a messages. 
      * For example, it doesn't contain the status of an {@link AlertMessage}.
      * For the cases where the entire message is required, consider using this
      * method.
+     * Messages are retrieved in pages of {@link #DEFAULT_PAGE_SIZE} messages
+     * or, if the session has a {@link MessageCache}, from the cache.
      * @return
      * @throws InvalidQueryException 
      */
     public List<Message> listMessages() throws InvalidQueryException {
         try {
-            NiFiCommandResponse result = niFiHTTPBroker.sendClientCommand("getMessages", Optional.empty(), true);
+            return Futures.get(this.listMessagesAsync());
+        } catch (Exception ex) {
+            LOG.error("Exception while sending command to Nifi.", ex);
+            throw new IllegalStateException("Exception while sending command to Nifi. Check the logs for more details.", ex);
+        }
+    }
+    
+    /**
+     * Asynchronous version of {@link #listMessages()}. Pages are requested 
+     * one after the other without blocking any thread.
+     * @return 
+     */
+    public CompletableFuture<List<Message>> listMessagesAsync() {
+        if (messageCache != null) {
+            return Futures.map(this.synchronizeMessageCache(), cache -> cache.getMessages());
+        }
+        return this.collectPages(cursor -> this.listMessagesAsync(cursor, DEFAULT_PAGE_SIZE), Optional.empty(), new ArrayList<>());
+    }
+    
+    /**
+     * Retrieves a single page of messages. The first page is retrieved using
+     * an empty cursor. The cursor of the returned page must be used to
+     * retrieve the next one.
+     * @param cursor
+     * @param pageSize
+     * @return
+     * @throws InvalidQueryException 
+     */
+    public Page<Message> listMessages(Optional<String> cursor, int pageSize) throws InvalidQueryException {
+        try {
+            return Futures.get(this.listMessagesAsync(cursor, pageSize));
+        } catch (Exception ex) {
+            LOG.error("Exception while sending command to Nifi.", ex);
+            throw new IllegalStateException("Exception while sending command to Nifi. Check the logs for more details.", ex);
+        }
+    }
+    
+    /**
+     * Asynchronous version of {@link #listMessages(java.util.Optional, int)}.
+     * @param cursor
+     * @param pageSize
+     * @return 
+     */
+    public CompletableFuture<Page<Message>> listMessagesAsync(Optional<String> cursor, int pageSize) {
+        return Futures.map(commandSender.sendClientCommandAsync("getMessages", Optional.of(this.createPagingArgs(cursor, pageSize))), result -> {
             
             XMLListWrapper<MessageWrapper> messageWrapper = MessageSerializer.deserializeMessageWrappers(result.getBody());
             
-            return messageWrapper.getItems().stream()
+            return new Page<>(messageWrapper.getItems().stream()
                     .map(mw -> mw.getMessage())
-                    .collect(Collectors.toList());
-            
+                    .collect(Collectors.toList()), this.getNextCursor(result));
+        });
+    }
+    
+    @Override
+    public List<MessageSummary> queryMessage(String query) throws InvalidQueryException {
+        try {
+            return Futures.get(this.queryMessageAsync(query));
+        } catch (InvalidQueryException ex) {
+            throw ex;
         } catch (Exception ex) {
             LOG.error("Exception while sending command to Nifi.", ex);
             throw new IllegalStateException("Exception while sending command to Nifi. Check the logs for more details.", ex);
         }
     }
     
-    @Override
-    public List<MessageSummary> queryMessage(String query) throws InvalidQueryException {
+    /**
+     * Asynchronous version of {@link #queryMessage(java.lang.String)}.
+     * If the session has a {@link MessageCache}, the query is evaluated
+     * against the cached messages.
+     * @param query
+     * @return a future completed with the summaries of every matching message
+     * or, exceptionally, with an InvalidQueryException if the query is not
+     * valid.
+     */
+    public CompletableFuture<List<MessageSummary>> queryMessageAsync(String query) {
+        if (messageCache != null) {
+            MessageQuery messageQuery;
+            try {
+                //fail fast
+                messageQuery = query == null || query.trim().isEmpty() ? MessageQuery.ALL : MessageQuery.parse(query);
+            } catch (IllegalArgumentException ex) {
+                return Futures.failed(new InvalidQueryException(ex.getMessage(), "", null));
+            }
+            return Futures.map(this.synchronizeMessageCache(), cache -> this.toMessageSummaries(cache.getMessages().stream()
+                    .filter(messageQuery::matches)
+                    .collect(Collectors.toList())));
+        }
+        return this.collectPages(cursor -> this.queryMessageAsync(query, cursor, DEFAULT_PAGE_SIZE), Optional.empty(), new ArrayList<>());
+    }
+    
+    /**
+     * Paginated version of {@link #queryMessage(java.lang.String)}.
+     * The query is evaluated by UCS, so only the matching messages are 
+     * retrieved. See {@link MessageQuery} for its syntax.
+     * @param query the query or null to retrieve all the messages.
+     * @param cursor
+     * @param pageSize
+     * @return
+     * @throws InvalidQueryException if the query is not valid.
+     */
+    public Page<MessageSummary> queryMessage(String query, Optional<String> cursor, int pageSize) throws InvalidQueryException {
         try {
-            NiFiCommandResponse result = niFiHTTPBroker.sendClientCommand("getMessages", Optional.empty(), true);
+            return Futures.get(this.queryMessageAsync(query, cursor, pageSize));
+        } catch (InvalidQueryException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            LOG.error("Exception while sending command to Nifi.", ex);
+            throw new IllegalStateException("Exception while sending command to Nifi. Check the logs for more details.", ex);
+        }
+    }
+    
+    /**
+     * Asynchronous version of 
+     * {@link #queryMessage(java.lang.String, java.util.Optional, int)}.
+     * @param query
+     * @param cursor
+     * @param pageSize
+     * @return 
+     */
+    public CompletableFuture<Page<MessageSummary>> queryMessageAsync(String query, Optional<String> cursor, int pageSize) {
+        List<String> args = this.createPagingArgs(cursor, pageSize);
+        if (query != null && !query.trim().isEmpty()) {
+            try {
+                //fail fast
+                args.add(MessageQuery.parse(query).toString());
+            } catch (IllegalArgumentException ex) {
+                return Futures.failed(new InvalidQueryException(ex.getMessage(), "", null));
+            }
+        }
+        
+        return Futures.map(commandSender.sendClientCommandAsync("getMessages", Optional.of(args)), result -> {
             
             XMLListWrapper<MessageWrapper> messageWrapper = MessageSerializer.deserializeMessageWrappers(result.getBody());
             
-            //TODO: this is only a hack to set some kind of Subject to messages
-            //without it. This MUST be removed in the future!
-            messageWrapper.getItems().parallelStream()
-                    .filter(mw -> mw.getMessage().getHeader().getSubject() == null)
-                    .filter(mw -> mw.getMessage().getParts() != null && mw.getMessage().getParts().length > 0)
-                    .forEach(mw -> mw.getMessage().getHeader().setSubject(mw.getMessage().getParts()[0].getContent()));
-                    
-            return messageWrapper.getItems().stream()
+            return new Page<>(this.toMessageSummaries(messageWrapper.getItems().stream()
                     .map(mw -> mw.getMessage())
-                    .map(m -> new MessageSummary(m.getHeader()))
-                    .collect(Collectors.toList());
-            
+                    .collect(Collectors.toList())), this.getNextCursor(result));
+        });
+    }
+    
+    private List<MessageSummary> toMessageSummaries(List<Message> messages) {
+        //TODO: this is only a hack to set some kind of Subject to messages
+        //without it. This MUST be removed in the future!
+        messages.stream()
+                .filter(m -> m.getHeader().getSubject() == null)
+                .filter(m -> m.getParts() != null && m.getParts().length > 0)
+                .forEach(m -> m.getHeader().setSubject(m.getParts()[0].getContent()));
+        
+        return messages.stream()
+                .map(m -> new MessageSummary(m.getHeader()))
+                .collect(Collectors.toList());
+    }
+    
+    /**
+     * Retrieves a page of the messages that were saved or updated and the 
+     * ids of the messages that were removed in UCS since the given sync 
+     * point. If no sync point is given or UCS doesn't know the changes after
+     * it (i.e. it was restarted since then), every message is returned, one
+     * page at a time, and the result is flagged as a full sync.
+     * While the result has a next cursor, it must be used to retrieve the 
+     * next page. The sync point of the last page is the one to be used 
+     * in the next synchronization.
+     * @param cursor the sync point or the next cursor returned by a previous
+     * call or empty to retrieve every message.
+     * @param pageSize
+     * @return a page of the changes.
+     */
+    public MessageChanges getMessageChanges(Optional<String> cursor, int pageSize) {
+        try {
+            return Futures.get(this.getMessageChangesAsync(cursor, pageSize));
         } catch (Exception ex) {
             LOG.error("Exception while sending command to Nifi.", ex);
             throw new IllegalStateException("Exception while sending command to Nifi. Check the logs for more details.", ex);
         }
     }
+    
+    /**
+     * Asynchronous version of {@link #getMessageChanges(Optional, int)}.
+     * @param cursor
+     * @param pageSize
+     * @return 
+     */
+    public CompletableFuture<MessageChanges> getMessageChangesAsync(Optional<String> cursor, int pageSize) {
+        return Futures.map(commandSender.sendClientCommandAsync("getMessagesSince", Optional.of(this.createPagingArgs(cursor, pageSize))), 
+                result -> MessageChangesSerializer.deserializeMessageChanges(result.getBody()));
+    }
+    
+    /**
+     * @return the cache used by this client or null if the session doesn't
+     * have one.
+     */
+    public MessageCache getMessageCache() {
+        return messageCache;
+    }
+    
+    /**
+     * Brings the cache up to date, if needed, requesting only the changes
+     * since its last synchronization.
+     */
+    private CompletableFuture<MessageCache> synchronizeMessageCache() {
+        if (!messageCache.needsSync()) {
+            messageCache.recordHit();
+            return CompletableFuture.completedFuture(messageCache);
+        }
+        messageCache.recordMiss();
+        long generation = messageCache.beginSync();
+        return Futures.map(this.collectMessageChanges(messageCache.getSyncPoint(), null), changes -> {
+            messageCache.completeSync(generation, changes);
+            return messageCache;
+        });
+    }
+    
+    /**
+     * Requests the pages of changes one after the other, starting from the
+     * given cursor, and merges them in the order they happened.
+     * If UCS restarts a full resync (i.e. after a delta page), the pages
+     * collected so far are discarded.
+     */
+    private CompletableFuture<MessageChanges> collectMessageChanges(Optional<String> cursor, MessageChanges result) {
+        return Futures.flatMap(this.getMessageChangesAsync(cursor, DEFAULT_PAGE_SIZE), page -> {
+            MessageChanges merged = page;
+            if (result != null && (!page.isFullSync() || (result.isFullSync() && result.getSyncPoint().equals(page.getSyncPoint())))) {
+                Map<String, MessageWrapper> messages = new LinkedHashMap<>();
+                result.getMessages().forEach(mw -> messages.put(mw.getMessage().getHeader().getMessageId(), mw));
+                Set<String> removedMessageIds = new LinkedHashSet<>(result.getRemovedMessageIds());
+                for (MessageWrapper mw : page.getMessages()) {
+                    String messageId = mw.getMessage().getHeader().getMessageId();
+                    removedMessageIds.remove(messageId);
+                    messages.put(messageId, mw);
+                }
+                for (String messageId : page.getRemovedMessageIds()) {
+                    messages.remove(messageId);
+                    removedMessageIds.add(messageId);
+                }
+                merged = new MessageChanges(new ArrayList<>(messages.values()), new ArrayList<>(removedMessageIds), 
+                        page.getSyncPoint(), result.isFullSync(), page.getNextCursor());
+            }
+            return merged.hasNext() 
+                    ? this.collectMessageChanges(Optional.of(merged.getNextCursor()), merged) 
+                    : CompletableFuture.completedFuture(merged);
+        });
+    }
+    
+    private void invalidateMessageCache() {
+        if (messageCache != null) {
+            messageCache.invalidate();
+        }
+    }
+    
+    /**
+     * Requests the pages one after the other, starting from the given 
+     * cursor, and collects their items.
+     */
+    private <T> CompletableFuture<List<T>> collectPages(Function<Optional<String>, CompletableFuture<Page<T>>> pageRequest, Optional<String> cursor, List<T> result) {
+        return Futures.flatMap(pageRequest.apply(cursor), page -> {
+            result.addAll(page.getItems());
+            return page.getNextCursor().isPresent() 
+                    ? this.collectPages(pageRequest, page.getNextCursor(), result) 
+                    : CompletableFuture.completedFuture(result);
+        });
+    }
+    
+    /**
+     * The paging arguments of 'getMessages' and 'getMessagesSince' commands
+     * are sent as a single argument: {@code <page size>[:<cursor>]}
+     */
+    private List<String> createPagingArgs(Optional<String> cursor, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be greater than 0: " + pageSize);
+        }
+        List<String> args = new ArrayList<>();
+        args.add(cursor.map(c -> pageSize + ":" + c).orElse(String.valueOf(pageSize)));
+        return args;
+    }
+    
+    private Optional<String> getNextCursor(NiFiCommandResponse response) {
+        String nextCursor = response.getHeaderAttributeFirstValue(NEXT_CURSOR_HEADER);
+        return nextCursor == null || nextCursor.isEmpty() ? Optional.empty() : Optional.of(nextCursor);
+    }
 
     @Override
     public boolean assertPresence(String userId, String context, String status) throws FeatureNotSupportedException, UnknownUserException {
@@ -148,10 +527,7 @@ public class ClientImpl implements ClientIntf {
     @Override
     public boolean cancelMessage(String messageId, boolean requireRetratcion) throws InvalidMessageException, FeatureNotSupportedException, ServiceOfflineException, ReadOnlyException {
         try{ 
-            List<String> args = new ArrayList<>();
-            args.add(messageId);
-            niFiHTTPBroker.sendClientCommand("cancelMessage", Optional.of(args), true);
-            return true;
+            return Futures.get(this.cancelMessageAsync(messageId, requireRetratcion));
         } catch (InvalidMessageException | FeatureNotSupportedException | ServiceOfflineException | ReadOnlyException ex) {
             throw ex;
         } catch (Exception ex) {
@@ -159,6 +535,21 @@ public class ClientImpl implements ClientIntf {
             throw new IllegalStateException("Unexpected exception while sending command to Nifi. Check the logs for more details.", ex);
         }
     }
+    
+    /**
+     * Asynchronous version of {@link #cancelMessage(java.lang.String, boolean)}.
+     * @param messageId
+     * @param requireRetratcion
+     * @return 
+     */
+    public CompletableFuture<Boolean> cancelMessageAsync(String messageId, boolean requireRetratcion) {
+        List<String> args = new ArrayList<>();
+        args.add(messageId);
+        return Futures.map(commandSender.sendClientCommandAsync("cancelMessage", Optional.of(args)), result -> {
+            this.invalidateMessageCache();
+            return true;
+        });
+    }
 
     @Override
     public <T extends Message> MessageModel<T> createMessage(MessageModel<T> BaseMessage) {
@@ -16,8 +16,10 @@
 package org.socraticgrid.hl7.ucs.nifi.api;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import static java.util.stream.Collectors.toList;
 import org.apache.commons.codec.binary.Base64;
 import org.slf4j.LoggerFactory;
@@ -43,8 +45,11 @@ import org.socraticgrid.hl7.services.uc.model.QueryFilter;
 import org.socraticgrid.hl7.ucs.nifi.common.model.ConversationInfoWrapper;
 import org.socraticgrid.hl7.ucs.nifi.common.model.ConversationWrapper;
 import org.socraticgrid.hl7.ucs.nifi.common.model.XMLListWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.query.MessageQuery;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.ConversationInfoSerializer;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.ConversationSerializer;
+import org.socraticgrid.hl7.ucs.nifi.core.NiFiCommandBatch;
+import org.socraticgrid.hl7.ucs.nifi.core.NiFiCommandSender;
 import org.socraticgrid.hl7.ucs.nifi.core.NiFiHTTPBroker;
 
 /**
@@ -55,25 +60,20 @@ public class ConversationImpl implements ConversationIntf {
     
     private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(ConversationImpl.class);
     
-    private final NiFiHTTPBroker niFiHTTPBroker;
+    private final NiFiCommandSender commandSender;
     
-    protected ConversationImpl(NiFiHTTPBroker niFiHTTPBroker) {
-        this.niFiHTTPBroker = niFiHTTPBroker;
+    /**
+     * @param commandSender a {@link NiFiHTTPBroker} or, to send the commands 
+     * of this instance in a single request, a {@link NiFiCommandBatch}.
+     */
+    protected ConversationImpl(NiFiCommandSender commandSender) {
+        this.commandSender = commandSender;
     }
 
     @Override
     public String createConversation(Conversation conversation) throws InvalidConversationException, InvalidContentException, MissingBodyTypeException, BadBodyException, InvalidAddressException, FeatureNotSupportedException, UnknownServiceException {
         try{ 
-            
-            List<String> parameters = new ArrayList<>();
-            parameters.add(Base64.encodeBase64String(ConversationSerializer.serializeConversationWrapper(new ConversationWrapper(conversation)).getBytes()));
-            
-            String serializedConversationWrapper = niFiHTTPBroker.sendConversationCommand("createConversation", Optional.of(parameters), true).getBody();
-            
-            ConversationWrapper conversationWrapper = ConversationSerializer.deserializeConversationWrapper(serializedConversationWrapper);
-            
-            return conversationWrapper.getConversation().getConversationId();
-            
+            return Futures.get(this.createConversationAsync(conversation));
         } catch (FeatureNotSupportedException | InvalidConversationException | MissingBodyTypeException | BadBodyException | InvalidAddressException | UnknownServiceException ex) {
             throw ex;
         } catch (Exception ex) {
@@ -81,6 +81,27 @@ public class ConversationImpl implements ConversationIntf {
             throw new IllegalStateException("Unexpected exception while sending command to Nifi. Check the logs for more details.", ex);
         }
     }
+    
+    /**
+     * Asynchronous version of {@link #createConversation(org.socraticgrid.hl7.services.uc.model.Conversation)}.
+     * @param conversation
+     * @return a future completed with the id of the new conversation.
+     */
+    public CompletableFuture<String> createConversationAsync(Conversation conversation) {
+        List<String> parameters = new ArrayList<>();
+        try {
+            parameters.add(Base64.encodeBase64String(ConversationSerializer.serializeConversationWrapper(new ConversationWrapper(conversation)).getBytes()));
+        } catch (Exception ex) {
+            return Futures.failed(ex);
+        }
+
+        return Futures.map(commandSender.sendConversationCommandAsync("createConversation", Optional.of(parameters)), result -> {
+            
+            ConversationWrapper conversationWrapper = ConversationSerializer.deserializeConversationWrapper(result.getBody());
+            
+            return conversationWrapper.getConversation().getConversationId();
+        });
+    }
 
     @Override
     public Conversation connectConverstation(String conversationId) throws InvalidConversationException, InvalidAddressException, UnknownServiceException, FeatureNotSupportedException, ServiceAdapterFaultException, UndeliverableMessageException, ReadOnlyException {
@@ -95,16 +116,7 @@ public class ConversationImpl implements ConversationIntf {
     @Override
     public List<Conversation> queryConversions(String query, List<QueryFilter> filters) throws FeatureNotSupportedException, InvalidQueryException {
         try{ 
-            
-            String serializedConversationWrapper = niFiHTTPBroker.sendConversationCommand("queryConversations", Optional.empty(), true).getBody();
-            
-            XMLListWrapper<ConversationWrapper> conversationWrapper = ConversationSerializer.deserializeConversationWrappers(serializedConversationWrapper);
-            
-            //unwrap the conversations
-            return conversationWrapper.getItems().stream()
-                    .map(cw -> cw.getConversation())
-                    .collect(toList());
-            
+            return Futures.get(this.queryConversationsAsync(query, filters));
         } catch (InvalidQueryException | FeatureNotSupportedException ex) {
             throw ex;
         } catch (Exception ex) {
@@ -112,20 +124,42 @@ public class ConversationImpl implements ConversationIntf {
             throw new IllegalStateException("Unexpected exception while sending command to Nifi. Check the logs for more details.", ex);
         }
     }
+    
+    /**
+     * Asynchronous version of {@link #queryConversions(java.lang.String, java.util.List)}.
+     * @param query
+     * @param filters
+     * @return a future completed with the matching conversations or, 
+     * exceptionally, with an InvalidQueryException if the query or the 
+     * filters are not valid.
+     */
+    public CompletableFuture<List<Conversation>> queryConversationsAsync(String query, List<QueryFilter> filters) {
+        Optional<List<String>> args = Optional.empty();
+        try {
+            //query and filters are sent as a single query evaluated by UCS.
+            MessageQuery messageQuery = MessageQuery.parse(query, filters);
+            if (!messageQuery.isEmpty()) {
+                args = Optional.of(Collections.singletonList(messageQuery.toString()));
+            }
+        } catch (IllegalArgumentException ex) {
+            return Futures.failed(new InvalidQueryException(ex.getMessage(), "", null));
+        }
+        
+        return Futures.map(commandSender.sendConversationCommandAsync("queryConversations", args), result -> {
+            
+            XMLListWrapper<ConversationWrapper> conversationWrapper = ConversationSerializer.deserializeConversationWrappers(result.getBody());
+            
+            //unwrap the conversations
+            return conversationWrapper.getItems().stream()
+                    .map(cw -> cw.getConversation())
+                    .collect(toList());
+        });
+    }
 
     @Override
     public ConversationInfo retrieveConversation(String conversationId) throws InvalidConversationException, FeatureNotSupportedException {
         try{ 
-            
-            List<String> parameters = new ArrayList<>();
-            parameters.add(conversationId);
-            
-            String serializedConversationInfoWrapper = niFiHTTPBroker.sendConversationCommand("retrieveConversation", Optional.of(parameters), true).getBody();
-            
-            ConversationInfoWrapper conversationInfoWrapper = ConversationInfoSerializer.deserializeConversationInfoWrapper(serializedConversationInfoWrapper);
-            
-            return conversationInfoWrapper.getConversationInfo();
-            
+            return Futures.get(this.retrieveConversationAsync(conversationId));
         } catch (InvalidConversationException | FeatureNotSupportedException ex) {
             throw ex;
         } catch (Exception ex) {
@@ -133,6 +167,23 @@ public class ConversationImpl implements ConversationIntf {
             throw new IllegalStateException("Unexpected exception while sending command to Nifi. Check the logs for more details.", ex);
         }
     }
+    
+    /**
+     * Asynchronous version of {@link #retrieveConversation(java.lang.String)}.
+     * @param conversationId
+     * @return 
+     */
+    public CompletableFuture<ConversationInfo> retrieveConversationAsync(String conversationId) {
+        List<String> parameters = new ArrayList<>();
+        parameters.add(conversationId);
+
+        return Futures.map(commandSender.sendConversationCommandAsync("retrieveConversation", Optional.of(parameters)), result -> {
+            
+            ConversationInfoWrapper conversationInfoWrapper = ConversationInfoSerializer.deserializeConversationInfoWrapper(result.getBody());
+            
+            return conversationInfoWrapper.getConversationInfo();
+        });
+    }
 
     @Override
     public boolean updateConversation(String conversationId, Conversation conversation) throws FeatureNotSupportedException, InvalidConversationException, InvalidAddressException, UnknownServiceException, ServiceAdapterFaultException, UpdateException, ReadOnlyException {
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.api;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Helpers to build the asynchronous methods of the API (and the blocking
+ * ones on top of them).
+ *
+ * @author esteban
+ */
+final class Futures {
+
+    interface CheckedFunction<T, R> {
+
+        R apply(T t) throws Exception;
+    }
+
+    private Futures() {
+    }
+
+    public static <T> CompletableFuture<T> failed(Throwable t) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(t);
+        return future;
+    }
+
+    /**
+     * Like {@link CompletableFuture#thenApply(java.util.function.Function)}
+     * but the function can throw checked exceptions. The returned future
+     * fails with the exception itself, not wrapped. Cancelling the returned
+     * future cancels the original one.
+     */
+    public static <T, R> CompletableFuture<R> map(CompletableFuture<T> future, CheckedFunction<? super T, ? extends R> function) {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        future.whenComplete((value, error) -> {
+            if (error != null) {
+                result.completeExceptionally(unwrap(error));
+                return;
+            }
+            try {
+                result.complete(function.apply(value));
+            } catch (Exception ex) {
+                result.completeExceptionally(ex);
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                future.cancel(false);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Like {@link CompletableFuture#thenCompose(java.util.function.Function)}
+     * but the function can throw checked exceptions.
+     */
+    public static <T, R> CompletableFuture<R> flatMap(CompletableFuture<T> future, CheckedFunction<? super T, CompletableFuture<R>> function) {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        CompletableFuture<CompletableFuture<R>> mapped = map(future, function);
+        mapped.whenComplete((next, error) -> {
+            if (error != null) {
+                result.completeExceptionally(unwrap(error));
+            } else {
+                next.whenComplete((value, nextError) -> {
+                    if (nextError != null) {
+                        result.completeExceptionally(unwrap(nextError));
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                if (!mapped.cancel(false) && !mapped.isCompletedExceptionally()) {
+                    //already mapped: cancel the next future instead.
+                    mapped.join().cancel(false);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Waits for the future and throws the exception it failed with, as is.
+     * This is how the blocking methods of the API are implemented on top of
+     * their asynchronous versions.
+     */
+    public static <T> T get(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            future.cancel(false);
+            throw ex;
+        } catch (ExecutionException ex) {
+            Throwable cause = unwrap(ex);
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw ex;
+        }
+    }
+
+    public static Throwable unwrap(Throwable t) {
+        while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+}
@@ -18,6 +18,7 @@ package org.socraticgrid.hl7.ucs.nifi.api;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import org.slf4j.LoggerFactory;
 import org.socraticgrid.hl7.services.uc.exceptions.FeatureNotSupportedException;
 import org.socraticgrid.hl7.services.uc.exceptions.InvalidContentException;
@@ -40,7 +41,8 @@ import org.socraticgrid.hl7.ucs.nifi.common.model.UCSStatus;
 import org.socraticgrid.hl7.ucs.nifi.common.model.XMLListWrapper;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.AdapterSerializer;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.UCSStatusSerializer;
-import org.socraticgrid.hl7.ucs.nifi.core.NiFiCommandResponse;
+import org.socraticgrid.hl7.ucs.nifi.core.NiFiCommandBatch;
+import org.socraticgrid.hl7.ucs.nifi.core.NiFiCommandSender;
 import org.socraticgrid.hl7.ucs.nifi.core.NiFiHTTPBroker;
 
 /**
@@ -51,16 +53,34 @@ public class ManagementImpl implements ManagementIntf {
     
     private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(ClientImpl.class);
     
-    private final NiFiHTTPBroker niFiHTTPBroker;
+    private final NiFiCommandSender commandSender;
     
-    protected ManagementImpl(NiFiHTTPBroker niFiHTTPBroker) {
-        this.niFiHTTPBroker = niFiHTTPBroker;
+    /**
+     * @param commandSender a {@link NiFiHTTPBroker} or, to send the commands 
+     * of this instance in a single request, a {@link NiFiCommandBatch}.
+     */
+    protected ManagementImpl(NiFiCommandSender commandSender) {
+        this.commandSender = commandSender;
     }
 
     @Override
     public List<ServiceInfo> discoverChannels() throws FeatureNotSupportedException {
         try{ 
-            NiFiCommandResponse result =  niFiHTTPBroker.sendManagementCommand("discoverChannels", Optional.empty(), true);
+            return Futures.get(this.discoverChannelsAsync());
+        } catch (FeatureNotSupportedException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            LOG.error("Unexpected exception while sending command to Nifi.", ex);
+            throw new IllegalStateException("Unexpected exception while sending command to Nifi. Check the logs for more details.", ex);
+        }
+    }
+    
+    /**
+     * Asynchronous version of {@link #discoverChannels()}.
+     * @return 
+     */
+    public CompletableFuture<List<ServiceInfo>> discoverChannelsAsync() {
+        return Futures.map(commandSender.sendManagementCommandAsync("discoverChannels", Optional.empty()), result -> {
             
             XMLListWrapper<Adapter> deserializedAdapters = AdapterSerializer.deserializeAdapters(result.getBody());
 
@@ -71,12 +91,7 @@ public class ManagementImpl implements ManagementIntf {
                     .forEach(results::add);
             
             return results;
-        } catch (FeatureNotSupportedException ex) {
-            throw ex;
-        } catch (Exception ex) {
-            LOG.error("Unexpected exception while sending command to Nifi.", ex);
-            throw new IllegalStateException("Unexpected exception while sending command to Nifi. Check the logs for more details.", ex);
-        }
+        });
     }
 
     @Override
@@ -92,7 +107,23 @@ public class ManagementImpl implements ManagementIntf {
     @Override
     public List<Status> getStatus(String capablityType, List<String> capabilityIds) throws InvalidMessageException, InvalidContentException, InvalidConversationException, UnknownServiceException, ServiceAdapterFaultException, FeatureNotSupportedException {
         try{ 
-            NiFiCommandResponse result =  niFiHTTPBroker.sendManagementCommand("getStatus", Optional.empty(), true);
+            return Futures.get(this.getStatusAsync(capablityType, capabilityIds));
+        } catch (FeatureNotSupportedException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            LOG.error("Unexpected exception while sending command to Nifi.", ex);
+            throw new IllegalStateException("Unexpected exception while sending command to Nifi. Check the logs for more details.", ex);
+        }
+    }
+    
+    /**
+     * Asynchronous version of {@link #getStatus(java.lang.String, java.util.List)}.
+     * @param capablityType
+     * @param capabilityIds
+     * @return 
+     */
+    public CompletableFuture<List<Status>> getStatusAsync(String capablityType, List<String> capabilityIds) {
+        return Futures.map(commandSender.sendManagementCommandAsync("getStatus", Optional.empty()), result -> {
             
             UCSStatus deserializedStatus = UCSStatusSerializer.deserializeUCSStatus(result.getBody());
 
@@ -108,12 +139,7 @@ public class ManagementImpl implements ManagementIntf {
                     .forEach(results::add);
             
             return results;
-        } catch (FeatureNotSupportedException ex) {
-            throw ex;
-        } catch (Exception ex) {
-            LOG.error("Unexpected exception while sending command to Nifi.", ex);
-            throw new IllegalStateException("Unexpected exception while sending command to Nifi. Check the logs for more details.", ex);
-        }
+        });
     }
 
     @Override
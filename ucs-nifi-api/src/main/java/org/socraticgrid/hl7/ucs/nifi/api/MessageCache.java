@@ -0,0 +1,386 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.api;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import org.socraticgrid.hl7.services.uc.exceptions.BadBodyException;
+import org.socraticgrid.hl7.services.uc.exceptions.FeatureNotSupportedException;
+import org.socraticgrid.hl7.services.uc.exceptions.InvalidContentException;
+import org.socraticgrid.hl7.services.uc.exceptions.InvalidMessageException;
+import org.socraticgrid.hl7.services.uc.exceptions.MissingBodyTypeException;
+import org.socraticgrid.hl7.services.uc.exceptions.ProcessingException;
+import org.socraticgrid.hl7.services.uc.exceptions.ServiceAdapterFaultException;
+import org.socraticgrid.hl7.services.uc.exceptions.UndeliverableMessageException;
+import org.socraticgrid.hl7.services.uc.interfaces.UCSAlertingIntf;
+import org.socraticgrid.hl7.services.uc.interfaces.UCSClientIntf;
+import org.socraticgrid.hl7.services.uc.model.Conversation;
+import org.socraticgrid.hl7.services.uc.model.DeliveryAddress;
+import org.socraticgrid.hl7.services.uc.model.Message;
+import org.socraticgrid.hl7.services.uc.model.MessageModel;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageChanges;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
+
+/**
+ * Local copy of the messages of UCS used by {@link ClientImpl} to serve
+ * {@link ClientImpl#listMessages()} and
+ * {@link ClientImpl#queryMessage(java.lang.String)} without downloading the
+ * whole message store on every call.
+ *
+ * The cache is kept up to date by the UCSClient and UCSAlerting callbacks of
+ * the session it belongs to. Whenever it needs to be synchronized (the first
+ * time it is used, after {@link #invalidate()} or when it gets older than
+ * its max. staleness) only the messages modified or removed since the last
+ * synchronization are requested to UCS. A cached message is never replaced
+ * by an older version of it (see {@link #put(Message)}).
+ *
+ * Instances are created using {@link Builder} and enabled using
+ * {@link UCSNiFiSession.UCSNiFiSessionBuilder#withMessageCache(MessageCache)}.
+ *
+ * @author esteban
+ */
+public class MessageCache {
+
+    public static class Builder {
+
+        private long maxStalenessMillis = 60000;
+
+        /**
+         * @param maxStalenessMillis time after which the cache is
+         * synchronized with UCS even if it was not invalidated. A value of 0
+         * means that the cache only relies on the callbacks. Default: 60000.
+         * @return
+         */
+        public Builder withMaxStalenessMillis(long maxStalenessMillis) {
+            this.maxStalenessMillis = maxStalenessMillis;
+            return this;
+        }
+
+        public MessageCache build() {
+            if (maxStalenessMillis < 0) {
+                throw new IllegalArgumentException("Invalid max. staleness: " + maxStalenessMillis);
+            }
+            return new MessageCache(this);
+        }
+    }
+
+    private static class Entry {
+
+        //keeps the order in which messages were first seen.
+        private final long sequence;
+        private volatile Message message;
+
+        public Entry(long sequence, Message message) {
+            this.sequence = sequence;
+            this.message = message;
+        }
+    }
+
+    private final long maxStalenessMillis;
+
+    private final ConcurrentMap<String, Entry> messages = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    //incremented each time the cache is invalidated.
+    private final AtomicLong generation = new AtomicLong();
+    private volatile long synchronizedGeneration = -1;
+    //synchronizations started before this generation are discarded.
+    private volatile long clearedGeneration = 0;
+    //sync point returned by the last synchronization.
+    private volatile String syncPoint;
+    //local time of the last synchronization.
+    private volatile long lastSyncTime = 0;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder syncCount = new LongAdder();
+    private final LongAdder callbackUpdateCount = new LongAdder();
+
+    private MessageCache(Builder builder) {
+        this.maxStalenessMillis = builder.maxStalenessMillis;
+    }
+
+    /**
+     * @param messageId
+     * @return the cached version of the message, if any.
+     */
+    public Optional<Message> getMessage(String messageId) {
+        Entry entry = messageId == null ? null : messages.get(messageId);
+        return entry == null ? Optional.empty() : Optional.of(entry.message);
+    }
+
+    /**
+     * @return the cached messages in the order they were first seen.
+     */
+    public List<Message> getMessages() {
+        return messages.values().stream()
+                .sorted(Comparator.comparingLong(e -> e.sequence))
+                .map(e -> e.message)
+                .collect(Collectors.toList());
+    }
+
+    public int size() {
+        return messages.size();
+    }
+
+    /**
+     * Adds or replaces a message. The cached version is kept if it was
+     * modified after the given one (UCS sets the last modified date of a 
+     * message each time it is saved or updated).
+     * @param message
+     */
+    public void put(Message message) {
+        if (message == null || message.getHeader() == null || message.getHeader().getMessageId() == null) {
+            return;
+        }
+        messages.compute(message.getHeader().getMessageId(), (id, entry) -> {
+            if (entry == null) {
+                return new Entry(sequence.incrementAndGet(), message);
+            }
+            if (!isOlder(message, entry.message)) {
+                entry.message = message;
+            }
+            return entry;
+        });
+    }
+
+    private static boolean isOlder(Message message, Message other) {
+        Date lastModified = message.getHeader().getLastModified();
+        Date otherLastModified = other.getHeader() == null ? null : other.getHeader().getLastModified();
+        return lastModified != null && otherLastModified != null && lastModified.before(otherLastModified);
+    }
+
+    /**
+     * Removes a message.
+     * @param messageId
+     */
+    public void remove(String messageId) {
+        if (messageId != null) {
+            messages.remove(messageId);
+        }
+    }
+
+    public void putAll(Collection<? extends Message> messages) {
+        messages.forEach(this::put);
+    }
+
+    /**
+     * Forces a synchronization with UCS the next time the cache is read.
+     * Only the changes since the last synchronization are requested. It
+     * should be invoked when the callbacks of the session may have been
+     * missed (i.e. after a reconnection).
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Removes every message. The next synchronization retrieves every
+     * message from UCS.
+     */
+    public synchronized void clear() {
+        messages.clear();
+        syncPoint = null;
+        clearedGeneration = generation.incrementAndGet();
+    }
+
+    /**
+     * @return whether the cache must be synchronized with UCS before being
+     * read.
+     */
+    public boolean needsSync() {
+        if (synchronizedGeneration != generation.get()) {
+            return true;
+        }
+        return maxStalenessMillis > 0 && System.currentTimeMillis() - lastSyncTime > maxStalenessMillis;
+    }
+
+    /**
+     * @return the sync point returned by UCS in the last synchronization. 
+     * Empty if the cache was never synchronized.
+     */
+    public Optional<String> getSyncPoint() {
+        return Optional.ofNullable(syncPoint);
+    }
+
+    public long getMaxStalenessMillis() {
+        return maxStalenessMillis;
+    }
+
+    /**
+     * @return number of reads served without contacting UCS.
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * @return number of reads that required a synchronization with UCS.
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public double getHitRatio() {
+        long hits = hitCount.sum();
+        long total = hits + missCount.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public long getSyncCount() {
+        return syncCount.sum();
+    }
+
+    /**
+     * @return number of messages updated by the callbacks of the session.
+     */
+    public long getCallbackUpdateCount() {
+        return callbackUpdateCount.sum();
+    }
+
+    void recordHit() {
+        hitCount.increment();
+    }
+
+    void recordMiss() {
+        missCount.increment();
+    }
+
+    /**
+     * @return the generation to be passed to
+     * {@link #completeSync(long, MessageChanges)}.
+     */
+    long beginSync() {
+        return generation.get();
+    }
+
+    /**
+     * Merges the result of a synchronization. An invalidation that happened
+     * while the synchronization was running is not lost.
+     * After a full sync, the messages UCS didn't return are removed: any
+     * message created after the full sync was taken is returned by the next
+     * synchronization.
+     */
+    synchronized void completeSync(long generation, MessageChanges changes) {
+        if (generation < this.clearedGeneration) {
+            //the cache was cleared while this synchronization was running.
+            return;
+        }
+        List<Message> modifiedMessages = changes.getMessages().stream()
+                .map(MessageWrapper::getMessage)
+                .collect(Collectors.toList());
+        if (changes.isFullSync()) {
+            Set<String> messageIds = modifiedMessages.stream()
+                    .map(m -> m.getHeader().getMessageId())
+                    .collect(Collectors.toSet());
+            this.messages.keySet().retainAll(messageIds);
+        }
+        this.putAll(modifiedMessages);
+        changes.getRemovedMessageIds().forEach(this::remove);
+        this.syncPoint = changes.getSyncPoint();
+        this.lastSyncTime = System.currentTimeMillis();
+        this.synchronizedGeneration = Math.max(this.synchronizedGeneration, generation);
+        syncCount.increment();
+    }
+
+    private void callbackUpdate(MessageModel<?> messageModel) {
+        if (messageModel != null) {
+            this.put(messageModel.getMessageType());
+            callbackUpdateCount.increment();
+        }
+    }
+
+    /**
+     * @param listener the listener of the session. Can be null.
+     * @return a listener that updates this cache before notifying the given
+     * one.
+     */
+    UCSClientIntf wrap(final UCSClientIntf listener) {
+        return new UCSClientIntf() {
+
+            @Override
+            public boolean callReady(Conversation conversation, String callHandle, String serverId) {
+                return listener != null && listener.callReady(conversation, callHandle, serverId);
+            }
+
+            @Override
+            public <T extends Message> boolean handleException(MessageModel<T> messageModel, DeliveryAddress sender, DeliveryAddress receiver, ProcessingException exp, String serverId) {
+                return listener != null && listener.handleException(messageModel, sender, receiver, exp, serverId);
+            }
+
+            @Override
+            public <T extends Message> boolean handleNotification(MessageModel<T> messageModel, String serverId) {
+                return listener != null && listener.handleNotification(messageModel, serverId);
+            }
+
+            @Override
+            public <T extends Message> MessageModel<T> handleResponse(MessageModel<T> messageModel, String serverId) throws InvalidMessageException, InvalidContentException, MissingBodyTypeException, BadBodyException, ServiceAdapterFaultException, UndeliverableMessageException, FeatureNotSupportedException {
+                callbackUpdate(messageModel);
+                return listener == null ? null : listener.handleResponse(messageModel, serverId);
+            }
+
+            @Override
+            public <T extends Message> boolean receiveMessage(MessageModel<T> messageModel, String serverId) {
+                callbackUpdate(messageModel);
+                return listener != null && listener.receiveMessage(messageModel, serverId);
+            }
+        };
+    }
+
+    /**
+     * @param listener the listener of the session. Can be null.
+     * @return a listener that updates this cache before notifying the given
+     * one.
+     */
+    UCSAlertingIntf wrap(final UCSAlertingIntf listener) {
+        return new UCSAlertingIntf() {
+
+            @Override
+            public <T extends Message> boolean receiveAlertMessage(MessageModel<T> messageModel, List<String> localReceivers, String serverId) {
+                callbackUpdate(messageModel);
+                return listener != null && listener.receiveAlertMessage(messageModel, localReceivers, serverId);
+            }
+
+            @Override
+            public <T extends Message> boolean updateAlertMessage(MessageModel<T> newMessageModel, MessageModel<T> oldMessageModel, List<String> localReceivers, String serverId) {
+                callbackUpdate(newMessageModel);
+                return listener != null && listener.updateAlertMessage(newMessageModel, oldMessageModel, localReceivers, serverId);
+            }
+
+            @Override
+            public <T extends Message> boolean cancelAlertMessage(MessageModel<T> messageModel, List<String> localReceivers, String serverId) {
+                callbackUpdate(messageModel);
+                return listener != null && listener.cancelAlertMessage(messageModel, localReceivers, serverId);
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "MessageCache{" + "size=" + size() + ", maxStalenessMillis=" + maxStalenessMillis + ", syncPoint=" + syncPoint
+                + ", hitCount=" + getHitCount() + ", missCount=" + getMissCount() + ", syncCount=" + getSyncCount()
+                + ", callbackUpdateCount=" + getCallbackUpdateCount() + '}';
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.api;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.socraticgrid.hl7.services.uc.exceptions.ProcessingException;
+import org.socraticgrid.hl7.services.uc.model.DeliveryAddress;
+import org.socraticgrid.hl7.services.uc.model.Message;
+import org.socraticgrid.hl7.services.uc.model.MessageModel;
+import org.socraticgrid.hl7.ucs.nifi.common.query.QueryField;
+
+/**
+ * A callback received from UCS, as published by {@link MessagePublisher}.
+ * Each type of event corresponds to a method of UCSClientIntf or
+ * UCSAlertingIntf. The fields that don't apply to a type of event are null.
+ *
+ * @author esteban
+ */
+public class MessageEvent {
+
+    public static enum Type {
+        /**
+         * UCSClientIntf.receiveMessage()
+         */
+        MESSAGE_RECEIVED,
+        /**
+         * UCSClientIntf.handleResponse()
+         */
+        RESPONSE,
+        /**
+         * UCSClientIntf.handleNotification()
+         */
+        NOTIFICATION,
+        /**
+         * UCSClientIntf.handleException()
+         */
+        EXCEPTION,
+        /**
+         * UCSAlertingIntf.receiveAlertMessage()
+         */
+        ALERT_RECEIVED,
+        /**
+         * UCSAlertingIntf.updateAlertMessage()
+         */
+        ALERT_UPDATED,
+        /**
+         * UCSAlertingIntf.cancelAlertMessage()
+         */
+        ALERT_CANCELED;
+    }
+
+    private final Type type;
+    private final MessageModel<?> messageModel;
+    private final MessageModel<?> oldMessageModel;
+    private final ProcessingException exception;
+    private final DeliveryAddress sender;
+    private final DeliveryAddress receiver;
+    private final List<String> localReceivers;
+    private final String serverId;
+    private final long timestamp = System.currentTimeMillis();
+
+    MessageEvent(Type type, MessageModel<?> messageModel, MessageModel<?> oldMessageModel, ProcessingException exception, DeliveryAddress sender, DeliveryAddress receiver, List<String> localReceivers, String serverId) {
+        this.type = type;
+        this.messageModel = messageModel;
+        this.oldMessageModel = oldMessageModel;
+        this.exception = exception;
+        this.sender = sender;
+        this.receiver = receiver;
+        this.localReceivers = localReceivers;
+        this.serverId = serverId;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public MessageModel<?> getMessageModel() {
+        return messageModel;
+    }
+
+    /**
+     * @return the message of this event or null if it doesn't have one.
+     */
+    public Message getMessage() {
+        return messageModel == null ? null : messageModel.getMessageType();
+    }
+
+    /**
+     * @return the previous version of the message of an
+     * {@link Type#ALERT_UPDATED} event.
+     */
+    public MessageModel<?> getOldMessageModel() {
+        return oldMessageModel;
+    }
+
+    /**
+     * @return the exception of an {@link Type#EXCEPTION} event.
+     */
+    public ProcessingException getException() {
+        return exception;
+    }
+
+    public DeliveryAddress getSender() {
+        return sender;
+    }
+
+    public DeliveryAddress getReceiver() {
+        return receiver;
+    }
+
+    /**
+     * @return the local receivers of an alerting event.
+     */
+    public List<String> getLocalReceivers() {
+        return localReceivers;
+    }
+
+    public String getServerId() {
+        return serverId;
+    }
+
+    /**
+     * @return the local time this event was received.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the id of the conversation the message of this event belongs
+     * to, if any.
+     */
+    public String getConversationId() {
+        Message message = this.getMessage();
+        return message == null || message.getHeader() == null ? null : message.getHeader().getRelatedConversationId();
+    }
+
+    /**
+     * @return the service ids (i.e. 'SMS', 'ALERT') of the sender and the
+     * recipients of the message of this event and, for
+     * {@link Type#EXCEPTION} events, of the sender and receiver that failed.
+     */
+    public Set<String> getServiceIds() {
+        Set<String> serviceIds = new HashSet<>();
+        Message message = this.getMessage();
+        if (message != null && message.getHeader() != null) {
+            serviceIds.addAll(QueryField.SERVICE_ID.valuesOf(message));
+        }
+        for (DeliveryAddress address : new DeliveryAddress[]{sender, receiver}) {
+            if (address != null && address.getPhysicalAddress() != null && address.getPhysicalAddress().getServiceId() != null) {
+                serviceIds.add(address.getPhysicalAddress().getServiceId());
+            }
+        }
+        return Collections.unmodifiableSet(serviceIds);
+    }
+
+    @Override
+    public String toString() {
+        Message message = this.getMessage();
+        return "MessageEvent{" + "type=" + type + ", messageId=" + (message == null || message.getHeader() == null ? null : message.getHeader().getMessageId()) + ", serverId=" + serverId + ", timestamp=" + timestamp + '}';
+    }
+}
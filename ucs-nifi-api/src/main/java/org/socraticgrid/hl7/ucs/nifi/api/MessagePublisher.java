@@ -0,0 +1,429 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.api;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socraticgrid.hl7.services.uc.exceptions.BadBodyException;
+import org.socraticgrid.hl7.services.uc.exceptions.FeatureNotSupportedException;
+import org.socraticgrid.hl7.services.uc.exceptions.InvalidContentException;
+import org.socraticgrid.hl7.services.uc.exceptions.InvalidMessageException;
+import org.socraticgrid.hl7.services.uc.exceptions.MissingBodyTypeException;
+import org.socraticgrid.hl7.services.uc.exceptions.ProcessingException;
+import org.socraticgrid.hl7.services.uc.exceptions.ServiceAdapterFaultException;
+import org.socraticgrid.hl7.services.uc.exceptions.UndeliverableMessageException;
+import org.socraticgrid.hl7.services.uc.interfaces.UCSAlertingIntf;
+import org.socraticgrid.hl7.services.uc.interfaces.UCSClientIntf;
+import org.socraticgrid.hl7.services.uc.model.Conversation;
+import org.socraticgrid.hl7.services.uc.model.DeliveryAddress;
+import org.socraticgrid.hl7.services.uc.model.Message;
+import org.socraticgrid.hl7.services.uc.model.MessageModel;
+
+/**
+ * Publishes the UCSClient and UCSAlerting callbacks of a session as a stream
+ * of {@link MessageEvent}, as an alternative to the listeners of the
+ * session.
+ *
+ * Each subscription has its own bounded buffer and its events are delivered
+ * to its {@link MessageSubscriber} using the executor of the publisher, only
+ * as they are requested (see {@link MessageSubscription#request(long)}). A
+ * slow subscriber never blocks the notification of the callbacks: once its
+ * buffer is full, the {@link MessageSubscriptionOptions.OverflowStrategy} of
+ * the subscription is applied.
+ *
+ * Every session has a publisher (see
+ * {@link UCSNiFiSession#getMessagePublisher()}). Instances are created using
+ * {@link Builder}.
+ *
+ * @author esteban
+ */
+public class MessagePublisher implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MessagePublisher.class);
+
+    public static class Builder {
+
+        private Executor executor;
+
+        /**
+         * @param executor the executor used to deliver the events to the
+         * subscribers. By default, the publisher uses its own cached pool of
+         * daemon threads.
+         * @return
+         */
+        public Builder withExecutor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public MessagePublisher build() {
+            return new MessagePublisher(this);
+        }
+    }
+
+    private final Executor executor;
+
+    private final Set<SubscriptionImpl> subscriptions = new CopyOnWriteArraySet<>();
+    private volatile boolean closed;
+
+    private final LongAdder publishedCount = new LongAdder();
+
+    private MessagePublisher(Builder builder) {
+        if (builder.executor != null) {
+            this.executor = builder.executor;
+        } else {
+            //idle threads are discarded after a minute.
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "ucs-publisher-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Subscribes to every event using the default
+     * {@link MessageSubscriptionOptions}.
+     * @param subscriber
+     */
+    public void subscribe(MessageSubscriber subscriber) {
+        this.subscribe(subscriber, new MessageSubscriptionOptions.Builder().build());
+    }
+
+    /**
+     * Subscribes to the events accepted by the given options.
+     * {@link MessageSubscriber#onSubscribe(MessageSubscription)} is invoked
+     * before this method returns. No event is delivered until it is
+     * requested.
+     * @param subscriber
+     * @param options
+     */
+    public void subscribe(MessageSubscriber subscriber, MessageSubscriptionOptions options) {
+        if (subscriber == null || options == null) {
+            throw new NullPointerException("Subscriber and options are required");
+        }
+        SubscriptionImpl subscription = new SubscriptionImpl(subscriber, options);
+        subscriptions.add(subscription);
+        subscription.start();
+        if (closed) {
+            subscription.complete();
+        }
+    }
+
+    /**
+     * @return number of active subscriptions.
+     */
+    public int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * @return number of events received from the callbacks of the session.
+     */
+    public long getPublishedCount() {
+        return publishedCount.sum();
+    }
+
+    /**
+     * Completes every subscription once their buffered events are requested
+     * and delivered. The events published afterwards are ignored.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        subscriptions.forEach(SubscriptionImpl::complete);
+    }
+
+    void publish(MessageEvent event) {
+        if (closed) {
+            return;
+        }
+        publishedCount.increment();
+        for (SubscriptionImpl subscription : subscriptions) {
+            if (subscription.options.accepts(event)) {
+                subscription.offer(event);
+            }
+        }
+    }
+
+    /**
+     * @param listener the listener of the session. Can be null.
+     * @return a listener that publishes every callback before notifying the
+     * given one.
+     */
+    UCSClientIntf wrap(final UCSClientIntf listener) {
+        return new UCSClientIntf() {
+
+            @Override
+            public boolean callReady(Conversation conversation, String callHandle, String serverId) {
+                return listener != null && listener.callReady(conversation, callHandle, serverId);
+            }
+
+            @Override
+            public <T extends Message> boolean handleException(MessageModel<T> messageModel, DeliveryAddress sender, DeliveryAddress receiver, ProcessingException exp, String serverId) {
+                publish(new MessageEvent(MessageEvent.Type.EXCEPTION, messageModel, null, exp, sender, receiver, null, serverId));
+                return listener != null && listener.handleException(messageModel, sender, receiver, exp, serverId);
+            }
+
+            @Override
+            public <T extends Message> boolean handleNotification(MessageModel<T> messageModel, String serverId) {
+                publish(new MessageEvent(MessageEvent.Type.NOTIFICATION, messageModel, null, null, null, null, null, serverId));
+                return listener != null && listener.handleNotification(messageModel, serverId);
+            }
+
+            @Override
+            public <T extends Message> MessageModel<T> handleResponse(MessageModel<T> messageModel, String serverId) throws InvalidMessageException, InvalidContentException, MissingBodyTypeException, BadBodyException, ServiceAdapterFaultException, UndeliverableMessageException, FeatureNotSupportedException {
+                publish(new MessageEvent(MessageEvent.Type.RESPONSE, messageModel, null, null, null, null, null, serverId));
+                return listener == null ? null : listener.handleResponse(messageModel, serverId);
+            }
+
+            @Override
+            public <T extends Message> boolean receiveMessage(MessageModel<T> messageModel, String serverId) {
+                publish(new MessageEvent(MessageEvent.Type.MESSAGE_RECEIVED, messageModel, null, null, null, null, null, serverId));
+                return listener != null && listener.receiveMessage(messageModel, serverId);
+            }
+        };
+    }
+
+    /**
+     * @param listener the listener of the session. Can be null.
+     * @return a listener that publishes every callback before notifying the
+     * given one.
+     */
+    UCSAlertingIntf wrap(final UCSAlertingIntf listener) {
+        return new UCSAlertingIntf() {
+
+            @Override
+            public <T extends Message> boolean receiveAlertMessage(MessageModel<T> messageModel, List<String> localReceivers, String serverId) {
+                publish(new MessageEvent(MessageEvent.Type.ALERT_RECEIVED, messageModel, null, null, null, null, localReceivers, serverId));
+                return listener != null && listener.receiveAlertMessage(messageModel, localReceivers, serverId);
+            }
+
+            @Override
+            public <T extends Message> boolean updateAlertMessage(MessageModel<T> newMessageModel, MessageModel<T> oldMessageModel, List<String> localReceivers, String serverId) {
+                publish(new MessageEvent(MessageEvent.Type.ALERT_UPDATED, newMessageModel, oldMessageModel, null, null, null, localReceivers, serverId));
+                return listener != null && listener.updateAlertMessage(newMessageModel, oldMessageModel, localReceivers, serverId);
+            }
+
+            @Override
+            public <T extends Message> boolean cancelAlertMessage(MessageModel<T> messageModel, List<String> localReceivers, String serverId) {
+                publish(new MessageEvent(MessageEvent.Type.ALERT_CANCELED, messageModel, null, null, null, null, localReceivers, serverId));
+                return listener != null && listener.cancelAlertMessage(messageModel, localReceivers, serverId);
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "MessagePublisher{" + "subscriptionCount=" + getSubscriptionCount() + ", publishedCount=" + getPublishedCount() + ", closed=" + closed + '}';
+    }
+
+    /**
+     * The buffer and demand of a single subscriber. The events are
+     * delivered by a drain loop that only one thread of the executor runs at
+     * a time, so the subscriber is never invoked concurrently.
+     */
+    private class SubscriptionImpl implements MessageSubscription, Runnable {
+
+        private final MessageSubscriber subscriber;
+        private final MessageSubscriptionOptions options;
+
+        //guarded by itself.
+        private final ArrayDeque<MessageEvent> buffer = new ArrayDeque<>();
+        private final AtomicLong demand = new AtomicLong();
+        //number of pending drain requests. Starts at 1 so nothing is
+        //delivered before onSubscribe() returns.
+        private final AtomicInteger wip = new AtomicInteger(1);
+        private final LongAdder droppedCount = new LongAdder();
+
+        private volatile boolean done;
+        private volatile boolean terminated;
+        private volatile Throwable error;
+
+        public SubscriptionImpl(MessageSubscriber subscriber, MessageSubscriptionOptions options) {
+            this.subscriber = subscriber;
+            this.options = options;
+        }
+
+        private void start() {
+            try {
+                subscriber.onSubscribe(this);
+            } catch (Throwable t) {
+                LOG.error("Exception in onSubscribe() of {}. Cancelling its subscription.", subscriber, t);
+                this.cancel();
+            }
+            if (wip.decrementAndGet() != 0) {
+                this.execute();
+            }
+        }
+
+        private void offer(MessageEvent event) {
+            synchronized (buffer) {
+                if (done || terminated) {
+                    return;
+                }
+                if (buffer.size() >= options.getBufferSize()) {
+                    droppedCount.increment();
+                    switch (options.getOverflowStrategy()) {
+                        case DROP_OLDEST:
+                            buffer.poll();
+                            buffer.offer(event);
+                            break;
+                        case DROP_LATEST:
+                            return;
+                        case ERROR:
+                            buffer.clear();
+                            error = new IllegalStateException("The buffer of the subscription is full (" + options.getBufferSize() + " events)");
+                            done = true;
+                            break;
+                    }
+                } else {
+                    buffer.offer(event);
+                }
+            }
+            this.drain();
+        }
+
+        private void complete() {
+            done = true;
+            this.drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("The number of requested events must be positive: " + n);
+                done = true;
+            } else {
+                demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+            }
+            this.drain();
+        }
+
+        @Override
+        public void cancel() {
+            terminated = true;
+            subscriptions.remove(this);
+            synchronized (buffer) {
+                buffer.clear();
+            }
+        }
+
+        @Override
+        public int getBufferedCount() {
+            synchronized (buffer) {
+                return buffer.size();
+            }
+        }
+
+        @Override
+        public long getDroppedCount() {
+            return droppedCount.sum();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() == 0) {
+                this.execute();
+            }
+        }
+
+        private void execute() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException ex) {
+                LOG.warn("Events of {} can't be delivered: the executor of the publisher rejected them.", subscriber);
+                this.cancel();
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                long requested = demand.get();
+                long emitted = 0;
+
+                while (emitted != requested) {
+                    if (terminated || this.checkTerminated()) {
+                        return;
+                    }
+                    MessageEvent event;
+                    synchronized (buffer) {
+                        event = buffer.poll();
+                    }
+                    if (event == null) {
+                        break;
+                    }
+                    try {
+                        subscriber.onNext(event);
+                    } catch (Throwable t) {
+                        LOG.error("Exception in onNext() of {}. Cancelling its subscription.", subscriber, t);
+                        this.cancel();
+                        return;
+                    }
+                    emitted++;
+                }
+
+                if (terminated || this.checkTerminated()) {
+                    return;
+                }
+
+                if (emitted != 0 && requested != Long.MAX_VALUE) {
+                    demand.addAndGet(-emitted);
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        /**
+         * Signals the completion (or error) of this subscription if there is
+         * nothing else to deliver.
+         * @return whether the subscription is terminated.
+         */
+        private boolean checkTerminated() {
+            if (!done) {
+                return false;
+            }
+            Throwable e = error;
+            if (e == null && this.getBufferedCount() > 0) {
+                return false;
+            }
+            this.cancel();
+            try {
+                if (e != null) {
+                    subscriber.onError(e);
+                } else {
+                    subscriber.onComplete();
+                }
+            } catch (Throwable t) {
+                LOG.error("Exception notifying the termination of the subscription of {}.", subscriber, t);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.api;
+
+/**
+ * Receives the events of a {@link MessagePublisher}. Follows the same
+ * protocol as a Reactive Streams Subscriber: {@link #onSubscribe} is
+ * invoked first, then {@link #onNext} at most as many times as events were
+ * requested through the subscription and, finally, either
+ * {@link #onComplete()} or {@link #onError}. The methods of a subscriber
+ * are never invoked concurrently.
+ *
+ * @author esteban
+ */
+public interface MessageSubscriber {
+
+    public void onSubscribe(MessageSubscription subscription);
+
+    public void onNext(MessageEvent event);
+
+    /**
+     * Invoked when the subscription fails (i.e. its buffer overflowed using
+     * {@link MessageSubscriptionOptions.OverflowStrategy#ERROR}). No more
+     * events are delivered.
+     * @param error
+     */
+    public void onError(Throwable error);
+
+    /**
+     * Invoked when the publisher is closed, once every buffered event was
+     * delivered.
+     */
+    public void onComplete();
+}
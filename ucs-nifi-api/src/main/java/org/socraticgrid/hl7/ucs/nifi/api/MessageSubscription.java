@@ -0,0 +1,47 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.api;
+
+/**
+ * The link between a {@link MessageSubscriber} and a
+ * {@link MessagePublisher}.
+ *
+ * @author esteban
+ */
+public interface MessageSubscription {
+
+    /**
+     * Asks for n more events. Events received while there is no demand are
+     * buffered up to the buffer size of the subscription.
+     * @param n must be positive. Long.MAX_VALUE means unbounded demand.
+     */
+    public void request(long n);
+
+    /**
+     * Stops the delivery of events and discards the buffered ones.
+     */
+    public void cancel();
+
+    /**
+     * @return number of events waiting to be delivered.
+     */
+    public int getBufferedCount();
+
+    /**
+     * @return number of events discarded because the buffer was full.
+     */
+    public long getDroppedCount();
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.api;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The buffer and filters of a subscription to a {@link MessagePublisher}.
+ * Instances are created using {@link Builder}.
+ *
+ * @author esteban
+ */
+public class MessageSubscriptionOptions {
+
+    /**
+     * What to do with a new event when the buffer of a subscription is
+     * full.
+     */
+    public static enum OverflowStrategy {
+        /**
+         * The oldest buffered event is discarded to make room for the new
+         * one.
+         */
+        DROP_OLDEST,
+        /**
+         * The new event is discarded.
+         */
+        DROP_LATEST,
+        /**
+         * The subscription is terminated: the buffered events are discarded
+         * and the subscriber is notified using
+         * {@link MessageSubscriber#onError(java.lang.Throwable)}.
+         */
+        ERROR;
+    }
+
+    public static class Builder {
+
+        private int bufferSize = 256;
+        private OverflowStrategy overflowStrategy = OverflowStrategy.DROP_OLDEST;
+        private final Set<MessageEvent.Type> types = EnumSet.noneOf(MessageEvent.Type.class);
+        private final Set<String> conversationIds = new HashSet<>();
+        private final Set<String> serviceIds = new HashSet<>();
+
+        /**
+         * @param bufferSize max. number of events waiting to be requested by
+         * the subscriber. Default: 256.
+         * @return
+         */
+        public Builder withBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * @param overflowStrategy Default: {@link OverflowStrategy#DROP_OLDEST}.
+         * @return
+         */
+        public Builder withOverflowStrategy(OverflowStrategy overflowStrategy) {
+            this.overflowStrategy = overflowStrategy;
+            return this;
+        }
+
+        /**
+         * Only events of the given types are delivered. By default, events
+         * of every type are delivered.
+         * @param types
+         * @return
+         */
+        public Builder withTypes(MessageEvent.Type... types) {
+            this.types.addAll(Arrays.asList(types));
+            return this;
+        }
+
+        /**
+         * Only events about messages of the given conversations are
+         * delivered.
+         * @param conversationIds
+         * @return
+         */
+        public Builder withConversationIds(String... conversationIds) {
+            this.conversationIds.addAll(Arrays.asList(conversationIds));
+            return this;
+        }
+
+        /**
+         * Only events involving any of the given services (i.e. 'SMS',
+         * 'ALERT') are delivered. See {@link MessageEvent#getServiceIds()}.
+         * @param serviceIds
+         * @return
+         */
+        public Builder withServiceIds(String... serviceIds) {
+            this.serviceIds.addAll(Arrays.asList(serviceIds));
+            return this;
+        }
+
+        public MessageSubscriptionOptions build() {
+            if (bufferSize <= 0) {
+                throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+            }
+            if (overflowStrategy == null) {
+                throw new IllegalArgumentException("An overflow strategy is required");
+            }
+            return new MessageSubscriptionOptions(this);
+        }
+    }
+
+    private final int bufferSize;
+    private final OverflowStrategy overflowStrategy;
+    private final Set<MessageEvent.Type> types;
+    private final Set<String> conversationIds;
+    private final Set<String> serviceIds;
+
+    private MessageSubscriptionOptions(Builder builder) {
+        this.bufferSize = builder.bufferSize;
+        this.overflowStrategy = builder.overflowStrategy;
+        this.types = Collections.unmodifiableSet(EnumSet.copyOf(builder.types.isEmpty() ? EnumSet.allOf(MessageEvent.Type.class) : builder.types));
+        this.conversationIds = Collections.unmodifiableSet(new HashSet<>(builder.conversationIds));
+        this.serviceIds = Collections.unmodifiableSet(new HashSet<>(builder.serviceIds));
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public OverflowStrategy getOverflowStrategy() {
+        return overflowStrategy;
+    }
+
+    public Set<MessageEvent.Type> getTypes() {
+        return types;
+    }
+
+    public Set<String> getConversationIds() {
+        return conversationIds;
+    }
+
+    public Set<String> getServiceIds() {
+        return serviceIds;
+    }
+
+    /**
+     * @param event
+     * @return whether the event passes the filters of these options.
+     */
+    public boolean accepts(MessageEvent event) {
+        if (!types.contains(event.getType())) {
+            return false;
+        }
+        if (!conversationIds.isEmpty() && !conversationIds.contains(event.getConversationId())) {
+            return false;
+        }
+        return serviceIds.isEmpty() || event.getServiceIds().stream().anyMatch(serviceIds::contains);
+    }
+
+    @Override
+    public String toString() {
+        return "MessageSubscriptionOptions{" + "bufferSize=" + bufferSize + ", overflowStrategy=" + overflowStrategy + ", types=" + types + ", conversationIds=" + conversationIds + ", serviceIds=" + serviceIds + '}';
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.api;
+
+import java.util.concurrent.CompletableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socraticgrid.hl7.ucs.nifi.core.NiFiCommandBatch;
+import org.socraticgrid.hl7.ucs.nifi.core.NiFiHTTPBroker;
+
+/**
+ * Executes the commands of several clients in a single round trip to NiFi.
+ * The asynchronous methods of the clients returned by this class don't send
+ * anything until {@link #execute()} (or {@link #executeAsync()}) is invoked:
+ * <pre>
+ * UCSNiFiBatch batch = session.batch();
+ * CompletableFuture&lt;List&lt;Status&gt;&gt; status = batch.management().getStatusAsync(null, null);
+ * CompletableFuture&lt;List&lt;ServiceInfo&gt;&gt; channels = batch.management().discoverChannelsAsync();
+ * CompletableFuture&lt;Page&lt;Message&gt;&gt; messages = batch.client().listMessagesAsync(Optional.empty(), 100);
+ * batch.execute();
+ * </pre>
+ * Only commands are batched: messages are sent as soon as they are
+ * submitted. Commands issued after the batch was executed (i.e. the
+ * requests of the following pages of {@link ClientImpl#listMessagesAsync()})
+ * are sent individually.
+ *
+ * Instances are created using {@link UCSNiFiSession#batch()}.
+ *
+ * @author esteban
+ */
+public class UCSNiFiBatch {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UCSNiFiBatch.class);
+
+    private final NiFiCommandBatch commandBatch;
+    private final ClientImpl client;
+    private final AlertingImpl alerting;
+    private final ManagementImpl management;
+    private final ConversationImpl conversation;
+
+    protected UCSNiFiBatch(NiFiHTTPBroker niFiHTTPBroker, MessageCache messageCache) {
+        this.commandBatch = niFiHTTPBroker.createCommandBatch();
+        this.client = new ClientImpl(niFiHTTPBroker, commandBatch, messageCache);
+        this.alerting = new AlertingImpl(commandBatch);
+        this.management = new ManagementImpl(commandBatch);
+        this.conversation = new ConversationImpl(commandBatch);
+    }
+
+    public ClientImpl client() {
+        return client;
+    }
+
+    public AlertingImpl alerting() {
+        return alerting;
+    }
+
+    public ManagementImpl management() {
+        return management;
+    }
+
+    public ConversationImpl conversation() {
+        return conversation;
+    }
+
+    /**
+     * @return the number of commands waiting to be executed.
+     */
+    public int size() {
+        return commandBatch.size();
+    }
+
+    /**
+     * Sends every pending command in a single request and waits until all
+     * their futures are completed. The failure of a single command doesn't
+     * affect the rest: it is reported by its own future.
+     * A batch can only be executed once.
+     */
+    public void execute() {
+        try {
+            Futures.get(this.executeAsync());
+        } catch (Exception ex) {
+            LOG.error("Exception while sending batch of commands to Nifi.", ex);
+            throw new IllegalStateException("Exception while sending batch of commands to Nifi. Check the logs for more details.", ex);
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #execute()}.
+     * @return a future completed when the response of every command was
+     * received or, exceptionally, if the batch couldn't be executed.
+     */
+    public CompletableFuture<Void> executeAsync() {
+        return commandBatch.sendAsync();
+    }
+}
@@ -25,7 +25,11 @@ import org.socraticgrid.hl7.services.uc.interfaces.ConversationIntf;
 import org.socraticgrid.hl7.services.uc.interfaces.ManagementIntf;
 import org.socraticgrid.hl7.services.uc.interfaces.UCSAlertingIntf;
 import org.socraticgrid.hl7.services.uc.interfaces.UCSClientIntf;
+import org.socraticgrid.hl7.ucs.nifi.core.CallbackExecutor;
 import org.socraticgrid.hl7.ucs.nifi.core.NiFiHTTPBroker;
+import org.socraticgrid.hl7.ucs.nifi.core.NiFiHTTPTransport;
+import org.socraticgrid.hl7.ucs.nifi.core.PooledHTTPTransport;
+import org.socraticgrid.hl7.ucs.nifi.core.URLConnectionHTTPTransport;
 
 /**
  * 
@@ -84,6 +88,26 @@ public class UCSNiFiSession {
             return this;
         }
         
+        /**
+         * The transport used to send messages and commands to NiFi. The
+         * transport is closed when the session is disposed.
+         * By default, a new connection is opened for each request.
+         * @param httpTransport
+         * @return 
+         */
+        public UCSNiFiSessionBuilder withHTTPTransport(NiFiHTTPTransport httpTransport) {
+            instance.httpTransport = httpTransport;
+            return this;
+        }
+        
+        /**
+         * Uses a {@link PooledHTTPTransport} with its default configuration.
+         * @return 
+         */
+        public UCSNiFiSessionBuilder withPooledHTTPTransport() {
+            return this.withHTTPTransport(new PooledHTTPTransport.Builder().build());
+        }
+        
         
         
         /****
@@ -125,7 +149,72 @@ public class UCSNiFiSession {
             return this;
         }
         
+        /**
+         * The executor used to notify the UCSClient and UCSAlerting 
+         * listeners. A single executor is shared by all the callback 
+         * endpoints and it is closed when the session is disposed.
+         * By default, a {@link CallbackExecutor} with its default 
+         * configuration is used.
+         * @param callbackExecutor
+         * @return 
+         */
+        public UCSNiFiSessionBuilder withCallbackExecutor(CallbackExecutor callbackExecutor) {
+            instance.callbackExecutor = callbackExecutor;
+            return this;
+        }
+        
+        /**
+         * Uses a {@link CallbackExecutor} with the given configuration.
+         * @param threads
+         * @param queueCapacity
+         * @param rejectionPolicy
+         * @return 
+         */
+        public UCSNiFiSessionBuilder withCallbackExecutor(int threads, int queueCapacity, CallbackExecutor.RejectionPolicy rejectionPolicy) {
+            return this.withCallbackExecutor(new CallbackExecutor.Builder()
+                    .withThreads(threads)
+                    .withQueueCapacity(queueCapacity)
+                    .withRejectionPolicy(rejectionPolicy)
+                    .build());
+        }
+        
+        /**
+         * Enables a client side cache of the messages of UCS. The cache is
+         * shared by all the clients of the session and it is kept up to 
+         * date by the UCSClient and UCSAlerting callbacks.
+         * By default, there is no cache.
+         * @param messageCache
+         * @return 
+         */
+        public UCSNiFiSessionBuilder withMessageCache(MessageCache messageCache) {
+            instance.messageCache = messageCache;
+            return this;
+        }
+        
+        /**
+         * Enables a {@link MessageCache} with its default configuration.
+         * @return 
+         */
+        public UCSNiFiSessionBuilder withMessageCache() {
+            return this.withMessageCache(new MessageCache.Builder().build());
+        }
+        
+        /**
+         * Configures the publisher of the UCSClient and UCSAlerting 
+         * callbacks of the session. By default, a {@link MessagePublisher}
+         * with its default configuration is used.
+         * @param messagePublisher
+         * @return 
+         */
+        public UCSNiFiSessionBuilder withMessagePublisher(MessagePublisher messagePublisher) {
+            instance.messagePublisher = messagePublisher;
+            return this;
+        }
+        
         public UCSNiFiSession build() throws IOException, InterruptedException {
+            if (instance.messagePublisher == null){
+                instance.messagePublisher = new MessagePublisher.Builder().build();
+            }
             return instance;
         }
 
@@ -163,6 +252,14 @@ public class UCSNiFiSession {
     private UCSClientIntf ucsClientListener;
     private UCSAlertingIntf ucsAlertingListener;
     
+    private NiFiHTTPTransport httpTransport;
+    
+    private CallbackExecutor callbackExecutor;
+    
+    private MessageCache messageCache;
+    
+    private MessagePublisher messagePublisher;
+    
     
     private NiFiHTTPBroker niFiHTTPBroker;
 
@@ -192,22 +289,34 @@ public class UCSNiFiSession {
         
         String nifiURL = this.nifiScheme+"://"+this.nifiHost+":{port}"+this.nifiCommandContext;
         
+        //the cache is updated before the events are published and the 
+        //listeners are notified.
+        UCSClientIntf clientListener = this.messagePublisher.wrap(ucsClientListener);
+        UCSAlertingIntf alertingListener = this.messagePublisher.wrap(ucsAlertingListener);
+        if (this.messageCache != null){
+            clientListener = this.messageCache.wrap(clientListener);
+            alertingListener = this.messageCache.wrap(alertingListener);
+        }
+        
         this.niFiHTTPBroker = new NiFiHTTPBroker(
                 new URL(nifiURL.replace("{port}", String.valueOf(this.nifiSendMessageCommandPort))), 
-                new NiFiHTTPBroker.ClientEndpointWithListener(new URL(nifiURL.replace("{port}", String.valueOf(this.nifiClientCommandPort))), this.clientHost, this.clientCallbackPort, ucsClientListener),
-                new NiFiHTTPBroker.ClientEndpointWithListener(new URL(nifiURL.replace("{port}", String.valueOf(this.nifiAlertingCommandPort))), this.clientHost, this.clientAlertingCallbackPort, ucsAlertingListener),
+                new NiFiHTTPBroker.ClientEndpointWithListener(new URL(nifiURL.replace("{port}", String.valueOf(this.nifiClientCommandPort))), this.clientHost, this.clientCallbackPort, clientListener),
+                new NiFiHTTPBroker.ClientEndpointWithListener(new URL(nifiURL.replace("{port}", String.valueOf(this.nifiAlertingCommandPort))), this.clientHost, this.clientAlertingCallbackPort, alertingListener),
                 new NiFiHTTPBroker.ClientEndpoint(new URL(nifiURL.replace("{port}", String.valueOf(this.nifiManagementCommandPort))), this.clientHost, this.clientManagementCallbackPort),
-                new NiFiHTTPBroker.ClientEndpoint(new URL(nifiURL.replace("{port}", String.valueOf(this.nifiConversationCommandPort))), this.clientHost, this.clientConversationCallbackPort)
+                new NiFiHTTPBroker.ClientEndpoint(new URL(nifiURL.replace("{port}", String.valueOf(this.nifiConversationCommandPort))), this.clientHost, this.clientConversationCallbackPort),
+                this.httpTransport != null ? this.httpTransport : new URLConnectionHTTPTransport(),
+                this.callbackExecutor != null ? this.callbackExecutor : new CallbackExecutor.Builder().build()
         );
         this.niFiHTTPBroker.start();
     }
 
     public synchronized void dispose() throws IOException{
         this.getNiFiHTTPBroker().stop();
+        this.messagePublisher.close();
     }
     
     public synchronized ClientIntf getNewClient() {
-        return new ClientImpl(this.getNiFiHTTPBroker());
+        return new ClientImpl(this.getNiFiHTTPBroker(), this.messageCache);
     }
     
     public synchronized AlertingIntf getNewAlerting() {
@@ -221,10 +330,43 @@ public class UCSNiFiSession {
     public synchronized ConversationIntf getNewConversation() {
         return new ConversationImpl(this.getNiFiHTTPBroker());
     }
+    
+    /**
+     * @return a new batch whose commands are sent to NiFi in a single 
+     * request. See {@link UCSNiFiBatch}.
+     */
+    public synchronized UCSNiFiBatch batch() {
+        return new UCSNiFiBatch(this.getNiFiHTTPBroker(), this.messageCache);
+    }
+    
+    /**
+     * @return the executor notifying the listeners of this session. Can be
+     * used to monitor its queue depth and latencies.
+     */
+    public synchronized CallbackExecutor getCallbackExecutor() {
+        return this.getNiFiHTTPBroker().getCallbackExecutor();
+    }
+
+    /**
+     * @return the message cache of this session or null if it doesn't have
+     * one. Can be used to monitor its hit ratio.
+     */
+    public MessageCache getMessageCache() {
+        return this.messageCache;
+    }
+    
+    /**
+     * @return the publisher of the UCSClient and UCSAlerting callbacks of
+     * this session. Subscribers get the same callbacks the listeners of the
+     * session get, without blocking them.
+     */
+    public MessagePublisher getMessagePublisher() {
+        return this.messagePublisher;
+    }
 
     @Override
     public String toString() {
-        return "UCSNiFiSession{" + "status=" + status + ", nifiScheme=" + nifiScheme + ", nifiHost=" + nifiHost + ", nifiCommandContext=" + nifiCommandContext + ", nifiSendMessageCommandPort=" + nifiSendMessageCommandPort + ", nifiClientCommandPort=" + nifiClientCommandPort + ", nifiAlertingCommandPort=" + nifiAlertingCommandPort + ", nifiManagementCommandPort=" + nifiManagementCommandPort + ", nifiConversationCommandPort=" + nifiConversationCommandPort + ", clientHost=" + clientHost + ", clientCallbackPort=" + clientCallbackPort + ", clientAlertingCallbackPort=" + clientAlertingCallbackPort + ", clientManagementCallbackPort=" + clientManagementCallbackPort + ", clientConversationCallbackPort=" + clientConversationCallbackPort + ", niFiHTTPBroker=" + niFiHTTPBroker + '}';
+        return "UCSNiFiSession{" + "status=" + status + ", nifiScheme=" + nifiScheme + ", nifiHost=" + nifiHost + ", nifiCommandContext=" + nifiCommandContext + ", nifiSendMessageCommandPort=" + nifiSendMessageCommandPort + ", nifiClientCommandPort=" + nifiClientCommandPort + ", nifiAlertingCommandPort=" + nifiAlertingCommandPort + ", nifiManagementCommandPort=" + nifiManagementCommandPort + ", nifiConversationCommandPort=" + nifiConversationCommandPort + ", clientHost=" + clientHost + ", clientCallbackPort=" + clientCallbackPort + ", clientAlertingCallbackPort=" + clientAlertingCallbackPort + ", clientManagementCallbackPort=" + clientManagementCallbackPort + ", clientConversationCallbackPort=" + clientConversationCallbackPort + ", httpTransport=" + httpTransport + ", callbackExecutor=" + callbackExecutor + ", messageCache=" + messageCache + ", messagePublisher=" + messagePublisher + ", niFiHTTPBroker=" + niFiHTTPBroker + '}';
     }
 
 }
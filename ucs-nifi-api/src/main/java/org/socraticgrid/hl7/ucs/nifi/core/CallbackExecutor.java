@@ -0,0 +1,461 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.core;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socraticgrid.hl7.services.uc.model.Message;
+
+/**
+ * Executes the notifications of the client listeners (UCSClientIntf and
+ * UCSAlertingIntf) off the HTTP threads of the callback endpoints.
+ *
+ * The executor has a fixed number of threads and a bounded queue. When the
+ * queue is full, new notifications are handled according to the
+ * {@link RejectionPolicy}.
+ *
+ * Notifications with the same ordering key (see
+ * {@link #orderingKey(Message)}) are executed one at a time, in the order
+ * they were submitted. Notifications with different keys run in parallel.
+ *
+ * A single instance can be shared by all the endpoints of a
+ * {@link NiFiHTTPBroker}. Instances are created using {@link Builder}.
+ *
+ * @author esteban
+ */
+public class CallbackExecutor implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CallbackExecutor.class);
+
+    /**
+     * What to do with a notification when the queue is full.
+     */
+    public static enum RejectionPolicy {
+        /**
+         * The HTTP thread waits until there is room in the queue. NiFi's
+         * request is not acknowledged until then.
+         * The HTTP threads of the endpoints also read the responses of the
+         * commands (see {@link NiFiHTTPBroker#CALLBACK_IO_THREADS}): when
+         * all of them are blocked, pending commands can time out. Use it
+         * only if the listeners don't send commands.
+         */
+        BLOCK,
+        /**
+         * The notification is rejected with a RejectedExecutionException.
+         * The callback endpoints answer NiFi with a 503 status, so NiFi can
+         * retry it later. This is the default policy.
+         */
+        ABORT,
+        /**
+         * The notification is discarded and a warning is logged.
+         */
+        DISCARD;
+    }
+
+    public static class Builder {
+
+        private int threads = 4;
+        private int queueCapacity = 1000;
+        private RejectionPolicy rejectionPolicy = RejectionPolicy.ABORT;
+
+        /**
+         * @param threads number of threads notifying the listeners. Default:
+         * 4.
+         * @return
+         */
+        public Builder withThreads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * @param queueCapacity max. number of notifications waiting to be
+         * executed. Default: 1000.
+         * @return
+         */
+        public Builder withQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * @param rejectionPolicy Default: {@link RejectionPolicy#ABORT}.
+         * @return
+         */
+        public Builder withRejectionPolicy(RejectionPolicy rejectionPolicy) {
+            this.rejectionPolicy = rejectionPolicy;
+            return this;
+        }
+
+        public CallbackExecutor build() {
+            if (threads <= 0 || queueCapacity <= 0) {
+                throw new IllegalArgumentException("Invalid executor limits: threads=" + threads + ", queueCapacity=" + queueCapacity);
+            }
+            if (rejectionPolicy == null) {
+                throw new IllegalArgumentException("A rejection policy is required");
+            }
+            return new CallbackExecutor(this);
+        }
+    }
+
+    private static class Task {
+
+        private final Runnable runnable;
+        private final long submittedAt = System.nanoTime();
+
+        public Task(Runnable runnable) {
+            this.runnable = runnable;
+        }
+    }
+
+    private final int threads;
+    private final int queueCapacity;
+    private final RejectionPolicy rejectionPolicy;
+    private final ExecutorService executor;
+
+    //one permit per free slot in the queue.
+    private final Semaphore queueSlots;
+    //ordering key -> notifications waiting for the running one with the same key.
+    //A key is present while one of its notifications is running or scheduled.
+    private final ConcurrentMap<String, Deque<Task>> keyQueues = new ConcurrentHashMap<>();
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final LongAdder completedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder totalQueueLatency = new LongAdder();
+    private final AtomicLong maxQueueLatency = new AtomicLong();
+    private final LongAdder totalExecutionLatency = new LongAdder();
+    private final AtomicLong maxExecutionLatency = new AtomicLong();
+
+    private volatile boolean closed;
+
+    private CallbackExecutor(Builder builder) {
+        this.threads = builder.threads;
+        this.queueCapacity = builder.queueCapacity;
+        this.rejectionPolicy = builder.rejectionPolicy;
+        this.queueSlots = new Semaphore(queueCapacity);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "ucs-callback-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * The ordering key of the notifications about a message: the id of its
+     * conversation or, if it doesn't belong to a conversation, its own id.
+     * @param message
+     * @return
+     */
+    public static String orderingKey(Message message) {
+        if (message == null || message.getHeader() == null) {
+            return null;
+        }
+        String conversationId = message.getHeader().getRelatedConversationId();
+        return conversationId != null && !conversationId.isEmpty() ? conversationId : message.getHeader().getMessageId();
+    }
+
+    /**
+     * Runs the notification using the given executor or, if there is no
+     * executor, in the calling thread.
+     * @param executor can be null.
+     * @param orderingKey
+     * @param notification
+     */
+    public static void execute(CallbackExecutor executor, String orderingKey, Runnable notification) {
+        if (executor == null) {
+            notification.run();
+        } else {
+            executor.execute(orderingKey, notification);
+        }
+    }
+
+    /**
+     * Runs a notification per item using the given executor or, if there is
+     * no executor, in the calling thread.
+     * @param executor can be null.
+     * @param items
+     * @param orderingKey
+     * @param notification
+     * @see #executeAll(List, Function, Consumer)
+     */
+    public static <T> void executeAll(CallbackExecutor executor, List<T> items, Function<T, String> orderingKey, Consumer<T> notification) {
+        if (executor == null) {
+            items.forEach(notification);
+        } else {
+            executor.executeAll(items, orderingKey, notification);
+        }
+    }
+
+    /**
+     * Queues a notification.
+     * @param orderingKey notifications with the same key are executed in
+     * order. Can be null if the notification doesn't need to be ordered.
+     * @param notification
+     * @throws RejectedExecutionException if this executor is closed or if
+     * the queue is full and the policy is {@link RejectionPolicy#ABORT}.
+     */
+    public void execute(String orderingKey, Runnable notification) {
+        if (closed) {
+            throw new RejectedExecutionException("CallbackExecutor is closed");
+        }
+        if (!this.acquireQueueSlots(1)) {
+            return;
+        }
+        this.enqueue(orderingKey, notification);
+    }
+
+    /**
+     * Queues a notification per item. Either all of them are queued or none
+     * is: a request from NiFi is never partially accepted, so NiFi can
+     * safely retry a rejected request.
+     * @param items
+     * @param orderingKey the ordering key of the notification of each item.
+     * @param notification
+     * @throws RejectedExecutionException if this executor is closed, if
+     * there are more items than the capacity of the queue or if there is no
+     * room for all of them and the policy is {@link RejectionPolicy#ABORT}.
+     */
+    public <T> void executeAll(List<T> items, Function<T, String> orderingKey, Consumer<T> notification) {
+        if (closed) {
+            throw new RejectedExecutionException("CallbackExecutor is closed");
+        }
+        if (items.isEmpty()) {
+            return;
+        }
+        if (items.size() > queueCapacity) {
+            rejectedCount.add(items.size());
+            throw new RejectedExecutionException("Too many notifications (" + items.size() + ") for the callback queue (" + queueCapacity + ")");
+        }
+        if (!this.acquireQueueSlots(items.size())) {
+            return;
+        }
+        for (T item : items) {
+            this.enqueue(orderingKey.apply(item), () -> notification.accept(item));
+        }
+    }
+
+    private void enqueue(String orderingKey, Runnable notification) {
+        queueDepth.incrementAndGet();
+
+        Task task = new Task(notification);
+        if (orderingKey == null) {
+            this.schedule(task, null);
+            return;
+        }
+
+        boolean[] first = {false};
+        keyQueues.compute(orderingKey, (key, queue) -> {
+            if (queue == null) {
+                first[0] = true;
+                return new ArrayDeque<>();
+            }
+            queue.add(task);
+            return queue;
+        });
+        if (first[0]) {
+            this.schedule(task, orderingKey);
+        }
+    }
+
+    private boolean acquireQueueSlots(int slots) {
+        switch (rejectionPolicy) {
+            case BLOCK:
+                try {
+                    queueSlots.acquire(slots);
+                    return true;
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    rejectedCount.add(slots);
+                    throw new RejectedExecutionException("Interrupted while waiting for room in the callback queue", ex);
+                }
+            case ABORT:
+                if (queueSlots.tryAcquire(slots)) {
+                    return true;
+                }
+                rejectedCount.add(slots);
+                throw new RejectedExecutionException("Callback queue is full (" + queueCapacity + " notifications)");
+            default:
+                if (queueSlots.tryAcquire(slots)) {
+                    return true;
+                }
+                rejectedCount.add(slots);
+                LOG.warn("Callback queue is full ({} notifications). {} notifications discarded.", queueCapacity, slots);
+                return false;
+        }
+    }
+
+    private void schedule(Task task, String orderingKey) {
+        try {
+            executor.execute(() -> this.run(task, orderingKey));
+        } catch (RejectedExecutionException ex) {
+            //only happens once this executor is closed.
+            LOG.warn("Notification discarded: CallbackExecutor is closed.");
+            queueDepth.decrementAndGet();
+            queueSlots.release();
+        }
+    }
+
+    private void run(Task task, String orderingKey) {
+        queueSlots.release();
+        queueDepth.decrementAndGet();
+        long start = System.nanoTime();
+        record(start - task.submittedAt, totalQueueLatency, maxQueueLatency);
+
+        activeCount.incrementAndGet();
+        try {
+            task.runnable.run();
+        } catch (Exception ex) {
+            LOG.error("Listener notification failed.", ex);
+        } finally {
+            activeCount.decrementAndGet();
+            record(System.nanoTime() - start, totalExecutionLatency, maxExecutionLatency);
+            completedCount.increment();
+            if (orderingKey != null) {
+                this.scheduleNext(orderingKey);
+            }
+        }
+    }
+
+    private void scheduleNext(String orderingKey) {
+        Task[] next = {null};
+        keyQueues.compute(orderingKey, (key, queue) -> {
+            next[0] = queue.poll();
+            return next[0] == null ? null : queue;
+        });
+        if (next[0] != null) {
+            this.schedule(next[0], orderingKey);
+        }
+    }
+
+    private static void record(long nanos, LongAdder total, AtomicLong max) {
+        total.add(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public RejectionPolicy getRejectionPolicy() {
+        return rejectionPolicy;
+    }
+
+    /**
+     * @return number of notifications waiting to be executed.
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return number of notifications being executed right now.
+     */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.sum();
+    }
+
+    /**
+     * @return number of notifications that were rejected or discarded
+     * because the queue was full.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * @return average time (in milliseconds) a notification waited in the
+     * queue before being executed.
+     */
+    public double getAverageQueueLatencyMillis() {
+        return average(totalQueueLatency);
+    }
+
+    public double getMaxQueueLatencyMillis() {
+        return maxQueueLatency.get() / 1_000_000d;
+    }
+
+    /**
+     * @return average time (in milliseconds) the listeners took to process
+     * a notification.
+     */
+    public double getAverageExecutionLatencyMillis() {
+        return average(totalExecutionLatency);
+    }
+
+    public double getMaxExecutionLatencyMillis() {
+        return maxExecutionLatency.get() / 1_000_000d;
+    }
+
+    private double average(LongAdder total) {
+        long count = completedCount.sum();
+        return count == 0 ? 0 : total.sum() / 1_000_000d / count;
+    }
+
+    /**
+     * Stops accepting notifications and waits a couple of seconds for the
+     * queued ones to be executed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(2, TimeUnit.SECONDS)) {
+                LOG.warn("{} callback notifications were not executed.", queueDepth.get());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CallbackExecutor{" + "threads=" + threads + ", queueCapacity=" + queueCapacity + ", rejectionPolicy=" + rejectionPolicy
+                + ", queueDepth=" + getQueueDepth() + ", activeCount=" + getActiveCount() + ", completedCount=" + getCompletedCount()
+                + ", rejectedCount=" + getRejectedCount() + ", averageQueueLatencyMillis=" + getAverageQueueLatencyMillis()
+                + ", averageExecutionLatencyMillis=" + getAverageExecutionLatencyMillis() + '}';
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.core;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single HTTP endpoint ({@link #CONTEXT}) where NiFi sends the response of
+ * every command. Responses are correlated with their pending command by the
+ * last segment of the path (/commandResponse/{commandId}) or, if the path has
+ * no command id, by the {@link #COMMAND_ID_HEADER} header.
+ *
+ * Pending commands are kept in a concurrent map and expired by a
+ * {@link TimeoutWheel}, so registering, completing and expiring a command
+ * doesn't depend on the number of commands in flight.
+ *
+ * @author esteban
+ */
+class CommandResponseDispatcher implements HttpHandler, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CommandResponseDispatcher.class);
+
+    public static final String CONTEXT = "/commandResponse";
+    public static final String COMMAND_ID_HEADER = "Ucs.command.id";
+
+    private final ConcurrentMap<String, CompletableFuture<NiFiCommandResponse>> pendingCommands = new ConcurrentHashMap<>();
+    private final TimeoutWheel timeoutWheel = new TimeoutWheel(100, TimeUnit.MILLISECONDS, 512, "ucs-command-timeouts");
+
+    /**
+     * @param commandId
+     * @return the context (without the leading '/') NiFi has to send the
+     * response of the command to.
+     */
+    public String getResponseContext(String commandId) {
+        return CONTEXT.substring(1) + "/" + commandId;
+    }
+
+    /**
+     * Registers a command that is about to be sent. The returned future is
+     * completed with the response of the command or, exceptionally, with the
+     * UCSException NiFi responded with or a {@link TimeoutException}.
+     * Cancelling the future unregisters the command.
+     * @param commandId
+     * @param timeout
+     * @param unit
+     * @return
+     */
+    public CompletableFuture<NiFiCommandResponse> register(String commandId, long timeout, TimeUnit unit) {
+        CompletableFuture<NiFiCommandResponse> future = new CompletableFuture<>();
+        if (pendingCommands.putIfAbsent(commandId, future) != null) {
+            throw new IllegalArgumentException("There is already a pending command with id '" + commandId + "'");
+        }
+
+        TimeoutWheel.Timeout commandTimeout = timeoutWheel.schedule(() -> {
+            if (pendingCommands.remove(commandId, future)) {
+                future.completeExceptionally(new TimeoutException("Timeout while waiting for command response"));
+            }
+        }, timeout, unit);
+
+        future.whenComplete((response, error) -> {
+            commandTimeout.cancel();
+            pendingCommands.remove(commandId, future);
+        });
+        return future;
+    }
+
+    public int getPendingCommandsCount() {
+        return pendingCommands.size();
+    }
+
+    @Override
+    public void handle(HttpExchange he) throws IOException {
+        NiFiHTTPExceptionHandler exceptionHandler = new NiFiHTTPExceptionHandler(he);
+
+        String responseBody;
+        try {
+            responseBody = RequestBodies.read(he);
+        } finally {
+            //send OK to Nifi
+            he.sendResponseHeaders(200, -1);
+            he.close();
+        }
+
+        String commandId = this.getCommandId(he);
+        CompletableFuture<NiFiCommandResponse> future = commandId == null ? null : pendingCommands.remove(commandId);
+        if (future == null) {
+            LOG.warn("Received a response for an unknown or expired command: '{}'", commandId);
+            return;
+        }
+
+        if (exceptionHandler.isUCSException()) {
+            future.completeExceptionally(exceptionHandler.createUCSException());
+            return;
+        }
+
+        NiFiCommandResponse response = new NiFiCommandResponse();
+        response.setReceivedTimestamp(System.currentTimeMillis());
+        response.setCode(he.getResponseCode());
+        response.setBody(responseBody);
+        response.setHeaders(he.getRequestHeaders());
+        future.complete(response);
+    }
+
+    private String getCommandId(HttpExchange he) {
+        String path = he.getRequestURI().getPath();
+        if (path.length() > CONTEXT.length() + 1) {
+            return path.substring(CONTEXT.length() + 1);
+        }
+        return he.getRequestHeaders().getFirst(COMMAND_ID_HEADER);
+    }
+
+    /**
+     * Stops expiring commands and fails every pending one.
+     */
+    @Override
+    public void close() {
+        timeoutWheel.close();
+        for (String commandId : pendingCommands.keySet()) {
+            CompletableFuture<NiFiCommandResponse> future = pendingCommands.remove(commandId);
+            if (future != null) {
+                future.completeExceptionally(new IOException("The broker was stopped before the command response arrived"));
+            }
+        }
+    }
+}
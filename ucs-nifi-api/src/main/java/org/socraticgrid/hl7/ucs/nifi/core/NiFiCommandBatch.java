@@ -0,0 +1,205 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.core;
+
+import com.sun.net.httpserver.Headers;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socraticgrid.hl7.ucs.nifi.common.model.CommandResult;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.CommandResultSerializer;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializationException;
+
+/**
+ * Collects commands of any UCS interface and sends them to NiFi in a single
+ * request (a {@code <commands>} envelope). NiFi executes every command and
+ * sends all their responses back in a single callback, so N commands cost a
+ * single round trip.
+ *
+ * The future returned when a command is added is completed when the
+ * response of the whole batch arrives, exactly as it would have been if the
+ * command had been sent individually: with its own response or with its own
+ * UCSException. A failure of the batch itself (i.e. a timeout) fails every
+ * command.
+ *
+ * Commands added after the batch was sent (i.e. the ones chained to the
+ * response of a command of the batch) are sent individually.
+ *
+ * Instances are created using {@link NiFiHTTPBroker#createCommandBatch()}.
+ *
+ * @author esteban
+ */
+public class NiFiCommandBatch implements NiFiCommandSender {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NiFiCommandBatch.class);
+
+    static class Command {
+
+        private final String endpointName;
+        private final String name;
+        private final Optional<List<String>> args;
+        private final CompletableFuture<NiFiCommandResponse> response = new CompletableFuture<>();
+
+        public Command(String endpointName, String name, Optional<List<String>> args) {
+            this.endpointName = endpointName;
+            this.name = name;
+            this.args = args;
+        }
+
+        public String getEndpointName() {
+            return endpointName;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Optional<List<String>> getArgs() {
+            return args;
+        }
+    }
+
+    private final NiFiHTTPBroker broker;
+    private final List<Command> commands = new ArrayList<>();
+    private final AtomicBoolean sent = new AtomicBoolean();
+
+    NiFiCommandBatch(NiFiHTTPBroker broker) {
+        this.broker = broker;
+    }
+
+    @Override
+    public CompletableFuture<NiFiCommandResponse> sendClientCommandAsync(String name, Optional<List<String>> args) {
+        return this.add(broker.getClientEndpoint(), "client", name, args);
+    }
+
+    @Override
+    public CompletableFuture<NiFiCommandResponse> sendAlertingCommandAsync(String name, Optional<List<String>> args) {
+        return this.add(broker.getAlertingEndpoint(), "alerting", name, args);
+    }
+
+    @Override
+    public CompletableFuture<NiFiCommandResponse> sendManagementCommandAsync(String name, Optional<List<String>> args) {
+        return this.add(broker.getManagementEndpoint(), "management", name, args);
+    }
+
+    @Override
+    public CompletableFuture<NiFiCommandResponse> sendConversationCommandAsync(String name, Optional<List<String>> args) {
+        return this.add(broker.getConversationEndpoint(), "conversation", name, args);
+    }
+
+    private synchronized CompletableFuture<NiFiCommandResponse> add(NiFiHTTPBroker.ClientEndpoint endpoint, String endpointName, String name, Optional<List<String>> args) {
+        if (sent.get()) {
+            return broker.sendCommandAsync(endpoint, name, args, true);
+        }
+        Command command = new Command(endpointName, name, args);
+        commands.add(command);
+        return command.response;
+    }
+
+    /**
+     * @return the number of commands added to this batch.
+     */
+    public synchronized int size() {
+        return commands.size();
+    }
+
+    /**
+     * Sends every command added so far in a single request. A batch can
+     * only be sent once.
+     * @return a future completed when the response of every command was
+     * received (successfully or not) or, exceptionally, with the error that
+     * prevented the batch from being executed.
+     */
+    public synchronized CompletableFuture<Void> sendAsync() {
+        if (!sent.compareAndSet(false, true)) {
+            throw new IllegalStateException("The batch was already sent");
+        }
+        if (commands.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        broker.sendCommandsAsync(commands).whenComplete((response, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                commands.forEach(c -> c.response.completeExceptionally(cause));
+                result.completeExceptionally(cause);
+                return;
+            }
+            try {
+                this.dispatch(response);
+                result.complete(null);
+            } catch (MessageSerializationException ex) {
+                IOException cause = new IOException("NiFi response couldn't be deserialized", ex);
+                commands.forEach(c -> c.response.completeExceptionally(cause));
+                result.completeExceptionally(cause);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Completes the future of every command with its own result.
+     */
+    private void dispatch(NiFiCommandResponse response) throws MessageSerializationException {
+        List<CommandResult> results = CommandResultSerializer.deserializeCommandResults(response.getBody()).getItems();
+        for (CommandResult result : results) {
+            if (result.getIndex() < 0 || result.getIndex() >= commands.size()) {
+                LOG.warn("Ignoring the result of an unknown command: {}", result);
+                continue;
+            }
+            Command command = commands.get(result.getIndex());
+
+            //Headers normalizes the attribute names just like the headers of
+            //an individual response (i.e. 'ucs.next.cursor' -> 'Ucs.next.cursor')
+            Headers headers = new Headers();
+            if (result.getAttributes() != null) {
+                for (Map.Entry<String, String> attribute : result.getAttributes().entrySet()) {
+                    if (attribute.getValue() != null) {
+                        headers.add(attribute.getKey(), attribute.getValue());
+                    }
+                }
+            }
+
+            NiFiHTTPExceptionHandler exceptionHandler = new NiFiHTTPExceptionHandler(headers);
+            if (exceptionHandler.isUCSException()) {
+                command.response.completeExceptionally(exceptionHandler.createUCSException());
+                continue;
+            }
+
+            NiFiCommandResponse commandResponse = new NiFiCommandResponse();
+            commandResponse.setReceivedTimestamp(response.getReceivedTimestamp());
+            commandResponse.setCode(response.getCode());
+            commandResponse.setBody(result.getBody());
+            commandResponse.setHeaders(headers);
+            command.response.complete(commandResponse);
+        }
+
+        //commands without a result
+        for (Command command : commands) {
+            if (!command.response.isDone()) {
+                command.response.completeExceptionally(new IOException("NiFi didn't send the result of command '" + command.name + "'"));
+            }
+        }
+    }
+}
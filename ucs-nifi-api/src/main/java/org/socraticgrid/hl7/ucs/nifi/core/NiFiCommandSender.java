@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.core;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends the commands of each UCS interface to NiFi. Implemented by
+ * {@link NiFiHTTPBroker}, that sends each command in its own request, and by
+ * {@link NiFiCommandBatch}, that sends several commands in a single one.
+ *
+ * @author esteban
+ */
+public interface NiFiCommandSender {
+
+    public CompletableFuture<NiFiCommandResponse> sendClientCommandAsync(String name, Optional<List<String>> args);
+
+    public CompletableFuture<NiFiCommandResponse> sendAlertingCommandAsync(String name, Optional<List<String>> args);
+
+    public CompletableFuture<NiFiCommandResponse> sendManagementCommandAsync(String name, Optional<List<String>> args);
+
+    public CompletableFuture<NiFiCommandResponse> sendConversationCommandAsync(String name, Optional<List<String>> args);
+}
@@ -15,22 +15,27 @@
  */
 package org.socraticgrid.hl7.ucs.nifi.core;
 
-import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import org.apache.commons.io.IOUtils;
+import java.util.concurrent.TimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.socraticgrid.hl7.services.uc.exceptions.UCSException;
@@ -45,7 +50,7 @@ import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializer;
  *
  * @author esteban
  */
-public class NiFiHTTPBroker {
+public class NiFiHTTPBroker implements NiFiCommandSender {
     private static final Logger LOG = LoggerFactory.getLogger(NiFiHTTPBroker.class);
 
     public static class ClientEndpoint  {
@@ -122,6 +127,21 @@ public class NiFiHTTPBroker {
      */
     public static long COMMAND_RESPONSE_TIMEOUT = 10;
     
+    /**
+     * Number of threads handling the HTTP requests received by the callback
+     * endpoints. They are shared by all the endpoints. The notification of
+     * the listeners doesn't happen in these threads but in the 
+     * {@link CallbackExecutor}.
+     */
+    public static int CALLBACK_IO_THREADS = 8;
+    
+    /**
+     * Max. number of messages and commands waiting for a sender thread. When
+     * the queue is full, the thread sending the message or command POSTs it
+     * itself.
+     */
+    public static int SENDER_QUEUE_SIZE = 1000;
+    
     private final URL nifiSendMessageURL;
     
     private final ClientEndpointWithListener<UCSClientIntf> ucsClientEndpoint;
@@ -129,21 +149,109 @@ public class NiFiHTTPBroker {
     private final ClientEndpoint managementEndpoint;
     private final ClientEndpoint conversationEndpoint;
     
+    private final NiFiHTTPTransport transport;
+    
+    private final CallbackExecutor callbackExecutor;
+    
+    private final ExecutorService callbackIOExecutor = Executors.newFixedThreadPool(CALLBACK_IO_THREADS, r -> {
+        Thread t = new Thread(r, "ucs-callback-io");
+        t.setDaemon(true);
+        return t;
+    });
+    
+    private final CommandResponseDispatcher commandResponseDispatcher = new CommandResponseDispatcher();
+    
+    /**
+     * Threads POSTing messages and commands to NiFi: one per connection the
+     * transport can use at the same time. NiFi acknowledges a POST right 
+     * away, so these threads are never blocked waiting for a command 
+     * response.
+     */
+    private final ThreadPoolExecutor senderExecutor;
+    
     public NiFiHTTPBroker(URL nifiSendMessageURL, ClientEndpointWithListener<UCSClientIntf> ucsClientEndpoint, ClientEndpointWithListener<UCSAlertingIntf> ucsAlertingEndpoint, ClientEndpoint managementEndpoint, ClientEndpoint conversationEndpoint) {
+        this(nifiSendMessageURL, ucsClientEndpoint, ucsAlertingEndpoint, managementEndpoint, conversationEndpoint, new URLConnectionHTTPTransport());
+    }
+    
+    /**
+     * @param transport the transport used to send messages and commands to
+     * NiFi. It is closed when this broker is stopped.
+     */
+    public NiFiHTTPBroker(URL nifiSendMessageURL, ClientEndpointWithListener<UCSClientIntf> ucsClientEndpoint, ClientEndpointWithListener<UCSAlertingIntf> ucsAlertingEndpoint, ClientEndpoint managementEndpoint, ClientEndpoint conversationEndpoint, NiFiHTTPTransport transport) {
+        this(nifiSendMessageURL, ucsClientEndpoint, ucsAlertingEndpoint, managementEndpoint, conversationEndpoint, transport, new CallbackExecutor.Builder().build());
+    }
+    
+    /**
+     * @param transport the transport used to send messages and commands to
+     * NiFi. It is closed when this broker is stopped.
+     * @param callbackExecutor the executor used to notify the listeners of
+     * all the endpoints. It is closed when this broker is stopped.
+     */
+    public NiFiHTTPBroker(URL nifiSendMessageURL, ClientEndpointWithListener<UCSClientIntf> ucsClientEndpoint, ClientEndpointWithListener<UCSAlertingIntf> ucsAlertingEndpoint, ClientEndpoint managementEndpoint, ClientEndpoint conversationEndpoint, NiFiHTTPTransport transport, CallbackExecutor callbackExecutor) {
         this.nifiSendMessageURL = nifiSendMessageURL;
         this.ucsClientEndpoint = ucsClientEndpoint;
         this.ucsAlertingEndpoint = ucsAlertingEndpoint;
         this.managementEndpoint = managementEndpoint;
         this.conversationEndpoint = conversationEndpoint;
+        this.transport = transport;
+        this.callbackExecutor = callbackExecutor;
+        
+        int senderThreads = Math.max(1, transport.getMaxConcurrentRequests());
+        this.senderExecutor = new ThreadPoolExecutor(senderThreads, senderThreads, 
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(SENDER_QUEUE_SIZE), 
+                r -> {
+                    Thread t = new Thread(r, "ucs-nifi-sender");
+                    t.setDaemon(true);
+                    return t;
+                }, 
+                (r, executor) -> {
+                    //backpressure: the caller sends the request itself.
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("The broker is stopped");
+                    }
+                    r.run();
+                });
+        this.senderExecutor.allowCoreThreadTimeOut(true);
+    }
+    
+    /**
+     * @return the executor notifying the listeners. Its metrics (queue depth,
+     * latencies, etc.) can be used to monitor the callbacks from NiFi.
+     */
+    public CallbackExecutor getCallbackExecutor() {
+        return callbackExecutor;
     }
 
     public void sendMessage(Message message) throws MessageSerializationException, IOException {
-        
-        int responseCode = this.sendPOST(nifiSendMessageURL, MessageSerializer.serializeMessageWrapper(new MessageWrapper(message)));
-        
-        if (responseCode != 200){
-            throw new IOException("NiFi returned "+responseCode+" code.");
+        try {
+            this.sendMessageAsync(message).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sending message", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof MessageSerializationException){
+                throw (MessageSerializationException) ex.getCause();
+            }
+            throw asIOException(ex.getCause());
+        }
+    }
+    
+    /**
+     * Sends a message to NiFi without blocking the calling thread.
+     * @param message
+     * @return a future completed when NiFi accepts the message or, 
+     * exceptionally, with a MessageSerializationException or an IOException.
+     */
+    public CompletableFuture<Void> sendMessageAsync(Message message) {
+        String serializedMessage;
+        try {
+            serializedMessage = MessageSerializer.serializeMessageWrapper(new MessageWrapper(message));
+        } catch (MessageSerializationException ex) {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            result.completeExceptionally(ex);
+            return result;
         }
+        return this.postAsync(nifiSendMessageURL, serializedMessage);
     }
     
     public void start() throws IOException, InterruptedException{
@@ -167,11 +275,12 @@ public class NiFiHTTPBroker {
         InetSocketAddress address = new InetSocketAddress(this.ucsClientEndpoint.getClientHost(), this.ucsClientEndpoint.getClientPort());
         LOG.debug("Starting Client listener on {}.", address);
         this.ucsClientEndpoint.setCallbackListener(HttpServer.create(address, 0));
-        this.ucsClientEndpoint.getCallbackListener().setExecutor(Executors.newCachedThreadPool());
+        this.ucsClientEndpoint.getCallbackListener().setExecutor(callbackIOExecutor);
+        this.ucsClientEndpoint.getCallbackListener().createContext(CommandResponseDispatcher.CONTEXT, commandResponseDispatcher);
         
-        this.ucsClientEndpoint.getCallbackListener().createContext("/exception", new UCSClientExceptionHandler(this.ucsClientEndpoint.getListener()));
-        this.ucsClientEndpoint.getCallbackListener().createContext("/newMessage", new UCSClientMessageHandler(this.ucsClientEndpoint.getListener()));
-        this.ucsClientEndpoint.getCallbackListener().createContext("/response", new UCSClientResponseHandler(this.ucsClientEndpoint.getListener()));
+        this.ucsClientEndpoint.getCallbackListener().createContext("/exception", new UCSClientExceptionHandler(this.ucsClientEndpoint.getListener(), callbackExecutor));
+        this.ucsClientEndpoint.getCallbackListener().createContext("/newMessage", new UCSClientMessageHandler(this.ucsClientEndpoint.getListener(), callbackExecutor));
+        this.ucsClientEndpoint.getCallbackListener().createContext("/response", new UCSClientResponseHandler(this.ucsClientEndpoint.getListener(), callbackExecutor));
         
         this.ucsClientEndpoint.getCallbackListener().start();
         //Update the port in case it was 0
@@ -193,11 +302,12 @@ public class NiFiHTTPBroker {
         InetSocketAddress address = new InetSocketAddress(this.ucsAlertingEndpoint.getClientHost(), this.ucsAlertingEndpoint.getClientPort());
         LOG.debug("Starting UCSAlerting listener on {}.", address);
         this.ucsAlertingEndpoint.setCallbackListener(HttpServer.create(address, 0));
-        this.ucsAlertingEndpoint.getCallbackListener().setExecutor(Executors.newCachedThreadPool());
+        this.ucsAlertingEndpoint.getCallbackListener().setExecutor(callbackIOExecutor);
+        this.ucsAlertingEndpoint.getCallbackListener().createContext(CommandResponseDispatcher.CONTEXT, commandResponseDispatcher);
         
-        this.ucsAlertingEndpoint.getCallbackListener().createContext("/newAlertMessage", new UCSAlertingMessageReceivedHandler(this.ucsAlertingEndpoint.getListener()));
-        this.ucsAlertingEndpoint.getCallbackListener().createContext("/alertMessageUpdated", new UCSAlertingMessageUpdatedHandler(this.ucsAlertingEndpoint.getListener()));
-        this.ucsAlertingEndpoint.getCallbackListener().createContext("/alertMessageCancelled", new UCSAlertingMessageCanceledHandler(this.ucsAlertingEndpoint.getListener()));
+        this.ucsAlertingEndpoint.getCallbackListener().createContext("/newAlertMessage", new UCSAlertingMessageReceivedHandler(this.ucsAlertingEndpoint.getListener(), callbackExecutor));
+        this.ucsAlertingEndpoint.getCallbackListener().createContext("/alertMessageUpdated", new UCSAlertingMessageUpdatedHandler(this.ucsAlertingEndpoint.getListener(), callbackExecutor));
+        this.ucsAlertingEndpoint.getCallbackListener().createContext("/alertMessageCancelled", new UCSAlertingMessageCanceledHandler(this.ucsAlertingEndpoint.getListener(), callbackExecutor));
         
         this.ucsAlertingEndpoint.getCallbackListener().start();
         //Update the port in case it was 0
@@ -220,7 +330,8 @@ public class NiFiHTTPBroker {
         InetSocketAddress address = new InetSocketAddress(this.managementEndpoint.getClientHost(), this.managementEndpoint.getClientPort());
         LOG.debug("Starting Management listener on {}.", address);
         this.managementEndpoint.setCallbackListener(HttpServer.create(address, 0));
-        this.managementEndpoint.getCallbackListener().setExecutor(Executors.newCachedThreadPool());
+        this.managementEndpoint.getCallbackListener().setExecutor(callbackIOExecutor);
+        this.managementEndpoint.getCallbackListener().createContext(CommandResponseDispatcher.CONTEXT, commandResponseDispatcher);
         
         this.managementEndpoint.getCallbackListener().start();
         //Update the port in case it was 0
@@ -232,7 +343,8 @@ public class NiFiHTTPBroker {
         InetSocketAddress address = new InetSocketAddress(this.conversationEndpoint.getClientHost(), this.conversationEndpoint.getClientPort());
         LOG.debug("Starting Conversation listener on {}.", address);
         this.conversationEndpoint.setCallbackListener(HttpServer.create(address, 0));
-        this.conversationEndpoint.getCallbackListener().setExecutor(Executors.newCachedThreadPool());
+        this.conversationEndpoint.getCallbackListener().setExecutor(callbackIOExecutor);
+        this.conversationEndpoint.getCallbackListener().createContext(CommandResponseDispatcher.CONTEXT, commandResponseDispatcher);
         
         this.conversationEndpoint.getCallbackListener().start();
         //Update the port in case it was 0
@@ -242,7 +354,15 @@ public class NiFiHTTPBroker {
     }
     
     public void stop() throws IOException{
-        this.stopClientEndpoints();
+        try{
+            this.stopClientEndpoints();
+        } finally {
+            this.commandResponseDispatcher.close();
+            this.senderExecutor.shutdown();
+            this.callbackIOExecutor.shutdown();
+            this.callbackExecutor.close();
+            this.transport.close();
+        }
     }
     
     public void stopClientEndpoints() throws IOException {
@@ -292,141 +412,267 @@ public class NiFiHTTPBroker {
         return this.sendCommand(ucsClientEndpoint, name, args, waitForResponse);
     }
     
+    @Override
+    public CompletableFuture<NiFiCommandResponse> sendClientCommandAsync(String name, Optional<List<String>> args) {
+        return this.sendCommandAsync(ucsClientEndpoint, name, args, true);
+    }
+    
     public NiFiCommandResponse sendAlertingCommand(String name, Optional<List<String>> args, boolean waitForResponse) throws IOException, InterruptedException, UCSException{
         return this.sendCommand(ucsAlertingEndpoint, name, args, waitForResponse);
     }
     
+    @Override
+    public CompletableFuture<NiFiCommandResponse> sendAlertingCommandAsync(String name, Optional<List<String>> args) {
+        return this.sendCommandAsync(ucsAlertingEndpoint, name, args, true);
+    }
+    
     public NiFiCommandResponse sendManagementCommand(String name, Optional<List<String>> args, boolean waitForResponse) throws IOException, InterruptedException, UCSException{
         return this.sendCommand(managementEndpoint, name, args, waitForResponse);
     }
     
+    @Override
+    public CompletableFuture<NiFiCommandResponse> sendManagementCommandAsync(String name, Optional<List<String>> args) {
+        return this.sendCommandAsync(managementEndpoint, name, args, true);
+    }
+    
     public NiFiCommandResponse sendConversationCommand(String name, Optional<List<String>> args, boolean waitForResponse) throws IOException, InterruptedException, UCSException{
         return this.sendCommand(conversationEndpoint, name, args, waitForResponse);
     }
     
+    @Override
+    public CompletableFuture<NiFiCommandResponse> sendConversationCommandAsync(String name, Optional<List<String>> args) {
+        return this.sendCommandAsync(conversationEndpoint, name, args, true);
+    }
+    
     public NiFiCommandResponse sendCommand(ClientEndpoint endpoint, String name, Optional<List<String>> args, boolean waitForResponse) throws IOException, InterruptedException, UCSException{
+        CompletableFuture<NiFiCommandResponse> futureResponse = this.sendCommandAsync(endpoint, name, args, waitForResponse);
+        try{
+            return futureResponse.get();
+        } catch (InterruptedException e){
+            futureResponse.cancel(false);
+            throw e;
+        } catch (ExecutionException e){
+            //if the response was a UCSException, throw it
+            if (e.getCause() instanceof UCSException){
+                throw (UCSException) e.getCause();
+            }
+            throw asIOException(e.getCause());
+        }
+    }
+    
+    /**
+     * Sends a command to NiFi without blocking the calling thread.
+     * The command is POSTed by a sender thread and its response is correlated
+     * by the {@link CommandResponseDispatcher}: no thread waits for it.
+     * 
+     * @param endpoint
+     * @param name
+     * @param args
+     * @param waitForResponse whether NiFi has to send a response back. 
+     * @return a future completed with the response of the command (or with 
+     * null if waitForResponse was false) or, exceptionally, with the 
+     * UCSException NiFi responded with, a TimeoutException if no response 
+     * arrived after {@link #COMMAND_RESPONSE_TIMEOUT} seconds or an 
+     * IOException. Cancelling the future discards the response of the 
+     * command.
+     */
+    public CompletableFuture<NiFiCommandResponse> sendCommandAsync(ClientEndpoint endpoint, String name, Optional<List<String>> args, boolean waitForResponse) {
         
         String commandUUID = UUID.randomUUID().toString();
         
         String host = endpoint.getClientHost();
         String port = ""+endpoint.getAssignedClientPort();
-        String context = commandUUID;
-        
-        final CountDownLatch latch = new CountDownLatch(1);
-        final List<NiFiCommandResponse> commandResponses = new ArrayList<>();
-        final List<NiFiHTTPExceptionHandler> exceptionHandlers = new ArrayList<>();
-        
-        if (waitForResponse){
-            endpoint.getCallbackListener().createContext("/"+context, (HttpExchange he) -> {
-                
-                exceptionHandlers.add(new NiFiHTTPExceptionHandler(he));
-                
-                //get ther response
-                String responseBody = IOUtils.toString(he.getRequestBody());
-                
-                //send OK to Nifi
-                he.sendResponseHeaders(200, 0);
-                he.close();
-                
-                NiFiCommandResponse response = new NiFiCommandResponse();
-                response.setReceivedTimestamp(System.currentTimeMillis());
-                response.setCode(he.getResponseCode());
-                response.setBody(responseBody);
-                response.setHeaders(he.getRequestHeaders());
-                
-                commandResponses.add(response);
-
-                //release the latch
-                latch.countDown();
-            });
-        }
+        String context = commandResponseDispatcher.getResponseContext(commandUUID);
         
         //TODO: move this to a template
         final StringBuilder buffer = new StringBuilder();
         buffer.append("<command>");
-        buffer.append("     <name>").append(name).append("</name>");
-        if (args.isPresent() && !args.get().isEmpty()){
-            buffer.append("     <args>");
-            args.get().forEach(a -> buffer.append("         <arg>").append(a).append("</arg>"));
-            buffer.append("     </args>");
-        }
+        appendCommandContent(buffer, name, args);
         if (waitForResponse){
-            buffer.append("     <response>");
-            buffer.append("         <host>").append(host).append("</host>");
-            buffer.append("         <port>").append(port).append("</port>");
-            buffer.append("         <context>").append(context).append("</context>");
-            buffer.append("     </response>");
-            
+            appendResponse(buffer, host, port, context);
         }
         buffer.append("</command>");
         
+        if (!waitForResponse){
+            return this.postAsync(endpoint.getCommandURL(), buffer.toString()).thenApply(v -> null);
+        }
+        
+        CompletableFuture<NiFiCommandResponse> futureResponse = commandResponseDispatcher.register(commandUUID, COMMAND_RESPONSE_TIMEOUT, TimeUnit.SECONDS);
         
         long now = System.currentTimeMillis();
-        this.sendPOST(endpoint.getCommandURL(), buffer.toString());
+        this.postAsync(endpoint.getCommandURL(), buffer.toString()).whenComplete((v, error) -> {
+            if (error != null){
+                //no response will ever arrive
+                futureResponse.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+            }
+        });
         
-        //wait for response
-        if (waitForResponse){
-            try{
-                if (latch.await(COMMAND_RESPONSE_TIMEOUT, TimeUnit.SECONDS)){
-                    
-                    
-                    LOG.debug("Command '{}' roundtrip milliseconds: {}.", name, (commandResponses.get(0).getReceivedTimestamp()- now));
-                    
-                    //if the response was a UCSException, throw it
-                    exceptionHandlers.get(0).throwUCSException();
-                    
-                    //Ok, we got a response before timeout!
-                    return commandResponses.get(0);
-                } else {
-                    //Too bad... Timeout!
-                    throw new IOException("Timeout while waiting for command response");
-                }
-            } finally {
-                try{
-                    endpoint.getCallbackListener().removeContext("/"+context);
-                } catch (IllegalArgumentException e){
-                    //the context was already removed.
-                }
+        futureResponse.thenAccept(response -> LOG.debug("Command '{}' roundtrip milliseconds: {}.", name, (response.getReceivedTimestamp()- now)));
+        
+        return futureResponse;
+    }
+    
+    /**
+     * Sends a client command without blocking the calling thread. Instead
+     * of going as an argument inside a {@code <command>} envelope, the
+     * content of the command (i.e. a serialized batch of messages) is the
+     * body of the request, so it doesn't have to be escaped or encoded.
+     * The name of the command and the place to send its response to go in
+     * the 'command.name' and 'response.*' headers of the request.
+     * 
+     * @param name
+     * @param content
+     * @return a future completed as the one returned by 
+     * {@link #sendCommandAsync(ClientEndpoint, String, Optional, boolean)}.
+     */
+    public CompletableFuture<NiFiCommandResponse> sendClientCommandAsync(String name, String content) {
+        
+        String commandUUID = UUID.randomUUID().toString();
+        
+        Map<String, String> headers = new HashMap<>();
+        headers.put("command.name", name);
+        headers.put("response.host", ucsClientEndpoint.getClientHost());
+        headers.put("response.port", ""+ucsClientEndpoint.getAssignedClientPort());
+        headers.put("response.context", commandResponseDispatcher.getResponseContext(commandUUID));
+        
+        CompletableFuture<NiFiCommandResponse> futureResponse = commandResponseDispatcher.register(commandUUID, COMMAND_RESPONSE_TIMEOUT, TimeUnit.SECONDS);
+        
+        long now = System.currentTimeMillis();
+        this.postAsync(ucsClientEndpoint.getCommandURL(), content, headers).whenComplete((v, error) -> {
+            if (error != null){
+                //no response will ever arrive
+                futureResponse.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
             }
+        });
+        
+        futureResponse.thenAccept(response -> LOG.debug("Command '{}' roundtrip milliseconds: {}.", name, (response.getReceivedTimestamp()- now)));
+        
+        return futureResponse;
+    }
+    
+    /**
+     * @return a new batch of commands. See {@link NiFiCommandBatch}.
+     */
+    public NiFiCommandBatch createCommandBatch() {
+        return new NiFiCommandBatch(this);
+    }
+    
+    /**
+     * Sends several commands, of any interface, in a single 
+     * {@code <commands>} envelope to the client command endpoint. Each 
+     * command keeps the name of the interface it belongs to, so NiFi can
+     * route it as if it had been sent to its own endpoint. The responses of
+     * all the commands are sent back in a single callback.
+     * @param commands
+     * @return a future completed with the aggregated response of the 
+     * commands or, exceptionally, with the UCSException NiFi responded with
+     * (if the envelope itself couldn't be processed), a TimeoutException or
+     * an IOException.
+     */
+    CompletableFuture<NiFiCommandResponse> sendCommandsAsync(List<NiFiCommandBatch.Command> commands) {
+        
+        String commandUUID = UUID.randomUUID().toString();
+        
+        String host = ucsClientEndpoint.getClientHost();
+        String port = ""+ucsClientEndpoint.getAssignedClientPort();
+        String context = commandResponseDispatcher.getResponseContext(commandUUID);
+        
+        final StringBuilder buffer = new StringBuilder();
+        buffer.append("<commands>");
+        for (NiFiCommandBatch.Command command : commands) {
+            buffer.append("<command endpoint=\"").append(command.getEndpointName()).append("\">");
+            appendCommandContent(buffer, command.getName(), command.getArgs());
+            buffer.append("</command>");
         }
+        appendResponse(buffer, host, port, context);
+        buffer.append("</commands>");
         
-        return null;
+        CompletableFuture<NiFiCommandResponse> futureResponse = commandResponseDispatcher.register(commandUUID, COMMAND_RESPONSE_TIMEOUT, TimeUnit.SECONDS);
+        
+        long now = System.currentTimeMillis();
+        this.postAsync(ucsClientEndpoint.getCommandURL(), buffer.toString()).whenComplete((v, error) -> {
+            if (error != null){
+                //no response will ever arrive
+                futureResponse.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+            }
+        });
+        
+        futureResponse.thenAccept(response -> LOG.debug("Batch of {} commands roundtrip milliseconds: {}.", commands.size(), (response.getReceivedTimestamp()- now)));
+        
+        return futureResponse;
     }
-
-    private int sendPOST(URL url, String content) throws IOException {
-        HttpURLConnection connection = null;
+    
+    ClientEndpoint getClientEndpoint() {
+        return ucsClientEndpoint;
+    }
+    
+    ClientEndpoint getAlertingEndpoint() {
+        return ucsAlertingEndpoint;
+    }
+    
+    ClientEndpoint getManagementEndpoint() {
+        return managementEndpoint;
+    }
+    
+    ClientEndpoint getConversationEndpoint() {
+        return conversationEndpoint;
+    }
+    
+    private static void appendCommandContent(StringBuilder buffer, String name, Optional<List<String>> args) {
+        buffer.append("     <name>").append(name).append("</name>");
+        if (args.isPresent() && !args.get().isEmpty()){
+            buffer.append("     <args>");
+            args.get().forEach(a -> buffer.append("         <arg>").append(escapeXml(a)).append("</arg>"));
+            buffer.append("     </args>");
+        }
+    }
+    
+    private static void appendResponse(StringBuilder buffer, String host, String port, String context) {
+        buffer.append("     <response>");
+        buffer.append("         <host>").append(host).append("</host>");
+        buffer.append("         <port>").append(port).append("</port>");
+        buffer.append("         <context>").append(context).append("</context>");
+        buffer.append("     </response>");
+    }
+    
+    private CompletableFuture<Void> postAsync(URL url, String content) {
+        return this.postAsync(url, content, Collections.emptyMap());
+    }
+    
+    private CompletableFuture<Void> postAsync(URL url, String content, Map<String, String> headers) {
         try {
-            //Create connection
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type",
-                    "text/plain");
-
-            connection.setRequestProperty("Content-Length", ""
-                    + Integer.toString(content.getBytes().length));
-            connection.setRequestProperty("Content-Language", "UTF-8");
-
-            connection.setUseCaches(false);
-            connection.setDoInput(true);
-            connection.setDoOutput(true);
-
-            //Send request
-            DataOutputStream wr = new DataOutputStream(
-                    connection.getOutputStream());
-            wr.writeBytes(content);
-            wr.flush();
-            wr.close();
-
-            //Get Response    
-            int responseCode = connection.getResponseCode();
-            return responseCode;
-
-        } finally {
-
-            if (connection != null) {
-                connection.disconnect();
-            }
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    int responseCode = this.transport.post(url, content, headers);
+                    if (responseCode != 200){
+                        throw new IOException("NiFi returned "+responseCode+" code.");
+                    }
+                } catch (IOException ex) {
+                    throw new CompletionException(ex);
+                }
+            }, senderExecutor);
+        } catch (RejectedExecutionException ex) {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            result.completeExceptionally(new IOException("Unable to send to NiFi: the broker is stopped", ex));
+            return result;
+        }
+    }
+    
+    private static IOException asIOException(Throwable t){
+        if (t instanceof IOException){
+            return (IOException) t;
         }
+        if (t instanceof TimeoutException){
+            //Too bad... Timeout!
+            return new IOException(t.getMessage(), t);
+        }
+        return new IOException("Error sending command to NiFi", t);
     }
 
+    /**
+     * Arguments are sent as text: queries, for example, could contain '&lt;'.
+     */
+    private static String escapeXml(String value) {
+        return value == null ? null : value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
 }
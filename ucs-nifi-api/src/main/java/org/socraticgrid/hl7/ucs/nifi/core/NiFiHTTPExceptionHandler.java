@@ -15,6 +15,7 @@
  */
 package org.socraticgrid.hl7.ucs.nifi.core;
 
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import java.util.EnumMap;
 import java.util.Map;
@@ -66,8 +67,16 @@ public class NiFiHTTPExceptionHandler {
     private final Map<Attribute, String> requestAttributes = new EnumMap<>(Attribute.class);
                 
     public NiFiHTTPExceptionHandler(HttpExchange he){
+        this(he.getRequestHeaders());
+    } 
+    
+    /**
+     * @param headers the headers of the response of a command. Used for the
+     * responses of the commands sent in a {@link NiFiCommandBatch}.
+     */
+    public NiFiHTTPExceptionHandler(Headers headers){
         for (Attribute a : Attribute.values()) {
-            String v = he.getRequestHeaders().getFirst(a.getAttributeName());
+            String v = headers.getFirst(a.getAttributeName());
             if (v != null){
                 this.requestAttributes.put(a, v);
             }
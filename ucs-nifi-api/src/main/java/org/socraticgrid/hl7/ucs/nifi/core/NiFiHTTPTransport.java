@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * The way {@link NiFiHTTPBroker} POSTs messages and commands to NiFi.
+ *
+ * Implementations must be thread-safe: the same transport is shared by
+ * every client, alerting, management and conversation instance of a session.
+ *
+ * Implementations can compress the requests (see
+ * {@link org.socraticgrid.hl7.ucs.nifi.common.serialization.ContentEncoding}).
+ * The callback endpoints of the broker accept compressed requests from NiFi
+ * no matter the configuration of the transport.
+ *
+ * @author esteban
+ */
+public interface NiFiHTTPTransport extends Closeable {
+
+    /**
+     * Default min. size (in bytes) of a request to be compressed.
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+    /**
+     * POSTs the content (encoded as UTF-8 text) to the url.
+     * @param url
+     * @param content
+     * @return the HTTP response code.
+     * @throws IOException
+     */
+    int post(URL url, String content) throws IOException;
+
+    /**
+     * POSTs the content (encoded as UTF-8 text) to the url together with
+     * some extra request headers.
+     * @param url
+     * @param content
+     * @param headers header name -> value.
+     * @return the HTTP response code.
+     * @throws IOException
+     */
+    int post(URL url, String content, Map<String, String> headers) throws IOException;
+
+    /**
+     * @return max. number of requests this transport can send to NiFi at the
+     * same time. {@link NiFiHTTPBroker} sizes its sender pool after it.
+     */
+    int getMaxConcurrentRequests();
+
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.core;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.ContentEncoding;
+
+/**
+ * {@link NiFiHTTPTransport} that keeps a pool of persistent (keep-alive)
+ * connections to each NiFi host:port.
+ *
+ * A request waits up to connectionRequestTimeout for a free connection
+ * when all the connections of its host are in use. Connections that have
+ * been idle for longer than idleTimeout are closed by a background thread,
+ * so NiFi doesn't close them first.
+ *
+ * Instances are created using {@link Builder}.
+ *
+ * @author esteban
+ */
+public class PooledHTTPTransport implements NiFiHTTPTransport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PooledHTTPTransport.class);
+
+    public static class Builder {
+
+        private int maxConnectionsPerHost = 10;
+        private int maxConnections = 50;
+        private int connectTimeout = 5000;
+        private int socketTimeout = 30000;
+        private int connectionRequestTimeout = 10000;
+        private long idleTimeout = 20000;
+        private long evictionInterval = 5000;
+        private ContentEncoding compression = ContentEncoding.IDENTITY;
+        private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+        /**
+         * @param maxConnectionsPerHost max. number of connections to the same
+         * host:port. Default: 10.
+         * @return
+         */
+        public Builder withMaxConnectionsPerHost(int maxConnectionsPerHost) {
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        /**
+         * @param maxConnections max. number of connections of the pool.
+         * Default: 50.
+         * @return
+         */
+        public Builder withMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * @param connectTimeout milliseconds. Default: 5000.
+         * @return
+         */
+        public Builder withConnectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * @param socketTimeout max. milliseconds of inactivity while waiting
+         * for NiFi's response. Default: 30000.
+         * @return
+         */
+        public Builder withSocketTimeout(int socketTimeout) {
+            this.socketTimeout = socketTimeout;
+            return this;
+        }
+
+        /**
+         * @param connectionRequestTimeout max. milliseconds to wait for a free
+         * connection of the pool. Default: 10000.
+         * @return
+         */
+        public Builder withConnectionRequestTimeout(int connectionRequestTimeout) {
+            this.connectionRequestTimeout = connectionRequestTimeout;
+            return this;
+        }
+
+        /**
+         * @param idleTimeout milliseconds after which an unused connection is
+         * closed. It should be lower than NiFi's own idle timeout. Default:
+         * 20000.
+         * @return
+         */
+        public Builder withIdleTimeout(long idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        /**
+         * @param evictionInterval milliseconds between checks for idle
+         * connections. Default: 5000.
+         * @return
+         */
+        public Builder withEvictionInterval(long evictionInterval) {
+            this.evictionInterval = evictionInterval;
+            return this;
+        }
+
+        /**
+         * @param compression the encoding applied to the requests. Default:
+         * {@link ContentEncoding#IDENTITY} (no compression).
+         * @param compressionThreshold min. size (in bytes) of a request to
+         * be compressed. Default: {@link #DEFAULT_COMPRESSION_THRESHOLD}.
+         * @return
+         */
+        public Builder withCompression(ContentEncoding compression, int compressionThreshold) {
+            this.compression = compression;
+            this.compressionThreshold = compressionThreshold;
+            return this;
+        }
+
+        public PooledHTTPTransport build() {
+            if (maxConnectionsPerHost <= 0 || maxConnections < maxConnectionsPerHost) {
+                throw new IllegalArgumentException("Invalid connection limits: maxConnectionsPerHost=" + maxConnectionsPerHost + ", maxConnections=" + maxConnections);
+            }
+            if (idleTimeout <= 0 || evictionInterval <= 0) {
+                throw new IllegalArgumentException("Invalid idle timeout or eviction interval: idleTimeout=" + idleTimeout + ", evictionInterval=" + evictionInterval);
+            }
+            if (compression == null) {
+                throw new IllegalArgumentException("A compression is required. Use ContentEncoding.IDENTITY to disable it.");
+            }
+            return new PooledHTTPTransport(this);
+        }
+    }
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final ScheduledExecutorService evictor;
+    private final ContentEncoding compression;
+    private final int compressionThreshold;
+    private final int maxConnectionsPerHost;
+
+    private PooledHTTPTransport(Builder builder) {
+        this.maxConnectionsPerHost = builder.maxConnectionsPerHost;
+        this.compression = builder.compression;
+        this.compressionThreshold = builder.compressionThreshold;
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        this.connectionManager.setDefaultMaxPerRoute(builder.maxConnectionsPerHost);
+        this.connectionManager.setMaxTotal(builder.maxConnections);
+
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(builder.connectTimeout)
+                        .setSocketTimeout(builder.socketTimeout)
+                        .setConnectionRequestTimeout(builder.connectionRequestTimeout)
+                        .setStaleConnectionCheckEnabled(true)
+                        .build())
+                .build();
+
+        final long idleTimeout = builder.idleTimeout;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ucs-http-connection-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        this.evictor.scheduleWithFixedDelay(() -> {
+            connectionManager.closeExpiredConnections();
+            connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+        }, builder.evictionInterval, builder.evictionInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * All the requests go to the same NiFi host.
+     */
+    @Override
+    public int getMaxConcurrentRequests() {
+        return maxConnectionsPerHost;
+    }
+
+    @Override
+    public int post(URL url, String content) throws IOException {
+        return this.post(url, content, Collections.emptyMap());
+    }
+
+    @Override
+    public int post(URL url, String content, Map<String, String> headers) throws IOException {
+        HttpPost post;
+        try {
+            post = new HttpPost(url.toURI());
+        } catch (URISyntaxException ex) {
+            throw new IOException("Invalid URL: " + url, ex);
+        }
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        ContentEncoding encoding = compression.forSize(bytes.length, compressionThreshold);
+        post.setEntity(new ByteArrayEntity(encoding.encode(bytes), ContentType.create("text/plain", "UTF-8")));
+        headers.forEach(post::setHeader);
+        //let NiFi know it can compress the responses it sends back.
+        post.setHeader("Accept-Encoding", ContentEncoding.ACCEPT_ALL);
+        if (encoding != ContentEncoding.IDENTITY) {
+            post.setHeader("Content-Encoding", encoding.getName());
+        }
+
+        try (CloseableHttpResponse response = httpClient.execute(post)) {
+            //the response must be fully consumed for the connection to be
+            //returned to the pool.
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        LOG.debug("Closing pooled HTTP transport.");
+        evictor.shutdownNow();
+        httpClient.close();
+    }
+
+}
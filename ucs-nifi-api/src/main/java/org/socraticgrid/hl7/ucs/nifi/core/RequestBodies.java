@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.core;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.io.IOUtils;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.ContentEncoding;
+
+/**
+ * Reads the body of the requests NiFi sends to the callback endpoints.
+ *
+ * @author esteban
+ */
+public final class RequestBodies {
+
+    private RequestBodies() {
+    }
+
+    /**
+     * Reads the body of the request as UTF-8 text, decompressing it if
+     * needed. The compression is taken from the 'Content-Encoding' header
+     * or, if NiFi didn't send it, guessed from the first bytes of the body.
+     * @param he
+     * @return
+     * @throws IOException if the body can't be read or its encoding is not
+     * supported.
+     */
+    public static String read(HttpExchange he) throws IOException {
+        InputStream in = new BufferedInputStream(he.getRequestBody());
+
+        ContentEncoding encoding;
+        String contentEncoding = he.getRequestHeaders().getFirst("Content-Encoding");
+        if (contentEncoding != null) {
+            try {
+                encoding = ContentEncoding.fromName(contentEncoding);
+            } catch (IllegalArgumentException ex) {
+                throw new IOException(ex.getMessage(), ex);
+            }
+        } else {
+            byte[] prefix = new byte[2];
+            in.mark(prefix.length);
+            int length = IOUtils.read(in, prefix);
+            in.reset();
+            encoding = ContentEncoding.detect(prefix, length);
+        }
+
+        return IOUtils.toString(encoding.decode(in), StandardCharsets.UTF_8);
+    }
+}
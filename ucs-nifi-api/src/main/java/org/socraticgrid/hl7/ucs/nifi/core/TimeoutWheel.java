@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.core;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed timer wheel used to expire pending commands.
+ *
+ * Scheduling and cancelling a timeout are O(1): a new timeout is queued and
+ * assigned to a bucket of the wheel by the worker thread on its next tick, and
+ * a cancelled timeout is just flagged and dropped when its bucket is visited.
+ * Timeouts are fired with a precision of one tick.
+ *
+ * @author esteban
+ */
+class TimeoutWheel implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimeoutWheel.class);
+
+    public static class Timeout {
+
+        private final long deadline;
+        private volatile Runnable task;
+        private long remainingRounds;
+
+        private Timeout(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        public void cancel() {
+            this.task = null;
+        }
+
+        public boolean isCancelled() {
+            return this.task == null;
+        }
+    }
+
+    private final long tickNanos;
+    private final List<Deque<Timeout>> wheel;
+    private final int mask;
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long startTime;
+    private long tick;
+
+    /**
+     * @param tickDuration
+     * @param unit
+     * @param wheelSize number of buckets. Rounded up to a power of 2.
+     * @param name the name of the worker thread.
+     */
+    public TimeoutWheel(long tickDuration, TimeUnit unit, int wheelSize, String name) {
+        this.tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.wheel = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            this.wheel.add(new ArrayDeque<>());
+        }
+        this.mask = size - 1;
+        this.startTime = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Schedules a task to be executed (in the wheel's thread) after the given
+     * delay, unless the returned Timeout is cancelled before. The task must
+     * be short: it delays the rest of the timeouts.
+     * @param task
+     * @param delay
+     * @param unit
+     * @return
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(System.nanoTime() - startTime + unit.toNanos(delay), task);
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            long deadline = tickNanos * (tick + 1);
+            long sleepNanos = deadline - (System.nanoTime() - startTime);
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+            this.transferNewTimeouts();
+            this.expireTimeouts(wheel.get((int) (tick & mask)));
+            tick++;
+        }
+    }
+
+    private void transferNewTimeouts() {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            long ticks = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (ticks - tick) / wheel.size();
+            //timeouts already in the past go to the current bucket.
+            wheel.get((int) (Math.max(ticks, tick) & mask)).add(timeout);
+        }
+    }
+
+    private void expireTimeouts(Deque<Timeout> bucket) {
+        for (Iterator<Timeout> it = bucket.iterator(); it.hasNext();) {
+            Timeout timeout = it.next();
+            if (timeout.isCancelled()) {
+                it.remove();
+            } else if (timeout.remainingRounds <= 0) {
+                it.remove();
+                Runnable task = timeout.task;
+                if (task != null) {
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        LOG.warn("Error executing timeout task.", e);
+                    }
+                }
+            } else {
+                timeout.remainingRounds--;
+            }
+        }
+    }
+
+    /**
+     * Stops the wheel. Pending timeouts are never fired.
+     */
+    @Override
+    public void close() {
+        this.worker.interrupt();
+    }
+}
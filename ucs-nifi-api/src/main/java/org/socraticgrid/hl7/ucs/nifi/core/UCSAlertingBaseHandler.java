@@ -16,6 +16,10 @@
 package org.socraticgrid.hl7.ucs.nifi.core;
 
 import com.sun.net.httpserver.HttpHandler;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import org.socraticgrid.hl7.services.uc.interfaces.UCSAlertingIntf;
 
 /**
@@ -24,13 +28,52 @@ import org.socraticgrid.hl7.services.uc.interfaces.UCSAlertingIntf;
  */
 public abstract class UCSAlertingBaseHandler implements HttpHandler{
     private final UCSAlertingIntf listener;
+    private final CallbackExecutor callbackExecutor;
 
+    /**
+     * The listener is notified in the HTTP thread handling the request.
+     * @param listener 
+     */
     public UCSAlertingBaseHandler(UCSAlertingIntf listener) {
+        this(listener, null);
+    }
+
+    /**
+     * @param listener
+     * @param callbackExecutor the executor used to notify the listener. If 
+     * null, the listener is notified in the HTTP thread handling the request.
+     */
+    public UCSAlertingBaseHandler(UCSAlertingIntf listener, CallbackExecutor callbackExecutor) {
         this.listener = listener;
+        this.callbackExecutor = callbackExecutor;
     }
 
     public UCSAlertingIntf getListener() {
         return listener;
     }
     
+    /**
+     * Notifies the listener using the callback executor of this handler.
+     * @param orderingKey see {@link CallbackExecutor#orderingKey(org.socraticgrid.hl7.services.uc.model.Message)}
+     * @param notification
+     * @throws RejectedExecutionException if the executor rejected the 
+     * notification.
+     */
+    protected void notifyListener(String orderingKey, Runnable notification) {
+        CallbackExecutor.execute(callbackExecutor, orderingKey, notification);
+    }
+    
+    /**
+     * Notifies the listener once per item using the callback executor of 
+     * this handler. Either all the notifications are accepted or none is.
+     * @param items
+     * @param orderingKey see {@link CallbackExecutor#orderingKey(org.socraticgrid.hl7.services.uc.model.Message)}
+     * @param notification
+     * @throws RejectedExecutionException if the executor rejected the 
+     * notifications.
+     */
+    protected <T> void notifyListener(List<T> items, Function<T, String> orderingKey, Consumer<T> notification) {
+        CallbackExecutor.executeAll(callbackExecutor, items, orderingKey, notification);
+    }
+    
 }
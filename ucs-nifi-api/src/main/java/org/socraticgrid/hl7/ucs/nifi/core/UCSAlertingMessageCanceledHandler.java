@@ -18,7 +18,7 @@ package org.socraticgrid.hl7.ucs.nifi.core;
 import com.sun.net.httpserver.HttpExchange;
 import java.io.IOException;
 import java.util.List;
-import org.apache.commons.io.IOUtils;
+import java.util.concurrent.RejectedExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.socraticgrid.hl7.services.uc.interfaces.UCSAlertingIntf;
@@ -38,29 +38,41 @@ public class UCSAlertingMessageCanceledHandler extends UCSAlertingBaseHandler{
     public UCSAlertingMessageCanceledHandler(UCSAlertingIntf listener) {
         super(listener);
     }
+
+    public UCSAlertingMessageCanceledHandler(UCSAlertingIntf listener, CallbackExecutor callbackExecutor) {
+        super(listener, callbackExecutor);
+    }
     
     @Override
     public void handle(HttpExchange he) throws IOException {
+        int status = 200;
         try{
-            String body = IOUtils.toString(he.getRequestBody());
+            String body = RequestBodies.read(he);
             
-            MessageWrapper messageWrapper;
-            try {
-                messageWrapper = MessageSerializer.deserializeMessageWrapper(body);
-            } catch (MessageSerializationException ex) {
-                LOG.error("Exception deserializing Message.", ex);
-                return;
-            }
+            //a single message or a batch of them
+            List<MessageWrapper> messageWrappers = MessageSerializer.deserializeMessageWrapperBatch(body);
 
-            MessageModel model = new MessageModel(messageWrapper.getMessage());
             List<String> localReceivers = null;
             //TODO: how do we know the serviceId
             String serverId = "<unknown>";
+
+            //the whole batch is accepted or rejected: a rejected batch is 
+            //retried by NiFi.
+            this.notifyListener(messageWrappers, mw -> CallbackExecutor.orderingKey(mw.getMessage()), messageWrapper -> {
+                this.getListener().cancelAlertMessage(new MessageModel(messageWrapper.getMessage()), localReceivers, serverId);
+            });
             
-            this.getListener().cancelAlertMessage(model, localReceivers, serverId);
-            
+        } catch (IOException ex) {
+            LOG.error("Error reading request.", ex);
+            status = 400;
+        } catch (MessageSerializationException ex) {
+            LOG.error("Exception deserializing Message.", ex);
+            status = 400;
+        } catch (RejectedExecutionException ex) {
+            LOG.warn("Listener notification rejected.", ex);
+            status = 503;
         } finally {
-            he.sendResponseHeaders(200, 0);
+            he.sendResponseHeaders(status, 0);
             he.close();
         }
         
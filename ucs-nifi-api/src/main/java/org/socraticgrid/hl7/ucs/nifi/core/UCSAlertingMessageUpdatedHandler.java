@@ -18,7 +18,7 @@ package org.socraticgrid.hl7.ucs.nifi.core;
 import com.sun.net.httpserver.HttpExchange;
 import java.io.IOException;
 import java.util.List;
-import org.apache.commons.io.IOUtils;
+import java.util.concurrent.RejectedExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.socraticgrid.hl7.services.uc.interfaces.UCSAlertingIntf;
@@ -39,19 +39,18 @@ public class UCSAlertingMessageUpdatedHandler extends UCSAlertingBaseHandler{
     public UCSAlertingMessageUpdatedHandler(UCSAlertingIntf listener) {
         super(listener);
     }
+
+    public UCSAlertingMessageUpdatedHandler(UCSAlertingIntf listener, CallbackExecutor callbackExecutor) {
+        super(listener, callbackExecutor);
+    }
     
     @Override
     public void handle(HttpExchange he) throws IOException {
+        int status = 200;
         try{
-            String body = IOUtils.toString(he.getRequestBody());
+            String body = RequestBodies.read(he);
 
-            XMLListWrapper<MessageWrapper> messages;
-            try {
-                messages = MessageSerializer.deserializeMessageWrappers(body);
-            } catch (MessageSerializationException ex) {
-                LOG.error("Exception deserializing Message.", ex);
-                return;
-            }
+            XMLListWrapper<MessageWrapper> messages = MessageSerializer.deserializeMessageWrappers(body);
             
             MessageModel oldModel = new MessageModel(messages.getItems().get(0).getMessage());
             MessageModel newModel = new MessageModel(messages.getItems().get(1).getMessage());
@@ -59,10 +58,21 @@ public class UCSAlertingMessageUpdatedHandler extends UCSAlertingBaseHandler{
             //TODO: how do we know the serviceId
             String serverId = "<unknown>";
             
-            this.getListener().updateAlertMessage(newModel, oldModel, localReceivers, serverId);
+            this.notifyListener(CallbackExecutor.orderingKey(messages.getItems().get(1).getMessage()), () -> {
+                this.getListener().updateAlertMessage(newModel, oldModel, localReceivers, serverId);
+            });
             
+        } catch (IOException ex) {
+            LOG.error("Error reading request.", ex);
+            status = 400;
+        } catch (MessageSerializationException ex) {
+            LOG.error("Exception deserializing Message.", ex);
+            status = 400;
+        } catch (RejectedExecutionException ex) {
+            LOG.warn("Listener notification rejected.", ex);
+            status = 503;
         } finally {
-            he.sendResponseHeaders(200, 0);
+            he.sendResponseHeaders(status, 0);
             he.close();
         }
         
@@ -17,7 +17,7 @@ package org.socraticgrid.hl7.ucs.nifi.core;
 
 import com.sun.net.httpserver.HttpExchange;
 import java.io.IOException;
-import org.apache.commons.io.IOUtils;
+import java.util.concurrent.RejectedExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.socraticgrid.hl7.services.uc.interfaces.UCSClientIntf;
@@ -37,20 +37,34 @@ public class UCSClientExceptionHandler extends UCSClientBaseHandler{
     public UCSClientExceptionHandler(UCSClientIntf listener) {
         super(listener);
     }
+
+    public UCSClientExceptionHandler(UCSClientIntf listener, CallbackExecutor callbackExecutor) {
+        super(listener, callbackExecutor);
+    }
     
     @Override
     public void handle(HttpExchange he) throws IOException {
+        int status = 200;
         try{
-            String body = IOUtils.toString(he.getRequestBody());
+            String body = RequestBodies.read(he);
 
             ExceptionWrapper ew = ExceptionWrapperSerializer.deserializeExceptionWrapper(body);
             
             LOG.error("Exception received from NiFi. Notyfing listener. Request body:\n{}.", body);
-            this.getListener().handleException(new MessageModel(ew.getMessage()), ew.getSender(), ew.getReceiver(), ew.getProcessingException(), ew.getServerId());
+            this.notifyListener(CallbackExecutor.orderingKey(ew.getMessage()), () -> {
+                this.getListener().handleException(new MessageModel(ew.getMessage()), ew.getSender(), ew.getReceiver(), ew.getProcessingException(), ew.getServerId());
+            });
+        } catch (IOException ex) {
+            LOG.error("Error reading request.", ex);
+            status = 400;
         } catch (MessageSerializationException ex) {
-            LOG.error("Listener notification failed.", ex);
-        } finally{
-            he.sendResponseHeaders(200, 0);
+            LOG.error("Exception deserializing ExceptionWrapper.", ex);
+            status = 400;
+        } catch (RejectedExecutionException ex) {
+            LOG.warn("Listener notification rejected.", ex);
+            status = 503;
+        } finally {
+            he.sendResponseHeaders(status, 0);
             he.close();
         }
     }
@@ -17,7 +17,8 @@ package org.socraticgrid.hl7.ucs.nifi.core;
 
 import com.sun.net.httpserver.HttpExchange;
 import java.io.IOException;
-import org.apache.commons.io.IOUtils;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.socraticgrid.hl7.services.uc.interfaces.UCSClientIntf;
@@ -37,32 +38,45 @@ public class UCSClientMessageHandler extends UCSClientBaseHandler{
     public UCSClientMessageHandler(UCSClientIntf listener) {
         super(listener);
     }
+
+    public UCSClientMessageHandler(UCSClientIntf listener, CallbackExecutor callbackExecutor) {
+        super(listener, callbackExecutor);
+    }
     
     @Override
     public void handle(HttpExchange he) throws IOException {
+        int status = 200;
         try{
-            String body = IOUtils.toString(he.getRequestBody());
+            String body = RequestBodies.read(he);
 
             //TODO: how do we know the serviceId
             String serviceId = "<unknown>";
 
             LOG.debug("Request recevied from nifi:\n {}", body);
-            MessageWrapper messageWrapper;
-            try {
-                messageWrapper = MessageSerializer.deserializeMessageWrapper(body);
-            } catch (MessageSerializationException ex) {
-                LOG.error("Exception deserializing Message.", ex);
-                return;
-            }
+            //a single message or a batch of them
+            List<MessageWrapper> messageWrappers = MessageSerializer.deserializeMessageWrapperBatch(body);
 
-            try {
-                this.getListener().receiveMessage(new MessageModel(messageWrapper.getMessage()), serviceId);
-            } catch (Exception ex) {
-                LOG.error("Listener notification failed.", ex);
-                //if the listener fails, there;s nothing we could do.
-            }
+            //the whole batch is accepted or rejected: a rejected batch is 
+            //retried by NiFi.
+            this.notifyListener(messageWrappers, mw -> CallbackExecutor.orderingKey(mw.getMessage()), messageWrapper -> {
+                try {
+                    this.getListener().receiveMessage(new MessageModel(messageWrapper.getMessage()), serviceId);
+                } catch (Exception ex) {
+                    LOG.error("Listener notification failed.", ex);
+                    //if the listener fails, there;s nothing we could do.
+                }
+            });
+        } catch (IOException ex) {
+            LOG.error("Error reading request.", ex);
+            status = 400;
+        } catch (MessageSerializationException ex) {
+            LOG.error("Exception deserializing Message.", ex);
+            status = 400;
+        } catch (RejectedExecutionException ex) {
+            LOG.warn("Listener notification rejected.", ex);
+            status = 503;
         } finally {
-            he.sendResponseHeaders(200, 0);
+            he.sendResponseHeaders(status, 0);
             he.close();
         }
         
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.ContentEncoding;
+
+/**
+ * {@link NiFiHTTPTransport} based on {@link HttpURLConnection}.
+ *
+ * Connections can only be reused through the JVM-wide keep-alive cache of
+ * HttpURLConnection, which can't be sized or tuned per session (see the
+ * 'http.keepAlive' and 'http.maxConnections' system properties). Use
+ * {@link PooledHTTPTransport} when latency matters.
+ *
+ * @author esteban
+ */
+public class URLConnectionHTTPTransport implements NiFiHTTPTransport {
+
+    private final ContentEncoding compression;
+    private final int compressionThreshold;
+
+    /**
+     * Requests are not compressed.
+     */
+    public URLConnectionHTTPTransport() {
+        this(ContentEncoding.IDENTITY, DEFAULT_COMPRESSION_THRESHOLD);
+    }
+
+    /**
+     * @param compression the encoding applied to the requests.
+     * @param compressionThreshold min. size (in bytes) of a request to be
+     * compressed.
+     */
+    public URLConnectionHTTPTransport(ContentEncoding compression, int compressionThreshold) {
+        this.compression = compression;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * HttpURLConnection keeps up to 'http.maxConnections' (5 by default)
+     * idle connections per destination.
+     */
+    @Override
+    public int getMaxConcurrentRequests() {
+        return Integer.getInteger("http.maxConnections", 5);
+    }
+
+    @Override
+    public int post(URL url, String content) throws IOException {
+        return this.post(url, content, Collections.emptyMap());
+    }
+
+    @Override
+    public int post(URL url, String content, Map<String, String> headers) throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        ContentEncoding encoding = compression.forSize(bytes.length, compressionThreshold);
+        bytes = encoding.encode(bytes);
+
+        //Create connection
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+        headers.forEach(connection::setRequestProperty);
+        //let NiFi know it can compress the responses it sends back.
+        connection.setRequestProperty("Accept-Encoding", ContentEncoding.ACCEPT_ALL);
+        if (encoding != ContentEncoding.IDENTITY) {
+            connection.setRequestProperty("Content-Encoding", encoding.getName());
+        }
+        connection.setFixedLengthStreamingMode(bytes.length);
+
+        connection.setUseCaches(false);
+        connection.setDoInput(true);
+        connection.setDoOutput(true);
+
+        //Send request
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(bytes);
+        }
+
+        //Get Response
+        int responseCode = connection.getResponseCode();
+
+        //The response has to be fully read (and the connection not
+        //disconnected) for the connection to be kept alive.
+        try (InputStream in = responseCode < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (in != null) {
+                byte[] buffer = new byte[1024];
+                while (in.read(buffer) != -1) {
+                    //discard
+                }
+            }
+        }
+        return responseCode;
+    }
+
+    @Override
+    public void close() throws IOException {
+        //nothing to release
+    }
+
+}
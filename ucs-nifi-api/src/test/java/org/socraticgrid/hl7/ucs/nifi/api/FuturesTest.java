@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.api;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author esteban
+ */
+public class FuturesTest {
+
+    @Test
+    public void testMap() throws Exception {
+        CompletableFuture<String> source = new CompletableFuture<>();
+        CompletableFuture<Integer> mapped = Futures.map(source, s -> Integer.parseInt(s));
+        assertThat(mapped.isDone(), is(false));
+
+        source.complete("42");
+        assertThat(Futures.get(mapped), is(42));
+    }
+
+    @Test
+    public void testCheckedExceptionsAreNotWrapped() throws Exception {
+        CompletableFuture<Integer> mapped = Futures.map(CompletableFuture.completedFuture("x"), s -> {
+            throw new IOException("Can't map " + s);
+        });
+        try {
+            Futures.get(mapped);
+            fail("Exception expected");
+        } catch (IOException e) {
+            //expected
+        }
+
+        CompletableFuture<String> failed = CompletableFuture.supplyAsync(() -> {
+            throw new IllegalStateException("Failed");
+        });
+        try {
+            Futures.get(Futures.map(failed, s -> s));
+            fail("Exception expected");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testCancellationIsPropagated() throws Exception {
+        CompletableFuture<String> source = new CompletableFuture<>();
+        Futures.map(source, s -> s).cancel(false);
+        assertThat(source.isCancelled(), is(true));
+
+        CompletableFuture<String> next = new CompletableFuture<>();
+        CompletableFuture<String> flatMapped = Futures.flatMap(CompletableFuture.completedFuture("a"), s -> next);
+        flatMapped.cancel(false);
+        assertThat(next.isCancelled(), is(true));
+    }
+
+    @Test
+    public void testFlatMap() throws Exception {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> result = Futures.flatMap(first, s -> CompletableFuture.supplyAsync(() -> s + "b"));
+        first.complete("a");
+        assertThat(Futures.get(result), is("ab"));
+
+        result = Futures.flatMap(CompletableFuture.completedFuture("a"), s -> Futures.failed(new IOException("Failed")));
+        try {
+            Futures.get(result);
+            fail("Exception expected");
+        } catch (Exception e) {
+            assertThat(e, instanceOf(IOException.class));
+        }
+    }
+}
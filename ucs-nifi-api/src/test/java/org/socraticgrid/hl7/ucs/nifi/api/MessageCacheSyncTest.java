@@ -0,0 +1,97 @@
+/* 
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+import org.socraticgrid.hl7.services.uc.model.Message;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageChanges;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.util.MessageBuilder;
+
+/**
+ * Tests how the result of a synchronization is merged into a
+ * {@link MessageCache}.
+ *
+ * @author esteban
+ */
+public class MessageCacheSyncTest {
+
+    @Test
+    public void testNewerVersionsAreKept() throws Exception {
+        MessageCache cache = new MessageCache.Builder().build();
+
+        //a callback delivers a version newer than the one being synchronized.
+        long generation = cache.beginSync();
+        cache.put(this.createMessage("M0", "New Subject", 2000));
+        cache.completeSync(generation, this.createChanges("s1", false, Arrays.asList(this.createMessage("M0", "Old Subject", 1000))));
+        assertThat(cache.getMessage("M0").get().getHeader().getSubject(), is("New Subject"));
+
+        //newer versions replace the cached one.
+        cache.completeSync(cache.beginSync(), this.createChanges("s2", false, Arrays.asList(this.createMessage("M0", "Newer Subject", 3000))));
+        assertThat(cache.getMessage("M0").get().getHeader().getSubject(), is("Newer Subject"));
+        assertThat(cache.getSyncPoint().get(), is("s2"));
+    }
+
+    @Test
+    public void testRemovedMessagesAreDropped() throws Exception {
+        MessageCache cache = new MessageCache.Builder().build();
+        cache.completeSync(cache.beginSync(), this.createChanges("s1", true, Arrays.asList(
+                this.createMessage("M0", "Subject", 1000),
+                this.createMessage("M1", "Subject", 1000),
+                this.createMessage("M2", "Subject", 1000))));
+
+        MessageChanges changes = this.createChanges("s2", false, new ArrayList<>());
+        changes.getRemovedMessageIds().add("M1");
+        cache.completeSync(cache.beginSync(), changes);
+        assertThat(this.getMessageIds(cache), contains("M0", "M2"));
+
+        //a full sync drops whatever UCS didn't return.
+        cache.completeSync(cache.beginSync(), this.createChanges("s3", true, Arrays.asList(this.createMessage("M2", "Subject", 1000))));
+        assertThat(this.getMessageIds(cache), contains("M2"));
+    }
+
+    private List<String> getMessageIds(MessageCache cache) {
+        return cache.getMessages().stream()
+                .map(m -> m.getHeader().getMessageId())
+                .collect(Collectors.toList());
+    }
+
+    private MessageChanges createChanges(String syncPoint, boolean fullSync, List<Message> messages) {
+        MessageChanges changes = new MessageChanges();
+        messages.forEach(m -> changes.getMessages().add(new MessageWrapper(m)));
+        changes.setSyncPoint(syncPoint);
+        changes.setFullSync(fullSync);
+        return changes;
+    }
+
+    private Message createMessage(String messageId, String subject, long lastModified) throws Exception {
+        return new MessageBuilder()
+                .withMessageId(messageId)
+                .withSender("eafry")
+                .withSubject(subject)
+                .withBody("Body")
+                .withLastModifiedDate(new Date(lastModified))
+                .buildMessage();
+    }
+}
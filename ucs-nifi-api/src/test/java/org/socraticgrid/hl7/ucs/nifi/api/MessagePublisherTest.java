@@ -0,0 +1,305 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.socraticgrid.hl7.services.uc.interfaces.UCSAlertingIntf;
+import org.socraticgrid.hl7.services.uc.interfaces.UCSClientIntf;
+import org.socraticgrid.hl7.services.uc.model.Message;
+import org.socraticgrid.hl7.services.uc.model.MessageModel;
+import org.socraticgrid.hl7.ucs.nifi.common.util.MessageBuilder;
+
+/**
+ *
+ * @author esteban
+ */
+public class MessagePublisherTest {
+
+    private static class TestSubscriber implements MessageSubscriber {
+
+        private final long initialRequest;
+        private volatile MessageSubscription subscription;
+        private final List<MessageEvent> events = Collections.synchronizedList(new ArrayList<>());
+        private volatile Throwable error;
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private volatile CountDownLatch received = new CountDownLatch(0);
+
+        public TestSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(MessageSubscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        @Override
+        public void onNext(MessageEvent event) {
+            events.add(event);
+            received.countDown();
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+            terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            terminated.countDown();
+        }
+
+        public void expect(int count) {
+            received = new CountDownLatch(count);
+        }
+
+        public void await() throws InterruptedException {
+            assertThat(received.await(5, TimeUnit.SECONDS), is(true));
+        }
+
+        public List<String> getMessageIds() {
+            synchronized (events) {
+                return events.stream().map(e -> e.getMessage().getHeader().getMessageId()).collect(toList());
+            }
+        }
+    }
+
+    private MessagePublisher publisher;
+    private UCSClientIntf client;
+    private UCSAlertingIntf alerting;
+
+    @Before
+    public void doBefore() {
+        publisher = new MessagePublisher.Builder().build();
+        client = publisher.wrap((UCSClientIntf) null);
+        alerting = publisher.wrap((UCSAlertingIntf) null);
+    }
+
+    @After
+    public void doAfter() {
+        publisher.close();
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        TestSubscriber subscriber = new TestSubscriber(2);
+        subscriber.expect(2);
+        publisher.subscribe(subscriber);
+
+        for (int i = 0; i < 5; i++) {
+            client.receiveMessage(this.createMessageModel("m" + i, null, "SMS"), "server");
+        }
+
+        subscriber.await();
+        //only the requested events are delivered.
+        Thread.sleep(200);
+        assertThat(subscriber.getMessageIds(), contains("m0", "m1"));
+        assertThat(subscriber.subscription.getBufferedCount(), is(3));
+
+        subscriber.expect(3);
+        subscriber.subscription.request(3);
+        subscriber.await();
+        assertThat(subscriber.getMessageIds(), contains("m0", "m1", "m2", "m3", "m4"));
+        assertThat(subscriber.subscription.getDroppedCount(), is(0L));
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        TestSubscriber subscriber = new TestSubscriber(0);
+        publisher.subscribe(subscriber, new MessageSubscriptionOptions.Builder()
+                .withBufferSize(3)
+                .withOverflowStrategy(MessageSubscriptionOptions.OverflowStrategy.DROP_OLDEST)
+                .build());
+
+        for (int i = 0; i < 5; i++) {
+            client.receiveMessage(this.createMessageModel("m" + i, null, "SMS"), "server");
+        }
+        assertThat(subscriber.subscription.getDroppedCount(), is(2L));
+
+        subscriber.expect(3);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        subscriber.await();
+        assertThat(subscriber.getMessageIds(), contains("m2", "m3", "m4"));
+    }
+
+    @Test
+    public void testDropLatest() throws Exception {
+        TestSubscriber subscriber = new TestSubscriber(0);
+        publisher.subscribe(subscriber, new MessageSubscriptionOptions.Builder()
+                .withBufferSize(3)
+                .withOverflowStrategy(MessageSubscriptionOptions.OverflowStrategy.DROP_LATEST)
+                .build());
+
+        for (int i = 0; i < 5; i++) {
+            client.receiveMessage(this.createMessageModel("m" + i, null, "SMS"), "server");
+        }
+        assertThat(subscriber.subscription.getDroppedCount(), is(2L));
+
+        subscriber.expect(3);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        subscriber.await();
+        assertThat(subscriber.getMessageIds(), contains("m0", "m1", "m2"));
+    }
+
+    @Test
+    public void testOverflowError() throws Exception {
+        TestSubscriber subscriber = new TestSubscriber(0);
+        publisher.subscribe(subscriber, new MessageSubscriptionOptions.Builder()
+                .withBufferSize(3)
+                .withOverflowStrategy(MessageSubscriptionOptions.OverflowStrategy.ERROR)
+                .build());
+
+        for (int i = 0; i < 5; i++) {
+            client.receiveMessage(this.createMessageModel("m" + i, null, "SMS"), "server");
+        }
+
+        assertThat(subscriber.terminated.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(subscriber.error, instanceOf(IllegalStateException.class));
+        assertThat(subscriber.events.isEmpty(), is(true));
+        assertThat(publisher.getSubscriptionCount(), is(0));
+    }
+
+    @Test
+    public void testFilters() throws Exception {
+        TestSubscriber conversationSubscriber = new TestSubscriber(Long.MAX_VALUE);
+        publisher.subscribe(conversationSubscriber, new MessageSubscriptionOptions.Builder()
+                .withConversationIds("c1")
+                .withServiceIds("SMS")
+                .build());
+
+        TestSubscriber alertSubscriber = new TestSubscriber(Long.MAX_VALUE);
+        publisher.subscribe(alertSubscriber, new MessageSubscriptionOptions.Builder()
+                .withTypes(MessageEvent.Type.ALERT_RECEIVED, MessageEvent.Type.ALERT_CANCELED)
+                .build());
+
+        conversationSubscriber.expect(2);
+        alertSubscriber.expect(2);
+
+        client.receiveMessage(this.createMessageModel("m0", "c1", "SMS"), "server");
+        client.receiveMessage(this.createMessageModel("m1", "c2", "SMS"), "server");
+        client.receiveMessage(this.createMessageModel("m2", "c1", "EMAIL"), "server");
+        client.receiveMessage(this.createMessageModel("m3", null, "SMS"), "server");
+        alerting.receiveAlertMessage(this.createMessageModel("m4", "c1", "SMS"), Collections.emptyList(), "server");
+        alerting.updateAlertMessage(this.createMessageModel("m4", "c1", "SMS"), this.createMessageModel("m4", "c1", "SMS"), Collections.emptyList(), "server");
+        alerting.cancelAlertMessage(this.createMessageModel("m5", null, "ALERT"), Collections.emptyList(), "server");
+
+        conversationSubscriber.await();
+        alertSubscriber.await();
+        publisher.close();
+
+        assertThat(conversationSubscriber.getMessageIds(), contains("m0", "m4", "m4"));
+        assertThat(conversationSubscriber.events.stream().map(e -> e.getType()).collect(toList()),
+                contains(MessageEvent.Type.MESSAGE_RECEIVED, MessageEvent.Type.ALERT_RECEIVED, MessageEvent.Type.ALERT_UPDATED));
+        assertThat(alertSubscriber.getMessageIds(), contains("m4", "m5"));
+        assertThat(publisher.getPublishedCount(), is(7L));
+    }
+
+    @Test
+    public void testSlowSubscriberDoesntBlockPublisher() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        TestSubscriber slowSubscriber = new TestSubscriber(Long.MAX_VALUE) {
+            @Override
+            public void onNext(MessageEvent event) {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onNext(event);
+            }
+        };
+        slowSubscriber.expect(100);
+        publisher.subscribe(slowSubscriber, new MessageSubscriptionOptions.Builder().withBufferSize(1000).build());
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            client.receiveMessage(this.createMessageModel("m" + i, null, "SMS"), "server");
+        }
+        assertThat(System.currentTimeMillis() - start, lessThan(2000L));
+
+        release.countDown();
+        slowSubscriber.await();
+        assertThat(slowSubscriber.getMessageIds().get(99), is("m99"));
+    }
+
+    @Test
+    public void testCompleteOnClose() throws Exception {
+        TestSubscriber subscriber = new TestSubscriber(0);
+        publisher.subscribe(subscriber);
+        client.receiveMessage(this.createMessageModel("m0", null, "SMS"), "server");
+        client.receiveMessage(this.createMessageModel("m1", null, "SMS"), "server");
+
+        subscriber.expect(1);
+        subscriber.subscription.request(1);
+        subscriber.await();
+
+        publisher.close();
+        //the buffered event is still pending.
+        assertThat(subscriber.terminated.getCount(), is(1L));
+
+        //events published after close() are ignored.
+        client.receiveMessage(this.createMessageModel("m2", null, "SMS"), "server");
+
+        subscriber.subscription.request(10);
+        assertThat(subscriber.terminated.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(subscriber.getMessageIds(), contains("m0", "m1"));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+        subscriber.expect(1);
+        publisher.subscribe(subscriber);
+        client.receiveMessage(this.createMessageModel("m0", null, "SMS"), "server");
+        subscriber.await();
+
+        subscriber.subscription.cancel();
+        assertThat(publisher.getSubscriptionCount(), is(0));
+        client.receiveMessage(this.createMessageModel("m1", null, "SMS"), "server");
+        Thread.sleep(200);
+        assertThat(subscriber.getMessageIds(), contains("m0"));
+    }
+
+    private MessageModel<Message> createMessageModel(String messageId, String conversationId, String serviceId) throws Exception {
+        MessageBuilder builder = new MessageBuilder()
+                .withMessageId(messageId)
+                .withSender("eafry")
+                .withSubject("Subject")
+                .withBody("Body")
+                .addRecipient(new MessageBuilder.Recipient("ealiverti", serviceId));
+        if (conversationId != null) {
+            builder.withConversationId(conversationId);
+        }
+        return new MessageModel<>(builder.buildMessage());
+    }
+}
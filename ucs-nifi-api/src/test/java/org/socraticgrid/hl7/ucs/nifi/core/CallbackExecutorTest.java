@@ -0,0 +1,242 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ *
+ * @author esteban
+ */
+public class CallbackExecutorTest {
+
+    private CallbackExecutor executor;
+
+    @After
+    public void doAfter() {
+        if (executor != null) {
+            executor.close();
+        }
+    }
+
+    @Test
+    public void testOrderingPerKey() throws Exception {
+        executor = new CallbackExecutor.Builder().withThreads(8).withQueueCapacity(10000).build();
+
+        int keys = 10;
+        int tasksPerKey = 200;
+        Map<String, List<Integer>> executions = new HashMap<>();
+        for (int k = 0; k < keys; k++) {
+            executions.put("conversation-" + k, Collections.synchronizedList(new ArrayList<>()));
+        }
+
+        CountDownLatch done = new CountDownLatch(keys * tasksPerKey);
+        for (int i = 0; i < tasksPerKey; i++) {
+            for (int k = 0; k < keys; k++) {
+                String key = "conversation-" + k;
+                int sequence = i;
+                executor.execute(key, () -> {
+                    if (ThreadLocalRandom.current().nextInt(10) == 0) {
+                        Thread.yield();
+                    }
+                    executions.get(key).add(sequence);
+                    done.countDown();
+                });
+            }
+        }
+
+        assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+        for (List<Integer> sequences : executions.values()) {
+            assertThat(sequences.size(), is(tasksPerKey));
+            for (int i = 0; i < tasksPerKey; i++) {
+                assertThat(sequences.get(i), is(i));
+            }
+        }
+        assertThat(executor.getCompletedCount(), is((long) keys * tasksPerKey));
+        assertThat(executor.getQueueDepth(), is(0));
+    }
+
+    @Test
+    public void testDifferentKeysRunInParallel() throws Exception {
+        executor = new CallbackExecutor.Builder().withThreads(2).build();
+
+        //both tasks must be running at the same time to pass the barrier.
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        CountDownLatch done = new CountDownLatch(2);
+        for (String key : new String[]{"a", "b"}) {
+            executor.execute(key, () -> {
+                try {
+                    barrier.await(5, TimeUnit.SECONDS);
+                    done.countDown();
+                } catch (Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+        }
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void testAbortPolicy() throws Exception {
+        executor = new CallbackExecutor.Builder().withThreads(1).withQueueCapacity(2).withRejectionPolicy(CallbackExecutor.RejectionPolicy.ABORT).build();
+        CountDownLatch release = this.blockExecutor();
+
+        executor.execute(null, () -> {});
+        executor.execute(null, () -> {});
+        assertThat(executor.getQueueDepth(), is(2));
+        try {
+            executor.execute(null, () -> {});
+            fail("RejectedExecutionException expected");
+        } catch (RejectedExecutionException ex) {
+            //expected
+        }
+        assertThat(executor.getRejectedCount(), is(1L));
+
+        release.countDown();
+    }
+
+    @Test
+    public void testBatchesAreAcceptedOrRejectedAsAWhole() throws Exception {
+        executor = new CallbackExecutor.Builder().withThreads(1).withQueueCapacity(3).withRejectionPolicy(CallbackExecutor.RejectionPolicy.ABORT).build();
+        CountDownLatch release = this.blockExecutor();
+
+        List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+        executor.executeAll(Arrays.asList(1, 2), i -> "key", executed::add);
+        assertThat(executor.getQueueDepth(), is(2));
+
+        //there is room for one of them, but not for both.
+        try {
+            executor.executeAll(Arrays.asList(3, 4), i -> "key", executed::add);
+            fail("RejectedExecutionException expected");
+        } catch (RejectedExecutionException ex) {
+            //expected
+        }
+        assertThat(executor.getQueueDepth(), is(2));
+        assertThat(executor.getRejectedCount(), is(2L));
+
+        release.countDown();
+        executor.close();
+        assertThat(executed, contains(1, 2));
+    }
+
+    @Test
+    public void testDiscardPolicy() throws Exception {
+        executor = new CallbackExecutor.Builder().withThreads(1).withQueueCapacity(1).withRejectionPolicy(CallbackExecutor.RejectionPolicy.DISCARD).build();
+        CountDownLatch release = this.blockExecutor();
+
+        AtomicBoolean discardedExecuted = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(null, done::countDown);
+        executor.execute(null, () -> discardedExecuted.set(true));
+        assertThat(executor.getRejectedCount(), is(1L));
+
+        release.countDown();
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+        executor.close();
+        assertThat(discardedExecuted.get(), is(false));
+    }
+
+    @Test
+    public void testBlockPolicy() throws Exception {
+        executor = new CallbackExecutor.Builder().withThreads(1).withQueueCapacity(1).withRejectionPolicy(CallbackExecutor.RejectionPolicy.BLOCK).build();
+        CountDownLatch release = this.blockExecutor();
+
+        executor.execute(null, () -> {});
+
+        CountDownLatch submitted = new CountDownLatch(1);
+        Thread submitter = new Thread(() -> {
+            executor.execute(null, () -> {});
+            submitted.countDown();
+        });
+        submitter.start();
+
+        //the queue is full: the submitter waits.
+        assertThat(submitted.await(200, TimeUnit.MILLISECONDS), is(false));
+
+        release.countDown();
+        assertThat(submitted.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(executor.getRejectedCount(), is(0L));
+    }
+
+    @Test
+    public void testLatencyMetrics() throws Exception {
+        executor = new CallbackExecutor.Builder().withThreads(1).build();
+
+        CountDownLatch done = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            executor.execute("key", () -> {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+        }
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+        //let the last task finish recording its metrics.
+        executor.close();
+
+        assertThat(executor.getCompletedCount(), is(5L));
+        assertThat(executor.getAverageExecutionLatencyMillis() >= 10, is(true));
+        //each task waited for the previous ones.
+        assertThat(executor.getMaxQueueLatencyMillis(), greaterThan(executor.getAverageQueueLatencyMillis()));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testClosedExecutorRejectsNotifications() {
+        executor = new CallbackExecutor.Builder().build();
+        executor.close();
+        executor.execute("key", () -> {});
+    }
+
+    /**
+     * Occupies the only thread of the executor until the returned latch is
+     * released.
+     */
+    private CountDownLatch blockExecutor() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(null, () -> {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+        return release;
+    }
+}
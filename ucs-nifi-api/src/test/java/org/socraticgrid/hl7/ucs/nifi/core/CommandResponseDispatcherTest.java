@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.core;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.socraticgrid.hl7.services.uc.exceptions.UCSException;
+
+/**
+ *
+ * @author esteban
+ */
+public class CommandResponseDispatcherTest {
+
+    private HttpServer server;
+    private CommandResponseDispatcher dispatcher;
+    private String baseURL;
+
+    @Before
+    public void doBefore() throws Exception {
+        dispatcher = new CommandResponseDispatcher();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext(CommandResponseDispatcher.CONTEXT, dispatcher);
+        server.start();
+        baseURL = "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    @After
+    public void doAfter() {
+        dispatcher.close();
+        server.stop(0);
+    }
+
+    private int respond(String context, String body, Map<String, String> headers) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseURL + context).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        if (headers != null) {
+            headers.forEach(connection::setRequestProperty);
+        }
+        connection.getOutputStream().write(body.getBytes("UTF-8"));
+        connection.getOutputStream().close();
+        return connection.getResponseCode();
+    }
+
+    @Test
+    public void testResponsesAreDispatchedByCommandId() throws Exception {
+        List<CompletableFuture<NiFiCommandResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(dispatcher.register("C" + i, 10, TimeUnit.SECONDS));
+        }
+        assertThat(dispatcher.getPendingCommandsCount(), is(10));
+
+        //respond in reverse order
+        for (int i = 9; i >= 0; i--) {
+            assertThat(this.respond(dispatcher.getResponseContext("C" + i), "Response " + i, null), is(200));
+        }
+
+        for (int i = 0; i < 10; i++) {
+            NiFiCommandResponse response = futures.get(i).get(1, TimeUnit.SECONDS);
+            assertThat(response.getBody(), is("Response " + i));
+            assertThat(response.getCode(), is(200));
+        }
+        assertThat(dispatcher.getPendingCommandsCount(), is(0));
+    }
+
+    @Test
+    public void testResponseDispatchedByHeader() throws Exception {
+        CompletableFuture<NiFiCommandResponse> future = dispatcher.register("C1", 10, TimeUnit.SECONDS);
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put(CommandResponseDispatcher.COMMAND_ID_HEADER, "C1");
+        headers.put("Ucs.registration.id", "R1");
+        this.respond(CommandResponseDispatcher.CONTEXT.substring(1), "Response", headers);
+
+        NiFiCommandResponse response = future.get(1, TimeUnit.SECONDS);
+        assertThat(response.getHeaderAttributeFirstValue("Ucs.registration.id"), is("R1"));
+    }
+
+    @Test
+    public void testUCSExceptionResponse() throws Exception {
+        CompletableFuture<NiFiCommandResponse> future = dispatcher.register("C1", 10, TimeUnit.SECONDS);
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put(NiFiHTTPExceptionHandler.Attribute.TYPE.getAttributeName(), "General");
+        headers.put(NiFiHTTPExceptionHandler.Attribute.FAULT.getAttributeName(), "Something went wrong");
+        this.respond(dispatcher.getResponseContext("C1"), "", headers);
+
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("Exception expected");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(UCSException.class));
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        CompletableFuture<NiFiCommandResponse> future = dispatcher.register("C1", 200, TimeUnit.MILLISECONDS);
+        CompletableFuture<NiFiCommandResponse> otherFuture = dispatcher.register("C2", 10, TimeUnit.SECONDS);
+        try {
+            future.get(2, TimeUnit.SECONDS);
+            fail("Exception expected");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(TimeoutException.class));
+        }
+        assertThat(otherFuture.isDone(), is(false));
+        assertThat(dispatcher.getPendingCommandsCount(), is(1));
+
+        //a late response is ignored
+        assertThat(this.respond(dispatcher.getResponseContext("C1"), "Late response", null), is(200));
+        assertThat(dispatcher.getPendingCommandsCount(), is(1));
+    }
+
+    @Test
+    public void testCancelledCommandsAreUnregistered() throws Exception {
+        CompletableFuture<NiFiCommandResponse> future = dispatcher.register("C1", 10, TimeUnit.SECONDS);
+        future.cancel(false);
+        assertThat(dispatcher.getPendingCommandsCount(), is(0));
+    }
+
+    @Test
+    public void testCloseFailsPendingCommands() throws Exception {
+        CompletableFuture<NiFiCommandResponse> future = dispatcher.register("C1", 10, TimeUnit.SECONDS);
+        dispatcher.close();
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("Exception expected");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(IOException.class));
+        }
+    }
+}
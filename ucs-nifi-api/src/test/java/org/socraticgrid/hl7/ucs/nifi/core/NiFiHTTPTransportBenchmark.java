@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.core;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the latency of {@link URLConnectionHTTPTransport} and
+ * {@link PooledHTTPTransport} when POSTing a command to an in-process stub of
+ * NiFi's ListenHTTP processor. The benchmark is run with 1, 4 and 16 threads.
+ *
+ * Run it with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.socraticgrid.hl7.ucs.nifi.core.NiFiHTTPTransportBenchmark
+ *
+ * @author esteban
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NiFiHTTPTransportBenchmark {
+
+    private static final String COMMAND = "<command><name>getMessages</name><args><arg>100</arg></args></command>";
+
+    @Param({"urlConnection", "pooled"})
+    private String transportType;
+
+    private HttpServer server;
+    private URL url;
+    private NiFiHTTPTransport transport;
+
+    @Setup
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/contentListener", he -> {
+            IOUtils.toByteArray(he.getRequestBody());
+            he.sendResponseHeaders(200, -1);
+            he.close();
+        });
+        server.start();
+        url = new URL("http://localhost:" + server.getAddress().getPort() + "/contentListener");
+
+        transport = "pooled".equals(transportType)
+                ? new PooledHTTPTransport.Builder().withMaxConnectionsPerHost(16).build()
+                : new URLConnectionHTTPTransport();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        transport.close();
+        server.stop(0);
+    }
+
+    @Benchmark
+    public int post() throws IOException {
+        return transport.post(url, COMMAND);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 4, 16}) {
+            new Runner(new OptionsBuilder()
+                    .include(NiFiHTTPTransportBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+}
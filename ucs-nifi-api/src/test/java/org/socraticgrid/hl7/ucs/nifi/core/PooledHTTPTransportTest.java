@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.core;
+
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.ContentEncoding;
+
+/**
+ *
+ * @author esteban
+ */
+public class PooledHTTPTransportTest {
+
+    private HttpServer server;
+    private URL url;
+    private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+    private final List<String> bodies = new ArrayList<>();
+    private final List<String> contentEncodings = new ArrayList<>();
+    private volatile long responseDelay = 0;
+
+    @Before
+    public void doBefore() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/contentListener", he -> {
+            connections.add(he.getRemoteAddress());
+            String body = RequestBodies.read(he);
+            synchronized (bodies) {
+                bodies.add(body);
+                contentEncodings.add(String.valueOf(he.getRequestHeaders().getFirst("Content-Encoding")));
+            }
+            try {
+                Thread.sleep(responseDelay);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            he.sendResponseHeaders(200, -1);
+            he.close();
+        });
+        server.start();
+        url = new URL("http://localhost:" + server.getAddress().getPort() + "/contentListener");
+    }
+
+    @After
+    public void doAfter() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testConnectionsAreReused() throws Exception {
+        try (PooledHTTPTransport transport = new PooledHTTPTransport.Builder().build()) {
+            for (int i = 0; i < 20; i++) {
+                assertThat(transport.post(url, "<command>" + i + "</command>"), is(200));
+            }
+        }
+        assertThat(bodies.size(), is(20));
+        assertThat(bodies.get(19), is("<command>19</command>"));
+        assertThat(connections.size(), is(1));
+    }
+
+    @Test
+    public void testContentIsSentAsUTF8() throws Exception {
+        for (NiFiHTTPTransport transport : new NiFiHTTPTransport[]{new URLConnectionHTTPTransport(), new PooledHTTPTransport.Builder().build()}) {
+            try {
+                assertThat(transport.post(url, "Niño €"), is(200));
+            } finally {
+                transport.close();
+            }
+        }
+        assertThat(bodies.get(0), is("Niño €"));
+        assertThat(bodies.get(1), is("Niño €"));
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        StringBuilder large = new StringBuilder("Niño € ");
+        for (int i = 0; i < 100; i++) {
+            large.append("<command>").append(i).append("</command>");
+        }
+
+        for (NiFiHTTPTransport transport : new NiFiHTTPTransport[]{
+            new URLConnectionHTTPTransport(ContentEncoding.GZIP, 512),
+            new PooledHTTPTransport.Builder().withCompression(ContentEncoding.DEFLATE, 512).build()}) {
+            try {
+                //below the threshold
+                assertThat(transport.post(url, "<command/>"), is(200));
+                assertThat(transport.post(url, large.toString()), is(200));
+            } finally {
+                transport.close();
+            }
+        }
+
+        assertThat(bodies.size(), is(4));
+        assertThat(contentEncodings.get(0), is("null"));
+        assertThat(contentEncodings.get(1), is("gzip"));
+        assertThat(contentEncodings.get(2), is("null"));
+        assertThat(contentEncodings.get(3), is("deflate"));
+        assertThat(bodies.get(0), is("<command/>"));
+        assertThat(bodies.get(1), is(large.toString()));
+        assertThat(bodies.get(3), is(large.toString()));
+    }
+
+    @Test
+    public void testMaxConnectionsPerHost() throws Exception {
+        responseDelay = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (PooledHTTPTransport transport = new PooledHTTPTransport.Builder().withMaxConnectionsPerHost(2).build()) {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                results.add(executor.submit(() -> transport.post(url, "message")));
+            }
+            for (Future<Integer> result : results) {
+                assertThat(result.get(), is(200));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(bodies.size(), is(16));
+        assertThat(connections.size(), lessThanOrEqualTo(2));
+    }
+
+    @Test
+    public void testIdleConnectionsAreEvicted() throws Exception {
+        try (PooledHTTPTransport transport = new PooledHTTPTransport.Builder()
+                .withIdleTimeout(100)
+                .withEvictionInterval(20)
+                .build()) {
+            assertThat(transport.post(url, "first"), is(200));
+            Thread.sleep(500);
+            assertThat(transport.post(url, "second"), is(200));
+        }
+        assertThat(connections.size(), is(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLimits() {
+        new PooledHTTPTransport.Builder().withMaxConnectionsPerHost(10).withMaxConnections(5).build();
+    }
+}
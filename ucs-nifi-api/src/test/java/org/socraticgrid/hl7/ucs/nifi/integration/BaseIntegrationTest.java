@@ -78,13 +78,9 @@ public class BaseIntegrationTest {
     @Before
     public void doBefore() throws IOException, InterruptedException {
         ConfigUtils configUtils = ConfigUtils.getInstance(CONFIG_UTILS_CONTEXT);
-        String clientHost = configUtils.getString("client.host", DEFAULT_CLIENT_HOST);
-        String nifiHost = configUtils.getString("nifi.host", DEFAULT_NIFI_HOST);
         this.sleepTime = Long.parseLong(configUtils.getString("sleep.time", DEFAULT_SLEEP_TIME));
         
-        session = new UCSNiFiSession.UCSNiFiSessionBuilder()
-                .withClientHost(clientHost)
-                .withNifiHost(nifiHost)
+        session = this.createSessionBuilder()
                 .withUCSClientListener(new UCSClientAdapter() {
 
                     @Override
@@ -123,6 +119,17 @@ public class BaseIntegrationTest {
         conversation = session.getNewConversation();
     }
 
+    /**
+     * @return a session builder pointing to the configured NiFi and Client
+     * hosts.
+     */
+    protected UCSNiFiSession.UCSNiFiSessionBuilder createSessionBuilder() {
+        ConfigUtils configUtils = ConfigUtils.getInstance(CONFIG_UTILS_CONTEXT);
+        return new UCSNiFiSession.UCSNiFiSessionBuilder()
+                .withClientHost(configUtils.getString("client.host", DEFAULT_CLIENT_HOST))
+                .withNifiHost(configUtils.getString("nifi.host", DEFAULT_NIFI_HOST));
+    }
+
     @After
     public void doAfter() throws IOException {
         if (session != null) {
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.integration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import static java.util.stream.Collectors.joining;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+import org.socraticgrid.hl7.services.uc.model.ServiceInfo;
+import org.socraticgrid.hl7.services.uc.model.Status;
+import org.socraticgrid.hl7.ucs.nifi.api.UCSNiFiBatch;
+
+/**
+ *
+ * @author esteban
+ */
+public class CommandBatchTest extends BaseIntegrationTest {
+
+    @Test
+    public void batchTest() throws Exception {
+        UCSNiFiBatch batch = this.session.batch();
+
+        CompletableFuture<List<Status>> status = batch.management().getStatusAsync(null, null);
+        CompletableFuture<List<ServiceInfo>> channels = batch.management().discoverChannelsAsync();
+        assertThat(batch.size(), is(2));
+        assertThat(status.isDone(), is(false));
+
+        batch.execute();
+
+        //the results must be the same we get when the commands are sent
+        //individually.
+        assertThat(status.get(), hasSize(this.management.getStatus(null, null).size()));
+        assertThat(channels.get().stream()
+                .map(si -> si.getServiceName())
+                .sorted()
+                .collect(joining(", ")),
+                is(this.management.discoverChannels().stream()
+                        .map(si -> si.getServiceName())
+                        .sorted()
+                        .collect(joining(", "))));
+    }
+
+    @Test
+    public void bigBatchTest() throws Exception {
+        UCSNiFiBatch batch = this.session.batch();
+
+        List<CompletableFuture<List<Status>>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(batch.management().getStatusAsync(null, null));
+        }
+
+        batch.execute();
+
+        for (CompletableFuture<List<Status>> future : futures) {
+            assertThat(future.get(), hasSize(5));
+        }
+    }
+
+    @Test
+    public void emptyBatchTest() throws Exception {
+        UCSNiFiBatch batch = this.session.batch();
+        assertThat(batch.size(), is(0));
+        batch.execute();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void executeTwiceTest() throws Exception {
+        UCSNiFiBatch batch = this.session.batch();
+        batch.management().getStatusAsync(null, null);
+        batch.execute();
+        batch.execute();
+    }
+}
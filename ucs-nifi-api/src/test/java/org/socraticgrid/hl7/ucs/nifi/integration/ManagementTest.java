@@ -15,7 +15,10 @@
  */
 package org.socraticgrid.hl7.ucs.nifi.integration;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toSet;
 import static org.hamcrest.Matchers.both;
@@ -27,6 +30,7 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.socraticgrid.hl7.services.uc.model.ServiceInfo;
 import org.socraticgrid.hl7.services.uc.model.Status;
+import org.socraticgrid.hl7.ucs.nifi.api.ManagementImpl;
 
 /**
  *
@@ -67,4 +71,19 @@ public class ManagementTest extends BaseIntegrationTest {
         
     }
     
+    @Test
+    public void getStatusAsyncTest() throws Exception {
+        //a single thread drives all the concurrent requests.
+        List<CompletableFuture<List<Status>>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(((ManagementImpl)this.management).getStatusAsync(null, null));
+        }
+        
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).get(30, TimeUnit.SECONDS);
+        
+        for (CompletableFuture<List<Status>> future : futures) {
+            assertThat(future.get(), hasSize(5));
+        }
+    }
+    
 }
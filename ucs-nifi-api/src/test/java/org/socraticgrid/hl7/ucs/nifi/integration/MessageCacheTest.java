@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.integration;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.socraticgrid.hl7.services.uc.model.Message;
+import org.socraticgrid.hl7.services.uc.model.MessageModel;
+import org.socraticgrid.hl7.ucs.nifi.api.ClientImpl;
+import org.socraticgrid.hl7.ucs.nifi.api.MessageCache;
+import org.socraticgrid.hl7.ucs.nifi.api.UCSNiFiSession;
+import org.socraticgrid.hl7.ucs.nifi.common.util.MessageBuilder;
+
+/**
+ * Compares the messages served by a client with a {@link MessageCache}
+ * against the ones retrieved from UCS by a client without it.
+ *
+ * @author esteban
+ */
+public class MessageCacheTest extends BaseIntegrationTest {
+
+    private UCSNiFiSession cachedSession;
+    private ClientImpl cachedClient;
+    private MessageCache cache;
+
+    @Before
+    public void createCachedSession() throws IOException, InterruptedException {
+        cache = new MessageCache.Builder().withMaxStalenessMillis(0).build();
+        cachedSession = this.createSessionBuilder()
+                .withMessageCache(cache)
+                .build();
+        cachedClient = (ClientImpl) cachedSession.getNewClient();
+    }
+
+    @After
+    public void disposeCachedSession() throws IOException {
+        if (cachedSession != null) {
+            cachedSession.dispose();
+        }
+    }
+
+    @Test
+    public void consistencyTest() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            client.sendMessage(this.createMessage(i));
+        }
+        this.sleep();
+
+        //first read: the whole store is retrieved.
+        this.assertConsistent();
+        assertThat(cache.getMissCount(), is(1L));
+        assertThat(cache.getSyncCount(), is(1L));
+
+        //second read: served from the cache.
+        this.assertConsistent();
+        assertThat(cache.getHitCount(), is(1L));
+        assertThat(cache.getSyncCount(), is(1L));
+
+        //messages sent by other clients are retrieved by the next
+        //synchronization.
+        for (int i = 5; i < 10; i++) {
+            client.sendMessage(this.createMessage(i));
+        }
+        this.sleep();
+        cache.invalidate();
+        this.assertConsistent();
+        assertThat(cache.getSyncCount(), is(2L));
+
+        //messages sent by the cached client invalidate its cache.
+        String messageId = cachedClient.sendMessage(this.createMessage(10));
+        this.sleep();
+        assertThat(cachedClient.listMessages().stream()
+                .map(m -> m.getHeader().getMessageId())
+                .collect(Collectors.toList()), hasItem(messageId));
+        this.assertConsistent();
+
+        //queries are evaluated against the cache.
+        assertThat(cachedClient.queryMessage("sender = eafry").size(), is(client.queryMessage("sender = eafry").size()));
+    }
+
+    private void assertConsistent() throws Exception {
+        List<String> expected = this.getMessageIds(((ClientImpl) client).listMessages());
+        List<String> cached = this.getMessageIds(cachedClient.listMessages());
+        assertThat(cached.stream().sorted().collect(Collectors.toList()), is(expected.stream().sorted().collect(Collectors.toList())));
+    }
+
+    private List<String> getMessageIds(List<Message> messages) {
+        return messages.stream()
+                .map(m -> m.getHeader().getMessageId())
+                .collect(Collectors.toList());
+    }
+
+    private MessageModel createMessage(int i) throws Exception {
+        return new MessageModel(new MessageBuilder()
+                .withMessageId(UUID.randomUUID().toString())
+                .withSender("eafry")
+                .withSubject("Subject " + i)
+                .withBody("Body " + i)
+                .buildMessage());
+    }
+}
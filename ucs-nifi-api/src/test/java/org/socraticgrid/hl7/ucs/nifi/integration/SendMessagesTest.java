@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.integration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socraticgrid.hl7.services.uc.model.MessageModel;
+import org.socraticgrid.hl7.ucs.nifi.api.ClientImpl;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageSubmissionResult;
+import org.socraticgrid.hl7.ucs.nifi.common.util.MessageBuilder;
+
+/**
+ *
+ * @author esteban
+ */
+public class SendMessagesTest extends BaseIntegrationTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SendMessagesTest.class);
+
+    private static final int BATCH_SIZE = 200;
+
+    @Test
+    public void sendMessagesTest() throws Exception {
+        String duplicatedId = UUID.randomUUID().toString();
+
+        List<MessageModel> messages = this.createMessages(3);
+        messages.get(0).getMessageType().getHeader().setMessageId(duplicatedId);
+        messages.get(2).getMessageType().getHeader().setMessageId(duplicatedId);
+
+        List<MessageSubmissionResult> results = ((ClientImpl) client).sendMessages(messages);
+
+        assertThat(results, hasSize(3));
+        assertThat(results.get(0).isValid(), is(true));
+        assertThat(results.get(0).getMessageId(), is(duplicatedId));
+        assertThat(results.get(1).isValid(), is(true));
+        //duplicated ids inside the same batch are rejected.
+        assertThat(results.get(2).isValid(), is(false));
+    }
+
+    /**
+     * Compares the time it takes to send {@link #BATCH_SIZE} messages one
+     * by one against the time it takes to send them in a single batch.
+     * @throws Exception
+     */
+    @Test
+    public void throughputTest() throws Exception {
+        ClientImpl clientImpl = (ClientImpl) client;
+
+        //warm up
+        clientImpl.sendMessages(this.createMessages(10));
+        for (MessageModel message : this.createMessages(10)) {
+            clientImpl.sendMessage(message);
+        }
+
+        List<MessageModel> messages = this.createMessages(BATCH_SIZE);
+        long start = System.nanoTime();
+        for (MessageModel message : messages) {
+            clientImpl.sendMessage(message);
+        }
+        long individualTime = System.nanoTime() - start;
+
+        messages = this.createMessages(BATCH_SIZE);
+        start = System.nanoTime();
+        List<MessageSubmissionResult> results = clientImpl.sendMessages(messages);
+        long batchTime = System.nanoTime() - start;
+
+        assertThat(results, hasSize(BATCH_SIZE));
+        assertThat(results.stream().allMatch(MessageSubmissionResult::isValid), is(true));
+
+        LOG.info("{} messages sent one by one in {}ms ({} msg/s)", BATCH_SIZE, TimeUnit.NANOSECONDS.toMillis(individualTime), this.throughput(individualTime));
+        LOG.info("{} messages sent in a single batch in {}ms ({} msg/s)", BATCH_SIZE, TimeUnit.NANOSECONDS.toMillis(batchTime), this.throughput(batchTime));
+    }
+
+    private long throughput(long nanos) {
+        return BATCH_SIZE * TimeUnit.SECONDS.toNanos(1) / Math.max(nanos, 1);
+    }
+
+    private List<MessageModel> createMessages(int size) throws Exception {
+        List<MessageModel> messages = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            messages.add(new MessageModel(new MessageBuilder()
+                    .withMessageId(UUID.randomUUID().toString())
+                    .withSender("eafry")
+                    .withSubject("Subject " + i)
+                    .withBody("Body " + i)
+                    .buildMessage()));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.common.model;
+
+import java.util.HashMap;
+import java.util.Map;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The response of a single command executed as part of a batch of
+ * commands. The index is the position of the command inside the batch.
+ * The attributes are the ones that would have been sent as HTTP headers if
+ * the command had been sent individually (i.e. 'ucs.next.cursor' or the
+ * 'ucs.exception.*' attributes of a failed command).
+ *
+ * @author esteban
+ */
+@XmlRootElement
+public class CommandResult {
+
+    private int index;
+    private String name;
+    private boolean successful;
+    private Map<String, String> attributes = new HashMap<>();
+    private String body;
+
+    public CommandResult() {
+    }
+
+    public CommandResult(int index, String name, boolean successful, Map<String, String> attributes, String body) {
+        this.index = index;
+        this.name = name;
+        this.successful = successful;
+        this.attributes = attributes;
+        this.body = body;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    public void setSuccessful(boolean successful) {
+        this.successful = successful;
+    }
+
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+
+    public void setAttributes(Map<String, String> attributes) {
+        this.attributes = attributes;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public void setBody(String body) {
+        this.body = body;
+    }
+
+    @Override
+    public String toString() {
+        return "CommandResult{" + "index=" + index + ", name=" + name + ", successful=" + successful + ", attributes=" + attributes + '}';
+    }
+
+}
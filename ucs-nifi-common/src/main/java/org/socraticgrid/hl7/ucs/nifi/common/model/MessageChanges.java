@@ -0,0 +1,101 @@
+/* 
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.common.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * A page of the messages saved, updated or removed in UCS since a sync 
+ * point, and the sync point to be used to retrieve the next changes. 
+ * When fullSync is true, the pages contain every message known by UCS: any
+ * other message the receiver has was removed.
+ * While nextCursor is present, it must be used to retrieve the next page.
+ * The sync point is only meaningful once every page was retrieved.
+ *
+ * @author esteban
+ */
+@XmlRootElement
+public class MessageChanges {
+
+    private List<MessageWrapper> messages = new ArrayList<>();
+    private List<String> removedMessageIds = new ArrayList<>();
+    private String syncPoint;
+    private boolean fullSync;
+    private String nextCursor;
+
+    public MessageChanges() {
+    }
+
+    public MessageChanges(List<MessageWrapper> messages, List<String> removedMessageIds, String syncPoint, boolean fullSync, String nextCursor) {
+        this.messages = messages;
+        this.removedMessageIds = removedMessageIds;
+        this.syncPoint = syncPoint;
+        this.fullSync = fullSync;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<MessageWrapper> getMessages() {
+        return messages;
+    }
+
+    public void setMessages(List<MessageWrapper> messages) {
+        this.messages = messages;
+    }
+
+    public List<String> getRemovedMessageIds() {
+        return removedMessageIds;
+    }
+
+    public void setRemovedMessageIds(List<String> removedMessageIds) {
+        this.removedMessageIds = removedMessageIds;
+    }
+
+    public String getSyncPoint() {
+        return syncPoint;
+    }
+
+    public void setSyncPoint(String syncPoint) {
+        this.syncPoint = syncPoint;
+    }
+
+    public boolean isFullSync() {
+        return fullSync;
+    }
+
+    public void setFullSync(boolean fullSync) {
+        this.fullSync = fullSync;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageChanges{" + "messages=" + messages.size() + ", removedMessageIds=" + removedMessageIds.size() + ", syncPoint=" + syncPoint + ", fullSync=" + fullSync + ", nextCursor=" + nextCursor + '}';
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.common.model;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The outcome of the validation of a single message submitted as part of a
+ * batch. The index is the position of the message inside the batch.
+ * An invalid message is not processed and its error explains why.
+ *
+ * @author esteban
+ */
+@XmlRootElement
+public class MessageSubmissionResult {
+
+    private int index;
+    private String messageId;
+    private boolean valid;
+    private String error;
+
+    public MessageSubmissionResult() {
+    }
+
+    public MessageSubmissionResult(int index, String messageId, boolean valid, String error) {
+        this.index = index;
+        this.messageId = messageId;
+        this.valid = valid;
+        this.error = error;
+    }
+
+    public static MessageSubmissionResult valid(int index, String messageId) {
+        return new MessageSubmissionResult(index, messageId, true, null);
+    }
+
+    public static MessageSubmissionResult invalid(int index, String messageId, String error) {
+        return new MessageSubmissionResult(index, messageId, false, error);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public void setValid(boolean valid) {
+        this.valid = valid;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageSubmissionResult{" + "index=" + index + ", messageId=" + messageId + ", valid=" + valid + ", error=" + error + '}';
+    }
+
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.common.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.socraticgrid.hl7.services.uc.model.Message;
+import org.socraticgrid.hl7.services.uc.model.QueryFilter;
+
+/**
+ * A conjunction of {@link QueryCriterion}: a message matches the query if
+ * it matches every criterion. An empty query matches every message.
+ *
+ * The textual form of a query is a list of criteria separated by 'AND':
+ * <pre>
+ * sender = 'eafry' AND serviceId = SMS AND created &gt;= 2015-06-01
+ * </pre>
+ * Field names and the 'AND' keyword are case insensitive. Values can be
+ * quoted with single or double quotes (a quote is escaped by doubling it)
+ * and must be quoted if they contain spaces.
+ *
+ * {@link QueryFilter}s are translated into criteria too: see
+ * {@link #parse(String, List)}.
+ *
+ * @author esteban
+ */
+public class MessageQuery {
+
+    public static final MessageQuery ALL = new MessageQuery(Collections.EMPTY_LIST);
+
+    private final List<QueryCriterion> criteria;
+
+    public MessageQuery(List<QueryCriterion> criteria) {
+        this.criteria = Collections.unmodifiableList(new ArrayList<>(criteria));
+    }
+
+    public List<QueryCriterion> getCriteria() {
+        return criteria;
+    }
+
+    public boolean isEmpty() {
+        return criteria.isEmpty();
+    }
+
+    /**
+     * @param field
+     * @return whether every criterion of this query is on the given field.
+     */
+    public boolean isOnlyOn(QueryField field) {
+        return !criteria.isEmpty() && criteria.stream().allMatch(c -> c.getField() == field);
+    }
+
+    public boolean matches(Message message) {
+        return criteria.stream().allMatch(c -> c.matches(message));
+    }
+
+    /**
+     * @param query
+     * @return
+     * @throws IllegalArgumentException if the query is not valid.
+     */
+    public static MessageQuery parse(String query) {
+        return parse(query, null);
+    }
+
+    /**
+     * Parses a query and a list of {@link QueryFilter}s into a single
+     * query.
+     *
+     * Each {@link QueryFilter} becomes an equality criterion on the
+     * {@link QueryField} named by its filter name. Subclasses of
+     * {@link QueryFilter} are not supported.
+     *
+     * @param query the textual query. Can be null.
+     * @param filters Can be null.
+     * @return
+     * @throws IllegalArgumentException if the query or any of the filters is
+     * not valid.
+     */
+    public static MessageQuery parse(String query, List<QueryFilter> filters) {
+        List<QueryCriterion> criteria = new ArrayList<>();
+        if (query != null && !query.trim().isEmpty()) {
+            criteria.addAll(new Parser(query).parse());
+        }
+        if (filters != null) {
+            for (QueryFilter filter : filters) {
+                criteria.add(fromFilter(filter));
+            }
+        }
+        return criteria.isEmpty() ? ALL : new MessageQuery(criteria);
+    }
+
+    private static QueryCriterion fromFilter(QueryFilter filter) {
+        if (filter == null || filter.getClass() != QueryFilter.class) {
+            throw new IllegalArgumentException("Unsupported QueryFilter: " + filter);
+        }
+        if (filter.getFilterName() == null || filter.getFilterValue() == null) {
+            throw new IllegalArgumentException("QueryFilter without name or value: " + filter);
+        }
+        return createCriterion(filter.getFilterName(), QueryOperator.EQUALS.getSymbol(), filter.getFilterValue().toString());
+    }
+
+    private static QueryCriterion createCriterion(String fieldName, String operatorSymbol, String value) {
+        QueryField field = QueryField.fromName(fieldName)
+                .orElseThrow(() -> new IllegalArgumentException("Unknown query field: '" + fieldName + "'"));
+        QueryOperator operator = QueryOperator.fromSymbol(operatorSymbol)
+                .orElseThrow(() -> new IllegalArgumentException("Unknown query operator: '" + operatorSymbol + "'"));
+        return new QueryCriterion(field, operator, value);
+    }
+
+    /**
+     * @return the textual form of this query. Parsing it results in an
+     * equivalent query.
+     */
+    @Override
+    public String toString() {
+        return criteria.stream().map(QueryCriterion::toString).collect(Collectors.joining(" AND "));
+    }
+
+    private static class Parser {
+
+        private final String query;
+        private int position;
+
+        public Parser(String query) {
+            this.query = query;
+        }
+
+        public List<QueryCriterion> parse() {
+            List<QueryCriterion> criteria = new ArrayList<>();
+            while (true) {
+                String field = this.readWhile(c -> Character.isLetterOrDigit(c) || c == '_');
+                if (field.isEmpty()) {
+                    throw this.error("field name expected");
+                }
+                String operator = this.readWhile(c -> c == '<' || c == '>' || c == '=' || c == '!');
+                if (operator.isEmpty()) {
+                    throw this.error("operator expected");
+                }
+                String value = this.readValue();
+                criteria.add(createCriterion(field, operator, value));
+
+                this.skipWhitespaces();
+                if (position == query.length()) {
+                    return criteria;
+                }
+                String and = this.readWhile(c -> Character.isLetter(c));
+                if (!"AND".equalsIgnoreCase(and)) {
+                    throw this.error("'AND' expected");
+                }
+            }
+        }
+
+        private String readValue() {
+            this.skipWhitespaces();
+            if (position == query.length()) {
+                throw this.error("value expected");
+            }
+            char quote = query.charAt(position);
+            if (quote != '\'' && quote != '"') {
+                return this.readWhile(c -> !Character.isWhitespace(c));
+            }
+            StringBuilder value = new StringBuilder();
+            position++;
+            while (position < query.length()) {
+                char c = query.charAt(position++);
+                if (c != quote) {
+                    value.append(c);
+                } else if (position < query.length() && query.charAt(position) == quote) {
+                    value.append(quote);
+                    position++;
+                } else {
+                    return value.toString();
+                }
+            }
+            throw this.error("unterminated quoted value");
+        }
+
+        private String readWhile(CharPredicate predicate) {
+            this.skipWhitespaces();
+            int start = position;
+            while (position < query.length() && predicate.test(query.charAt(position))) {
+                position++;
+            }
+            return query.substring(start, position);
+        }
+
+        private void skipWhitespaces() {
+            while (position < query.length() && Character.isWhitespace(query.charAt(position))) {
+                position++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Invalid query '" + query + "' at position " + position + ": " + message);
+        }
+    }
+
+    private interface CharPredicate {
+
+        boolean test(char c);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.common.query;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Objects;
+import java.util.Optional;
+import org.socraticgrid.hl7.services.uc.model.Message;
+
+/**
+ * A single 'field operator value' condition of a {@link MessageQuery}.
+ *
+ * Values of {@link QueryField#CREATED} can be expressed as an ISO-8601
+ * instant ('2015-06-01T10:15:30Z'), an ISO-8601 date ('2015-06-01', meaning
+ * the start of that day in UTC) or milliseconds since the epoch.
+ *
+ * @author esteban
+ */
+public class QueryCriterion {
+
+    private final QueryField field;
+    private final QueryOperator operator;
+    private final String value;
+    private final long timestamp;
+
+    /**
+     * @param field
+     * @param operator
+     * @param value
+     * @throws IllegalArgumentException if the operator can't be used with
+     * the field or if the value is not a valid date for
+     * {@link QueryField#CREATED}.
+     */
+    public QueryCriterion(QueryField field, QueryOperator operator, String value) {
+        this.field = Objects.requireNonNull(field);
+        this.operator = Objects.requireNonNull(operator);
+        this.value = Objects.requireNonNull(value);
+        if (field == QueryField.CREATED) {
+            this.timestamp = parseTimestamp(value);
+        } else if (operator != QueryOperator.EQUALS) {
+            throw new IllegalArgumentException("Operator '" + operator.getSymbol() + "' can't be used with field '" + field.getName() + "'");
+        } else {
+            this.timestamp = 0;
+        }
+    }
+
+    private static long parseTimestamp(String value) {
+        try {
+            return Instant.parse(value).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            //try the next format
+        }
+        try {
+            return LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            //try the next format
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid date for field '" + QueryField.CREATED.getName() + "': '" + value + "'");
+        }
+    }
+
+    public QueryField getField() {
+        return field;
+    }
+
+    public QueryOperator getOperator() {
+        return operator;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * @return the value of a {@link QueryField#CREATED} criterion in
+     * milliseconds.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean matches(Message message) {
+        if (field == QueryField.CREATED) {
+            Optional<Long> created = QueryField.createdOf(message);
+            return created.isPresent() && operator.compare(created.get(), timestamp);
+        }
+        return field.valuesOf(message).contains(value);
+    }
+
+    @Override
+    public String toString() {
+        return field.getName() + " " + operator.getSymbol() + " '" + value.replace("'", "''") + "'";
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(field, operator, value);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof QueryCriterion)) {
+            return false;
+        }
+        QueryCriterion other = (QueryCriterion) obj;
+        return field == other.field && operator == other.operator && value.equals(other.value);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.common.query;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import org.socraticgrid.hl7.services.uc.model.AlertMessage;
+import org.socraticgrid.hl7.services.uc.model.DeliveryAddress;
+import org.socraticgrid.hl7.services.uc.model.DeliveryStatus;
+import org.socraticgrid.hl7.services.uc.model.Message;
+import org.socraticgrid.hl7.services.uc.model.MessageHeader;
+import org.socraticgrid.hl7.services.uc.model.Recipient;
+
+/**
+ * The fields of a message that can be used in a {@link MessageQuery}.
+ * Every field, but {@link #CREATED}, is compared by equality against the
+ * values returned by {@link #valuesOf(Message)}. {@link #CREATED} is
+ * compared as a timestamp.
+ *
+ * @author esteban
+ */
+public enum QueryField {
+
+    /**
+     * Address of the sender.
+     */
+    SENDER("sender"),
+    /**
+     * Address of any of the recipients.
+     */
+    RECIPIENT("recipient"),
+    /**
+     * Service id (i.e. 'SMS', 'EMAIL') of the sender or any of the
+     * recipients.
+     */
+    SERVICE_ID("serviceId"),
+    CONVERSATION_ID("conversationId"),
+    /**
+     * Creation date of the message.
+     */
+    CREATED("created"),
+    /**
+     * Any of the delivery statuses of the message or, for
+     * {@link AlertMessage}, its alert status.
+     */
+    STATUS("status");
+
+    private final String name;
+
+    private QueryField(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static Optional<QueryField> fromName(String name) {
+        for (QueryField field : values()) {
+            if (field.name.equalsIgnoreCase(name)) {
+                return Optional.of(field);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * The values of this field in the given message. The same values are
+     * used to index the messages by this field.
+     * @param message
+     * @return an empty set for {@link #CREATED}. Use {@link #createdOf(Message)}
+     * instead.
+     */
+    public Set<String> valuesOf(Message message) {
+        MessageHeader header = message.getHeader();
+        Set<String> values = new HashSet<>();
+        switch (this) {
+            case SENDER:
+                addAddress(values, header.getSender());
+                break;
+            case RECIPIENT:
+                if (header.getRecipientsList() != null) {
+                    for (Recipient recipient : header.getRecipientsList()) {
+                        addAddress(values, recipient.getDeliveryAddress());
+                    }
+                }
+                break;
+            case SERVICE_ID:
+                addServiceId(values, header.getSender());
+                if (header.getRecipientsList() != null) {
+                    for (Recipient recipient : header.getRecipientsList()) {
+                        addServiceId(values, recipient.getDeliveryAddress());
+                    }
+                }
+                break;
+            case CONVERSATION_ID:
+                if (header.getRelatedConversationId() != null) {
+                    values.add(header.getRelatedConversationId());
+                }
+                break;
+            case STATUS:
+                if (header.getDeliveryStatusList() != null) {
+                    for (DeliveryStatus deliveryStatus : header.getDeliveryStatusList()) {
+                        if (deliveryStatus.getStatus() != null) {
+                            values.add(deliveryStatus.getStatus());
+                        }
+                    }
+                }
+                if (message instanceof AlertMessage && ((AlertMessage) message).getHeader().getAlertStatus() != null) {
+                    values.add(((AlertMessage) message).getHeader().getAlertStatus().name());
+                }
+                break;
+            case CREATED:
+                return Collections.EMPTY_SET;
+        }
+        return values;
+    }
+
+    /**
+     * @param message
+     * @return the creation date of the message in milliseconds, if any.
+     */
+    public static Optional<Long> createdOf(Message message) {
+        return message.getHeader().getCreated() == null ? Optional.empty() : Optional.of(message.getHeader().getCreated().getTime());
+    }
+
+    private static void addAddress(Set<String> values, DeliveryAddress address) {
+        if (address != null && address.getPhysicalAddress() != null && address.getPhysicalAddress().getAddress() != null) {
+            values.add(address.getPhysicalAddress().getAddress());
+        }
+    }
+
+    private static void addServiceId(Set<String> values, DeliveryAddress address) {
+        if (address != null && address.getPhysicalAddress() != null && address.getPhysicalAddress().getServiceId() != null) {
+            values.add(address.getPhysicalAddress().getServiceId());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.common.query;
+
+import java.util.Optional;
+
+/**
+ * Comparison operators of a {@link QueryCriterion}. Only {@link #EQUALS} can
+ * be used with every {@link QueryField}; the rest are only valid for
+ * {@link QueryField#CREATED}.
+ *
+ * @author esteban
+ */
+public enum QueryOperator {
+
+    //longer symbols first, so they are matched before their prefixes.
+    GREATER_OR_EQUALS(">="),
+    LESS_OR_EQUALS("<="),
+    EQUALS("="),
+    GREATER(">"),
+    LESS("<");
+
+    private final String symbol;
+
+    private QueryOperator(String symbol) {
+        this.symbol = symbol;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public static Optional<QueryOperator> fromSymbol(String symbol) {
+        for (QueryOperator operator : values()) {
+            if (operator.symbol.equals(symbol)) {
+                return Optional.of(operator);
+            }
+        }
+        return Optional.empty();
+    }
+
+    public boolean compare(long value, long reference) {
+        switch (this) {
+            case GREATER_OR_EQUALS:
+                return value >= reference;
+            case LESS_OR_EQUALS:
+                return value <= reference;
+            case GREATER:
+                return value > reference;
+            case LESS:
+                return value < reference;
+            default:
+                return value == reference;
+        }
+    }
+}
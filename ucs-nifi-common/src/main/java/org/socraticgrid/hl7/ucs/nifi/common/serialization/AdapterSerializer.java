@@ -17,11 +17,8 @@ package org.socraticgrid.hl7.ucs.nifi.common.serialization;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
-import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.socraticgrid.hl7.ucs.nifi.common.model.Adapter;
@@ -38,14 +35,7 @@ public class AdapterSerializer {
     public static String serializeAdapters(XMLListWrapper<Adapter> adapter) throws MessageSerializationException {
         try {
             logger.debug("Serializing XMLListWrapper {}", adapter);
-            JAXBContext context = JAXBContext.newInstance(XMLListWrapper.class, Adapter.class);
-            Marshaller m = context.createMarshaller();
-
-            StringWriter result = new StringWriter();
-            m.marshal(adapter, result);
-
-            return result.toString();
-
+            return JAXBContextRegistry.marshal(adapter, XMLListWrapper.class, Adapter.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in Adapter serialization.", e);
         }
@@ -58,14 +48,7 @@ public class AdapterSerializer {
     public static String serializeAdapter(Adapter adapter) throws MessageSerializationException {
         try {
             logger.debug("Serializing Adapter {}", adapter);
-            JAXBContext context = JAXBContext.newInstance(Adapter.class);
-            Marshaller m = context.createMarshaller();
-
-            StringWriter result = new StringWriter();
-            m.marshal(adapter, result);
-
-            return result.toString();
-
+            return JAXBContextRegistry.marshal(adapter, Adapter.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in Adapter serialization.", e);
         }
@@ -74,32 +57,26 @@ public class AdapterSerializer {
     public static XMLListWrapper<Adapter> deserializeAdapters(InputStream adapter) throws MessageSerializationException {
         try {
             logger.debug("Deserializing Adapter");
-            JAXBContext context = JAXBContext.newInstance(XMLListWrapper.class, Adapter.class);
-            Unmarshaller u = context.createUnmarshaller();
-            
-            return (XMLListWrapper<Adapter>)u.unmarshal(adapter);
+            return (XMLListWrapper<Adapter>)JAXBContextRegistry.unmarshal(adapter, XMLListWrapper.class, Adapter.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in Message deserialization.", e);
         }
     }
     
     public static XMLListWrapper<Adapter> deserializeAdapters(String adapter) throws MessageSerializationException {
-        return deserializeAdapters(new ByteArrayInputStream(adapter.getBytes()));
+        return deserializeAdapters(new ByteArrayInputStream(adapter.getBytes(StandardCharsets.UTF_8)));
     }
 
     public static Adapter deserializeAdapter(InputStream adapter) throws MessageSerializationException {
         try {
             logger.debug("Deserializing Adapter");
-            JAXBContext context = JAXBContext.newInstance(Adapter.class);
-            Unmarshaller u = context.createUnmarshaller();
-            
-            return (Adapter)u.unmarshal(adapter);
+            return (Adapter)JAXBContextRegistry.unmarshal(adapter, Adapter.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in Adapter deserialization.", e);
         }
     }
     
     public static Adapter deserializeAdapter(String adapter) throws MessageSerializationException {
-        return deserializeAdapter(new ByteArrayInputStream(adapter.getBytes()));
+        return deserializeAdapter(new ByteArrayInputStream(adapter.getBytes(StandardCharsets.UTF_8)));
     }
 }
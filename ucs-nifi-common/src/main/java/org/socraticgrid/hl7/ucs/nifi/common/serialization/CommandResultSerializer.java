@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.common.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socraticgrid.hl7.ucs.nifi.common.model.CommandResult;
+import org.socraticgrid.hl7.ucs.nifi.common.model.XMLListWrapper;
+
+/**
+ * Utility class used to de/serialize the responses of a batch of commands.
+ * @author esteban
+ */
+public class CommandResultSerializer {
+
+    private static final Logger logger = LoggerFactory.getLogger(CommandResultSerializer.class);
+
+    public static String serializeCommandResults(XMLListWrapper<CommandResult> results) throws MessageSerializationException {
+        try {
+            logger.debug("Serializing XMLListWrapper {}", results);
+            return JAXBContextRegistry.marshal(results, XMLListWrapper.class, CommandResult.class);
+        } catch (Exception e) {
+            throw new MessageSerializationException("Exception in CommandResult serialization.", e);
+        }
+    }
+
+    public static String serializeCommandResults(List<CommandResult> results) throws MessageSerializationException {
+        return serializeCommandResults(new XMLListWrapper<>(results));
+    }
+
+    public static XMLListWrapper<CommandResult> deserializeCommandResults(InputStream results) throws MessageSerializationException {
+        try {
+            logger.debug("Deserializing XMLListWrapper");
+            return (XMLListWrapper<CommandResult>) JAXBContextRegistry.unmarshal(results, XMLListWrapper.class, CommandResult.class);
+        } catch (Exception e) {
+            throw new MessageSerializationException("Exception in CommandResult deserialization.", e);
+        }
+    }
+
+    public static XMLListWrapper<CommandResult> deserializeCommandResults(String results) throws MessageSerializationException {
+        return deserializeCommandResults(new ByteArrayInputStream(results.getBytes(StandardCharsets.UTF_8)));
+    }
+}
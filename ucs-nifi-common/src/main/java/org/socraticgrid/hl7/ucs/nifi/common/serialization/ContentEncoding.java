@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.common.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression applied to the payloads exchanged between UCS clients and
+ * NiFi. The names of the constants are the tokens used in the
+ * 'Content-Encoding' and 'Accept-Encoding' HTTP headers.
+ *
+ * @author esteban
+ */
+public enum ContentEncoding {
+
+    IDENTITY("identity"),
+    GZIP("gzip"),
+    /**
+     * zlib format, as specified by HTTP/1.1.
+     */
+    DEFLATE("deflate");
+
+    /**
+     * Value of the 'Accept-Encoding' header sent by parties that are able to
+     * decode every supported encoding.
+     */
+    public static final String ACCEPT_ALL = "gzip, deflate";
+
+    private final String name;
+
+    private ContentEncoding(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param name the value of a 'Content-Encoding' header. Can be null.
+     * @return
+     * @throws IllegalArgumentException if the encoding is not supported.
+     */
+    public static ContentEncoding fromName(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return IDENTITY;
+        }
+        String token = name.trim().toLowerCase();
+        //'x-gzip' is an alias of 'gzip' (RFC 2616 3.5)
+        if (token.equals("x-gzip")) {
+            return GZIP;
+        }
+        return Arrays.stream(values())
+                .filter(e -> e.name.equals(token))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unsupported content encoding: " + name));
+    }
+
+    /**
+     * Guesses the encoding of a payload by its first bytes. Used when the
+     * encoding was not informed (i.e. the header was not propagated).
+     * Neither XML nor Fast Infoset documents can be confused with a gzip or
+     * zlib stream.
+     * @param prefix
+     * @param length the number of valid bytes in prefix
+     * @return
+     */
+    public static ContentEncoding detect(byte[] prefix, int length) {
+        if (length < 2) {
+            return IDENTITY;
+        }
+        int b0 = prefix[0] & 0xFF;
+        int b1 = prefix[1] & 0xFF;
+        if (b0 == 0x1F && b1 == 0x8B) {
+            return GZIP;
+        }
+        //zlib header: compression method 8 and a valid check value.
+        if ((b0 & 0x0F) == 8 && (b0 >> 4) <= 7 && ((b0 << 8) | b1) % 31 == 0) {
+            return DEFLATE;
+        }
+        return IDENTITY;
+    }
+
+    /**
+     * @param acceptEncoding the value of an 'Accept-Encoding' header. Can be
+     * null.
+     * @return whether the header allows this encoding.
+     */
+    public boolean isAcceptedBy(String acceptEncoding) {
+        if (this == IDENTITY) {
+            return true;
+        }
+        if (acceptEncoding == null) {
+            return false;
+        }
+        return Arrays.stream(acceptEncoding.split(","))
+                .map(token -> token.split(";")[0].trim().toLowerCase())
+                .anyMatch(token -> token.equals(name) || token.equals("*") || (this == GZIP && token.equals("x-gzip")));
+    }
+
+    public OutputStream encode(OutputStream out) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPOutputStream(out);
+            case DEFLATE:
+                return new DeflaterOutputStream(out);
+            default:
+                return out;
+        }
+    }
+
+    public InputStream decode(InputStream in) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPInputStream(in);
+            case DEFLATE:
+                return new InflaterInputStream(in);
+            default:
+                return in;
+        }
+    }
+
+    public byte[] encode(byte[] content) throws IOException {
+        if (this == IDENTITY) {
+            return content;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(Math.max(64, content.length / 4));
+        try (OutputStream out = this.encode(baos)) {
+            out.write(content);
+        }
+        return baos.toByteArray();
+    }
+
+    public byte[] decode(byte[] content) throws IOException {
+        if (this == IDENTITY) {
+            return content;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(content.length * 4);
+        try (InputStream in = this.decode(new ByteArrayInputStream(content))) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                baos.write(buffer, 0, read);
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Small payloads are not worth compressing.
+     * @param size the size of the payload in bytes.
+     * @param threshold min. size of a payload to be compressed.
+     * @return this encoding if size is at least threshold, IDENTITY 
+     * otherwise.
+     */
+    public ContentEncoding forSize(int size, int threshold) {
+        return size >= threshold ? this : IDENTITY;
+    }
+}
@@ -17,11 +17,8 @@ package org.socraticgrid.hl7.ucs.nifi.common.serialization;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
-import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.socraticgrid.hl7.ucs.nifi.common.model.ConversationInfoWrapper;
@@ -38,14 +35,7 @@ public class ConversationInfoSerializer {
     public static String serializeConversationInfoWrappers(XMLListWrapper<ConversationInfoWrapper> conversations) throws MessageSerializationException {
         try {
             logger.debug("Serializing XMLListWrapper {}", conversations);
-            JAXBContext context = JAXBContext.newInstance(XMLListWrapper.class, ConversationInfoWrapper.class);
-            Marshaller m = context.createMarshaller();
-
-            StringWriter result = new StringWriter();
-            m.marshal(conversations, result);
-
-            return result.toString();
-
+            return JAXBContextRegistry.marshal(conversations, XMLListWrapper.class, ConversationInfoWrapper.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in Conversation serialization.", e);
         }
@@ -58,14 +48,7 @@ public class ConversationInfoSerializer {
     public static String serializeConversationInfoWrapper(ConversationInfoWrapper conversation) throws MessageSerializationException {
         try {
             logger.debug("Serializing ConversationInfoWrapper {}", conversation);
-            JAXBContext context = JAXBContext.newInstance(ConversationInfoWrapper.class);
-            Marshaller m = context.createMarshaller();
-
-            StringWriter result = new StringWriter();
-            m.marshal(conversation, result);
-
-            return result.toString();
-
+            return JAXBContextRegistry.marshal(conversation, ConversationInfoWrapper.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in Conversation serialization.", e);
         }
@@ -74,32 +57,26 @@ public class ConversationInfoSerializer {
     public static XMLListWrapper<ConversationInfoWrapper> deserializeConversationInfoWrappers(InputStream conversations) throws MessageSerializationException {
         try {
             logger.debug("Deserializing ConversationInfoWrapper");
-            JAXBContext context = JAXBContext.newInstance(XMLListWrapper.class, ConversationInfoWrapper.class);
-            Unmarshaller u = context.createUnmarshaller();
-            
-            return (XMLListWrapper<ConversationInfoWrapper>)u.unmarshal(conversations);
+            return (XMLListWrapper<ConversationInfoWrapper>)JAXBContextRegistry.unmarshal(conversations, XMLListWrapper.class, ConversationInfoWrapper.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in ConversationInfoWrapper deserialization.", e);
         }
     }
     
     public static XMLListWrapper<ConversationInfoWrapper> deserializeConversationInfoWrappers(String conversations) throws MessageSerializationException {
-        return deserializeConversationInfoWrappers(new ByteArrayInputStream(conversations.getBytes()));
+        return deserializeConversationInfoWrappers(new ByteArrayInputStream(conversations.getBytes(StandardCharsets.UTF_8)));
     }
     
     public static ConversationInfoWrapper deserializeConversationInfoWrapper(InputStream conversation) throws MessageSerializationException {
         try {
             logger.debug("Deserializing ConversationInfoWrapper");
-            JAXBContext context = JAXBContext.newInstance(ConversationInfoWrapper.class);
-            Unmarshaller u = context.createUnmarshaller();
-            
-            return (ConversationInfoWrapper)u.unmarshal(conversation);
+            return (ConversationInfoWrapper)JAXBContextRegistry.unmarshal(conversation, ConversationInfoWrapper.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in ConversationInfoWrapper deserialization.", e);
         }
     }
     
     public static ConversationInfoWrapper deserializeConversationInfoWrapper(String conversation) throws MessageSerializationException {
-        return deserializeConversationInfoWrapper(new ByteArrayInputStream(conversation.getBytes()));
+        return deserializeConversationInfoWrapper(new ByteArrayInputStream(conversation.getBytes(StandardCharsets.UTF_8)));
     }
 }
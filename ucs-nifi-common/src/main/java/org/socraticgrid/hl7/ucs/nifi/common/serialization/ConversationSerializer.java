@@ -17,11 +17,9 @@ package org.socraticgrid.hl7.ucs.nifi.common.serialization;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
-import java.io.StringWriter;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.socraticgrid.hl7.services.uc.model.Conversation;
@@ -39,14 +37,7 @@ public class ConversationSerializer {
     public static String serializeConversationWrappers(XMLListWrapper<ConversationWrapper> conversations) throws MessageSerializationException {
         try {
             logger.debug("Serializing XMLListWrapper {}", conversations);
-            JAXBContext context = JAXBContext.newInstance(XMLListWrapper.class, ConversationWrapper.class);
-            Marshaller m = context.createMarshaller();
-
-            StringWriter result = new StringWriter();
-            m.marshal(conversations, result);
-
-            return result.toString();
-
+            return JAXBContextRegistry.marshal(conversations, XMLListWrapper.class, ConversationWrapper.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in Conversation serialization.", e);
         }
@@ -59,14 +50,24 @@ public class ConversationSerializer {
     public static String serializeConversationWrapper(ConversationWrapper conversation) throws MessageSerializationException {
         try {
             logger.debug("Serializing ConversationWrapper {}", conversation);
-            JAXBContext context = JAXBContext.newInstance(ConversationWrapper.class);
-            Marshaller m = context.createMarshaller();
-
-            StringWriter result = new StringWriter();
-            m.marshal(conversation, result);
-
-            return result.toString();
+            return JAXBContextRegistry.marshal(conversation, ConversationWrapper.class);
+        } catch (Exception e) {
+            throw new MessageSerializationException("Exception in Conversation serialization.", e);
+        }
+    }
 
+    /**
+     * Serializes the conversation into the given OutputStream using the 
+     * specified codec. The stream is not closed.
+     * @param conversation
+     * @param out
+     * @param codec
+     * @throws MessageSerializationException 
+     */
+    public static void serializeConversationWrapper(ConversationWrapper conversation, OutputStream out, WrapperCodec codec) throws MessageSerializationException {
+        try {
+            logger.debug("Serializing ConversationWrapper {} as {}", conversation, codec.getMimeType());
+            codec.encode(conversation, out, ConversationWrapper.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in Conversation serialization.", e);
         }
@@ -75,32 +76,26 @@ public class ConversationSerializer {
     public static XMLListWrapper<ConversationWrapper> deserializeConversationWrappers(InputStream conversations) throws MessageSerializationException {
         try {
             logger.debug("Deserializing ConversationWrapper");
-            JAXBContext context = JAXBContext.newInstance(XMLListWrapper.class, ConversationWrapper.class);
-            Unmarshaller u = context.createUnmarshaller();
-            
-            return (XMLListWrapper<ConversationWrapper>)u.unmarshal(conversations);
+            return (XMLListWrapper<ConversationWrapper>)WrapperCodecs.decode(conversations, XMLListWrapper.class, ConversationWrapper.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in ConversationWrapper deserialization.", e);
         }
     }
     
     public static XMLListWrapper<ConversationWrapper> deserializeConversationWrappers(String conversations) throws MessageSerializationException {
-        return deserializeConversationWrappers(new ByteArrayInputStream(conversations.getBytes()));
+        return deserializeConversationWrappers(new ByteArrayInputStream(conversations.getBytes(StandardCharsets.UTF_8)));
     }
     
     public static ConversationWrapper deserializeConversationWrapper(InputStream conversation) throws MessageSerializationException {
         try {
             logger.debug("Deserializing ConversationWrapper");
-            JAXBContext context = JAXBContext.newInstance(ConversationWrapper.class);
-            Unmarshaller u = context.createUnmarshaller();
-            
-            return (ConversationWrapper)u.unmarshal(conversation);
+            return (ConversationWrapper)WrapperCodecs.decode(conversation, ConversationWrapper.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in ConversationWrapper deserialization.", e);
         }
     }
     
     public static ConversationWrapper deserializeConversationWrapper(String conversation) throws MessageSerializationException {
-        return deserializeConversationWrapper(new ByteArrayInputStream(conversation.getBytes()));
+        return deserializeConversationWrapper(new ByteArrayInputStream(conversation.getBytes(StandardCharsets.UTF_8)));
     }
 }
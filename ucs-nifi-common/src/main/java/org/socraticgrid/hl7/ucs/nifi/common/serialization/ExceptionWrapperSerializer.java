@@ -17,10 +17,8 @@ package org.socraticgrid.hl7.ucs.nifi.common.serialization;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
-import java.io.StringWriter;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.socraticgrid.hl7.ucs.nifi.common.model.ExceptionWrapper;
@@ -36,14 +34,24 @@ public class ExceptionWrapperSerializer {
     public static String serializeExceptionWrapper(ExceptionWrapper exceptionWrapper) throws MessageSerializationException {
         try {
             logger.debug("Serializing ExceptionWrapper {}", exceptionWrapper);
-            JAXBContext context = JAXBContext.newInstance(ExceptionWrapper.class);
-            Marshaller m = context.createMarshaller();
-
-            StringWriter result = new StringWriter();
-            m.marshal(exceptionWrapper, result);
-
-            return result.toString();
+            return JAXBContextRegistry.marshal(exceptionWrapper, ExceptionWrapper.class);
+        } catch (Exception e) {
+            throw new MessageSerializationException("Exception in ExceptionWrapper serialization.", e);
+        }
+    }
 
+    /**
+     * Serializes the exception into the given OutputStream using the 
+     * specified codec. The stream is not closed.
+     * @param exceptionWrapper
+     * @param out
+     * @param codec
+     * @throws MessageSerializationException 
+     */
+    public static void serializeExceptionWrapper(ExceptionWrapper exceptionWrapper, OutputStream out, WrapperCodec codec) throws MessageSerializationException {
+        try {
+            logger.debug("Serializing ExceptionWrapper {} as {}", exceptionWrapper, codec.getMimeType());
+            codec.encode(exceptionWrapper, out, ExceptionWrapper.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in ExceptionWrapper serialization.", e);
         }
@@ -52,16 +60,13 @@ public class ExceptionWrapperSerializer {
     public static ExceptionWrapper deserializeExceptionWrapper(InputStream exceptionWrapper) throws MessageSerializationException {
         try {
             logger.debug("Deserializing ExceptionWrapper");
-            JAXBContext context = JAXBContext.newInstance(ExceptionWrapper.class);
-            Unmarshaller u = context.createUnmarshaller();
-            
-            return (ExceptionWrapper)u.unmarshal(exceptionWrapper);
+            return (ExceptionWrapper)WrapperCodecs.decode(exceptionWrapper, ExceptionWrapper.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in ExceptionWrapper deserialization.", e);
         }
     }
     
     public static ExceptionWrapper deserializeExceptionWrapper(String exceptionWrapper) throws MessageSerializationException {
-        return deserializeExceptionWrapper(new ByteArrayInputStream(exceptionWrapper.getBytes()));
+        return deserializeExceptionWrapper(new ByteArrayInputStream(exceptionWrapper.getBytes(StandardCharsets.UTF_8)));
     }
 }
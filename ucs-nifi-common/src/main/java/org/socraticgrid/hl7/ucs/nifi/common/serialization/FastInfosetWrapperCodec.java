@@ -0,0 +1,87 @@
+/* 
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.common.serialization;
+
+import com.sun.xml.fastinfoset.stax.StAXDocumentParser;
+import com.sun.xml.fastinfoset.stax.StAXDocumentSerializer;
+import java.io.InputStream;
+import java.io.OutputStream;
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Binary codec based on Fast Infoset (ITU-T X.891). Element and attribute
+ * names are written once and then referenced by index, and the parser 
+ * doesn't need to do any character decoding or tokenizing, so it is both 
+ * smaller and faster to process than plain XML. It is meant to be used 
+ * between UCS processors, inside the flow.
+ * 
+ * Serializers and parsers are reused per thread.
+ * 
+ * @author esteban
+ */
+public class FastInfosetWrapperCodec implements WrapperCodec {
+
+    public static final String MIME_TYPE = "application/fastinfoset";
+
+    private static final ThreadLocal<StAXDocumentSerializer> serializers = ThreadLocal.withInitial(StAXDocumentSerializer::new);
+    private static final ThreadLocal<StAXDocumentParser> parsers = ThreadLocal.withInitial(StAXDocumentParser::new);
+
+    @Override
+    public String getMimeType() {
+        return MIME_TYPE;
+    }
+
+    @Override
+    public boolean accepts(byte[] prefix, int length) {
+        //Fast Infoset documents start with the identification 0xE000 
+        //followed by the version number 0x0001
+        return length >= 4 
+                && prefix[0] == (byte) 0xE0 
+                && prefix[1] == 0x00 
+                && prefix[2] == 0x00 
+                && prefix[3] == 0x01;
+    }
+
+    @Override
+    public void encode(Object wrapper, OutputStream out, Class<?>... classes) throws JAXBException, XMLStreamException {
+        StAXDocumentSerializer serializer = serializers.get();
+        serializer.reset();
+        serializer.setOutputStream(out);
+        JAXBContextRegistry.getMarshaller(classes).marshal(wrapper, (XMLStreamWriter) serializer);
+        serializer.flush();
+    }
+
+    @Override
+    public Object decode(InputStream in, Class<?>... classes) throws JAXBException {
+        StAXDocumentParser parser = parsers.get();
+        parser.setInputStream(in);
+        return JAXBContextRegistry.getUnmarshaller(classes).unmarshal((XMLStreamReader) parser);
+    }
+
+    @Override
+    public XMLStreamReader createXMLStreamReader(InputStream in) {
+        return new StAXDocumentParser(in);
+    }
+
+    @Override
+    public XMLStreamWriter createXMLStreamWriter(OutputStream out) {
+        return new StAXDocumentSerializer(out);
+    }
+
+}
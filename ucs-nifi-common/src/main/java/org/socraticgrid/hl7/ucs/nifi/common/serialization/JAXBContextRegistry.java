@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.common.serialization;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared registry of JAXBContext instances used by the serializers of this
+ * package.
+ *
+ * A JAXBContext is expensive to build but thread-safe, so each one is created
+ * only once per set of bound classes. Marshallers and Unmarshallers are
+ * cheap but not thread-safe: they are kept per thread and reused across
+ * invocations.
+ *
+ * @author esteban
+ */
+public class JAXBContextRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(JAXBContextRegistry.class);
+
+    private static final ConcurrentMap<List<Class<?>>, JAXBContext> contexts = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<Map<JAXBContext, Marshaller>> marshallers = ThreadLocal.withInitial(IdentityHashMap::new);
+    private static final ThreadLocal<Map<JAXBContext, Unmarshaller>> unmarshallers = ThreadLocal.withInitial(IdentityHashMap::new);
+
+    private JAXBContextRegistry() {
+    }
+
+    /**
+     * Returns the JAXBContext bound to the given classes. The context is
+     * created the first time it is requested.
+     * @param classes
+     * @return
+     * @throws JAXBException
+     */
+    public static JAXBContext getContext(Class<?>... classes) throws JAXBException {
+        List<Class<?>> key = Arrays.asList(classes);
+        JAXBContext context = contexts.get(key);
+        if (context == null){
+            logger.debug("Creating JAXBContext for {}", key);
+            context = JAXBContext.newInstance(classes);
+            JAXBContext previous = contexts.putIfAbsent(key, context);
+            if (previous != null){
+                context = previous;
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Returns a Marshaller for the given classes. The returned instance
+     * belongs to the current thread and must not be shared with other threads.
+     * @param classes
+     * @return
+     * @throws JAXBException
+     */
+    public static Marshaller getMarshaller(Class<?>... classes) throws JAXBException {
+        JAXBContext context = getContext(classes);
+        Map<JAXBContext, Marshaller> threadMarshallers = marshallers.get();
+        Marshaller marshaller = threadMarshallers.get(context);
+        if (marshaller == null){
+            marshaller = context.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_ENCODING, StandardCharsets.UTF_8.name());
+            threadMarshallers.put(context, marshaller);
+        }
+        return marshaller;
+    }
+
+    /**
+     * Returns an Unmarshaller for the given classes. The returned instance
+     * belongs to the current thread and must not be shared with other threads.
+     * @param classes
+     * @return
+     * @throws JAXBException
+     */
+    public static Unmarshaller getUnmarshaller(Class<?>... classes) throws JAXBException {
+        JAXBContext context = getContext(classes);
+        Map<JAXBContext, Unmarshaller> threadUnmarshallers = unmarshallers.get();
+        Unmarshaller unmarshaller = threadUnmarshallers.get(context);
+        if (unmarshaller == null){
+            unmarshaller = context.createUnmarshaller();
+            threadUnmarshallers.put(context, unmarshaller);
+        }
+        return unmarshaller;
+    }
+
+    public static String marshal(Object object, Class<?>... classes) throws JAXBException {
+        StringWriter result = new StringWriter();
+        getMarshaller(classes).marshal(object, result);
+        return result.toString();
+    }
+
+    /**
+     * Marshals the given object directly into an OutputStream using UTF-8.
+     * The stream is not closed.
+     * @param object
+     * @param out
+     * @param classes
+     * @throws JAXBException
+     */
+    public static void marshal(Object object, OutputStream out, Class<?>... classes) throws JAXBException {
+        getMarshaller(classes).marshal(object, out);
+    }
+
+    public static Object unmarshal(InputStream input, Class<?>... classes) throws JAXBException {
+        return getUnmarshaller(classes).unmarshal(input);
+    }
+
+}
@@ -0,0 +1,66 @@
+/* 
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.common.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageChanges;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
+
+/**
+ * Utility class used to de/serialize the changes returned when a client 
+ * synchronizes its messages with UCS.
+ * @author esteban
+ */
+public class MessageChangesSerializer {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageChangesSerializer.class);
+
+    public static String serializeMessageChanges(MessageChanges changes) throws MessageSerializationException {
+        try {
+            logger.debug("Serializing MessageChanges {}", changes);
+            return JAXBContextRegistry.marshal(changes, MessageChanges.class, MessageWrapper.class);
+        } catch (Exception e) {
+            throw new MessageSerializationException("Exception in MessageChanges serialization.", e);
+        }
+    }
+
+    public static void serializeMessageChanges(MessageChanges changes, OutputStream out) throws MessageSerializationException {
+        try {
+            logger.debug("Serializing MessageChanges {}", changes);
+            WrapperCodecs.XML.encode(changes, out, MessageChanges.class, MessageWrapper.class);
+        } catch (Exception e) {
+            throw new MessageSerializationException("Exception in MessageChanges serialization.", e);
+        }
+    }
+
+    public static MessageChanges deserializeMessageChanges(InputStream changes) throws MessageSerializationException {
+        try {
+            logger.debug("Deserializing MessageChanges");
+            return (MessageChanges) WrapperCodecs.decode(changes, MessageChanges.class, MessageWrapper.class);
+        } catch (Exception e) {
+            throw new MessageSerializationException("Exception in MessageChanges deserialization.", e);
+        }
+    }
+
+    public static MessageChanges deserializeMessageChanges(String changes) throws MessageSerializationException {
+        return deserializeMessageChanges(new ByteArrayInputStream(changes.getBytes(StandardCharsets.UTF_8)));
+    }
+}
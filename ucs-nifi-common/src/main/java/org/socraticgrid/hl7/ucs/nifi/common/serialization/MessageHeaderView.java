@@ -0,0 +1,320 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.common.serialization;
+
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Read-only view of the header of a serialized MessageWrapper.
+ *
+ * The view is built by pulling only the requested fields from the stream:
+ * message parts, nested messages (unless their ids are requested) and any
+ * other header field are skipped without being bound to Java objects.
+ * Reading stops as soon as the header of the top-level message is closed.
+ *
+ * Useful for processors that only need to route or validate a message and
+ * forward its original content.
+ *
+ * @author esteban
+ */
+public class MessageHeaderView {
+
+    public static enum Field {
+        MESSAGE_ID,
+        RELATED_CONVERSATION_ID,
+        RECIPIENTS,
+        NESTED_MESSAGE_IDS
+    }
+
+    public static class RecipientView {
+
+        private String recipientId;
+        private String address;
+        private String serviceId;
+
+        public String getRecipientId() {
+            return recipientId;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public String getServiceId() {
+            return serviceId;
+        }
+
+    }
+
+    private static final Set<String> NESTED_MESSAGE_ELEMENTS = new HashSet<>(Arrays.asList(
+            "onFailureToReachAll", "onFailureToReachAny", "onNoResponseAll", "onNoResponseAny"));
+
+    private final Set<Field> fields;
+    private String mimeType;
+    private String messageType;
+    private String messageId;
+    private String relatedConversationId;
+    private final List<RecipientView> recipients = new ArrayList<>();
+    private final List<String> nestedMessageIds = new ArrayList<>();
+
+    private MessageHeaderView(Set<Field> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * Reads all the supported header fields.
+     * @param in
+     * @return
+     * @throws MessageSerializationException
+     */
+    public static MessageHeaderView read(InputStream in) throws MessageSerializationException {
+        return read(in, EnumSet.allOf(Field.class));
+    }
+
+    /**
+     * Reads only the given header fields. Accessing a field that was not
+     * requested throws an IllegalStateException.
+     * The stream is not closed and is left positioned somewhere after the
+     * header of the message.
+     * @param in
+     * @param fields
+     * @return
+     * @throws MessageSerializationException
+     */
+    public static MessageHeaderView read(InputStream in, Set<Field> fields) throws MessageSerializationException {
+        MessageHeaderView view = new MessageHeaderView(fields.isEmpty() ? EnumSet.noneOf(Field.class) : EnumSet.copyOf(fields));
+        try {
+            InputStream markableIn = in.markSupported() ? in : new BufferedInputStream(in);
+            WrapperCodec codec = WrapperCodecs.detect(markableIn);
+            view.mimeType = codec.getMimeType();
+
+            XMLStreamReader reader = codec.createXMLStreamReader(markableIn);
+            try {
+                view.readMessageWrapper(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (MessageSerializationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MessageSerializationException("Exception reading Message header", e);
+        }
+        return view;
+    }
+
+    private void readMessageWrapper(XMLStreamReader reader) throws XMLStreamException, MessageSerializationException {
+        //<messageWrapper>
+        if (!nextChildElement(reader)) {
+            throw new MessageSerializationException("Empty content: no MessageWrapper found.");
+        }
+        //<message>
+        while (nextChildElement(reader)) {
+            if ("message".equals(reader.getLocalName())) {
+                readMessage(reader);
+                return;
+            }
+            skipElement(reader);
+        }
+        throw new MessageSerializationException("No Message found inside '" + reader.getLocalName() + "'.");
+    }
+
+    private void readMessage(XMLStreamReader reader) throws XMLStreamException, MessageSerializationException {
+        String type = reader.getAttributeValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "type");
+        messageType = type == null ? null : type.substring(type.indexOf(':') + 1);
+
+        while (nextChildElement(reader)) {
+            if (reader.getLocalName().endsWith("Header")) {
+                readHeader(reader);
+                //everything after the header is ignored.
+                return;
+            }
+            skipElement(reader);
+        }
+        throw new MessageSerializationException("No Header found inside Message.");
+    }
+
+    private void readHeader(XMLStreamReader reader) throws XMLStreamException {
+        while (nextChildElement(reader)) {
+            String name = reader.getLocalName();
+            if ("messageId".equals(name) && fields.contains(Field.MESSAGE_ID)) {
+                messageId = reader.getElementText();
+            } else if ("relatedConversationId".equals(name) && fields.contains(Field.RELATED_CONVERSATION_ID)) {
+                relatedConversationId = reader.getElementText();
+            } else if ("recipientsList".equals(name) && fields.contains(Field.RECIPIENTS)) {
+                recipients.add(readRecipient(reader));
+            } else if (NESTED_MESSAGE_ELEMENTS.contains(name) && fields.contains(Field.NESTED_MESSAGE_IDS)) {
+                String nestedMessageId = readNestedMessageId(reader);
+                if (nestedMessageId != null) {
+                    nestedMessageIds.add(nestedMessageId);
+                }
+            } else {
+                skipElement(reader);
+            }
+        }
+    }
+
+    private RecipientView readRecipient(XMLStreamReader reader) throws XMLStreamException {
+        RecipientView recipient = new RecipientView();
+        while (nextChildElement(reader)) {
+            String name = reader.getLocalName();
+            if ("recipientId".equals(name)) {
+                recipient.recipientId = reader.getElementText();
+            } else if ("deliveryAddress".equals(name)) {
+                readDeliveryAddress(reader, recipient);
+            } else {
+                skipElement(reader);
+            }
+        }
+        return recipient;
+    }
+
+    /**
+     * Takes the first 'address' and 'serviceId' found in any of the address
+     * types (physical, party, etc.) of a delivery address.
+     */
+    private void readDeliveryAddress(XMLStreamReader reader, RecipientView recipient) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if ("address".equals(name) && recipient.address == null) {
+                    recipient.address = reader.getElementText();
+                } else if ("serviceId".equals(name) && recipient.serviceId == null) {
+                    recipient.serviceId = reader.getElementText();
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private String readNestedMessageId(XMLStreamReader reader) throws XMLStreamException {
+        String nestedMessageId = null;
+        while (nextChildElement(reader)) {
+            if (reader.getLocalName().endsWith("Header")) {
+                while (nextChildElement(reader)) {
+                    if ("messageId".equals(reader.getLocalName())) {
+                        nestedMessageId = reader.getElementText();
+                    } else {
+                        skipElement(reader);
+                    }
+                }
+            } else {
+                skipElement(reader);
+            }
+        }
+        return nestedMessageId;
+    }
+
+    /**
+     * Moves the reader to the next child element of the current element.
+     * Returns false (leaving the reader on the END_ELEMENT of the current
+     * element) if there are no more children.
+     */
+    private static boolean nextChildElement(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Skips the current element (the reader must be on its START_ELEMENT)
+     * and all its descendants.
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private void assertRead(Field field) {
+        if (!fields.contains(field)) {
+            throw new IllegalStateException("Field " + field + " was not read.");
+        }
+    }
+
+    /**
+     * The mime type of the codec the message was written with.
+     * @return
+     */
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * The type of the message as declared in its 'xsi:type' attribute
+     * (i.e. 'simpleMessage' or 'alertMessage') or null if not declared.
+     * @return
+     */
+    public String getMessageType() {
+        return messageType;
+    }
+
+    public String getMessageId() {
+        assertRead(Field.MESSAGE_ID);
+        return messageId;
+    }
+
+    public String getRelatedConversationId() {
+        assertRead(Field.RELATED_CONVERSATION_ID);
+        return relatedConversationId;
+    }
+
+    public List<RecipientView> getRecipients() {
+        assertRead(Field.RECIPIENTS);
+        return Collections.unmodifiableList(recipients);
+    }
+
+    /**
+     * The non-null ids of the messages directly nested in the header of the
+     * message (onFailureToReachAll, onFailureToReachAny, onNoResponseAll and
+     * onNoResponseAny).
+     * @return
+     */
+    public List<String> getNestedMessageIds() {
+        assertRead(Field.NESTED_MESSAGE_IDS);
+        return Collections.unmodifiableList(nestedMessageIds);
+    }
+
+}
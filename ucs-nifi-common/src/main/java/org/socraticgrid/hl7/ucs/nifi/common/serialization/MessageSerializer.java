@@ -17,11 +17,10 @@ package org.socraticgrid.hl7.ucs.nifi.common.serialization;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
-import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.io.OutputStream;
+import java.util.Collections;
 import java.util.List;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
@@ -38,14 +37,7 @@ public class MessageSerializer {
     public static String serializeMessageWrappers(XMLListWrapper<MessageWrapper> messageWrappers) throws MessageSerializationException {
         try {
             logger.debug("Serializing XMLListWrapper {}", messageWrappers);
-            JAXBContext context = JAXBContext.newInstance(XMLListWrapper.class, MessageWrapper.class);
-            Marshaller m = context.createMarshaller();
-
-            StringWriter result = new StringWriter();
-            m.marshal(messageWrappers, result);
-
-            return result.toString();
-
+            return JAXBContextRegistry.marshal(messageWrappers, XMLListWrapper.class, MessageWrapper.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in Message serialization.", e);
         }
@@ -55,17 +47,70 @@ public class MessageSerializer {
         return serializeMessageWrappers(new XMLListWrapper<>(messageWrappers));
     }
     
+    /**
+     * Serializes the list of messages directly into the given OutputStream
+     * using UTF-8. The stream is not closed.
+     * @param messageWrappers
+     * @param out
+     * @throws MessageSerializationException 
+     */
+    public static void serializeMessageWrappers(XMLListWrapper<MessageWrapper> messageWrappers, OutputStream out) throws MessageSerializationException {
+        serializeMessageWrappers(messageWrappers, out, WrapperCodecs.XML);
+    }
+    
+    /**
+     * Serializes the list of messages into the given OutputStream using
+     * the specified codec. The stream is not closed.
+     * @param messageWrappers
+     * @param out
+     * @param codec
+     * @throws MessageSerializationException 
+     */
+    public static void serializeMessageWrappers(XMLListWrapper<MessageWrapper> messageWrappers, OutputStream out, WrapperCodec codec) throws MessageSerializationException {
+        try {
+            logger.debug("Serializing XMLListWrapper {} as {}", messageWrappers, codec.getMimeType());
+            codec.encode(messageWrappers, out, XMLListWrapper.class, MessageWrapper.class);
+        } catch (Exception e) {
+            throw new MessageSerializationException("Exception in Message serialization.", e);
+        }
+    }
+    
+    public static void serializeMessageWrappers(List<MessageWrapper> messageWrappers, OutputStream out) throws MessageSerializationException {
+        serializeMessageWrappers(new XMLListWrapper<>(messageWrappers), out);
+    }
+    
     public static String serializeMessageWrapper(MessageWrapper messageWrapper) throws MessageSerializationException {
         try {
             logger.debug("Serializing MessageWrapper {}", messageWrapper);
-            JAXBContext context = JAXBContext.newInstance(MessageWrapper.class);
-            Marshaller m = context.createMarshaller();
-
-            StringWriter result = new StringWriter();
-            m.marshal(messageWrapper, result);
+            return JAXBContextRegistry.marshal(messageWrapper, MessageWrapper.class);
+        } catch (Exception e) {
+            throw new MessageSerializationException("Exception in Message serialization.", e);
+        }
+    }
 
-            return result.toString();
+    /**
+     * Serializes the message directly into the given OutputStream using UTF-8.
+     * The stream is not closed.
+     * @param messageWrapper
+     * @param out
+     * @throws MessageSerializationException 
+     */
+    public static void serializeMessageWrapper(MessageWrapper messageWrapper, OutputStream out) throws MessageSerializationException {
+        serializeMessageWrapper(messageWrapper, out, WrapperCodecs.XML);
+    }
 
+    /**
+     * Serializes the message into the given OutputStream using the specified
+     * codec. The stream is not closed.
+     * @param messageWrapper
+     * @param out
+     * @param codec
+     * @throws MessageSerializationException 
+     */
+    public static void serializeMessageWrapper(MessageWrapper messageWrapper, OutputStream out, WrapperCodec codec) throws MessageSerializationException {
+        try {
+            logger.debug("Serializing MessageWrapper {} as {}", messageWrapper, codec.getMimeType());
+            codec.encode(messageWrapper, out, MessageWrapper.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in Message serialization.", e);
         }
@@ -74,32 +119,47 @@ public class MessageSerializer {
     public static XMLListWrapper<MessageWrapper> deserializeMessageWrappers(InputStream messageWrappers) throws MessageSerializationException {
         try {
             logger.debug("Deserializing MessageWrapper");
-            JAXBContext context = JAXBContext.newInstance(XMLListWrapper.class, MessageWrapper.class);
-            Unmarshaller u = context.createUnmarshaller();
-            
-            return (XMLListWrapper<MessageWrapper>)u.unmarshal(messageWrappers);
+            return (XMLListWrapper<MessageWrapper>)WrapperCodecs.decode(messageWrappers, XMLListWrapper.class, MessageWrapper.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in Message deserialization.", e);
         }
     }
     
     public static XMLListWrapper<MessageWrapper> deserializeMessageWrappers(String messageWrappers) throws MessageSerializationException {
-        return deserializeMessageWrappers(new ByteArrayInputStream(messageWrappers.getBytes()));
+        return deserializeMessageWrappers(new ByteArrayInputStream(messageWrappers.getBytes(StandardCharsets.UTF_8)));
     }
     
     public static MessageWrapper deserializeMessageWrapper(InputStream messageWrapper) throws MessageSerializationException {
         try {
             logger.debug("Deserializing MessageWrapper");
-            JAXBContext context = JAXBContext.newInstance(MessageWrapper.class);
-            Unmarshaller u = context.createUnmarshaller();
-            
-            return (MessageWrapper)u.unmarshal(messageWrapper);
+            return (MessageWrapper)WrapperCodecs.decode(messageWrapper, MessageWrapper.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in Message deserialization.", e);
         }
     }
     
     public static MessageWrapper deserializeMessageWrapper(String messageWrapper) throws MessageSerializationException {
-        return deserializeMessageWrapper(new ByteArrayInputStream(messageWrapper.getBytes()));
+        return deserializeMessageWrapper(new ByteArrayInputStream(messageWrapper.getBytes(StandardCharsets.UTF_8)));
+    }
+    
+    /**
+     * Deserializes either a single MessageWrapper or a XMLListWrapper of 
+     * MessageWrappers, as sent by the callback dispatcher when it batches
+     * several notifications into a single request.
+     * @param messageWrappers
+     * @return
+     * @throws MessageSerializationException 
+     */
+    public static List<MessageWrapper> deserializeMessageWrapperBatch(String messageWrappers) throws MessageSerializationException {
+        try {
+            logger.debug("Deserializing MessageWrapper batch");
+            Object result = WrapperCodecs.decode(new ByteArrayInputStream(messageWrappers.getBytes(StandardCharsets.UTF_8)), XMLListWrapper.class, MessageWrapper.class);
+            if (result instanceof XMLListWrapper) {
+                return ((XMLListWrapper<MessageWrapper>) result).getItems();
+            }
+            return Collections.singletonList((MessageWrapper) result);
+        } catch (Exception e) {
+            throw new MessageSerializationException("Exception in Message deserialization.", e);
+        }
     }
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.common.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageSubmissionResult;
+import org.socraticgrid.hl7.ucs.nifi.common.model.XMLListWrapper;
+
+/**
+ * Utility class used to de/serialize the results of a batch submission of
+ * messages.
+ * @author esteban
+ */
+public class MessageSubmissionResultSerializer {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageSubmissionResultSerializer.class);
+
+    public static String serializeMessageSubmissionResults(XMLListWrapper<MessageSubmissionResult> results) throws MessageSerializationException {
+        try {
+            logger.debug("Serializing XMLListWrapper {}", results);
+            return JAXBContextRegistry.marshal(results, XMLListWrapper.class, MessageSubmissionResult.class);
+        } catch (Exception e) {
+            throw new MessageSerializationException("Exception in MessageSubmissionResult serialization.", e);
+        }
+    }
+
+    public static String serializeMessageSubmissionResults(List<MessageSubmissionResult> results) throws MessageSerializationException {
+        return serializeMessageSubmissionResults(new XMLListWrapper<>(results));
+    }
+
+    public static XMLListWrapper<MessageSubmissionResult> deserializeMessageSubmissionResults(InputStream results) throws MessageSerializationException {
+        try {
+            logger.debug("Deserializing XMLListWrapper");
+            return (XMLListWrapper<MessageSubmissionResult>) JAXBContextRegistry.unmarshal(results, XMLListWrapper.class, MessageSubmissionResult.class);
+        } catch (Exception e) {
+            throw new MessageSerializationException("Exception in MessageSubmissionResult deserialization.", e);
+        }
+    }
+
+    public static XMLListWrapper<MessageSubmissionResult> deserializeMessageSubmissionResults(String results) throws MessageSerializationException {
+        return deserializeMessageSubmissionResults(new ByteArrayInputStream(results.getBytes(StandardCharsets.UTF_8)));
+    }
+}
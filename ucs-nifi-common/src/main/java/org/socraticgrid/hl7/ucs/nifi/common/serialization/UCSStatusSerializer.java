@@ -17,10 +17,7 @@ package org.socraticgrid.hl7.ucs.nifi.common.serialization;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
-import java.io.StringWriter;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
+import java.nio.charset.StandardCharsets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.socraticgrid.hl7.ucs.nifi.common.model.UCSStatus;
@@ -36,14 +33,7 @@ public class UCSStatusSerializer {
     public static String serializeUCSStatus(UCSStatus ucsStatus) throws MessageSerializationException {
         try {
             logger.debug("Serializing UCSStatus {}", ucsStatus);
-            JAXBContext context = JAXBContext.newInstance(UCSStatus.class);
-            Marshaller m = context.createMarshaller();
-
-            StringWriter result = new StringWriter();
-            m.marshal(ucsStatus, result);
-
-            return result.toString();
-
+            return JAXBContextRegistry.marshal(ucsStatus, UCSStatus.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in UCSStatus serialization.", e);
         }
@@ -52,16 +42,13 @@ public class UCSStatusSerializer {
     public static UCSStatus deserializeUCSStatus(InputStream ucsStatus) throws MessageSerializationException {
         try {
             logger.debug("Deserializing UCSStatus");
-            JAXBContext context = JAXBContext.newInstance(UCSStatus.class);
-            Unmarshaller u = context.createUnmarshaller();
-            
-            return (UCSStatus)u.unmarshal(ucsStatus);
+            return (UCSStatus)JAXBContextRegistry.unmarshal(ucsStatus, UCSStatus.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in UCSStatus deserialization.", e);
         }
     }
     
     public static UCSStatus deserializeUCSStatus(String ucsStatus) throws MessageSerializationException {
-        return deserializeUCSStatus(new ByteArrayInputStream(ucsStatus.getBytes()));
+        return deserializeUCSStatus(new ByteArrayInputStream(ucsStatus.getBytes(StandardCharsets.UTF_8)));
     }
 }
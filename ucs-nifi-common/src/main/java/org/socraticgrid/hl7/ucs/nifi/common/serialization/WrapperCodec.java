@@ -0,0 +1,57 @@
+/* 
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.common.serialization;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Wire format used to encode JAXB wrapper objects (MessageWrapper,
+ * ConversationWrapper, ExceptionWrapper, etc.) as FlowFile content.
+ * Implementations are registered in {@link WrapperCodecs}.
+ * 
+ * @author esteban
+ */
+public interface WrapperCodec {
+
+    /**
+     * The value used in the 'mime.type' attribute of FlowFiles encoded with
+     * this codec.
+     * @return 
+     */
+    public String getMimeType();
+
+    /**
+     * Returns true if the given first bytes of a payload look like something
+     * this codec is able to decode.
+     * @param prefix
+     * @param length the number of valid bytes in prefix
+     * @return 
+     */
+    public boolean accepts(byte[] prefix, int length);
+
+    public void encode(Object wrapper, OutputStream out, Class<?>... classes) throws JAXBException, XMLStreamException;
+
+    public Object decode(InputStream in, Class<?>... classes) throws JAXBException, XMLStreamException;
+
+    public XMLStreamReader createXMLStreamReader(InputStream in) throws XMLStreamException;
+
+    public XMLStreamWriter createXMLStreamWriter(OutputStream out) throws XMLStreamException;
+}
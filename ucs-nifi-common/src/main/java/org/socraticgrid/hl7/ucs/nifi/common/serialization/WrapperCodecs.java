@@ -0,0 +1,223 @@
+/* 
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.common.serialization;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Registry of the available {@link WrapperCodec}s. 
+ * 
+ * Payloads are decoded by first looking at their initial bytes, so readers 
+ * don't need to know in advance which codec was used to write them. 
+ * XML is used as the default format.
+ * 
+ * @author esteban
+ */
+public class WrapperCodecs {
+
+    public static final WrapperCodec XML = new XMLWrapperCodec();
+    public static final WrapperCodec FAST_INFOSET = new FastInfosetWrapperCodec();
+
+    private static final int PREFIX_LENGTH = 8;
+
+    private static final List<WrapperCodec> codecs = new CopyOnWriteArrayList<>();
+
+    static {
+        codecs.add(FAST_INFOSET);
+    }
+
+    private WrapperCodecs() {
+    }
+
+    /**
+     * Registers a new codec. Codecs are tried in registration order when
+     * detecting the format of a payload.
+     * @param codec 
+     */
+    public static void register(WrapperCodec codec) {
+        if (!codecs.contains(codec) && codec != XML) {
+            codecs.add(codec);
+        }
+    }
+
+    /**
+     * Returns the codec associated to the given mime type or the XML codec
+     * if the mime type is null or unknown.
+     * @param mimeType
+     * @return 
+     */
+    public static WrapperCodec forMimeType(String mimeType) {
+        if (mimeType != null) {
+            for (WrapperCodec codec : codecs) {
+                if (codec.getMimeType().equalsIgnoreCase(mimeType)) {
+                    return codec;
+                }
+            }
+        }
+        return XML;
+    }
+
+    /**
+     * Returns true if the mime type corresponds to a registered codec other
+     * than XML.
+     * @param mimeType
+     * @return 
+     */
+    public static boolean isBinary(String mimeType) {
+        return forMimeType(mimeType) != XML;
+    }
+
+    /**
+     * Detects the codec of the payload by peeking at its first bytes. The
+     * stream must support mark/reset. The position of the stream is not 
+     * modified.
+     * @param in
+     * @return
+     * @throws IOException 
+     */
+    public static WrapperCodec detect(InputStream in) throws IOException {
+        byte[] prefix = new byte[PREFIX_LENGTH];
+        in.mark(PREFIX_LENGTH);
+        int length = 0;
+        try {
+            int read;
+            while (length < PREFIX_LENGTH && (read = in.read(prefix, length, PREFIX_LENGTH - length)) != -1) {
+                length += read;
+            }
+        } finally {
+            in.reset();
+        }
+
+        for (WrapperCodec codec : codecs) {
+            if (codec.accepts(prefix, length)) {
+                return codec;
+            }
+        }
+        return XML;
+    }
+
+    /**
+     * Decodes a payload written by any of the registered codecs.
+     * @param in
+     * @param classes
+     * @return
+     * @throws IOException
+     * @throws JAXBException
+     * @throws XMLStreamException 
+     */
+    public static Object decode(InputStream in, Class<?>... classes) throws IOException, JAXBException, XMLStreamException {
+        InputStream markableIn = in.markSupported() ? in : new BufferedInputStream(in);
+        return detect(markableIn).decode(markableIn, classes);
+    }
+
+    /**
+     * Creates a StAX reader for a payload written by any of the registered
+     * codecs.
+     * @param in
+     * @return
+     * @throws IOException
+     * @throws XMLStreamException 
+     */
+    public static XMLStreamReader createXMLStreamReader(InputStream in) throws IOException, XMLStreamException {
+        InputStream markableIn = in.markSupported() ? in : new BufferedInputStream(in);
+        return detect(markableIn).createXMLStreamReader(markableIn);
+    }
+
+    /**
+     * Copies a payload into the given target codec without binding it to
+     * any Java class.
+     * @param in
+     * @param out
+     * @param target
+     * @throws IOException
+     * @throws XMLStreamException 
+     */
+    public static void transcode(InputStream in, OutputStream out, WrapperCodec target) throws IOException, XMLStreamException {
+        XMLStreamReader reader = createXMLStreamReader(in);
+        XMLStreamWriter writer = target.createXMLStreamWriter(out);
+        try {
+            copy(reader, writer);
+            writer.flush();
+        } finally {
+            reader.close();
+            writer.close();
+        }
+    }
+
+    private static void copy(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartDocument("UTF-8", "1.0");
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (isEmpty(reader.getNamespaceURI())) {
+                        writer.writeStartElement(reader.getLocalName());
+                    } else {
+                        writer.writeStartElement(nullToEmpty(reader.getPrefix()), reader.getLocalName(), reader.getNamespaceURI());
+                    }
+                    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                        if (isEmpty(reader.getNamespacePrefix(i))) {
+                            writer.writeDefaultNamespace(reader.getNamespaceURI(i));
+                        } else {
+                            writer.writeNamespace(reader.getNamespacePrefix(i), reader.getNamespaceURI(i));
+                        }
+                    }
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        if (isEmpty(reader.getAttributeNamespace(i))) {
+                            writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                        } else {
+                            writer.writeAttribute(nullToEmpty(reader.getAttributePrefix(i)), reader.getAttributeNamespace(i), reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                        }
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    writer.writeEndElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    writer.writeCharacters(reader.getText());
+                    break;
+                case XMLStreamConstants.CDATA:
+                    writer.writeCData(reader.getText());
+                    break;
+                case XMLStreamConstants.END_DOCUMENT:
+                    writer.writeEndDocument();
+                    break;
+                default:
+                    //comments and processing instructions are not relevant
+                    //for the wrappers.
+                    break;
+            }
+        }
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+}
@@ -0,0 +1,79 @@
+/* 
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.common.serialization;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Plain (UTF-8) XML codec. This is the format used at the edges of the flow
+ * and the one used when a payload doesn't declare any other format.
+ * 
+ * @author esteban
+ */
+public class XMLWrapperCodec implements WrapperCodec {
+
+    public static final String MIME_TYPE = "application/xml";
+
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+    @Override
+    public String getMimeType() {
+        return MIME_TYPE;
+    }
+
+    @Override
+    public boolean accepts(byte[] prefix, int length) {
+        //skip UTF-8 BOM and leading whitespace
+        int i = 0;
+        if (length >= 3 && prefix[0] == (byte) 0xEF && prefix[1] == (byte) 0xBB && prefix[2] == (byte) 0xBF) {
+            i = 3;
+        }
+        while (i < length && Character.isWhitespace(prefix[i])) {
+            i++;
+        }
+        return i < length && prefix[i] == '<';
+    }
+
+    @Override
+    public void encode(Object wrapper, OutputStream out, Class<?>... classes) throws JAXBException {
+        JAXBContextRegistry.marshal(wrapper, out, classes);
+    }
+
+    @Override
+    public Object decode(InputStream in, Class<?>... classes) throws JAXBException {
+        return JAXBContextRegistry.unmarshal(in, classes);
+    }
+
+    @Override
+    public XMLStreamReader createXMLStreamReader(InputStream in) throws XMLStreamException {
+        return inputFactory.createXMLStreamReader(in);
+    }
+
+    @Override
+    public XMLStreamWriter createXMLStreamWriter(OutputStream out) throws XMLStreamException {
+        return outputFactory.createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+    }
+
+}
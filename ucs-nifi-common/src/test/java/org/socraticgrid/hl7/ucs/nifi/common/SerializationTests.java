@@ -15,29 +15,46 @@
  */
 package org.socraticgrid.hl7.ucs.nifi.common;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import static org.junit.Assert.*;
 import static org.hamcrest.CoreMatchers.*;
 import org.junit.Test;
+import org.socraticgrid.hl7.services.uc.exceptions.ProcessingException;
 import org.socraticgrid.hl7.services.uc.model.AlertMessage;
 import org.socraticgrid.hl7.services.uc.model.AlertMessageHeader;
 import org.socraticgrid.hl7.services.uc.model.AlertStatus;
+import org.socraticgrid.hl7.services.uc.model.Conversation;
 import org.socraticgrid.hl7.services.uc.model.DeliveryAddress;
 import org.socraticgrid.hl7.services.uc.model.MessageBody;
 import org.socraticgrid.hl7.services.uc.model.PhysicalAddress;
 import org.socraticgrid.hl7.services.uc.model.Recipient;
 import org.socraticgrid.hl7.services.uc.model.SimpleMessage;
 import org.socraticgrid.hl7.services.uc.model.SimpleMessageHeader;
+import org.socraticgrid.hl7.ucs.nifi.common.model.ConversationWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.model.ExceptionWrapper;
 import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
 import org.socraticgrid.hl7.ucs.nifi.common.model.XMLListWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.ConversationSerializer;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.ExceptionWrapperSerializer;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageHeaderView;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializationException;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializer;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.WrapperCodecs;
+import org.socraticgrid.hl7.ucs.nifi.common.util.MessageBuilder;
 
 /**
  *
@@ -349,4 +366,207 @@ public class SerializationTests {
         
     }
     
+    @Test
+    public void streamMessageSerializationTest() throws Exception{
+        
+        String subject = "Se\u00f1al de prueba \u00e9\u00e8 \u4e2d\u6587";
+        
+        List<MessageWrapper> messages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            messages.add(MessageSerializer.deserializeMessageWrapper(new MessageBuilder()
+                .withSender("eafry")
+                .withSubject(subject)
+                .withBody("Some Body")
+                .addRecipient(new MessageBuilder.Recipient("ealiverti", "SMS"))
+                .buildSerializedMessageWrapper()));
+        }
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessageSerializer.serializeMessageWrapper(messages.get(0), out);
+        
+        MessageWrapper deserializedMessage = MessageSerializer.deserializeMessageWrapper(new ByteArrayInputStream(out.toByteArray()));
+        assertThat(deserializedMessage.getMessage().getHeader().getSubject(), is(subject));
+        
+        out = new ByteArrayOutputStream();
+        MessageSerializer.serializeMessageWrappers(messages, out);
+        
+        XMLListWrapper<MessageWrapper> deserializedMessages = MessageSerializer.deserializeMessageWrappers(new ByteArrayInputStream(out.toByteArray()));
+        assertThat(deserializedMessages.getItems().size(), is(3));
+        assertThat(deserializedMessages.getItems().get(2).getMessage().getHeader().getSubject(), is(subject));
+        
+        //String based methods must be consistent with the stream based ones
+        assertThat(MessageSerializer.deserializeMessageWrappers(new String(out.toByteArray(), StandardCharsets.UTF_8)).getItems().get(0).getMessage().getHeader().getSubject(), is(subject));
+    }
+    
+    @Test
+    public void fastInfosetMessageSerializationTest() throws Exception{
+        
+        String serializedMessage = new MessageBuilder()
+                .withConversationId("testC")
+                .withSender("eafry")
+                .withSubject("Some Subject")
+                .withBody("Some Body")
+                .addRecipient(new MessageBuilder.Recipient("ealiverti", "SMS"))
+                .addRecipient(new MessageBuilder.Recipient("jhughes", "EMAIL"))
+                .addOnFailureToReachAll(
+                        new MessageBuilder()
+                            .withConversationId("testC")
+                            .withSender("eafry")
+                            .withSubject("Where are you?")
+                            .withBody("I couldn't reach you!")
+                            .addRecipient(new MessageBuilder.Recipient("ealiverti", "SMS"))
+                )
+                .buildSerializedMessageWrapper();
+        
+        MessageWrapper messageWrapper = MessageSerializer.deserializeMessageWrapper(serializedMessage);
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessageSerializer.serializeMessageWrapper(messageWrapper, out, WrapperCodecs.FAST_INFOSET);
+        byte[] binary = out.toByteArray();
+        
+        assertThat(WrapperCodecs.detect(new ByteArrayInputStream(binary)), is(WrapperCodecs.FAST_INFOSET));
+        assertThat(WrapperCodecs.detect(new ByteArrayInputStream(serializedMessage.getBytes(StandardCharsets.UTF_8))), is(WrapperCodecs.XML));
+        assertThat(binary.length < MessageSerializer.serializeMessageWrapper(messageWrapper).getBytes(StandardCharsets.UTF_8).length, is(true));
+        
+        //the same deserialization method must understand both formats
+        MessageWrapper deserializedMessage = MessageSerializer.deserializeMessageWrapper(new ByteArrayInputStream(binary));
+        assertThat(MessageSerializer.serializeMessageWrapper(deserializedMessage), is(MessageSerializer.serializeMessageWrapper(messageWrapper)));
+        assertThat(deserializedMessage.getMessage().getHeader().getOnFailureToReachAll().get(0).getHeader().getSubject(), is("Where are you?"));
+        
+        //binary -> xml
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        WrapperCodecs.transcode(new ByteArrayInputStream(binary), xml, WrapperCodecs.XML);
+        deserializedMessage = MessageSerializer.deserializeMessageWrapper(new String(xml.toByteArray(), StandardCharsets.UTF_8));
+        assertThat(MessageSerializer.serializeMessageWrapper(deserializedMessage), is(MessageSerializer.serializeMessageWrapper(messageWrapper)));
+        
+        //lists
+        out = new ByteArrayOutputStream();
+        MessageSerializer.serializeMessageWrappers(new XMLListWrapper<>(Arrays.asList(messageWrapper, messageWrapper)), out, WrapperCodecs.FAST_INFOSET);
+        XMLListWrapper<MessageWrapper> deserializedMessages = MessageSerializer.deserializeMessageWrappers(new ByteArrayInputStream(out.toByteArray()));
+        assertThat(deserializedMessages.getItems().size(), is(2));
+        assertThat(deserializedMessages.getItems().get(1).getMessage().getHeader().getSubject(), is("Some Subject"));
+    }
+    
+    @Test
+    public void fastInfosetConversationAndExceptionSerializationTest() throws Exception{
+        
+        Conversation conversation = new Conversation();
+        conversation.setConversationId(UUID.randomUUID().toString());
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ConversationSerializer.serializeConversationWrapper(new ConversationWrapper(conversation), out, WrapperCodecs.FAST_INFOSET);
+        ConversationWrapper deserializedConversation = ConversationSerializer.deserializeConversationWrapper(new ByteArrayInputStream(out.toByteArray()));
+        assertThat(deserializedConversation.getConversation().getConversationId(), is(conversation.getConversationId()));
+        
+        MessageWrapper messageWrapper = MessageSerializer.deserializeMessageWrapper(new MessageBuilder()
+                .withSender("eafry")
+                .withSubject("Some Subject")
+                .withBody("Some Body")
+                .addRecipient(new MessageBuilder.Recipient("ealiverti", "SMS"))
+                .buildSerializedMessageWrapper());
+        
+        ProcessingException pe = new ProcessingException();
+        pe.setFault("Some Fault");
+        pe.setProcessingExceptionId(UUID.randomUUID().toString());
+        
+        ExceptionWrapper exceptionWrapper = new ExceptionWrapper();
+        exceptionWrapper.setServerId("Some Server");
+        exceptionWrapper.setMessage(messageWrapper.getMessage());
+        exceptionWrapper.setProcessingException(pe);
+        
+        out = new ByteArrayOutputStream();
+        ExceptionWrapperSerializer.serializeExceptionWrapper(exceptionWrapper, out, WrapperCodecs.FAST_INFOSET);
+        ExceptionWrapper deserializedException = ExceptionWrapperSerializer.deserializeExceptionWrapper(new ByteArrayInputStream(out.toByteArray()));
+        assertThat(deserializedException.getServerId(), is("Some Server"));
+        assertThat(deserializedException.getProcessingException().getFault(), is("Some Fault"));
+        assertThat(deserializedException.getMessage().getHeader().getSubject(), is("Some Subject"));
+    }
+    
+    @Test
+    public void messageHeaderViewTest() throws Exception{
+        
+        String serializedMessage = new MessageBuilder()
+                .withMessageId("M1")
+                .withConversationId("testC")
+                .withSender("eafry")
+                .withSubject("Some Subject")
+                .withBody("Some Body")
+                .addBody("Some Other Body")
+                .addRecipient(new MessageBuilder.Recipient("R1", "ealiverti", "SMS"))
+                .addRecipient(new MessageBuilder.Recipient("R2", "jhughes", "EMAIL"))
+                .addOnNoResponseAll(
+                        new MessageBuilder()
+                            .withMessageId("M2")
+                            .withSender("eafry")
+                            .withSubject("Where are you?")
+                            .withBody("I couldn't reach you!")
+                            .addRecipient(new MessageBuilder.Recipient("R3", "ealiverti", "CHAT"))
+                )
+                .buildSerializedMessageWrapper();
+        
+        MessageHeaderView view = MessageHeaderView.read(new ByteArrayInputStream(serializedMessage.getBytes(StandardCharsets.UTF_8)));
+        
+        assertThat(view.getMimeType(), is(WrapperCodecs.XML.getMimeType()));
+        assertThat(view.getMessageType(), is("simpleMessage"));
+        assertThat(view.getMessageId(), is("M1"));
+        assertThat(view.getRelatedConversationId(), is("testC"));
+        assertThat(view.getNestedMessageIds(), is(Arrays.asList("M2")));
+        assertThat(view.getRecipients().size(), is(2));
+        assertThat(view.getRecipients().get(0).getRecipientId(), is("R1"));
+        assertThat(view.getRecipients().get(0).getAddress(), is("ealiverti"));
+        assertThat(view.getRecipients().get(0).getServiceId(), is("SMS"));
+        assertThat(view.getRecipients().get(1).getServiceId(), is("EMAIL"));
+        
+        //Fast Infoset
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessageSerializer.serializeMessageWrapper(MessageSerializer.deserializeMessageWrapper(serializedMessage), out, WrapperCodecs.FAST_INFOSET);
+        view = MessageHeaderView.read(new ByteArrayInputStream(out.toByteArray()), EnumSet.of(MessageHeaderView.Field.RECIPIENTS));
+        
+        assertThat(view.getMimeType(), is(WrapperCodecs.FAST_INFOSET.getMimeType()));
+        assertThat(view.getRecipients().size(), is(2));
+        assertThat(view.getRecipients().get(1).getAddress(), is("jhughes"));
+        try{
+            view.getMessageId();
+            fail("Exception expected");
+        } catch (IllegalStateException e){
+            //expected: messageId was not requested
+        }
+        
+        //nothing after the header of the message is read
+        String truncatedMessage = serializedMessage.substring(0, serializedMessage.lastIndexOf("</model:simpleMessageHeader>") + "</model:simpleMessageHeader>".length());
+        view = MessageHeaderView.read(new ByteArrayInputStream(truncatedMessage.getBytes(StandardCharsets.UTF_8)));
+        assertThat(view.getMessageId(), is("M1"));
+        
+    }
+    
+    @Test
+    public void concurrentMessageSerializationTest() throws Exception{
+        
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try{
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final String subject = "Subject "+i;
+                results.add(executor.submit(() -> {
+                    String serializedMessage = new MessageBuilder()
+                        .withSender("eafry")
+                        .withSubject(subject)
+                        .withBody("Some Body")
+                        .addRecipient(new MessageBuilder.Recipient("ealiverti", "SMS"))
+                        .buildSerializedMessageWrapper();
+                    
+                    MessageWrapper messageWrapper = MessageSerializer.deserializeMessageWrapper(serializedMessage);
+                    messageWrapper = MessageSerializer.deserializeMessageWrapper(MessageSerializer.serializeMessageWrapper(messageWrapper));
+                    return messageWrapper.getMessage().getHeader().getSubject();
+                }));
+            }
+            
+            for (int i = 0; i < results.size(); i++) {
+                assertThat(results.get(i).get(), is("Subject "+i));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
 }
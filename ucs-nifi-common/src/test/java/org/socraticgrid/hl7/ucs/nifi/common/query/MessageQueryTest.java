@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.common.query;
+
+import java.time.Instant;
+import java.util.Date;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import org.socraticgrid.hl7.services.uc.model.Message;
+import org.socraticgrid.hl7.ucs.nifi.common.util.MessageBuilder;
+
+/**
+ *
+ * @author esteban
+ */
+public class MessageQueryTest {
+
+    @Test
+    public void testParse() {
+        MessageQuery query = MessageQuery.parse("sender = 'it''s me' and created>=2015-06-01 AND serviceId=SMS");
+
+        assertThat(query.getCriteria().size(), is(3));
+        assertThat(query.getCriteria().get(0), is(new QueryCriterion(QueryField.SENDER, QueryOperator.EQUALS, "it's me")));
+        assertThat(query.getCriteria().get(1).getOperator(), is(QueryOperator.GREATER_OR_EQUALS));
+        assertThat(query.getCriteria().get(1).getTimestamp(), is(Instant.parse("2015-06-01T00:00:00Z").toEpochMilli()));
+        assertThat(query.getCriteria().get(2), is(new QueryCriterion(QueryField.SERVICE_ID, QueryOperator.EQUALS, "SMS")));
+
+        //the textual form can be parsed back.
+        assertThat(MessageQuery.parse(query.toString()).getCriteria(), is(query.getCriteria()));
+
+        assertThat(MessageQuery.parse(null).isEmpty(), is(true));
+        assertThat(MessageQuery.parse("  ").isEmpty(), is(true));
+    }
+
+    @Test
+    public void testInvalidQueries() {
+        for (String invalidQuery : new String[]{"sender", "sender =", "unknown = 1", "sender > eafry", "sender = \"eafry", "sender = a sender = b", "created < tomorrow"}) {
+            try {
+                MessageQuery.parse(invalidQuery);
+                fail("Exception expected for query: " + invalidQuery);
+            } catch (IllegalArgumentException e) {
+                //expected
+            }
+        }
+    }
+
+    @Test
+    public void testMatches() throws Exception {
+        Message message = new MessageBuilder()
+                .withMessageId("M1")
+                .withConversationId("C1")
+                .withSender("eafry")
+                .withCreatedDate(new Date(Instant.parse("2015-06-01T10:00:00Z").toEpochMilli()))
+                .addRecipient(new MessageBuilder.Recipient("ealiverti", "EMAIL"))
+                .buildMessage();
+
+        assertThat(MessageQuery.parse("sender = eafry").matches(message), is(true));
+        assertThat(MessageQuery.parse("recipient = ealiverti AND serviceId = EMAIL").matches(message), is(true));
+        assertThat(MessageQuery.parse("conversationId = C1 AND created >= 2015-06-01 AND created < 2015-06-02").matches(message), is(true));
+        assertThat(MessageQuery.parse("sender = ealiverti").matches(message), is(false));
+        assertThat(MessageQuery.parse("created > '2015-06-01T10:00:00Z'").matches(message), is(false));
+        assertThat(MessageQuery.parse("status = OK").matches(message), is(false));
+        assertThat(MessageQuery.ALL.matches(message), is(true));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.common.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.util.MessageBuilder;
+
+/**
+ * Compares a full deserialization of a big multi-part message with
+ * escalations against reading only its recipients through
+ * {@link MessageHeaderView} (what UCSRouteMessageByServiceId needs).
+ *
+ * Run it with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageHeaderViewBenchmark
+ *
+ * @author esteban
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageHeaderViewBenchmark {
+
+    private static final int PARTS = 20;
+    private static final int ESCALATIONS = 4;
+
+    private byte[] serializedMessage;
+
+    @Setup
+    public void setup() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            body.append("This is a line of a long message body. ");
+        }
+
+        MessageBuilder messageBuilder = new MessageBuilder()
+                .withConversationId("testC")
+                .withSender("eafry")
+                .withSubject("Some Subject")
+                .addRecipient(new MessageBuilder.Recipient("ealiverti", "SMS"))
+                .addRecipient(new MessageBuilder.Recipient("jhughes", "EMAIL"));
+        for (int i = 0; i < PARTS; i++) {
+            messageBuilder.addBody(body.toString());
+        }
+        for (int i = 0; i < ESCALATIONS; i++) {
+            messageBuilder.addOnNoResponseAll(new MessageBuilder()
+                    .withSender("eafry")
+                    .withSubject("Escalation " + i)
+                    .withBody(body.toString())
+                    .addRecipient(new MessageBuilder.Recipient("eafry", "CHAT")));
+        }
+
+        serializedMessage = messageBuilder.buildSerializedMessageWrapper().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public MessageWrapper fullDeserialization() throws Exception {
+        return MessageSerializer.deserializeMessageWrapper(new ByteArrayInputStream(serializedMessage));
+    }
+
+    @Benchmark
+    public MessageHeaderView headerView() throws Exception {
+        return MessageHeaderView.read(new ByteArrayInputStream(serializedMessage), EnumSet.of(MessageHeaderView.Field.RECIPIENTS));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MessageHeaderViewBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
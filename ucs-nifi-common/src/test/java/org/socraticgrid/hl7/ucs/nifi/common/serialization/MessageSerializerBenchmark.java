@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.common.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import javax.xml.bind.JAXBContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.util.MessageBuilder;
+
+/**
+ * Measures how many messages per second can be deserialized and serialized
+ * back (the typical work done by a processor on each FlowFile).
+ *
+ * 'uncachedRoundTrip' reproduces the old behavior of building a new
+ * JAXBContext on every call while 'cachedRoundTrip' goes through
+ * MessageSerializer and JAXBContextRegistry.
+ *
+ * Run it with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializerBenchmark
+ *
+ * @author esteban
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageSerializerBenchmark {
+
+    private String serializedMessage;
+
+    @Setup
+    public void setup() throws Exception {
+        serializedMessage = new MessageBuilder()
+                .withConversationId("testC")
+                .withSender("eafry")
+                .withSubject("Some Subject")
+                .withBody("Some Body")
+                .addRecipient(new MessageBuilder.Recipient("ealiverti", "SMS"))
+                .addRecipient(new MessageBuilder.Recipient("jhughes", "EMAIL"))
+                .buildSerializedMessageWrapper();
+    }
+
+    @Benchmark
+    public String uncachedRoundTrip() throws Exception {
+        JAXBContext context = JAXBContext.newInstance(MessageWrapper.class);
+        MessageWrapper messageWrapper = (MessageWrapper) context.createUnmarshaller().unmarshal(new ByteArrayInputStream(serializedMessage.getBytes()));
+
+        context = JAXBContext.newInstance(MessageWrapper.class);
+        StringWriter result = new StringWriter();
+        context.createMarshaller().marshal(messageWrapper, result);
+        return result.toString();
+    }
+
+    @Benchmark
+    public String cachedRoundTrip() throws Exception {
+        MessageWrapper messageWrapper = MessageSerializer.deserializeMessageWrapper(serializedMessage);
+        return MessageSerializer.serializeMessageWrapper(messageWrapper);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MessageSerializerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
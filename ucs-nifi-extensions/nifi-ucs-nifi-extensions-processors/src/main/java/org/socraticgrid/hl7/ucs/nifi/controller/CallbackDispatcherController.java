@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.controller;
+
+import java.net.URL;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.controller.ControllerService;
+import org.socraticgrid.hl7.services.uc.model.Message;
+
+/**
+ * Delivers the notifications of UCS to the registered client and alerting
+ * callbacks. Each callback endpoint has its own outbound queue, so a slow
+ * or dead client doesn't delay the notifications of the others.
+ *
+ * @author esteban
+ */
+@Tags({"UCS", "Callback"})
+@CapabilityDescription("Delivers notifications to the registered UCS Client and Alerting callbacks using a queue per callback.")
+public interface CallbackDispatcherController extends ControllerService {
+
+    /**
+     * Queues a notification for a callback endpoint. This method never
+     * blocks.
+     *
+     * If the circuit of the endpoint is open, the notification is not
+     * delivered and the message is reported as a message with unreachable
+     * handlers.
+     *
+     * @param callback the registered callback URL.
+     * @param action the path of the callback endpoint the notification is
+     * posted to. I.e: 'newMessage'.
+     * @param body the content of the notification.
+     * @param message the Message the notification is about. It is used to
+     * batch notifications of batchable actions and to report unreachable
+     * handlers. Can be null.
+     * @return false if the queue of the endpoint is full and the notification
+     * was not accepted.
+     */
+    public boolean dispatch(URL callback, String action, String body, Message message);
+
+    /**
+     * @param action
+     * @return whether notifications of the given action can be delivered in
+     * a single request.
+     */
+    public boolean isBatchable(String action);
+
+    /**
+     * @param callback
+     * @return whether the queue of the endpoint can accept a new notification.
+     */
+    public boolean hasCapacity(URL callback);
+
+    /**
+     * @param callback
+     * @return number of notifications waiting to be delivered to the
+     * endpoint.
+     */
+    public int getQueueDepth(URL callback);
+
+    /**
+     * @param callback
+     * @return whether the endpoint is considered dead and its notifications
+     * are not being delivered.
+     */
+    public boolean isCircuitOpen(URL callback);
+}
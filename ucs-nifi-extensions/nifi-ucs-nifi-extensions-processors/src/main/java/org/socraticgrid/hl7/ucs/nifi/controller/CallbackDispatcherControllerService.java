@@ -0,0 +1,611 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.controller;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnDisabled;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.socraticgrid.hl7.services.uc.model.Message;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.ContentEncoding;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializationException;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializer;
+import org.socraticgrid.hl7.ucs.nifi.processor.model.MessageWithUnreachableHandlers;
+
+/**
+ * {@link CallbackDispatcherController} implementation that POSTs the
+ * notifications using a pool of keep-alive HTTP connections.
+ *
+ * Every callback endpoint has a bounded queue. Its notifications are
+ * delivered one request at a time and in the order they were queued.
+ * Consecutive notifications of the same batchable action are delivered in
+ * a single request as a list of messages. Failed requests are retried
+ * with exponential backoff. After a number of consecutive failed deliveries
+ * the circuit of the endpoint is opened: no request is sent to it until the
+ * reset period is over. Notifications that couldn't be delivered are
+ * reported to {@link UCSController#notifyAboutMessageWithUnreachableHandlers(MessageWithUnreachableHandlers)}.
+ *
+ * Endpoints are kept in sync with the callbacks registered in the
+ * {@link UCSController}: the endpoint of a callback that is no longer
+ * registered is removed (and its queued notifications discarded) on the
+ * next dispatch.
+ *
+ * @author esteban
+ */
+@Tags({"UCS", "Callback", "HTTP"})
+@CapabilityDescription("Delivers notifications to the registered UCS Client and Alerting callbacks using a queue per callback, "
+        + "batching, retries with backoff and a circuit breaker per callback.")
+public class CallbackDispatcherControllerService extends AbstractControllerService implements CallbackDispatcherController {
+
+    public static final PropertyDescriptor UCS_CONTROLLER_SERVICE = new PropertyDescriptor.Builder()
+            .name("UCS Controller Service")
+            .description("The UCS Controller Service notified about the messages that couldn't be delivered.")
+            .identifiesControllerService(UCSController.class)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+            .name("Batch Size")
+            .description("Max. number of notifications delivered to a callback in a single request.")
+            .required(true)
+            .defaultValue("20")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor BATCH_WAIT = new PropertyDescriptor.Builder()
+            .name("Batch Wait")
+            .description("How long to wait for more notifications before sending a request to an idle callback.")
+            .required(true)
+            .defaultValue("20 millis")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor BATCHABLE_ACTIONS = new PropertyDescriptor.Builder()
+            .name("Batchable Actions")
+            .description("Comma separated list of the callback actions that accept a list of messages instead of a single one.")
+            .required(true)
+            .defaultValue("newMessage,response,newAlertMessage,alertMessageCancelled")
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor QUEUE_CAPACITY = new PropertyDescriptor.Builder()
+            .name("Queue Capacity")
+            .description("Max. number of notifications waiting to be delivered to a single callback. When the queue is full, new notifications are not accepted.")
+            .required(true)
+            .defaultValue("1000")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_RETRIES = new PropertyDescriptor.Builder()
+            .name("Max Retries")
+            .description("Number of times a failed request is retried before its notifications are considered undeliverable.")
+            .required(true)
+            .defaultValue("3")
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor RETRY_BACKOFF = new PropertyDescriptor.Builder()
+            .name("Retry Backoff")
+            .description("Time to wait before the first retry. The time is doubled on each subsequent retry.")
+            .required(true)
+            .defaultValue("500 millis")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor CIRCUIT_BREAKER_THRESHOLD = new PropertyDescriptor.Builder()
+            .name("Circuit Breaker Threshold")
+            .description("Number of consecutive undeliverable requests after which a callback is considered dead.")
+            .required(true)
+            .defaultValue("3")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor CIRCUIT_BREAKER_RESET = new PropertyDescriptor.Builder()
+            .name("Circuit Breaker Reset")
+            .description("How long a dead callback is skipped before trying to deliver to it again.")
+            .required(true)
+            .defaultValue("30 sec")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor DISPATCHER_THREADS = new PropertyDescriptor.Builder()
+            .name("Dispatcher Threads")
+            .description("Number of threads delivering notifications. Each thread sends a request to a single callback at a time.")
+            .required(true)
+            .defaultValue("4")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor REQUEST_TIMEOUT = new PropertyDescriptor.Builder()
+            .name("Request Timeout")
+            .description("Connection and read timeout of the requests sent to the callbacks.")
+            .required(true)
+            .defaultValue("5 sec")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor COMPRESSION_FORMAT = new PropertyDescriptor.Builder()
+            .name("Compression Format")
+            .description("Compression applied to the requests sent to the callbacks. The callbacks of clients older than the "
+                    + "'gzip'/'deflate' support can't decode compressed requests.")
+            .required(true)
+            .allowableValues("none", ContentEncoding.GZIP.getName(), ContentEncoding.DEFLATE.getName())
+            .defaultValue("none")
+            .build();
+
+    public static final PropertyDescriptor COMPRESSION_THRESHOLD = new PropertyDescriptor.Builder()
+            .name("Compression Threshold")
+            .description("Requests smaller than this size are not compressed.")
+            .required(true)
+            .defaultValue("1 KB")
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+
+    private static class Notification {
+
+        private final String action;
+        private final String body;
+        private final Message message;
+
+        public Notification(String action, String body, Message message) {
+            this.action = action;
+            this.body = body;
+            this.message = message;
+        }
+    }
+
+    private static class Endpoint {
+
+        private final URL url;
+        private final BlockingQueue<Notification> queue;
+        //true while a delivery task of this endpoint is scheduled or running.
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile long circuitOpenUntil;
+        //true once the callback is unregistered.
+        private volatile boolean removed;
+
+        //only accessed by the delivery task, which never runs concurrently for the same endpoint.
+        private List<Notification> pending;
+        private int attempt;
+        private int consecutiveFailures;
+
+        public Endpoint(URL url, int capacity) {
+            this.url = url;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        public boolean isCircuitOpen() {
+            return circuitOpenUntil > System.currentTimeMillis();
+        }
+
+        public int queueSize() {
+            return queue.size();
+        }
+    }
+
+    private int batchSize;
+    private long batchWait;
+    private Set<String> batchableActions;
+    private int queueCapacity;
+    private int maxRetries;
+    private long retryBackoff;
+    private int circuitBreakerThreshold;
+    private long circuitBreakerReset;
+    private ContentEncoding compression;
+    private int compressionThreshold;
+
+    private UCSController ucsController;
+    private volatile ScheduledExecutorService executor;
+    private CloseableHttpClient client;
+
+    //callback URL -> endpoint. URLs are not used as keys because URL.equals() resolves the host.
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        final List<PropertyDescriptor> descriptors = new ArrayList<>();
+        descriptors.add(UCS_CONTROLLER_SERVICE);
+        descriptors.add(BATCH_SIZE);
+        descriptors.add(BATCH_WAIT);
+        descriptors.add(BATCHABLE_ACTIONS);
+        descriptors.add(QUEUE_CAPACITY);
+        descriptors.add(MAX_RETRIES);
+        descriptors.add(RETRY_BACKOFF);
+        descriptors.add(CIRCUIT_BREAKER_THRESHOLD);
+        descriptors.add(CIRCUIT_BREAKER_RESET);
+        descriptors.add(DISPATCHER_THREADS);
+        descriptors.add(REQUEST_TIMEOUT);
+        descriptors.add(COMPRESSION_FORMAT);
+        descriptors.add(COMPRESSION_THRESHOLD);
+        return descriptors;
+    }
+
+    @OnEnabled
+    public void onEnabled(final ConfigurationContext context) throws Exception {
+        this.ucsController = context.getProperty(UCS_CONTROLLER_SERVICE).asControllerService(UCSController.class);
+        this.batchSize = context.getProperty(BATCH_SIZE).asInteger();
+        this.batchWait = context.getProperty(BATCH_WAIT).asTimePeriod(TimeUnit.MILLISECONDS);
+        this.batchableActions = Arrays.stream(context.getProperty(BATCHABLE_ACTIONS).getValue().split(","))
+                .map(String::trim)
+                .filter(a -> !a.isEmpty())
+                .collect(Collectors.toCollection(HashSet::new));
+        this.queueCapacity = context.getProperty(QUEUE_CAPACITY).asInteger();
+        this.maxRetries = context.getProperty(MAX_RETRIES).asInteger();
+        this.retryBackoff = context.getProperty(RETRY_BACKOFF).asTimePeriod(TimeUnit.MILLISECONDS);
+        this.circuitBreakerThreshold = context.getProperty(CIRCUIT_BREAKER_THRESHOLD).asInteger();
+        this.circuitBreakerReset = context.getProperty(CIRCUIT_BREAKER_RESET).asTimePeriod(TimeUnit.MILLISECONDS);
+        String compressionFormat = context.getProperty(COMPRESSION_FORMAT).getValue();
+        this.compression = "none".equals(compressionFormat) ? ContentEncoding.IDENTITY : ContentEncoding.fromName(compressionFormat);
+        this.compressionThreshold = context.getProperty(COMPRESSION_THRESHOLD).asDataSize(DataUnit.B).intValue();
+
+        int threads = context.getProperty(DISPATCHER_THREADS).asInteger();
+        int timeout = context.getProperty(REQUEST_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS).intValue();
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        //there is never more than one request in flight per endpoint.
+        connectionManager.setDefaultMaxPerRoute(1);
+        connectionManager.setMaxTotal(threads);
+        this.client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(timeout)
+                        .setConnectionRequestTimeout(timeout)
+                        .setSocketTimeout(timeout)
+                        .build())
+                .build();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newScheduledThreadPool(threads, r -> {
+            Thread t = new Thread(r, "ucs-callback-dispatcher-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @OnDisabled
+    public void onDisabled() throws IOException {
+        ScheduledExecutorService e = this.executor;
+        this.executor = null;
+        if (e != null) {
+            e.shutdownNow();
+        }
+
+        int discarded = endpoints.values().stream().mapToInt(Endpoint::queueSize).sum();
+        if (discarded > 0) {
+            getLogger().warn("{} callback notifications were discarded.", new Object[]{discarded});
+        }
+        endpoints.clear();
+
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+    }
+
+    @Override
+    public boolean dispatch(URL callback, String action, String body, Message message) {
+        if (executor == null) {
+            throw new IllegalStateException("CallbackDispatcherController is not enabled");
+        }
+
+        Set<String> registeredCallbacks = this.getRegisteredCallbacks();
+        this.removeUnregisteredEndpoints(registeredCallbacks);
+        if (!registeredCallbacks.contains(callback.toString())) {
+            getLogger().debug("Callback {} is not registered. Notification discarded.", new Object[]{callback});
+            return true;
+        }
+
+        Notification notification = new Notification(action, body, message);
+        Endpoint endpoint = endpoints.computeIfAbsent(callback.toString(), k -> new Endpoint(callback, queueCapacity));
+
+        if (endpoint.isCircuitOpen()) {
+            this.reportUndeliverable(endpoint, Collections.singletonList(notification));
+            return true;
+        }
+
+        if (!endpoint.queue.offer(notification)) {
+            getLogger().debug("Queue of callback {} is full.", new Object[]{callback});
+            return false;
+        }
+
+        if (endpoint.scheduled.compareAndSet(false, true)) {
+            this.schedule(endpoint, batchWait);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isBatchable(String action) {
+        return batchableActions != null && batchableActions.contains(action);
+    }
+
+    @Override
+    public boolean hasCapacity(URL callback) {
+        Endpoint endpoint = endpoints.get(callback.toString());
+        return endpoint == null || endpoint.queue.remainingCapacity() > 0;
+    }
+
+    @Override
+    public int getQueueDepth(URL callback) {
+        Endpoint endpoint = endpoints.get(callback.toString());
+        return endpoint == null ? 0 : endpoint.queueSize();
+    }
+
+    @Override
+    public boolean isCircuitOpen(URL callback) {
+        Endpoint endpoint = endpoints.get(callback.toString());
+        return endpoint != null && endpoint.isCircuitOpen();
+    }
+
+    /**
+     * @return the URLs of the UCS Client and Alerting callbacks currently
+     * registered.
+     */
+    private Set<String> getRegisteredCallbacks() {
+        Set<String> callbacks = new HashSet<>();
+        ucsController.getUCSClientCallbacks().forEach(url -> callbacks.add(url.toString()));
+        ucsController.getUCSAlertingCallbacks().forEach(url -> callbacks.add(url.toString()));
+        return callbacks;
+    }
+
+    private void removeUnregisteredEndpoints(Set<String> registeredCallbacks) {
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            Endpoint endpoint = entry.getValue();
+            if (!registeredCallbacks.contains(entry.getKey()) && endpoints.remove(entry.getKey(), endpoint)) {
+                endpoint.removed = true;
+                int discarded = endpoint.queueSize();
+                endpoint.queue.clear();
+                getLogger().debug("Callback {} was unregistered. {} queued notifications discarded.", new Object[]{endpoint.url, discarded});
+            }
+        }
+    }
+
+    /**
+     * Number of callbacks with an endpoint (queue, circuit breaker, etc).
+     * @return
+     */
+    int getEndpointCount() {
+        return endpoints.size();
+    }
+
+    private void schedule(Endpoint endpoint, long delay) {
+        ScheduledExecutorService e = this.executor;
+        if (e == null) {
+            return;
+        }
+        try {
+            e.schedule(() -> this.deliver(endpoint), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            //the service is being disabled.
+        }
+    }
+
+    /**
+     * Sends the next request of the endpoint. Only one instance of this
+     * task is scheduled per endpoint at any time.
+     */
+    private void deliver(Endpoint endpoint) {
+        if (endpoint.removed) {
+            endpoint.pending = null;
+            endpoint.queue.clear();
+            return;
+        }
+        try {
+            if (endpoint.pending == null) {
+                endpoint.pending = this.nextBatch(endpoint);
+                endpoint.attempt = 0;
+            }
+            if (endpoint.pending.isEmpty()) {
+                endpoint.pending = null;
+                this.release(endpoint);
+                return;
+            }
+
+            if (endpoint.isCircuitOpen()) {
+                this.reportUndeliverable(endpoint, endpoint.pending);
+                endpoint.pending = null;
+                this.next(endpoint);
+                return;
+            }
+
+            if (this.post(endpoint, endpoint.pending)) {
+                endpoint.consecutiveFailures = 0;
+                endpoint.pending = null;
+                this.next(endpoint);
+                return;
+            }
+
+            endpoint.attempt++;
+            //an endpoint whose circuit was open gets a single attempt.
+            boolean halfOpen = endpoint.consecutiveFailures >= circuitBreakerThreshold;
+            if (!halfOpen && endpoint.attempt <= maxRetries) {
+                long delay = retryBackoff << (endpoint.attempt - 1);
+                getLogger().debug("Retrying delivery to {} in {}ms.", new Object[]{endpoint.url, delay});
+                this.schedule(endpoint, delay);
+                return;
+            }
+
+            this.reportUndeliverable(endpoint, endpoint.pending);
+            endpoint.pending = null;
+            endpoint.consecutiveFailures++;
+            if (endpoint.consecutiveFailures >= circuitBreakerThreshold) {
+                getLogger().warn("Callback {} seems to be dead. No notification will be delivered to it during the next {}ms.", new Object[]{endpoint.url, circuitBreakerReset});
+                endpoint.circuitOpenUntil = System.currentTimeMillis() + circuitBreakerReset;
+                List<Notification> queued = new ArrayList<>();
+                endpoint.queue.drainTo(queued);
+                this.reportUndeliverable(endpoint, queued);
+            }
+            this.next(endpoint);
+        } catch (Exception ex) {
+            getLogger().error("Unexpected error delivering notifications to {}.", new Object[]{endpoint.url}, ex);
+            endpoint.pending = null;
+            this.next(endpoint);
+        }
+    }
+
+    private void next(Endpoint endpoint) {
+        if (endpoint.queue.isEmpty()) {
+            this.release(endpoint);
+        } else {
+            this.schedule(endpoint, 0);
+        }
+    }
+
+    private void release(Endpoint endpoint) {
+        endpoint.scheduled.set(false);
+        //a notification could have been queued after the last check.
+        if (!endpoint.queue.isEmpty() && endpoint.scheduled.compareAndSet(false, true)) {
+            this.schedule(endpoint, 0);
+        }
+    }
+
+    /**
+     * Takes the next notification from the queue of the endpoint together
+     * with the following ones of the same action, if the action is
+     * batchable.
+     */
+    private List<Notification> nextBatch(Endpoint endpoint) {
+        List<Notification> batch = new ArrayList<>();
+        Notification first = endpoint.queue.poll();
+        if (first == null) {
+            return batch;
+        }
+        batch.add(first);
+        if (!this.isBatchable(first)) {
+            return batch;
+        }
+        while (batch.size() < batchSize) {
+            //the delivery task is the only consumer of the queue.
+            Notification next = endpoint.queue.peek();
+            if (next == null || !next.action.equals(first.action) || !this.isBatchable(next)) {
+                break;
+            }
+            batch.add(endpoint.queue.poll());
+        }
+        return batch;
+    }
+
+    private boolean isBatchable(Notification notification) {
+        return notification.message != null && this.isBatchable(notification.action);
+    }
+
+    private boolean post(Endpoint endpoint, List<Notification> batch) {
+        String action = batch.get(0).action;
+        String body;
+        if (batch.size() == 1) {
+            body = batch.get(0).body;
+        } else {
+            try {
+                body = MessageSerializer.serializeMessageWrappers(batch.stream()
+                        .map(n -> new MessageWrapper(n.message))
+                        .collect(Collectors.toList()));
+            } catch (MessageSerializationException ex) {
+                getLogger().error("Error serializing a batch of {} messages.", new Object[]{batch.size()}, ex);
+                return false;
+            }
+        }
+
+        String target = endpoint.url.toString();
+        target = (target.endsWith("/") ? target : target + "/") + action;
+
+        HttpPost request = new HttpPost(target);
+        try {
+            byte[] content = body.getBytes(StandardCharsets.UTF_8);
+            ContentEncoding encoding = compression.forSize(content.length, compressionThreshold);
+            if (encoding != ContentEncoding.IDENTITY) {
+                content = encoding.encode(content);
+                request.setHeader("Content-Encoding", encoding.getName());
+            }
+            request.setEntity(new ByteArrayEntity(content, ContentType.create("application/xml", StandardCharsets.UTF_8)));
+        } catch (IOException ex) {
+            getLogger().error("Error compressing notifications for {}.", new Object[]{target}, ex);
+            return false;
+        }
+        try (CloseableHttpResponse response = client.execute(request)) {
+            EntityUtils.consumeQuietly(response.getEntity());
+            int status = response.getStatusLine().getStatusCode();
+            if (status >= 200 && status < 300) {
+                getLogger().debug("{} notifications delivered to {}.", new Object[]{batch.size(), target});
+                return true;
+            }
+            getLogger().debug("Callback {} answered with status {}.", new Object[]{target, status});
+            return false;
+        } catch (IOException ex) {
+            getLogger().debug("Error delivering notifications to {}: {}", new Object[]{target, ex.getMessage()});
+            return false;
+        }
+    }
+
+    private void reportUndeliverable(Endpoint endpoint, List<Notification> notifications) {
+        if (notifications.isEmpty()) {
+            return;
+        }
+        getLogger().warn("{} notifications couldn't be delivered to {}.", new Object[]{notifications.size(), endpoint.url});
+
+        //callbacks without an endpoint haven't failed yet.
+        String url = endpoint.url.toString();
+        boolean otherEndpointsAlive = this.getRegisteredCallbacks().stream()
+                .filter(callback -> !callback.equals(url))
+                .map(endpoints::get)
+                .anyMatch(e -> e == null || !e.isCircuitOpen());
+        MessageWithUnreachableHandlers.Reason reason = otherEndpointsAlive
+                ? MessageWithUnreachableHandlers.Reason.SOME_HANDLERS
+                : MessageWithUnreachableHandlers.Reason.ALL_HANDLERS;
+
+        for (Notification notification : notifications) {
+            if (notification.message != null) {
+                ucsController.notifyAboutMessageWithUnreachableHandlers(new MessageWithUnreachableHandlers(notification.message, reason));
+            }
+        }
+    }
+
+}
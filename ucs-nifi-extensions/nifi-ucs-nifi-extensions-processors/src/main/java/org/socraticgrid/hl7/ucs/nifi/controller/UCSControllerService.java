@@ -18,6 +18,7 @@ package org.socraticgrid.hl7.ucs.nifi.controller;
 import java.net.URL;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
@@ -27,6 +28,8 @@ import org.socraticgrid.hl7.services.uc.model.Message;
 import org.socraticgrid.hl7.services.uc.model.QueryFilter;
 import org.socraticgrid.hl7.services.uc.model.UserContactInfo;
 import org.socraticgrid.hl7.ucs.nifi.common.model.Adapter;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageChanges;
+import org.socraticgrid.hl7.ucs.nifi.common.model.Page;
 import org.socraticgrid.hl7.ucs.nifi.common.model.ResolvedAddresses;
 import org.socraticgrid.hl7.ucs.nifi.common.model.UCSStatus;
 import org.socraticgrid.hl7.ucs.nifi.processor.model.MessageWithUnreachableHandlers;
@@ -43,16 +46,70 @@ public interface UCSControllerService {
     public ResolvedAddresses resolvePhysicalAddressesByServiceId(Message message);
     public UserContactInfo resolveUserContactInfo(String userId);
     
+    /**
+     * Resolves a group of users at once. Unknown users are not present in
+     * the returned Map.
+     * @param userIds
+     * @return userId -> UserContactInfo
+     */
+    public Map<String, UserContactInfo> resolveUserContactInfos(Collection<String> userIds);
+    
     /**
      * Message persistence related methods
      */
     public void saveMessage(Message message);
+    public void saveMessages(Collection<Message> messages);
     public void updateMessage(Message message);
     public Optional<Message> getMessageById(String messageId);
+    
+    /**
+     * Returns the Messages with the given ids. Unknown ids are not present
+     * in the returned Map.
+     * @param messageIds
+     * @return messageId -> Message
+     */
+    public Map<String, Message> getMessagesByIds(Collection<String> messageIds);
+    
+    /**
+     * Returns which of the given ids belong to a known Message, without
+     * retrieving the Messages.
+     * @param messageIds
+     * @return 
+     */
+    public Set<String> existsMessageIds(Collection<String> messageIds);
     public List<Message> listMessages();
     public List<Message> listMessages(long from, long total);
+    public Page<Message> listMessages(Optional<String> cursor, int pageSize);
+    public List<Message> queryMessages(String query, List<QueryFilter> filters);
+    public Page<Message> queryMessages(String query, List<QueryFilter> filters, Optional<String> cursor, int pageSize);
+    
+    /**
+     * Returns a page of the messages that were saved or updated and the ids
+     * of the messages that were removed since the given sync point, in the 
+     * order they changed. If no sync point is given or the changes after it 
+     * are no longer known (i.e. the service was restarted or too many 
+     * changes happened since then), every message is returned instead, one 
+     * page at a time, and the result is flagged as a full sync.
+     * While the result has a next cursor, it must be passed to the next 
+     * invocation to get the rest of the changes.
+     * @param cursor the sync point or next cursor returned by a previous 
+     * invocation.
+     * @param pageSize
+     * @return 
+     * @throws IllegalArgumentException if the cursor or the page size are 
+     * not valid.
+     */
+    public MessageChanges listMessageChanges(Optional<String> cursor, int pageSize);
     
     public void saveMessageReference(Message message, String recipientId, String reference);
+    
+    /**
+     * Same as {@link #saveMessageReference(Message, String, String)} for 
+     * several recipients of the same message.
+     * @param message
+     * @param referencesByRecipientId recipientId -> reference
+     */
+    public void saveMessageReferences(Message message, Map<String, String> referencesByRecipientId);
     public Optional<Message> getMessageByReference(String reference);
     public Optional<String> getRecipientIdByReference(String reference);
     
@@ -93,6 +150,20 @@ public interface UCSControllerService {
     public List<Adapter> getSupportedAdapters();
     public UCSStatus getServiceStatus();
     
+    /**
+     * Metrics of the underlying Message Store: messageCount, estimatedSize,
+     * evictedMessageCount, expiredMessageCount and archivedMessageCount.
+     * @return 
+     */
+    public Map<String, Number> getMessageStoreMetrics();
+    
+    /**
+     * Metrics of the underlying User Contact Info Resolver.
+     * @return 
+     * @see org.socraticgrid.hl7.ucs.nifi.controller.user.UserContactInfoResolverController#getMetrics()
+     */
+    public Map<String, Number> getUserContactInfoResolverMetrics();
+    
     /**
      * Conversation API
      */
@@ -100,5 +171,6 @@ public interface UCSControllerService {
     public Optional<Conversation> getConversationById(String conversationId);
     public List<Message> listMessagesByConversationId(String conversationId);
     public List<Message> listMessagesByConversationId(String conversationId, Optional<Long> from, Optional<Long> total);
+    public Page<Message> listMessagesByConversationId(String conversationId, Optional<String> cursor, int pageSize);
     public List<Conversation> queryConversations(String query, List<QueryFilter> filters);
 }
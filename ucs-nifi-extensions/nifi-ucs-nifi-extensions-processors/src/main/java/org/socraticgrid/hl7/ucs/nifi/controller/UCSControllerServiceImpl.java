@@ -20,7 +20,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -47,10 +49,14 @@ import org.socraticgrid.hl7.services.uc.model.Recipient;
 import org.socraticgrid.hl7.services.uc.model.UserContactInfo;
 import org.socraticgrid.hl7.ucs.nifi.common.model.Adapter;
 import org.socraticgrid.hl7.ucs.nifi.common.model.AdapterStatus;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageChanges;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.model.Page;
 import org.socraticgrid.hl7.ucs.nifi.common.model.ResolvedAddresses;
 import org.socraticgrid.hl7.ucs.nifi.common.model.ResolvedAddresses.ResolvedAddressesBuilder;
 import org.socraticgrid.hl7.ucs.nifi.common.model.Status;
 import org.socraticgrid.hl7.ucs.nifi.common.model.UCSStatus;
+import org.socraticgrid.hl7.ucs.nifi.controller.store.MessageChangeLog;
 import org.socraticgrid.hl7.ucs.nifi.controller.store.MessageRecipientTuple;
 import org.socraticgrid.hl7.ucs.nifi.controller.store.MessageStoreController;
 import org.socraticgrid.hl7.ucs.nifi.controller.user.UserContactInfoResolverController;
@@ -107,6 +113,10 @@ public class UCSControllerServiceImpl implements UCSControllerService {
         }
     }
 
+    //separates the sync point from the list cursor in the cursors of a full 
+    //resync. Neither of them contains a '.'.
+    private static final String FULL_SYNC_CURSOR_SEPARATOR = ".";
+
     private UserContactInfoResolverController userContactInfoResolver;
     private MessageStoreController messageStore;
     private ServiceStatusController serviceStatusController;
@@ -123,11 +133,17 @@ public class UCSControllerServiceImpl implements UCSControllerService {
     //TODO: make this List persistent.
     private Set<MessageWithUnreachableHandlers> messagesWithUnreachableHandlers = Collections.synchronizedSet(new HashSet<>());
 
+    //changes of the messages, used by clients to synchronize their copies.
+    //The log is not persistent: a new one is created on each start.
+    private volatile MessageChangeLog messageChangeLog = new MessageChangeLog();
+
     private UCSControllerServiceImpl() {
     }
 
     @Override
     public void start() throws Exception {
+        this.messageChangeLog = new MessageChangeLog();
+        this.messageStore.setMessageRemovalListener(messageId -> this.messageChangeLog.removed(messageId));
         this.messageStore.start();
 
         //start scheduler
@@ -147,6 +163,11 @@ public class UCSControllerServiceImpl implements UCSControllerService {
         return userContactInfoResolver.resolveUserContactInfo(userId);
     }
 
+    @Override
+    public Map<String, UserContactInfo> resolveUserContactInfos(Collection<String> userIds) {
+        return userContactInfoResolver.resolveUserContactInfos(userIds);
+    }
+
     @Override
     public ResolvedAddresses resolvePhysicalAddressesByServiceId(Message message) {
         ResolvedAddressesBuilder resultBuilder = new ResolvedAddressesBuilder();
@@ -183,12 +204,23 @@ public class UCSControllerServiceImpl implements UCSControllerService {
 
     @Override
     public void saveMessage(Message message) {
+        this.stampLastModified(message);
         this.messageStore.saveMessage(message);
+        this.messageModified(message);
+    }
+
+    @Override
+    public void saveMessages(Collection<Message> messages) {
+        messages.forEach(this::stampLastModified);
+        this.messageStore.saveMessages(messages);
+        messages.forEach(this::messageModified);
     }
 
     @Override
     public void updateMessage(Message message) {
+        this.stampLastModified(message);
         this.messageStore.updateMessage(message);
+        this.messageModified(message);
     }
 
     @Override
@@ -196,11 +228,97 @@ public class UCSControllerServiceImpl implements UCSControllerService {
         return this.messageStore.getMessageById(messageId);
     }
 
+    @Override
+    public Map<String, Message> getMessagesByIds(Collection<String> messageIds) {
+        return this.messageStore.getMessagesByIds(messageIds);
+    }
+
+    @Override
+    public Set<String> existsMessageIds(Collection<String> messageIds) {
+        return this.messageStore.existsMessageIds(messageIds);
+    }
+
     @Override
     public List<Message> listMessages() {
         return this.messageStore.listMessages();
     }
 
+    @Override
+    public MessageChanges listMessageChanges(Optional<String> cursor, int pageSize) {
+        MessageChangeLog changeLog = this.messageChangeLog;
+        if (cursor.isPresent() && cursor.get().contains(FULL_SYNC_CURSOR_SEPARATOR)) {
+            //continuation of a full resync: '<sync point>.<list cursor>'.
+            int separator = cursor.get().indexOf(FULL_SYNC_CURSOR_SEPARATOR);
+            String syncPoint = cursor.get().substring(0, separator);
+            if (changeLog.changesSince(syncPoint, 1).isPresent()) {
+                return this.listFullSyncPage(syncPoint, Optional.of(cursor.get().substring(separator + 1)), pageSize);
+            }
+            //the changes after the sync point are no longer known: start over.
+            return this.listFullSyncPage(changeLog.currentSyncPoint(), Optional.empty(), pageSize);
+        }
+
+        Optional<MessageChangeLog.Changes> changes = cursor.isPresent() ? changeLog.changesSince(cursor.get(), pageSize) : Optional.empty();
+        if (!changes.isPresent()) {
+            //we don't know what happened after the sync point: full resync.
+            //The sync point is taken before the messages are listed: a 
+            //message modified in between is returned again in the next call.
+            return this.listFullSyncPage(changeLog.currentSyncPoint(), Optional.empty(), pageSize);
+        }
+
+        Map<String, Message> modifiedMessages = this.messageStore.getMessagesByIds(changes.get().getChanges().stream()
+                .filter(c -> !c.isRemoved())
+                .map(MessageChangeLog.Change::getMessageId)
+                .collect(Collectors.toList()));
+
+        List<MessageWrapper> messages = new ArrayList<>();
+        List<String> removedMessageIds = new ArrayList<>();
+        for (MessageChangeLog.Change change : changes.get().getChanges()) {
+            Message message = change.isRemoved() ? null : modifiedMessages.get(change.getMessageId());
+            if (message == null) {
+                removedMessageIds.add(change.getMessageId());
+            } else {
+                messages.add(new MessageWrapper(message));
+            }
+        }
+        String syncPoint = changes.get().getSyncPoint();
+        return new MessageChanges(messages, removedMessageIds, syncPoint, false, changes.get().hasMore() ? syncPoint : null);
+    }
+
+    private MessageChanges listFullSyncPage(String syncPoint, Optional<String> listCursor, int pageSize) {
+        Page<Message> page = this.messageStore.listMessages(listCursor, pageSize);
+        List<MessageWrapper> messages = page.getItems().stream()
+                .map(MessageWrapper::new)
+                .collect(Collectors.toList());
+        String nextCursor = page.getNextCursor()
+                .map(c -> syncPoint + FULL_SYNC_CURSOR_SEPARATOR + c)
+                .orElse(null);
+        return new MessageChanges(messages, new ArrayList<>(), syncPoint, true, nextCursor);
+    }
+
+    private void messageModified(Message message) {
+        if (message != null && message.getHeader() != null && message.getHeader().getMessageId() != null) {
+            this.messageChangeLog.modified(message.getHeader().getMessageId());
+        }
+    }
+
+    /**
+     * Sets the last modified date of a message being saved or updated. The
+     * date always moves forward, even if the clock doesn't, so clients can
+     * use it to tell which copy of a message is the newest one.
+     * @param message 
+     */
+    private void stampLastModified(Message message) {
+        if (message == null || message.getHeader() == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Date lastModified = message.getHeader().getLastModified();
+        if (lastModified != null && lastModified.getTime() >= now) {
+            now = lastModified.getTime() + 1;
+        }
+        message.getHeader().setLastModified(new Date(now));
+    }
+
     @Override
     public Set<Message> getRelatedMessages(String messageId) {
         return this.messageStore.getRelatedMessages(messageId);
@@ -211,11 +329,34 @@ public class UCSControllerServiceImpl implements UCSControllerService {
         return this.messageStore.listMessages(from, total);
     }
 
+    @Override
+    public Page<Message> listMessages(Optional<String> cursor, int pageSize) {
+        return this.messageStore.listMessages(cursor, pageSize);
+    }
+
+    @Override
+    public List<Message> queryMessages(String query, List<QueryFilter> filters) {
+        return this.messageStore.queryMessages(query, filters);
+    }
+
+    @Override
+    public Page<Message> queryMessages(String query, List<QueryFilter> filters, Optional<String> cursor, int pageSize) {
+        return this.messageStore.queryMessages(query, filters, cursor, pageSize);
+    }
+
     @Override
     public void saveMessageReference(Message message, String recipientId, String reference) {
         this.messageStore.addMessageReference(reference, new MessageRecipientTuple(message.getHeader().getMessageId(), recipientId));
     }
 
+    @Override
+    public void saveMessageReferences(Message message, Map<String, String> referencesByRecipientId) {
+        Map<String, MessageRecipientTuple> references = new HashMap<>();
+        referencesByRecipientId.forEach((recipientId, reference)
+                -> references.put(reference, new MessageRecipientTuple(message.getHeader().getMessageId(), recipientId)));
+        this.messageStore.addMessageReferences(references);
+    }
+
     @Override
     public Optional<Message> getMessageByReference(String reference) {
         return this.messageStore.getMessageRecipientTupleByReferece(reference)
@@ -405,6 +546,22 @@ public class UCSControllerServiceImpl implements UCSControllerService {
         return ucsStatus;
     }
 
+    @Override
+    public Map<String, Number> getMessageStoreMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("messageCount", messageStore.getMessageCount());
+        metrics.put("estimatedSize", messageStore.getEstimatedSize());
+        metrics.put("evictedMessageCount", messageStore.getEvictedMessageCount());
+        metrics.put("expiredMessageCount", messageStore.getExpiredMessageCount());
+        metrics.put("archivedMessageCount", messageStore.getArchivedMessageCount());
+        return metrics;
+    }
+
+    @Override
+    public Map<String, Number> getUserContactInfoResolverMetrics() {
+        return userContactInfoResolver.getMetrics();
+    }
+
     @Override
     public void saveConversation(Conversation conversation) {
         this.messageStore.saveConversation(conversation);
@@ -425,6 +582,11 @@ public class UCSControllerServiceImpl implements UCSControllerService {
         return this.messageStore.listMessagesByConversationId(conversationId, from, total);
     }
 
+    @Override
+    public Page<Message> listMessagesByConversationId(String conversationId, Optional<String> cursor, int pageSize) {
+        return this.messageStore.listMessagesByConversationId(conversationId, cursor, pageSize);
+    }
+
     @Override
     public List<Conversation> queryConversations(String query, List<QueryFilter> filters) {
         return this.messageStore.queryConversations(query, filters);
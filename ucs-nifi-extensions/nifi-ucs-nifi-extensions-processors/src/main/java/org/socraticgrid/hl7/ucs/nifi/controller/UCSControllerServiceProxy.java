@@ -19,6 +19,7 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
@@ -33,6 +34,8 @@ import org.socraticgrid.hl7.services.uc.model.Message;
 import org.socraticgrid.hl7.services.uc.model.QueryFilter;
 import org.socraticgrid.hl7.services.uc.model.UserContactInfo;
 import org.socraticgrid.hl7.ucs.nifi.common.model.Adapter;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageChanges;
+import org.socraticgrid.hl7.ucs.nifi.common.model.Page;
 import org.socraticgrid.hl7.ucs.nifi.common.model.ResolvedAddresses;
 import org.socraticgrid.hl7.ucs.nifi.common.model.UCSStatus;
 import org.socraticgrid.hl7.ucs.nifi.controller.store.MessageStoreController;
@@ -107,6 +110,11 @@ public class UCSControllerServiceProxy extends AbstractControllerService impleme
         return this.service.resolveUserContactInfo(userId);
     }
 
+    @Override
+    public Map<String, UserContactInfo> resolveUserContactInfos(Collection<String> userIds) {
+        return this.service.resolveUserContactInfos(userIds);
+    }
+
     @Override
     public void start() {
         //nobody is never going to call this method.
@@ -122,6 +130,11 @@ public class UCSControllerServiceProxy extends AbstractControllerService impleme
         this.service.saveMessage(message);
     }
 
+    @Override
+    public void saveMessages(Collection<Message> messages) {
+        this.service.saveMessages(messages);
+    }
+
     @Override
     public void updateMessage(Message message) {
         this.service.updateMessage(message);
@@ -132,6 +145,16 @@ public class UCSControllerServiceProxy extends AbstractControllerService impleme
         return this.service.getMessageById(messageId);
     }
 
+    @Override
+    public Map<String, Message> getMessagesByIds(Collection<String> messageIds) {
+        return this.service.getMessagesByIds(messageIds);
+    }
+
+    @Override
+    public Set<String> existsMessageIds(Collection<String> messageIds) {
+        return this.service.existsMessageIds(messageIds);
+    }
+
     @Override
     public List<Message> listMessages() {
         return this.service.listMessages();
@@ -142,16 +165,41 @@ public class UCSControllerServiceProxy extends AbstractControllerService impleme
         return this.service.listMessages(from, total);
     }
 
+    @Override
+    public Page<Message> listMessages(Optional<String> cursor, int pageSize) {
+        return this.service.listMessages(cursor, pageSize);
+    }
+
+    @Override
+    public List<Message> queryMessages(String query, List<QueryFilter> filters) {
+        return this.service.queryMessages(query, filters);
+    }
+
+    @Override
+    public Page<Message> queryMessages(String query, List<QueryFilter> filters, Optional<String> cursor, int pageSize) {
+        return this.service.queryMessages(query, filters, cursor, pageSize);
+    }
+
     @Override
     public Set<Message> getRelatedMessages(String messageId) {
         return this.service.getRelatedMessages(messageId);
     }
 
+    @Override
+    public MessageChanges listMessageChanges(Optional<String> cursor, int pageSize) {
+        return this.service.listMessageChanges(cursor, pageSize);
+    }
+
     @Override
     public void saveMessageReference(Message message, String recipientId, String reference) {
         this.service.saveMessageReference(message, recipientId, reference);
     }
 
+    @Override
+    public void saveMessageReferences(Message message, Map<String, String> referencesByRecipientId) {
+        this.service.saveMessageReferences(message, referencesByRecipientId);
+    }
+
     @Override
     public Optional<Message> getMessageByReference(String reference) {
         return this.service.getMessageByReference(reference);
@@ -232,6 +280,16 @@ public class UCSControllerServiceProxy extends AbstractControllerService impleme
         return this.service.getServiceStatus();
     }
 
+    @Override
+    public Map<String, Number> getMessageStoreMetrics() {
+        return this.service.getMessageStoreMetrics();
+    }
+
+    @Override
+    public Map<String, Number> getUserContactInfoResolverMetrics() {
+        return this.service.getUserContactInfoResolverMetrics();
+    }
+
     @Override
     public void saveConversation(Conversation conversation) {
         this.service.saveConversation(conversation);
@@ -252,6 +310,11 @@ public class UCSControllerServiceProxy extends AbstractControllerService impleme
         return this.service.listMessagesByConversationId(conversationId, from, total);
     }
 
+    @Override
+    public Page<Message> listMessagesByConversationId(String conversationId, Optional<String> cursor, int pageSize) {
+        return this.service.listMessagesByConversationId(conversationId, cursor, pageSize);
+    }
+
     @Override
     public List<Conversation> queryConversations(String query, List<QueryFilter> filters) {
         return this.service.queryConversations(query, filters);
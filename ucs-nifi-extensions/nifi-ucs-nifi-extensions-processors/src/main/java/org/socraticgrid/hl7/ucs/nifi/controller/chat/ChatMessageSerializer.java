@@ -17,12 +17,10 @@ package org.socraticgrid.hl7.ucs.nifi.controller.chat;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
-import java.io.StringWriter;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
+import java.nio.charset.StandardCharsets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.JAXBContextRegistry;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializationException;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializer;
 
@@ -40,14 +38,7 @@ public class ChatMessageSerializer {
     public static String serializeChatMessage(ChatMessage message) throws MessageSerializationException {
         try {
             logger.debug("Serializing ChatMessage {}", message);
-            JAXBContext context = JAXBContext.newInstance(ChatMessage.class);
-            Marshaller m = context.createMarshaller();
-
-            StringWriter result = new StringWriter();
-            m.marshal(message, result);
-
-            return result.toString();
-
+            return JAXBContextRegistry.marshal(message, ChatMessage.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in ChatMessage serialization.", e);
         }
@@ -56,16 +47,13 @@ public class ChatMessageSerializer {
     public static ChatMessage deserializeChatMessage(InputStream chatMessage) throws MessageSerializationException {
         try {
             logger.debug("Deserializing ChatMessage");
-            JAXBContext context = JAXBContext.newInstance(ChatMessage.class);
-            Unmarshaller u = context.createUnmarshaller();
-            
-            return (ChatMessage)u.unmarshal(chatMessage);
+            return (ChatMessage)JAXBContextRegistry.unmarshal(chatMessage, ChatMessage.class);
         } catch (Exception e) {
             throw new MessageSerializationException("Exception in ChatMessage deserialization.", e);
         }
     }
     
     public static ChatMessage deserializeChatMessage(String chatMessage) throws MessageSerializationException {
-        return deserializeChatMessage(new ByteArrayInputStream(chatMessage.getBytes()));
+        return deserializeChatMessage(new ByteArrayInputStream(chatMessage.getBytes(StandardCharsets.UTF_8)));
     }
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.controller.store;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Encodes and decodes the opaque cursors returned by the paginated methods
+ * of {@link MessageStoreController}. A cursor wraps the sequence number
+ * (insertion order) of the first message of the next page, so a page is
+ * resolved by seeking to that sequence instead of skipping the previous
+ * ones.
+ *
+ * @author esteban
+ */
+final class Cursors {
+
+    private static final String PREFIX = "s1:";
+
+    private Cursors() {
+    }
+
+    public static String encode(long sequence) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((PREFIX + Long.toString(sequence, 36)).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param cursor
+     * @return the sequence wrapped by the cursor.
+     * @throws IllegalArgumentException if the cursor is not valid.
+     */
+    public static long decode(String cursor) {
+        String decoded;
+        try {
+            decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: '" + cursor + "'", e);
+        }
+        if (!decoded.startsWith(PREFIX)) {
+            throw new IllegalArgumentException("Invalid cursor: '" + cursor + "'");
+        }
+        try {
+            return Long.parseLong(decoded.substring(PREFIX.length()), 36);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: '" + cursor + "'", e);
+        }
+    }
+
+    public static void checkPageSize(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be greater than 0: " + pageSize);
+        }
+    }
+}
@@ -15,102 +15,646 @@
  */
 package org.socraticgrid.hl7.ucs.nifi.controller.store;
 
+import java.io.File;
+import java.io.IOException;
+import java.time.Clock;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 import java.util.stream.Stream;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnDisabled;
 import org.apache.nifi.annotation.lifecycle.OnEnabled;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.controller.AbstractControllerService;
 import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.socraticgrid.hl7.services.uc.model.AlertMessage;
+import org.socraticgrid.hl7.services.uc.model.AlertStatus;
 import org.socraticgrid.hl7.services.uc.model.Conversation;
-
+import org.socraticgrid.hl7.services.uc.model.DeliveryStatus;
 import org.socraticgrid.hl7.services.uc.model.Message;
+import org.socraticgrid.hl7.services.uc.model.MessageBody;
 import org.socraticgrid.hl7.services.uc.model.QueryFilter;
+import org.socraticgrid.hl7.services.uc.model.Recipient;
+import org.socraticgrid.hl7.ucs.nifi.common.model.Page;
+import org.socraticgrid.hl7.ucs.nifi.common.query.MessageQuery;
+import org.socraticgrid.hl7.ucs.nifi.common.query.QueryField;
 
 
+/**
+ * MessageStoreController that keeps everything in memory.
+ *
+ * All the maps are concurrent, so processor threads never serialize on a
+ * single monitor. Messages and conversations are also appended to an
+ * {@link InsertionLog} that keeps their insertion order: listings are
+ * consistent snapshots of that log.
+ *
+ * The store can optionally be bounded: when it holds more messages (or more
+ * estimated bytes) than configured, the oldest messages are evicted. 
+ * Terminal messages (delivered to all their recipients, acknowledged or 
+ * retracted) can also be evicted after a TTL. Evicted messages are 
+ * forgotten together with their references and indexes unless an archive 
+ * file is configured: archived messages can still be retrieved by id.
+ *
+ * @author esteban
+ */
+@Tags({"UCS", "store", "memory"})
+@CapabilityDescription("Message Store that keeps messages in memory, optionally bounded by size and TTL.")
 public class InMemoryMessageStoreControllerImpl extends AbstractControllerService implements MessageStoreController {
     
-    private final Map<String, MessageRecipientTuple> messageRecipientsByReference = Collections.synchronizedMap(new LinkedHashMap<>());
-    private final Map<String, Message> messages = Collections.synchronizedMap(new LinkedHashMap<>());
-    private final Map<String, List<Message>> messagesByConversationId = Collections.synchronizedMap(new LinkedHashMap<>());
-    private final Map<String, Conversation> conversations = Collections.synchronizedMap(new LinkedHashMap<>());
+    public static final PropertyDescriptor MAX_MESSAGES = new PropertyDescriptor.Builder()
+            .name("Max Messages")
+            .description("The maximum number of messages kept in memory. When exceeded, the oldest messages are evicted. If not set, the number of messages is not limited.")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+    
+    public static final PropertyDescriptor MAX_SIZE = new PropertyDescriptor.Builder()
+            .name("Max Size")
+            .description("The maximum (estimated) size of the messages kept in memory, i.e. '512 MB'. When exceeded, the oldest messages are evicted. If not set, the size is not limited.")
+            .required(false)
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+    
+    public static final PropertyDescriptor TERMINAL_MESSAGE_TTL = new PropertyDescriptor.Builder()
+            .name("Terminal Message TTL")
+            .description("How long a terminal message (delivered to all its recipients, acknowledged or retracted) is kept after it became terminal, i.e. '6 hours'. If not set, terminal messages are not evicted because of their age.")
+            .required(false)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+    
+    public static final PropertyDescriptor TERMINAL_DELIVERY_STATUSES = new PropertyDescriptor.Builder()
+            .name("Terminal Delivery Statuses")
+            .description("Comma separated list of delivery statuses that mark the delivery to a recipient as completed. A message is delivered when all its recipients have one of these statuses.")
+            .required(true)
+            .defaultValue("OK")
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+    
+    public static final PropertyDescriptor ARCHIVE_FILE = new PropertyDescriptor.Builder()
+            .name("Archive File")
+            .description("Append-only file where evicted messages are written. Archived messages can still be retrieved by id. If not set, evicted messages are discarded.")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+    
+    private static final long MIN_EXPIRATION_CHECK_INTERVAL = 1000;
+    private static final long MAX_EXPIRATION_CHECK_INTERVAL = 60000;
+    
+    private long maxMessages;
+    private long maxSize;
+    private long terminalMessageTTL;
+    private Set<String> terminalDeliveryStatuses = Collections.singleton("OK");
+    private String archiveFileName;
+    
+    private MessageArchive archive;
+    private ScheduledExecutorService expirationExecutor;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private Clock clock = Clock.systemUTC();
+    
+    private final Map<String, MessageRecipientTuple> messageRecipientsByReference = new ConcurrentHashMap<>();
+    private final Map<String, Message> messages = new ConcurrentHashMap<>();
+    //conversationId -> (sequence in messagesLog -> messageId)
+    private final Map<String, ConcurrentNavigableMap<Long, String>> messageIdsByConversationId = new ConcurrentHashMap<>();
+    private final Map<String, Conversation> conversations = new ConcurrentHashMap<>();
+    
+    private final InsertionLog<String> messagesLog = new InsertionLog<>();
+    private final InsertionLog<String> conversationsLog = new InsertionLog<>();
+    
+    //relatedMessageId -> ids of the messages related to it. 
+    private final Map<String, Set<String>> messageIdsByRelatedMessageId = new ConcurrentHashMap<>();
+    //messageId -> relatedMessageId under which the message is indexed.
+    private final Map<String, String> indexedRelatedMessageIds = new ConcurrentHashMap<>();
+    
+    //sender, recipient, serviceId, conversationId, created and status indexes.
+    private final MessageIndex messageIndex = new MessageIndex();
+    
+    //messageId -> references pointing to the message.
+    private final Map<String, Set<String>> referencesByMessageId = new ConcurrentHashMap<>();
+    //messageId -> position in messagesLog and estimated size.
+    private final Map<String, StoredMessage> storedMessages = new ConcurrentHashMap<>();
+    //messageId -> when the message was first seen in a terminal state.
+    private final Map<String, Long> terminalMessages = new ConcurrentHashMap<>();
+    
+    private final AtomicLong estimatedSize = new AtomicLong();
+    private final AtomicLong evictedMessageCount = new AtomicLong();
+    private final AtomicLong expiredMessageCount = new AtomicLong();
+    
+    private volatile Consumer<String> messageRemovalListener = messageId -> {};
+    
+    private static class StoredMessage {
+        private final long sequence;
+        private final AtomicLong estimatedSize = new AtomicLong();
+
+        public StoredMessage(long sequence) {
+            this.sequence = sequence;
+        }
+    }
 
     @Override
     protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
         final List<PropertyDescriptor> descriptors = new ArrayList<>();
+        descriptors.add(MAX_MESSAGES);
+        descriptors.add(MAX_SIZE);
+        descriptors.add(TERMINAL_MESSAGE_TTL);
+        descriptors.add(TERMINAL_DELIVERY_STATUSES);
+        descriptors.add(ARCHIVE_FILE);
         return descriptors;
     }
     
     @OnEnabled
     public void onEnabled(final ConfigurationContext context) throws Exception{ 
+        this.maxMessages = context.getProperty(MAX_MESSAGES).isSet() ? context.getProperty(MAX_MESSAGES).asLong() : 0;
+        this.maxSize = context.getProperty(MAX_SIZE).isSet() ? context.getProperty(MAX_SIZE).asDataSize(DataUnit.B).longValue() : 0;
+        this.terminalMessageTTL = context.getProperty(TERMINAL_MESSAGE_TTL).isSet() ? context.getProperty(TERMINAL_MESSAGE_TTL).asTimePeriod(TimeUnit.MILLISECONDS) : 0;
+        this.terminalDeliveryStatuses = Arrays.stream(context.getProperty(TERMINAL_DELIVERY_STATUSES).getValue().split(","))
+                .map(String::trim)
+                .filter(st -> !st.isEmpty())
+                .collect(toSet());
+        this.archiveFileName = context.getProperty(ARCHIVE_FILE).getValue();
         
+        this.start();
+    }
+    
+    @OnDisabled
+    public void onDisabled() {
+        this.stop();
     }
     
     @Override
-    public void start() {
+    public synchronized void start() {
+        if (archiveFileName != null && archive == null) {
+            try {
+                archive = new MessageArchive(new File(archiveFileName));
+                getLogger().info("Message Archive {} opened. Archived Messages: {}", new Object[]{archiveFileName, archive.size()});
+            } catch (IOException ex) {
+                throw new IllegalStateException("Error opening Message Archive " + archiveFileName, ex);
+            }
+        }
+        
+        if (terminalMessageTTL > 0 && expirationExecutor == null) {
+            long interval = Math.max(MIN_EXPIRATION_CHECK_INTERVAL, Math.min(terminalMessageTTL / 10, MAX_EXPIRATION_CHECK_INTERVAL));
+            expirationExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "ucs-message-store-expiration");
+                t.setDaemon(true);
+                return t;
+            });
+            expirationExecutor.scheduleWithFixedDelay(this::evictExpiredMessages, interval, interval, TimeUnit.MILLISECONDS);
+        }
     }
 
     @Override
-    public void stop() {
+    public synchronized void stop() {
+        if (expirationExecutor != null) {
+            expirationExecutor.shutdownNow();
+            expirationExecutor = null;
+        }
+        if (archive != null) {
+            try {
+                archive.close();
+            } catch (IOException ex) {
+                getLogger().warn("Error closing Message Archive {}", new Object[]{archiveFileName}, ex);
+            }
+            archive = null;
+        }
     }
     
     @Override
     public void saveMessage(Message message) {
-        messages.put(message.getHeader().getMessageId(), message);
-        
-        if (message.getHeader().getRelatedConversationId() != null){
-            String conversationId = message.getHeader().getRelatedConversationId();
-            messagesByConversationId.computeIfAbsent(conversationId, k -> new ArrayList())
-                    .add(message);
-        }
+        this.storeMessage(message);
+    }
+    
+    @Override
+    public void saveMessages(Collection<Message> messageGroup) {
+        messageGroup.forEach(this::putMessage);
+        this.evictIfNeeded();
     }
     
     @Override
     public void updateMessage(Message message) {
         //TODO: implement something like revision number?
-        messages.put(message.getHeader().getMessageId(), message);
+        this.storeMessage(message);
+    }
+    
+    private void storeMessage(Message message) {
+        this.putMessage(message);
+        this.evictIfNeeded();
+    }
+    
+    /**
+     * Stores and indexes a message without checking the limits of the store.
+     * The message is stored and indexed inside messages.compute(), so it is
+     * serialized against updates and evictions of the same message: an 
+     * evicted message is never indexed again.
+     * @param message 
+     */
+    private void putMessage(Message message) {
+        String messageId = message.getHeader().getMessageId();
+        messages.compute(messageId, (id, previousMessage) -> {
+            StoredMessage storedMessage = previousMessage == null ? null : storedMessages.get(id);
+            if (storedMessage == null){
+                storedMessage = new StoredMessage(messagesLog.append(id));
+                storedMessages.put(id, storedMessage);
+                
+                if (message.getHeader().getRelatedConversationId() != null){
+                    String conversationId = message.getHeader().getRelatedConversationId();
+                    messageIdsByConversationId.computeIfAbsent(conversationId, k -> new ConcurrentSkipListMap<>())
+                            .put(storedMessage.sequence, id);
+                }
+            }
+            //an already known message keeps its original position.
+            
+            this.indexRelatedMessageId(message);
+            this.messageIndex.index(message, storedMessage.sequence);
+            long size = this.estimateSize(message);
+            estimatedSize.addAndGet(size - storedMessage.estimatedSize.getAndSet(size));
+            
+            if (this.isTerminal(message)){
+                terminalMessages.putIfAbsent(id, clock.millis());
+            } else {
+                terminalMessages.remove(id);
+            }
+            return message;
+        });
+    }
+    
+    /**
+     * Rough estimation of the memory used by a message: its strings 
+     * (2 bytes per char) plus a fixed overhead per object.
+     * @param message
+     * @return 
+     */
+    private long estimateSize(Message message) {
+        long size = 512;
+        size += 2 * this.length(message.getHeader().getMessageId());
+        size += 2 * this.length(message.getHeader().getSubject());
+        size += 2 * this.length(message.getHeader().getRelatedConversationId());
+        size += 2 * this.length(message.getHeader().getRelatedMessageId());
+        if (message.getParts() != null){
+            for (MessageBody part : message.getParts()) {
+                size += 64 + 2 * this.length(part.getContent());
+            }
+        }
+        if (message.getHeader().getRecipientsList() != null){
+            size += 256 * message.getHeader().getRecipientsList().size();
+        }
+        if (message.getHeader().getDeliveryStatusList() != null){
+            size += 256 * message.getHeader().getDeliveryStatusList().size();
+        }
+        return size;
+    }
+    
+    private int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+    
+    /**
+     * A message is terminal when it is an acknowledged or retracted alert or
+     * when all its recipients have a terminal delivery status.
+     * @param message
+     * @return 
+     */
+    private boolean isTerminal(Message message) {
+        if (message instanceof AlertMessage){
+            AlertStatus alertStatus = ((AlertMessage) message).getHeader().getAlertStatus();
+            if (alertStatus == AlertStatus.Acknowledged || alertStatus == AlertStatus.Retracted){
+                return true;
+            }
+        }
+        
+        Set<Recipient> recipients = message.getHeader().getRecipientsList();
+        List<DeliveryStatus> deliveryStatuses = message.getHeader().getDeliveryStatusList();
+        if (recipients == null || recipients.isEmpty() || deliveryStatuses == null){
+            return false;
+        }
+        
+        Set<String> deliveredRecipientIds = deliveryStatuses.stream()
+                .filter(ds -> ds.getRecipient() != null && terminalDeliveryStatuses.contains(ds.getStatus()))
+                .map(ds -> ds.getRecipient().getRecipientId())
+                .collect(toSet());
+        
+        return recipients.stream().allMatch(r -> deliveredRecipientIds.contains(r.getRecipientId()));
+    }
+    
+    /**
+     * Evicts the oldest messages until the store is within its limits.
+     * Only one thread evicts at a time: the others don't wait for it.
+     */
+    private void evictIfNeeded() {
+        if (!this.isOverLimits() || !evictionLock.tryLock()){
+            return;
+        }
+        try {
+            while (this.isOverLimits()) {
+                Optional<Map.Entry<Long, String>> oldest = messagesLog.oldest();
+                if (!oldest.isPresent()){
+                    return;
+                }
+                this.evict(oldest.get().getValue(), oldest.get().getKey());
+                evictedMessageCount.incrementAndGet();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+    
+    private boolean isOverLimits() {
+        return (maxMessages > 0 && messagesLog.size() > maxMessages)
+                || (maxSize > 0 && estimatedSize.get() > maxSize);
+    }
+    
+    /**
+     * Evicts the terminal messages whose TTL already expired.
+     * This method is periodically invoked when a TTL is configured.
+     */
+    void evictExpiredMessages() {
+        if (terminalMessageTTL <= 0){
+            return;
+        }
+        try {
+            long expiration = clock.millis() - terminalMessageTTL;
+            long expired = 0;
+            for (Map.Entry<String, Long> terminalMessage : terminalMessages.entrySet()) {
+                if (terminalMessage.getValue() <= expiration){
+                    StoredMessage storedMessage = storedMessages.get(terminalMessage.getKey());
+                    if (storedMessage != null && terminalMessages.remove(terminalMessage.getKey(), terminalMessage.getValue())){
+                        this.evict(terminalMessage.getKey(), storedMessage.sequence);
+                        expiredMessageCount.incrementAndGet();
+                        expired++;
+                    }
+                }
+            }
+            if (expired > 0) {
+                getLogger().debug("{} expired messages evicted. Messages: {}, Estimated Size: {}, Evicted: {}, Expired: {}, Archived: {}", 
+                        new Object[]{expired, getMessageCount(), getEstimatedSize(), getEvictedMessageCount(), getExpiredMessageCount(), getArchivedMessageCount()});
+            }
+        } catch (Exception e) {
+            getLogger().error("Error evicting expired messages", e);
+        }
+    }
+    
+    /**
+     * Removes a message, its indexes and references from the store and,
+     * if configured, writes it to the archive.
+     * The message is removed inside messages.computeIfPresent(), so it is
+     * serialized against concurrent updates of the same message.
+     * @param messageId
+     * @param sequence 
+     */
+    private void evict(String messageId, long sequence) {
+        messagesLog.remove(sequence);
+        AtomicReference<Message> evictedMessage = new AtomicReference<>();
+        messages.computeIfPresent(messageId, (id, message) -> {
+            StoredMessage storedMessage = storedMessages.get(id);
+            if (storedMessage == null || storedMessage.sequence != sequence){
+                //already evicted and stored again as a new message.
+                return message;
+            }
+            storedMessages.remove(id);
+            estimatedSize.addAndGet(-storedMessage.estimatedSize.get());
+            terminalMessages.remove(id);
+            messageIndex.unindex(id);
+            
+            String relatedMessageId = indexedRelatedMessageIds.remove(id);
+            if (relatedMessageId != null){
+                messageIdsByRelatedMessageId.computeIfPresent(relatedMessageId, (k, messageIds) -> {
+                    messageIds.remove(id);
+                    return messageIds.isEmpty() ? null : messageIds;
+                });
+            }
+            
+            Set<String> references = referencesByMessageId.remove(id);
+            if (references != null){
+                references.forEach(messageRecipientsByReference::remove);
+            }
+            
+            //the conversation is still known even if all its messages were 
+            //evicted.
+            if (message.getHeader().getRelatedConversationId() != null){
+                Map<Long, String> conversationMessageIds = messageIdsByConversationId.get(message.getHeader().getRelatedConversationId());
+                if (conversationMessageIds != null){
+                    conversationMessageIds.remove(sequence);
+                }
+            }
+            
+            evictedMessage.set(message);
+            return null;
+        });
+        
+        Message message = evictedMessage.get();
+        if (message == null){
+            return;
+        }
+        
+        MessageArchive currentArchive = archive;
+        if (currentArchive != null){
+            try {
+                currentArchive.append(message);
+            } catch (IOException ex) {
+                getLogger().error("Error archiving evicted message {}", new Object[]{messageId}, ex);
+            }
+        }
+        
+        messageRemovalListener.accept(messageId);
+    }
+    
+    /**
+     * Keeps the relatedMessageId index in sync with the current version of 
+     * the message. The previously indexed relatedMessageId is tracked apart
+     * because the same instance could have been modified before being 
+     * updated. Concurrent updates of the same message are serialized by 
+     * {@link #putMessage(Message)}.
+     * @param message 
+     */
+    private void indexRelatedMessageId(Message message) {
+        String messageId = message.getHeader().getMessageId();
+        String relatedMessageId = message.getHeader().getRelatedMessageId();
+        
+        indexedRelatedMessageIds.compute(messageId, (id, previousRelatedMessageId) -> {
+            if (Objects.equals(previousRelatedMessageId, relatedMessageId)) {
+                return previousRelatedMessageId;
+            }
+            
+            if (previousRelatedMessageId != null) {
+                messageIdsByRelatedMessageId.computeIfPresent(previousRelatedMessageId, (k, messageIds) -> {
+                    messageIds.remove(messageId);
+                    return messageIds.isEmpty() ? null : messageIds;
+                });
+            }
+            
+            if (relatedMessageId != null) {
+                messageIdsByRelatedMessageId.compute(relatedMessageId, (k, messageIds) -> {
+                    if (messageIds == null) {
+                        messageIds = ConcurrentHashMap.newKeySet();
+                    }
+                    messageIds.add(messageId);
+                    return messageIds;
+                });
+            }
+            
+            return relatedMessageId;
+        });
     }
 
     @Override
     public Optional<Message> getMessageById(String messageId) {
-        return Optional.ofNullable(messages.get(messageId));
+        if (messageId == null){
+            return Optional.empty();
+        }
+        
+        Message message = messages.get(messageId);
+        if (message != null){
+            return Optional.of(message);
+        }
+        
+        MessageArchive currentArchive = archive;
+        if (currentArchive == null){
+            return Optional.empty();
+        }
+        try {
+            return currentArchive.get(messageId);
+        } catch (IOException ex) {
+            getLogger().error("Error reading archived message {}", new Object[]{messageId}, ex);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public Map<String, Message> getMessagesByIds(Collection<String> messageIds) {
+        Map<String, Message> result = new HashMap<>();
+        Set<String> missingIds = new HashSet<>();
+        for (String messageId : messageIds) {
+            Message message = messageId == null ? null : messages.get(messageId);
+            if (message != null){
+                result.put(messageId, message);
+            } else if (messageId != null){
+                missingIds.add(messageId);
+            }
+        }
+        
+        MessageArchive currentArchive = archive;
+        if (currentArchive == null || missingIds.isEmpty()){
+            return result;
+        }
+        try {
+            result.putAll(currentArchive.getAll(missingIds));
+        } catch (IOException ex) {
+            getLogger().error("Error reading archived messages {}", new Object[]{missingIds}, ex);
+        }
+        return result;
+    }
+    
+    @Override
+    public Set<String> existsMessageIds(Collection<String> messageIds) {
+        MessageArchive currentArchive = archive;
+        return messageIds.stream()
+                .filter(Objects::nonNull)
+                .filter(messageId -> messages.containsKey(messageId) || (currentArchive != null && currentArchive.contains(messageId)))
+                .collect(toSet());
     }
 
     @Override
     public List<Message> listMessages() {
-        return messages.values().stream()
-                .collect(Collectors.toList());
+        return this.toMessages(messagesLog.list());
     }
     
     @Override
     public List<Message> listMessages(long from, long total) {
-        return messages.values().stream()
-                .skip(from)
-                .limit(total)
-                .collect(Collectors.toList());
+        return this.toMessages(messagesLog.list(from, total));
+    }
+    
+    @Override
+    public Page<Message> listMessages(Optional<String> cursor, int pageSize) {
+        Cursors.checkPageSize(pageSize);
+        long from = cursor.map(Cursors::decode).orElse(0L);
+        return this.toPage(messagesLog.tail(from).entrySet(), pageSize);
+    }
+    
+    /**
+     * Resolves the messages of, at most, pageSize entries. If there are more
+     * entries, the next cursor points to the first one of them.
+     * @param entries
+     * @param pageSize
+     * @return 
+     */
+    private Page<Message> toPage(Iterable<Map.Entry<Long, String>> entries, int pageSize) {
+        return this.toPage(entries, MessageQuery.ALL, pageSize);
+    }
+    
+    /**
+     * Same as {@link #toPage(Iterable, int)} but only counting the entries
+     * whose message matches the query.
+     * @param entries
+     * @param query
+     * @param pageSize
+     * @return 
+     */
+    private Page<Message> toPage(Iterable<Map.Entry<Long, String>> entries, MessageQuery query, int pageSize) {
+        List<Message> result = new ArrayList<>();
+        for (Map.Entry<Long, String> entry : entries) {
+            Message message = messages.get(entry.getValue());
+            if (message == null || !query.matches(message)){
+                continue;
+            }
+            if (result.size() == pageSize){
+                return new Page<>(result, Optional.of(Cursors.encode(entry.getKey())));
+            }
+            result.add(message);
+        }
+        return new Page<>(result, Optional.empty());
+    }
+    
+    private List<Message> toMessages(Collection<String> messageIds) {
+        return messageIds.stream()
+                .map(messages::get)
+                .filter(Objects::nonNull)
+                .collect(toList());
     }
 
     @Override
     public void addMessageReference(String reference, MessageRecipientTuple messageRecipient) {
         messageRecipientsByReference.put(reference, messageRecipient);
+        referencesByMessageId.computeIfAbsent(messageRecipient.getMessageId(), k -> ConcurrentHashMap.newKeySet())
+                .add(reference);
+    }
+    
+    @Override
+    public void addMessageReferences(Map<String, MessageRecipientTuple> references) {
+        references.forEach(this::addMessageReference);
     }
 
     @Override
     public Optional<MessageRecipientTuple> getMessageRecipientTupleByReferece(String reference) {
-        return Optional.ofNullable(this.messageRecipientsByReference.get(reference));
+        return reference == null ? Optional.empty() : Optional.ofNullable(this.messageRecipientsByReference.get(reference));
     }
     
     @Override
     public boolean isKnownConversation(String conversationId){
-        return messagesByConversationId.containsKey(conversationId);
+        return conversationId != null && messageIdsByConversationId.containsKey(conversationId);
     }
 
     @Override
@@ -119,23 +663,34 @@ public class InMemoryMessageStoreControllerImpl extends AbstractControllerServic
             return Collections.EMPTY_SET;
         }
         
-        return messages.values().stream()
-                .filter(m -> messageId.equals(m.getHeader().getRelatedMessageId()))
+        Set<String> relatedMessageIds = messageIdsByRelatedMessageId.get(messageId);
+        if (relatedMessageIds == null){
+            return new HashSet<>();
+        }
+        
+        return relatedMessageIds.stream()
+                .map(messages::get)
+                .filter(Objects::nonNull)
                 .collect(toSet());
     }
 
+    @Override
+    public void setMessageRemovalListener(Consumer<String> listener) {
+        this.messageRemovalListener = listener == null ? messageId -> {} : listener;
+    }
+
     @Override
     public void saveConversation(Conversation conversation) {
-        if (this.conversations.containsKey(conversation.getConversationId())){
+        if (this.conversations.putIfAbsent(conversation.getConversationId(), conversation) != null){
             throw new IllegalArgumentException("Duplicated Conversation id: '"+conversation.getConversationId()+"'");
         }
         
-        this.conversations.put(conversation.getConversationId(), conversation);
+        this.conversationsLog.append(conversation.getConversationId());
     }
 
     @Override
     public Optional<Conversation> getConversationById(String conversationId) {
-        return Optional.ofNullable(this.conversations.get(conversationId));
+        return conversationId == null ? Optional.empty() : Optional.ofNullable(this.conversations.get(conversationId));
     }
 
     @Override
@@ -145,31 +700,140 @@ public class InMemoryMessageStoreControllerImpl extends AbstractControllerServic
 
     @Override
     public List<Message> listMessagesByConversationId(String conversationId, Optional<Long> from, Optional<Long> total) {
-        List<Message> msgs = this.messagesByConversationId.get(conversationId);
-        if (msgs == null){
+        Map<Long, String> messageIds = conversationId == null ? null : this.messageIdsByConversationId.get(conversationId);
+        if (messageIds == null){
             return Collections.EMPTY_LIST;
         }
         
-        Stream<Message> stream = msgs.stream();
+        Stream<Message> stream = messageIds.values().stream()
+                .map(messages::get)
+                .filter(Objects::nonNull);
         
         if(from.isPresent()){
-            stream.skip(from.get());
+            stream = stream.skip(from.get());
         }
         if(total.isPresent()){
-            stream.limit(total.get());
+            stream = stream.limit(total.get());
         }
         
         return stream.collect(toList());
     }
 
+    @Override
+    public Page<Message> listMessagesByConversationId(String conversationId, Optional<String> cursor, int pageSize) {
+        Cursors.checkPageSize(pageSize);
+        long from = cursor.map(Cursors::decode).orElse(0L);
+        
+        ConcurrentNavigableMap<Long, String> messageIds = conversationId == null ? null : this.messageIdsByConversationId.get(conversationId);
+        if (messageIds == null){
+            return new Page<>(Collections.EMPTY_LIST, Optional.empty());
+        }
+        
+        return this.toPage(messageIds.tailMap(from, true).entrySet(), pageSize);
+    }
+
+    @Override
+    public List<Conversation> queryConversations(String query, List<QueryFilter> filters) {
+        MessageQuery messageQuery = MessageQuery.parse(query, filters);
+        Stream<Conversation> stream = this.conversationsLog.list().stream()
+                .map(conversations::get)
+                .filter(Objects::nonNull);
+        
+        if (messageQuery.isOnlyOn(QueryField.CONVERSATION_ID)) {
+            //the conversation could have no messages yet.
+            Set<String> conversationIds = messageQuery.getCriteria().stream()
+                    .map(c -> c.getValue())
+                    .collect(toSet());
+            stream = conversationIds.size() > 1 ? Stream.empty() : stream.filter(c -> conversationIds.contains(c.getConversationId()));
+        } else if (!messageQuery.isEmpty()) {
+            Set<String> conversationIds = this.queryMessages(messageQuery, 0, Integer.MAX_VALUE).getItems().stream()
+                    .map(m -> m.getHeader().getRelatedConversationId())
+                    .filter(Objects::nonNull)
+                    .collect(toSet());
+            stream = stream.filter(c -> conversationIds.contains(c.getConversationId()));
+        }
+        
+        return stream.collect(toList());
+    }
+
+    @Override
+    public List<Message> queryMessages(String query, List<QueryFilter> filters) {
+        return this.queryMessages(MessageQuery.parse(query, filters), 0, Integer.MAX_VALUE).getItems();
+    }
+
+    @Override
+    public Page<Message> queryMessages(String query, List<QueryFilter> filters, Optional<String> cursor, int pageSize) {
+        Cursors.checkPageSize(pageSize);
+        MessageQuery messageQuery = MessageQuery.parse(query, filters);
+        return this.queryMessages(messageQuery, cursor.map(Cursors::decode).orElse(0L), pageSize);
+    }
+    
     /**
-     * This implementation doesn't make use of query nor filters parameters.
+     * Walks, from the cursor position, the {@link MessageIndex} entry of the
+     * most selective criterion of the query (or messagesLog if there is no
+     * such entry) checking each message against the whole query until the
+     * page is full. Both are ordered by position in the store, so nothing
+     * has to be sorted and only the next match past the page is read.
      * @param query
-     * @param filters
+     * @param fromSequence
+     * @param pageSize
+     * @return 
+     */
+    private Page<Message> queryMessages(MessageQuery query, long fromSequence, int pageSize) {
+        NavigableMap<Long, String> candidates = messageIndex.candidates(query)
+                .orElseGet(() -> messagesLog.tail(fromSequence));
+        return this.toPage(candidates.tailMap(fromSequence, true).entrySet(), query, pageSize);
+    }
+    
+    /**
+     * Number of messages currently in memory.
      * @return 
      */
     @Override
-    public List<Conversation> queryConversations(String query, List<QueryFilter> filters) {
-        return this.conversations.values().stream().collect(toList());
+    public long getMessageCount() {
+        return messagesLog.size();
+    }
+    
+    /**
+     * Estimated size, in bytes, of the messages currently in memory.
+     * @return 
+     */
+    @Override
+    public long getEstimatedSize() {
+        return estimatedSize.get();
+    }
+    
+    /**
+     * Number of messages evicted because of the Max Messages or Max Size 
+     * limits.
+     * @return 
+     */
+    @Override
+    public long getEvictedMessageCount() {
+        return evictedMessageCount.get();
+    }
+    
+    /**
+     * Number of terminal messages evicted because their TTL expired.
+     * @return 
+     */
+    @Override
+    public long getExpiredMessageCount() {
+        return expiredMessageCount.get();
+    }
+    
+    /**
+     * Number of distinct messages in the archive. 0 if no archive is 
+     * configured.
+     * @return 
+     */
+    @Override
+    public long getArchivedMessageCount() {
+        MessageArchive currentArchive = archive;
+        return currentArchive == null ? 0 : currentArchive.size();
+    }
+    
+    void setClock(Clock clock) {
+        this.clock = clock;
     }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.controller.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free, append-only log of ids kept in insertion order.
+ *
+ * Each appended entry gets a sequence number. An entry is only visible to
+ * readers once every entry before it was also appended (the 'published'
+ * watermark), so concurrent readers always see a consistent prefix of the
+ * log: no gaps and no reordering between two consecutive reads.
+ *
+ * Published entries can be removed (i.e. when they are evicted). Once an
+ * entry was removed, positions no longer match sequence numbers and
+ * {@link #list(long, long)} has to walk the log up to the requested
+ * position.
+ *
+ * @author esteban
+ * @param <T> the type of the entries, usually just ids.
+ */
+class InsertionLog<T> {
+
+    private final ConcurrentSkipListMap<Long, T> entries = new ConcurrentSkipListMap<>();
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+
+    /**
+     * Appends an id to the end of the log.
+     * @param id
+     * @return the sequence number assigned to the id.
+     */
+    public long append(T id) {
+        long sequence = nextSequence.getAndIncrement();
+        entries.put(sequence, id);
+        this.publish();
+        return sequence;
+    }
+
+    /**
+     * Removes an already published entry from the log.
+     * @param sequence
+     * @return whether the entry was present.
+     */
+    public boolean remove(long sequence) {
+        if (sequence >= published.get() || entries.remove(sequence) == null) {
+            return false;
+        }
+        removed.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * The oldest visible entry of the log, if any.
+     * @return
+     */
+    public Optional<Map.Entry<Long, T>> oldest() {
+        Map.Entry<Long, T> oldest = entries.firstEntry();
+        if (oldest == null || oldest.getKey() >= this.publish()) {
+            return Optional.empty();
+        }
+        return Optional.of(oldest);
+    }
+
+    /**
+     * Moves the published watermark over every contiguous entry already
+     * present in the log. Any thread can help here, so a writer that was
+     * descheduled between getting its sequence and storing its entry never
+     * blocks the others: it just delays the visibility of later entries.
+     * @return the current watermark.
+     */
+    private long publish() {
+        long watermark = published.get();
+        while (entries.containsKey(watermark)) {
+            published.compareAndSet(watermark, watermark + 1);
+            watermark = published.get();
+        }
+        return watermark;
+    }
+
+    /**
+     * The sequence number the next visible entry will get. Every entry 
+     * before it is already visible.
+     * @return
+     */
+    public long watermark() {
+        return this.publish();
+    }
+
+    /**
+     * Number of visible entries.
+     * @return
+     */
+    public long size() {
+        return this.publish() - removed.get();
+    }
+
+    /**
+     * Snapshot of the visible ids starting at the given position.
+     * While no entry was removed, the position is resolved by key, so 
+     * skipping is O(log n).
+     * @param from
+     * @param total
+     * @return
+     */
+    public List<T> list(long from, long total) {
+        long watermark = this.publish();
+        List<T> result = new ArrayList<>();
+        if (from >= watermark || total <= 0) {
+            return result;
+        }
+        if (removed.get() == 0) {
+            long to = total >= watermark - from ? watermark : from + total;
+            result.addAll(entries.subMap(from, to).values());
+            return result;
+        }
+        
+        entries.headMap(watermark).values().stream()
+                .skip(from)
+                .limit(total)
+                .forEach(result::add);
+        return result;
+    }
+
+    /**
+     * Weakly consistent view of the visible entries (sequence and id)
+     * starting at the given sequence. Nothing is copied, so the view can be
+     * walked just as far as needed.
+     * @param fromSequence
+     * @return
+     */
+    public NavigableMap<Long, T> tail(long fromSequence) {
+        long watermark = this.publish();
+        if (fromSequence >= watermark) {
+            return Collections.emptyNavigableMap();
+        }
+        return entries.subMap(fromSequence, true, watermark, false);
+    }
+
+    /**
+     * Snapshot of all the visible ids.
+     * @return
+     */
+    public List<T> list() {
+        return this.list(0, Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,870 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.controller.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import static java.util.stream.Collectors.toSet;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnDisabled;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.FileStore;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.socraticgrid.hl7.services.uc.model.Conversation;
+import org.socraticgrid.hl7.services.uc.model.Message;
+import org.socraticgrid.hl7.services.uc.model.QueryFilter;
+import org.socraticgrid.hl7.ucs.nifi.common.model.ConversationWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.model.Page;
+import org.socraticgrid.hl7.ucs.nifi.common.query.MessageQuery;
+import org.socraticgrid.hl7.ucs.nifi.common.query.QueryCriterion;
+import org.socraticgrid.hl7.ucs.nifi.common.query.QueryField;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.ConversationSerializer;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializationException;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializer;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.WrapperCodecs;
+
+/**
+ * {@link MessageStoreController} implementation that persists messages,
+ * conversations and references in a local MVStore file (the embedded
+ * log-structured key-value store of H2).
+ *
+ * Messages and conversations are kept in Fast Infoset format. Secondary
+ * indexes by conversation id, related message id and by every QueryField
+ * (used by queries) are kept in their own maps and are committed together
+ * with the messages they index, so a crash never leaves them out of sync.
+ * MVStore's own background auto-commit is always disabled, since it doesn't
+ * take this store's lock and could commit a message without its indexes:
+ * when writes are not synchronous, a background task commits under the
+ * same lock the writes take. On startup, the store is rolled back to its
+ * last committed version and the indexes are rebuilt if they don't match
+ * the stored messages.
+ *
+ * Unlike {@link InMemoryMessageStoreControllerImpl}, every read returns a new
+ * copy of the stored message: changes made to a message must be persisted
+ * using {@link #updateMessage(Message)}.
+ *
+ * @author esteban
+ */
+@Tags({"UCS", "store", "persistent"})
+@CapabilityDescription("Persistent Message Store backed by a local MVStore file.")
+public class MVStoreMessageStoreControllerImpl extends AbstractControllerService implements MessageStoreController {
+
+    public static final PropertyDescriptor STORE_FILE = new PropertyDescriptor.Builder()
+            .name("Store File")
+            .description("The file where messages, conversations and references are persisted. The file is created if it doesn't exist.")
+            .required(true)
+            .defaultValue("./ucs/message-store.mv.db")
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor SYNC_WRITES = new PropertyDescriptor.Builder()
+            .name("Sync Writes")
+            .description("If true, every write is committed to disk before returning. "
+                    + "If false, writes are committed in background every second, which is faster but could lose the last second of changes on a crash.")
+            .required(true)
+            .defaultValue("true")
+            .allowableValues("true", "false")
+            .build();
+
+    public static final PropertyDescriptor CACHE_SIZE = new PropertyDescriptor.Builder()
+            .name("Cache Size")
+            .description("The size, in MB, of the read cache of the store.")
+            .required(true)
+            .defaultValue("16")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    private static final char KEY_SEPARATOR = '\u0000';
+    private static final long BACKGROUND_COMMIT_INTERVAL = 1000;
+
+    private String fileName;
+    private boolean syncWrites;
+    private int cacheSize;
+
+    private volatile MVStore store;
+    private ScheduledExecutorService commitExecutor;
+
+    private MVMap<String, byte[]> messages;
+    private MVMap<String, Long> messageSequences;
+    private MVMap<Long, String> messagesBySequence;
+    //messageId -> [conversationId, relatedMessageId, queryKey...] as indexed
+    private MVMap<String, String[]> messageIndexKeys;
+    private MVMap<String, String> messagesByConversationId;
+    private MVMap<String, String> messagesByRelatedMessageId;
+    //queryKey + sequence -> messageId. See queryKeys().
+    private MVMap<String, String> messagesByQueryKey;
+    private MVMap<String, byte[]> conversations;
+    private MVMap<Long, String> conversationsBySequence;
+    private MVMap<String, String[]> messageRecipientsByReference;
+
+    private final AtomicLong messageSequence = new AtomicLong();
+    private final AtomicLong conversationSequence = new AtomicLong();
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        final List<PropertyDescriptor> descriptors = new ArrayList<>();
+        descriptors.add(STORE_FILE);
+        descriptors.add(SYNC_WRITES);
+        descriptors.add(CACHE_SIZE);
+        return descriptors;
+    }
+
+    @OnEnabled
+    public void onEnabled(final ConfigurationContext context) throws Exception {
+        this.fileName = context.getProperty(STORE_FILE).getValue();
+        this.syncWrites = context.getProperty(SYNC_WRITES).asBoolean();
+        this.cacheSize = context.getProperty(CACHE_SIZE).asInteger();
+        this.open();
+    }
+
+    @OnDisabled
+    public void onDisabled() {
+        this.close();
+    }
+
+    @Override
+    public void start() {
+        if (store == null) {
+            this.open();
+        }
+    }
+
+    @Override
+    public void stop() {
+        this.close();
+    }
+
+    private synchronized void open() {
+        if (store != null) {
+            return;
+        }
+
+        File file = new File(fileName);
+        if (file.getAbsoluteFile().getParentFile() != null) {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+        }
+
+        getLogger().debug("Opening Message Store {}", new Object[]{file.getAbsolutePath()});
+
+        MVStore s = new MVStore.Builder()
+                .fileName(fileName)
+                .cacheSize(cacheSize)
+                .autoCommitDisabled()
+                .open();
+
+        messages = s.openMap("messages");
+        messageSequences = s.openMap("messageSequences");
+        messagesBySequence = s.openMap("messagesBySequence");
+        messageIndexKeys = s.openMap("messageIndexKeys");
+        messagesByConversationId = s.openMap("messagesByConversationId");
+        messagesByRelatedMessageId = s.openMap("messagesByRelatedMessageId");
+        messagesByQueryKey = s.openMap("messagesByQueryKey");
+        conversations = s.openMap("conversations");
+        conversationsBySequence = s.openMap("conversationsBySequence");
+        messageRecipientsByReference = s.openMap("messageRecipientsByReference");
+
+        messageSequence.set(messagesBySequence.isEmpty() ? 0 : messagesBySequence.lastKey());
+        conversationSequence.set(conversationsBySequence.isEmpty() ? 0 : conversationsBySequence.lastKey());
+
+        store = s;
+
+        this.recover();
+
+        if (!syncWrites) {
+            commitExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "ucs-message-store-commit");
+                t.setDaemon(true);
+                return t;
+            });
+            commitExecutor.scheduleWithFixedDelay(this::backgroundCommit, BACKGROUND_COMMIT_INTERVAL, BACKGROUND_COMMIT_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+
+        getLogger().info("Message Store {} opened. Messages: {}, Conversations: {}, References: {}", new Object[]{
+            file.getAbsolutePath(), messages.size(), conversations.size(), messageRecipientsByReference.size()});
+    }
+
+    private synchronized void close() {
+        if (store == null) {
+            return;
+        }
+        getLogger().debug("Closing Message Store {}", new Object[]{fileName});
+        this.stopBackgroundCommits();
+        store.close();
+        store = null;
+    }
+
+    private void stopBackgroundCommits() {
+        if (commitExecutor != null) {
+            commitExecutor.shutdownNow();
+            commitExecutor = null;
+        }
+    }
+
+    /**
+     * Commits the pending changes when writes are not synchronous. It takes
+     * the same lock as the writes, so a message is never committed without
+     * its indexes.
+     */
+    private synchronized void backgroundCommit() {
+        if (store == null || !store.hasUnsavedChanges()) {
+            return;
+        }
+        try {
+            store.commit();
+        } catch (RuntimeException ex) {
+            //an exception would cancel the next commits.
+            getLogger().error("Error committing Message Store {}", new Object[]{fileName}, ex);
+        }
+    }
+
+    /**
+     * Closes the underlying store without committing pending changes, as if
+     * the process had crashed. Only meant to be used by tests.
+     */
+    synchronized void closeImmediately() {
+        if (store == null) {
+            return;
+        }
+        this.stopBackgroundCommits();
+        store.closeImmediately();
+        store = null;
+    }
+
+    /**
+     * Rebuilds the secondary indexes if they don't match the stored messages.
+     */
+    private synchronized void recover() {
+        if (messageSequences.size() == messages.size()
+                && messagesBySequence.size() == messages.size()
+                && messageIndexKeys.size() == messages.size()
+                && (messages.isEmpty() || !messagesByQueryKey.isEmpty())
+                && conversationsBySequence.size() == conversations.size()) {
+            return;
+        }
+
+        getLogger().warn("Message Store indexes are out of sync. Rebuilding them.");
+
+        //keep the original order of the messages that still exist
+        List<String> orderedMessageIds = new ArrayList<>();
+        for (String messageId : messagesBySequence.values()) {
+            if (messages.containsKey(messageId)) {
+                orderedMessageIds.add(messageId);
+            }
+        }
+        Set<String> orderedMessageIdsSet = new HashSet<>(orderedMessageIds);
+        for (String messageId : messages.keySet()) {
+            if (!orderedMessageIdsSet.contains(messageId)) {
+                orderedMessageIds.add(messageId);
+            }
+        }
+
+        messageSequences.clear();
+        messagesBySequence.clear();
+        messageIndexKeys.clear();
+        messagesByConversationId.clear();
+        messagesByRelatedMessageId.clear();
+        messagesByQueryKey.clear();
+        messageSequence.set(0);
+
+        for (String messageId : orderedMessageIds) {
+            long sequence = messageSequence.incrementAndGet();
+            messageSequences.put(messageId, sequence);
+            messagesBySequence.put(sequence, messageId);
+            this.index(messageId, sequence, this.deserializeMessage(messages.get(messageId)));
+        }
+
+        List<String> orderedConversationIds = new ArrayList<>(conversations.keySet());
+        conversationsBySequence.clear();
+        conversationSequence.set(0);
+        for (String conversationId : orderedConversationIds) {
+            conversationsBySequence.put(conversationSequence.incrementAndGet(), conversationId);
+        }
+
+        store.commit();
+    }
+
+    private MVStore getStore() {
+        MVStore s = store;
+        if (s == null) {
+            throw new IllegalStateException("Message Store is not open.");
+        }
+        return s;
+    }
+
+    private void commit() {
+        if (syncWrites) {
+            getStore().commit();
+        }
+    }
+
+    @Override
+    public synchronized void saveMessage(Message message) {
+        this.persistMessage(message);
+        this.commit();
+    }
+
+    /**
+     * The messages are committed together: with synchronous writes, there
+     * is a single commit for the whole group.
+     * @param messageGroup 
+     */
+    @Override
+    public synchronized void saveMessages(Collection<Message> messageGroup) {
+        messageGroup.forEach(this::persistMessage);
+        this.commit();
+    }
+
+    @Override
+    public synchronized void updateMessage(Message message) {
+        this.persistMessage(message);
+        this.commit();
+    }
+
+    private void persistMessage(Message message) {
+        getStore();
+        String messageId = message.getHeader().getMessageId();
+
+        messages.put(messageId, this.serializeMessage(message));
+
+        Long sequence = messageSequences.get(messageId);
+        if (sequence == null) {
+            sequence = messageSequence.incrementAndGet();
+            messageSequences.put(messageId, sequence);
+            messagesBySequence.put(sequence, messageId);
+        } else {
+            this.unindex(messageId, sequence);
+        }
+        this.index(messageId, sequence, message);
+    }
+
+    private void index(String messageId, long sequence, Message message) {
+        String conversationId = message.getHeader().getRelatedConversationId();
+        String relatedMessageId = message.getHeader().getRelatedMessageId();
+
+        if (conversationId != null) {
+            messagesByConversationId.put(compositeKey(conversationId, sequenceKey(sequence)), messageId);
+        }
+        if (relatedMessageId != null) {
+            messagesByRelatedMessageId.put(compositeKey(relatedMessageId, messageId), messageId);
+        }
+        
+        List<String> indexKeys = new ArrayList<>();
+        indexKeys.add(conversationId);
+        indexKeys.add(relatedMessageId);
+        for (String queryKey : queryKeys(message)) {
+            messagesByQueryKey.put(compositeKey(queryKey, sequenceKey(sequence)), messageId);
+            indexKeys.add(queryKey);
+        }
+        messageIndexKeys.put(messageId, indexKeys.toArray(new String[indexKeys.size()]));
+    }
+
+    private void unindex(String messageId, long sequence) {
+        String[] indexKeys = messageIndexKeys.remove(messageId);
+        if (indexKeys == null) {
+            return;
+        }
+        if (indexKeys[0] != null) {
+            messagesByConversationId.remove(compositeKey(indexKeys[0], sequenceKey(sequence)));
+        }
+        if (indexKeys[1] != null) {
+            messagesByRelatedMessageId.remove(compositeKey(indexKeys[1], messageId));
+        }
+        for (int i = 2; i < indexKeys.length; i++) {
+            messagesByQueryKey.remove(compositeKey(indexKeys[i], sequenceKey(sequence)));
+        }
+    }
+    
+    /**
+     * The keys under which a message is indexed in messagesByQueryKey: 
+     * 'field=value' for every value of every {@link QueryField} in the 
+     * message. Creation dates are zero-padded, like sequences, so they can
+     * be scanned by range.
+     */
+    private static List<String> queryKeys(Message message) {
+        List<String> keys = new ArrayList<>();
+        for (QueryField field : QueryField.values()) {
+            for (String value : field.valuesOf(message)) {
+                keys.add(queryKey(field, value));
+            }
+        }
+        QueryField.createdOf(message).ifPresent(created -> keys.add(createdKey(created)));
+        return keys;
+    }
+    
+    private static String queryKey(QueryField field, String value) {
+        return field.getName() + "=" + value;
+    }
+    
+    private static String createdKey(long created) {
+        return queryKey(QueryField.CREATED, sequenceKey(Math.max(0, created)));
+    }
+
+    @Override
+    public Optional<Message> getMessageById(String messageId) {
+        getStore();
+        if (messageId == null) {
+            return Optional.empty();
+        }
+        byte[] message = messages.get(messageId);
+        return message == null ? Optional.empty() : Optional.of(this.deserializeMessage(message));
+    }
+
+    @Override
+    public Map<String, Message> getMessagesByIds(Collection<String> messageIds) {
+        getStore();
+        Map<String, Message> result = new HashMap<>();
+        for (String messageId : messageIds) {
+            byte[] message = messageId == null ? null : messages.get(messageId);
+            if (message != null) {
+                result.put(messageId, this.deserializeMessage(message));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Set<String> existsMessageIds(Collection<String> messageIds) {
+        getStore();
+        return messageIds.stream()
+                .filter(messageId -> messageId != null && messageSequences.containsKey(messageId))
+                .collect(toSet());
+    }
+
+    @Override
+    public List<Message> listMessages() {
+        getStore();
+        List<Message> result = new ArrayList<>();
+        for (String messageId : messagesBySequence.values()) {
+            this.getMessageById(messageId).ifPresent(result::add);
+        }
+        return result;
+    }
+
+    @Override
+    public List<Message> listMessages(long from, long total) {
+        getStore();
+        List<Message> result = new ArrayList<>();
+        if (from >= messagesBySequence.sizeAsLong() || total <= 0) {
+            return result;
+        }
+
+        Cursor<Long, String> cursor = messagesBySequence.cursor(messagesBySequence.getKey(from));
+        while (cursor.hasNext() && result.size() < total) {
+            cursor.next();
+            this.getMessageById(cursor.getValue()).ifPresent(result::add);
+        }
+        return result;
+    }
+
+    @Override
+    public Page<Message> listMessages(Optional<String> cursor, int pageSize) {
+        Cursors.checkPageSize(pageSize);
+        getStore();
+        return this.listMessages(cursor.map(Cursors::decode).orElse(0L), pageSize);
+    }
+
+    private Page<Message> listMessages(long from, int pageSize) {
+        List<Message> result = new ArrayList<>();
+        Cursor<Long, String> entries = messagesBySequence.cursor(from);
+        while (entries.hasNext()) {
+            Long sequence = entries.next();
+            if (result.size() == pageSize) {
+                return new Page<>(result, Optional.of(Cursors.encode(sequence)));
+            }
+            this.getMessageById(entries.getValue()).ifPresent(result::add);
+        }
+        return new Page<>(result, Optional.empty());
+    }
+
+    @Override
+    public synchronized void addMessageReference(String reference, MessageRecipientTuple messageRecipient) {
+        getStore();
+        messageRecipientsByReference.put(reference, new String[]{messageRecipient.getMessageId(), messageRecipient.getRecipientId()});
+        this.commit();
+    }
+
+    @Override
+    public synchronized void addMessageReferences(Map<String, MessageRecipientTuple> references) {
+        getStore();
+        references.forEach((reference, messageRecipient)
+                -> messageRecipientsByReference.put(reference, new String[]{messageRecipient.getMessageId(), messageRecipient.getRecipientId()}));
+        this.commit();
+    }
+
+    @Override
+    public Optional<MessageRecipientTuple> getMessageRecipientTupleByReferece(String reference) {
+        getStore();
+        String[] tuple = messageRecipientsByReference.get(reference);
+        return tuple == null ? Optional.empty() : Optional.of(new MessageRecipientTuple(tuple[0], tuple[1]));
+    }
+
+    @Override
+    public boolean isKnownConversation(String conversationId) {
+        getStore();
+        if (conversationId == null) {
+            return false;
+        }
+        String prefix = compositeKey(conversationId, "");
+        String key = messagesByConversationId.ceilingKey(prefix);
+        return key != null && key.startsWith(prefix);
+    }
+
+    @Override
+    public Set<Message> getRelatedMessages(String messageId) {
+        getStore();
+        if (messageId == null) {
+            return Collections.EMPTY_SET;
+        }
+
+        Set<Message> result = new HashSet<>();
+        for (String relatedMessageId : this.scan(messagesByRelatedMessageId, messageId)) {
+            this.getMessageById(relatedMessageId).ifPresent(result::add);
+        }
+        return result;
+    }
+
+    @Override
+    public void setMessageRemovalListener(Consumer<String> listener) {
+        //messages are never removed from this store.
+    }
+
+    @Override
+    public long getMessageCount() {
+        getStore();
+        return messages.sizeAsLong();
+    }
+
+    /**
+     * Size, in bytes, of the store file. 0 for in-memory stores.
+     * @return
+     */
+    @Override
+    public long getEstimatedSize() {
+        FileStore fileStore = getStore().getFileStore();
+        return fileStore == null ? 0 : fileStore.size();
+    }
+
+    @Override
+    public synchronized void saveConversation(Conversation conversation) {
+        getStore();
+        if (conversations.containsKey(conversation.getConversationId())) {
+            throw new IllegalArgumentException("Duplicated Conversation id: '" + conversation.getConversationId() + "'");
+        }
+
+        conversations.put(conversation.getConversationId(), this.serializeConversation(conversation));
+        conversationsBySequence.put(conversationSequence.incrementAndGet(), conversation.getConversationId());
+        this.commit();
+    }
+
+    @Override
+    public Optional<Conversation> getConversationById(String conversationId) {
+        getStore();
+        if (conversationId == null) {
+            return Optional.empty();
+        }
+        byte[] conversation = conversations.get(conversationId);
+        return conversation == null ? Optional.empty() : Optional.of(this.deserializeConversation(conversation));
+    }
+
+    @Override
+    public List<Message> listMessagesByConversationId(String conversationId) {
+        return this.listMessagesByConversationId(conversationId, Optional.empty(), Optional.empty());
+    }
+
+    @Override
+    public List<Message> listMessagesByConversationId(String conversationId, Optional<Long> from, Optional<Long> total) {
+        getStore();
+        List<Message> result = new ArrayList<>();
+        if (conversationId == null) {
+            return result;
+        }
+
+        long skip = from.orElse(0L);
+        long limit = total.orElse(Long.MAX_VALUE);
+        for (String messageId : this.scan(messagesByConversationId, conversationId)) {
+            if (result.size() >= limit) {
+                break;
+            }
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            this.getMessageById(messageId).ifPresent(result::add);
+        }
+        return result;
+    }
+
+    @Override
+    public Page<Message> listMessagesByConversationId(String conversationId, Optional<String> cursor, int pageSize) {
+        Cursors.checkPageSize(pageSize);
+        getStore();
+        List<Message> result = new ArrayList<>();
+        if (conversationId == null) {
+            return new Page<>(result, Optional.empty());
+        }
+        long from = cursor.map(Cursors::decode).orElse(0L);
+
+        String prefix = compositeKey(conversationId, "");
+        Cursor<String, String> entries = messagesByConversationId.cursor(compositeKey(conversationId, sequenceKey(from)));
+        while (entries.hasNext()) {
+            String key = entries.next();
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            if (result.size() == pageSize) {
+                long sequence = Long.parseLong(key.substring(prefix.length()));
+                return new Page<>(result, Optional.of(Cursors.encode(sequence)));
+            }
+            this.getMessageById(entries.getValue()).ifPresent(result::add);
+        }
+        return new Page<>(result, Optional.empty());
+    }
+
+    @Override
+    public List<Conversation> queryConversations(String query, List<QueryFilter> filters) {
+        getStore();
+        MessageQuery messageQuery = MessageQuery.parse(query, filters);
+        
+        Set<String> conversationIds = null;
+        if (messageQuery.isOnlyOn(QueryField.CONVERSATION_ID)) {
+            //the conversation could have no messages yet.
+            conversationIds = messageQuery.getCriteria().stream()
+                    .map(c -> c.getValue())
+                    .collect(toSet());
+            if (conversationIds.size() > 1) {
+                return new ArrayList<>();
+            }
+        } else if (!messageQuery.isEmpty()) {
+            conversationIds = this.queryMessages(messageQuery, 0, Integer.MAX_VALUE).getItems().stream()
+                    .map(m -> m.getHeader().getRelatedConversationId())
+                    .filter(Objects::nonNull)
+                    .collect(toSet());
+        }
+        
+        List<Conversation> result = new ArrayList<>();
+        for (String conversationId : conversationsBySequence.values()) {
+            if (conversationIds == null || conversationIds.contains(conversationId)) {
+                this.getConversationById(conversationId).ifPresent(result::add);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Message> queryMessages(String query, List<QueryFilter> filters) {
+        getStore();
+        return this.queryMessages(MessageQuery.parse(query, filters), 0, Integer.MAX_VALUE).getItems();
+    }
+
+    @Override
+    public Page<Message> queryMessages(String query, List<QueryFilter> filters, Optional<String> cursor, int pageSize) {
+        Cursors.checkPageSize(pageSize);
+        getStore();
+        MessageQuery messageQuery = MessageQuery.parse(query, filters);
+        return this.queryMessages(messageQuery, cursor.map(Cursors::decode).orElse(0L), pageSize);
+    }
+
+    /**
+     * Walks the entries of the most selective equality criterion (they are 
+     * already sorted by sequence) checking each message against the whole 
+     * query. If there are only {@link QueryField#CREATED} criteria, the 
+     * range of creation dates is scanned and sorted by sequence instead.
+     */
+    private Page<Message> queryMessages(MessageQuery query, long from, int pageSize) {
+        if (query.isEmpty()) {
+            return this.listMessages(from, pageSize);
+        }
+
+        String bestQueryKey = null;
+        long bestCount = Long.MAX_VALUE;
+        long createdFrom = 0;
+        long createdTo = Long.MAX_VALUE;
+        for (QueryCriterion criterion : query.getCriteria()) {
+            if (criterion.getField() == QueryField.CREATED) {
+                long timestamp = Math.max(0, criterion.getTimestamp());
+                switch (criterion.getOperator()) {
+                    case EQUALS:
+                        createdFrom = Math.max(createdFrom, timestamp);
+                        createdTo = Math.min(createdTo, timestamp);
+                        break;
+                    case GREATER:
+                    case GREATER_OR_EQUALS:
+                        createdFrom = Math.max(createdFrom, timestamp);
+                        break;
+                    case LESS:
+                    case LESS_OR_EQUALS:
+                        createdTo = Math.min(createdTo, timestamp);
+                        break;
+                }
+                continue;
+            }
+            String queryKey = queryKey(criterion.getField(), criterion.getValue());
+            long count = this.rank(compositeKey(queryKey, "\uffff")) - this.rank(compositeKey(queryKey, ""));
+            if (count < bestCount) {
+                bestQueryKey = queryKey;
+                bestCount = count;
+            }
+        }
+
+        List<Message> result = new ArrayList<>();
+        if (bestQueryKey != null) {
+            String prefix = compositeKey(bestQueryKey, "");
+            Cursor<String, String> entries = messagesByQueryKey.cursor(compositeKey(bestQueryKey, sequenceKey(from)));
+            while (entries.hasNext()) {
+                String key = entries.next();
+                if (!key.startsWith(prefix)) {
+                    break;
+                }
+                Optional<Message> message = this.getMessageById(entries.getValue());
+                if (message.isPresent() && query.matches(message.get())) {
+                    if (result.size() == pageSize) {
+                        return new Page<>(result, Optional.of(Cursors.encode(Long.parseLong(key.substring(prefix.length())))));
+                    }
+                    result.add(message.get());
+                }
+            }
+            return new Page<>(result, Optional.empty());
+        }
+
+        //only CREATED criteria: criteria are checked again on each message,
+        //so the exclusive bounds don't need to be adjusted here.
+        TreeMap<Long, String> matches = new TreeMap<>();
+        if (createdFrom <= createdTo) {
+            String to = compositeKey(createdKey(createdTo), "\uffff");
+            Cursor<String, String> entries = messagesByQueryKey.cursor(compositeKey(createdKey(createdFrom), ""));
+            while (entries.hasNext()) {
+                String key = entries.next();
+                if (key.compareTo(to) > 0) {
+                    break;
+                }
+                long sequence = Long.parseLong(key.substring(key.indexOf(KEY_SEPARATOR) + 1));
+                if (sequence >= from) {
+                    matches.put(sequence, entries.getValue());
+                }
+            }
+        }
+        for (Map.Entry<Long, String> match : matches.entrySet()) {
+            Optional<Message> message = this.getMessageById(match.getValue());
+            if (message.isPresent() && query.matches(message.get())) {
+                if (result.size() == pageSize) {
+                    return new Page<>(result, Optional.of(Cursors.encode(match.getKey())));
+                }
+                result.add(message.get());
+            }
+        }
+        return new Page<>(result, Optional.empty());
+    }
+
+    /**
+     * Position of the given key (or where it would be inserted) in
+     * messagesByQueryKey.
+     */
+    private long rank(String key) {
+        long index = messagesByQueryKey.getKeyIndex(key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Returns the values of all the entries of an index whose key starts with
+     * the given prefix, in key order.
+     */
+    private List<String> scan(MVMap<String, String> index, String prefix) {
+        String from = compositeKey(prefix, "");
+        List<String> result = new ArrayList<>();
+        Cursor<String, String> cursor = index.cursor(from);
+        while (cursor.hasNext()) {
+            String key = cursor.next();
+            if (!key.startsWith(from)) {
+                break;
+            }
+            result.add(cursor.getValue());
+        }
+        return result;
+    }
+
+    private static String compositeKey(String prefix, String suffix) {
+        return prefix + KEY_SEPARATOR + suffix;
+    }
+
+    /**
+     * Sequences are zero-padded so their String representation keeps the
+     * numeric order.
+     */
+    private static String sequenceKey(long sequence) {
+        return String.format("%019d", sequence);
+    }
+
+    private byte[] serializeMessage(Message message) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            MessageSerializer.serializeMessageWrapper(new MessageWrapper(message), out, WrapperCodecs.FAST_INFOSET);
+            return out.toByteArray();
+        } catch (MessageSerializationException ex) {
+            throw new IllegalArgumentException("Error serializing message " + message.getHeader().getMessageId(), ex);
+        }
+    }
+
+    private Message deserializeMessage(byte[] message) {
+        try {
+            return MessageSerializer.deserializeMessageWrapper(new ByteArrayInputStream(message)).getMessage();
+        } catch (MessageSerializationException ex) {
+            throw new IllegalStateException("Error deserializing stored message", ex);
+        }
+    }
+
+    private byte[] serializeConversation(Conversation conversation) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ConversationSerializer.serializeConversationWrapper(new ConversationWrapper(conversation), out, WrapperCodecs.FAST_INFOSET);
+            return out.toByteArray();
+        } catch (MessageSerializationException ex) {
+            throw new IllegalArgumentException("Error serializing conversation " + conversation.getConversationId(), ex);
+        }
+    }
+
+    private Conversation deserializeConversation(byte[] conversation) {
+        try {
+            return ConversationSerializer.deserializeConversationWrapper(new ByteArrayInputStream(conversation)).getConversation();
+        } catch (MessageSerializationException ex) {
+            throw new IllegalStateException("Error deserializing stored conversation", ex);
+        }
+    }
+}
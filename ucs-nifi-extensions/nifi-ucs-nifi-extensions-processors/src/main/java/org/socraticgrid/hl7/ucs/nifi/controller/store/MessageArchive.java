@@ -0,0 +1,171 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.controller.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import org.socraticgrid.hl7.services.uc.model.Message;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializationException;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializer;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.WrapperCodecs;
+
+/**
+ * Append-only file where evicted messages are spilled.
+ *
+ * Each record is the id of the message followed by the length and the Fast
+ * Infoset representation of the message. Only the offsets of the records
+ * are kept in memory. If a message is archived more than once, the last
+ * record wins.
+ * When an existing archive is opened, its records are scanned to rebuild
+ * the offsets; an incomplete record at the end of the file (i.e. after a
+ * crash) is truncated.
+ *
+ * @author esteban
+ */
+class MessageArchive implements Closeable {
+
+    private final RandomAccessFile file;
+    private final Map<String, Long> offsetsByMessageId = new HashMap<>();
+
+    public MessageArchive(File archiveFile) throws IOException {
+        File parent = archiveFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        this.file = new RandomAccessFile(archiveFile, "rw");
+        this.scan();
+    }
+
+    private void scan() throws IOException {
+        long validLength = 0;
+        try {
+            while (validLength < file.length()) {
+                file.seek(validLength);
+                String messageId = file.readUTF();
+                long offset = file.getFilePointer();
+                int length = file.readInt();
+                if (length < 0 || file.getFilePointer() + length > file.length()) {
+                    break;
+                }
+                offsetsByMessageId.put(messageId, offset);
+                validLength = file.getFilePointer() + length;
+            }
+        } catch (EOFException e) {
+            //incomplete record
+        }
+        if (validLength < file.length()) {
+            file.setLength(validLength);
+        }
+    }
+
+    public synchronized void append(Message message) throws IOException {
+        byte[] bytes;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            MessageSerializer.serializeMessageWrapper(new MessageWrapper(message), out, WrapperCodecs.FAST_INFOSET);
+            bytes = out.toByteArray();
+        } catch (MessageSerializationException ex) {
+            throw new IOException("Error serializing message " + message.getHeader().getMessageId(), ex);
+        }
+
+        file.seek(file.length());
+        file.writeUTF(message.getHeader().getMessageId());
+        long offset = file.getFilePointer();
+        file.writeInt(bytes.length);
+        file.write(bytes);
+        offsetsByMessageId.put(message.getHeader().getMessageId(), offset);
+    }
+
+    public synchronized Optional<Message> get(String messageId) throws IOException {
+        Long offset = offsetsByMessageId.get(messageId);
+        if (offset == null) {
+            return Optional.empty();
+        }
+
+        return Optional.of(this.read(messageId, offset));
+    }
+
+    /**
+     * Retrieves the archived messages with the given ids. The records are
+     * read in file order. Ids that are not archived are ignored.
+     * @param messageIds
+     * @return messageId -> Message
+     * @throws IOException
+     */
+    public synchronized Map<String, Message> getAll(Collection<String> messageIds) throws IOException {
+        TreeMap<Long, String> messageIdsByOffset = new TreeMap<>();
+        for (String messageId : messageIds) {
+            Long offset = offsetsByMessageId.get(messageId);
+            if (offset != null) {
+                messageIdsByOffset.put(offset, messageId);
+            }
+        }
+
+        Map<String, Message> result = new HashMap<>();
+        for (Map.Entry<Long, String> entry : messageIdsByOffset.entrySet()) {
+            result.put(entry.getValue(), this.read(entry.getValue(), entry.getKey()));
+        }
+        return result;
+    }
+
+    private Message read(String messageId, long offset) throws IOException {
+        file.seek(offset);
+        byte[] bytes = new byte[file.readInt()];
+        file.readFully(bytes);
+        try {
+            return MessageSerializer.deserializeMessageWrapper(new ByteArrayInputStream(bytes)).getMessage();
+        } catch (MessageSerializationException ex) {
+            throw new IOException("Error deserializing archived message " + messageId, ex);
+        }
+    }
+
+    public synchronized boolean contains(String messageId) {
+        return offsetsByMessageId.containsKey(messageId);
+    }
+
+    /**
+     * Number of distinct messages in the archive.
+     * @return
+     */
+    public synchronized int size() {
+        return offsetsByMessageId.size();
+    }
+
+    /**
+     * Size of the archive file in bytes.
+     * @return
+     * @throws IOException
+     */
+    public synchronized long length() throws IOException {
+        return file.length();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.controller.store;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded log of the messages saved, updated or removed (i.e. evicted) from
+ * a {@link MessageStoreController}, in the order the changes happened.
+ *
+ * Only the latest change of each message is kept. When the log holds more
+ * than maxChanges changes, the oldest ones are trimmed: a sync point before
+ * them can no longer be resolved and the reader has to perform a full
+ * resync instead.
+ *
+ * Sync points are opaque tokens wrapping the sequence number of the next
+ * change. They are bound to the log that issued them: a sync point of
+ * another log (i.e. issued before a restart) can't be resolved either.
+ *
+ * @author esteban
+ */
+public class MessageChangeLog {
+
+    public static class Change {
+
+        private final String messageId;
+        private final boolean removed;
+
+        public Change(String messageId, boolean removed) {
+            this.messageId = messageId;
+            this.removed = removed;
+        }
+
+        public String getMessageId() {
+            return messageId;
+        }
+
+        public boolean isRemoved() {
+            return removed;
+        }
+    }
+
+    public static class Changes {
+
+        private final List<Change> changes;
+        private final String syncPoint;
+        private final boolean hasMore;
+
+        public Changes(List<Change> changes, String syncPoint, boolean hasMore) {
+            this.changes = Collections.unmodifiableList(changes);
+            this.syncPoint = syncPoint;
+            this.hasMore = hasMore;
+        }
+
+        /**
+         * @return the changes in the order they happened. A message is
+         * present at most once.
+         */
+        public List<Change> getChanges() {
+            return changes;
+        }
+
+        /**
+         * @return the sync point to be used to retrieve the changes after
+         * these ones.
+         */
+        public String getSyncPoint() {
+            return syncPoint;
+        }
+
+        /**
+         * @return whether there were more changes after these ones.
+         */
+        public boolean hasMore() {
+            return hasMore;
+        }
+    }
+
+    public static final int DEFAULT_MAX_CHANGES = 100000;
+
+    private static final String PREFIX = "c1:";
+
+    private final String logId = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+    private final int maxChanges;
+
+    private final InsertionLog<Change> log = new InsertionLog<>();
+    //messageId -> sequence of its latest change.
+    private final Map<String, Long> latestChanges = new ConcurrentHashMap<>();
+    //superseded changes that were not visible yet when they were superseded.
+    private final ConcurrentSkipListSet<Long> supersededChanges = new ConcurrentSkipListSet<>();
+    //changes before this sequence may have been trimmed.
+    private final AtomicLong trimmedBefore = new AtomicLong();
+
+    public MessageChangeLog() {
+        this(DEFAULT_MAX_CHANGES);
+    }
+
+    public MessageChangeLog(int maxChanges) {
+        if (maxChanges <= 0) {
+            throw new IllegalArgumentException("Max. changes must be greater than 0: " + maxChanges);
+        }
+        this.maxChanges = maxChanges;
+    }
+
+    /**
+     * Records that a message was saved or updated.
+     * @param messageId
+     */
+    public void modified(String messageId) {
+        this.record(new Change(messageId, false));
+    }
+
+    /**
+     * Records that a message is no longer present in the store.
+     * @param messageId
+     */
+    public void removed(String messageId) {
+        this.record(new Change(messageId, true));
+    }
+
+    private void record(Change change) {
+        latestChanges.compute(change.getMessageId(), (id, previous) -> {
+            long sequence = log.append(change);
+            if (previous != null && !log.remove(previous)) {
+                supersededChanges.add(previous);
+            }
+            return sequence;
+        });
+        this.removeSupersededChanges();
+        this.trimIfNeeded();
+    }
+
+    /**
+     * Removes the superseded changes that are already visible.
+     * @return whether any change was removed.
+     */
+    private boolean removeSupersededChanges() {
+        long watermark = log.watermark();
+        boolean removed = false;
+        Long sequence;
+        while ((sequence = supersededChanges.pollFirst()) != null) {
+            if (sequence >= watermark) {
+                supersededChanges.add(sequence);
+                break;
+            }
+            removed |= log.remove(sequence);
+        }
+        return removed;
+    }
+
+    private void trimIfNeeded() {
+        while (log.size() > maxChanges) {
+            //the watermark may have moved over many superseded changes since
+            //they were last removed: they go before any latest change.
+            if (this.removeSupersededChanges()) {
+                continue;
+            }
+            Optional<Map.Entry<Long, Change>> oldest = log.oldest();
+            if (!oldest.isPresent()) {
+                return;
+            }
+            long sequence = oldest.get().getKey();
+            //moved before the entry is removed: a reader walking the log
+            //detects the removal when it checks the floor afterwards.
+            trimmedBefore.accumulateAndGet(sequence + 1, Math::max);
+            if (log.remove(sequence)) {
+                latestChanges.remove(oldest.get().getValue().getMessageId(), sequence);
+            }
+        }
+    }
+
+    /**
+     * @return a sync point after every change already recorded.
+     */
+    public String currentSyncPoint() {
+        return this.encode(log.watermark());
+    }
+
+    /**
+     * Returns, at most, maxChanges of the changes recorded since the given
+     * sync point.
+     * @param syncPoint
+     * @param maxChanges
+     * @return the changes or an empty Optional if they are no longer known
+     * (the sync point was issued by another log or the changes after it were
+     * already trimmed).
+     * @throws IllegalArgumentException if the sync point or maxChanges are
+     * not valid.
+     */
+    public Optional<Changes> changesSince(String syncPoint, int maxChanges) {
+        Cursors.checkPageSize(maxChanges);
+        Optional<Long> from = this.decode(syncPoint);
+        if (!from.isPresent() || from.get() < trimmedBefore.get()) {
+            return Optional.empty();
+        }
+
+        long next = log.watermark();
+        boolean hasMore = false;
+        Map<String, Change> changes = new LinkedHashMap<>();
+        for (Map.Entry<Long, Change> entry : log.tail(from.get()).headMap(next).entrySet()) {
+            String messageId = entry.getValue().getMessageId();
+            if (changes.size() == maxChanges && !changes.containsKey(messageId)) {
+                next = entry.getKey();
+                hasMore = true;
+                break;
+            }
+            //a superseded change may still be present for a while.
+            changes.remove(messageId);
+            changes.put(messageId, entry.getValue());
+        }
+
+        if (from.get() < trimmedBefore.get()) {
+            return Optional.empty();
+        }
+        return Optional.of(new Changes(new ArrayList<>(changes.values()), this.encode(next), hasMore));
+    }
+
+    private String encode(long sequence) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((PREFIX + logId + ":" + Long.toString(sequence, 36)).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param syncPoint
+     * @return the sequence wrapped by the sync point or an empty Optional if
+     * it belongs to another log.
+     * @throws IllegalArgumentException if the sync point is not valid.
+     */
+    private Optional<Long> decode(String syncPoint) {
+        String decoded;
+        try {
+            decoded = new String(Base64.getUrlDecoder().decode(syncPoint), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid sync point: '" + syncPoint + "'", e);
+        }
+        String[] parts = decoded.split(":");
+        if (!decoded.startsWith(PREFIX) || parts.length != 3) {
+            throw new IllegalArgumentException("Invalid sync point: '" + syncPoint + "'");
+        }
+        long sequence;
+        try {
+            sequence = Long.parseLong(parts[2], 36);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid sync point: '" + syncPoint + "'", e);
+        }
+        return logId.equals(parts[1]) ? Optional.of(sequence) : Optional.empty();
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.controller.store;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.socraticgrid.hl7.services.uc.model.Message;
+import org.socraticgrid.hl7.ucs.nifi.common.query.MessageQuery;
+import org.socraticgrid.hl7.ucs.nifi.common.query.QueryCriterion;
+import org.socraticgrid.hl7.ucs.nifi.common.query.QueryField;
+
+/**
+ * Concurrent in-memory indexes of messages by every {@link QueryField} but
+ * {@link QueryField#CREATED}.
+ *
+ * Each index entry keeps the messages ordered by their sequence in the
+ * store, so a page of results can be read by walking the entry from the
+ * cursor position. The index is only used to find the candidates of a
+ * {@link MessageQuery}: the candidates still have to be checked against the
+ * whole query.
+ * Concurrent (re)indexing of the same message is serialized by
+ * indexedKeys.compute().
+ *
+ * @author esteban
+ */
+class MessageIndex {
+
+    //field -> value -> messages with that value.
+    private final Map<QueryField, Map<String, IndexEntry>> idsByValue = new EnumMap<>(QueryField.class);
+    //messageId -> keys under which the message is indexed.
+    private final Map<String, IndexedKeys> indexedKeys = new ConcurrentHashMap<>();
+
+    /**
+     * The messages (sequence -> id) indexed under a value. The size is kept
+     * apart because ConcurrentSkipListMap.size() is not a constant-time
+     * operation. Both are only modified inside idsByValue.compute().
+     */
+    private static class IndexEntry {
+
+        private final ConcurrentNavigableMap<Long, String> ids = new ConcurrentSkipListMap<>();
+        private volatile int size;
+    }
+
+    private static class IndexedKeys {
+
+        private final long sequence;
+        private final Map<QueryField, Set<String>> values = new EnumMap<>(QueryField.class);
+
+        public IndexedKeys(Message message, long sequence) {
+            this.sequence = sequence;
+            for (QueryField field : QueryField.values()) {
+                if (field != QueryField.CREATED) {
+                    values.put(field, field.valuesOf(message));
+                }
+            }
+        }
+    }
+
+    public MessageIndex() {
+        for (QueryField field : QueryField.values()) {
+            if (field != QueryField.CREATED) {
+                idsByValue.put(field, new ConcurrentHashMap<>());
+            }
+        }
+    }
+
+    /**
+     * Indexes a new message or re-indexes an already indexed one.
+     * @param message
+     * @param sequence the position of the message in the store.
+     */
+    public void index(Message message, long sequence) {
+        String messageId = message.getHeader().getMessageId();
+        IndexedKeys keys = new IndexedKeys(message, sequence);
+        indexedKeys.compute(messageId, (id, previousKeys) -> {
+            if (previousKeys != null) {
+                this.removeKeys(messageId, previousKeys);
+            }
+            this.addKeys(messageId, keys);
+            return keys;
+        });
+    }
+
+    public void unindex(String messageId) {
+        indexedKeys.computeIfPresent(messageId, (id, previousKeys) -> {
+            this.removeKeys(messageId, previousKeys);
+            return null;
+        });
+    }
+
+    private void addKeys(String messageId, IndexedKeys keys) {
+        keys.values.forEach((field, values) -> values.forEach(value -> idsByValue.get(field)
+                .compute(value, (k, entry) -> {
+                    if (entry == null) {
+                        entry = new IndexEntry();
+                    }
+                    if (entry.ids.put(keys.sequence, messageId) == null) {
+                        entry.size++;
+                    }
+                    return entry;
+                })));
+    }
+
+    private void removeKeys(String messageId, IndexedKeys keys) {
+        keys.values.forEach((field, values) -> values.forEach(value -> idsByValue.get(field)
+                .computeIfPresent(value, (k, entry) -> {
+                    if (entry.ids.remove(keys.sequence, messageId)) {
+                        entry.size--;
+                    }
+                    return entry.size == 0 ? null : entry;
+                })));
+    }
+
+    /**
+     * The messages (sequence -> id) that could match the query, taken from
+     * the index entry of its most selective equality criterion.
+     * @param query
+     * @return empty if the query has no equality criteria other than on
+     * {@link QueryField#CREATED}: every message is a candidate. An empty map
+     * if no message can match.
+     */
+    public Optional<NavigableMap<Long, String>> candidates(MessageQuery query) {
+        IndexEntry best = null;
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        for (QueryCriterion criterion : query.getCriteria()) {
+            if (criterion.getField() == QueryField.CREATED) {
+                long timestamp = criterion.getTimestamp();
+                switch (criterion.getOperator()) {
+                    case EQUALS:
+                        from = Math.max(from, timestamp);
+                        to = Math.min(to, timestamp);
+                        break;
+                    case GREATER:
+                        from = Math.max(from, timestamp == Long.MAX_VALUE ? timestamp : timestamp + 1);
+                        break;
+                    case GREATER_OR_EQUALS:
+                        from = Math.max(from, timestamp);
+                        break;
+                    case LESS:
+                        to = Math.min(to, timestamp == Long.MIN_VALUE ? timestamp : timestamp - 1);
+                        break;
+                    case LESS_OR_EQUALS:
+                        to = Math.min(to, timestamp);
+                        break;
+                }
+                continue;
+            }
+
+            IndexEntry entry = idsByValue.get(criterion.getField()).get(criterion.getValue());
+            if (entry == null) {
+                return Optional.of(Collections.emptyNavigableMap());
+            }
+            if (best == null || entry.size < best.size) {
+                best = entry;
+            }
+        }
+
+        if (from > to) {
+            return Optional.of(Collections.emptyNavigableMap());
+        }
+        return best == null ? Optional.empty() : Optional.of(best.ids);
+    }
+}
@@ -15,9 +15,12 @@
  */
 package org.socraticgrid.hl7.ucs.nifi.controller.store;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.controller.ControllerService;
@@ -25,6 +28,8 @@ import org.socraticgrid.hl7.services.uc.model.Conversation;
 
 import org.socraticgrid.hl7.services.uc.model.Message;
 import org.socraticgrid.hl7.services.uc.model.QueryFilter;
+import org.socraticgrid.hl7.ucs.nifi.common.model.Page;
+import org.socraticgrid.hl7.ucs.nifi.common.query.MessageQuery;
 
 /**
  * Interface to a Persistent Message Store.
@@ -68,12 +73,29 @@ public interface MessageStoreController extends ControllerService {
      */
     public List<Message> listMessagesByConversationId(String conversationId, Optional<Long> from, Optional<Long> total);
     
+    /**
+     * Returns a page of, at most, pageSize Messages of a given conversation.
+     * Unlike {@link #listMessagesByConversationId(String, Optional, Optional)},
+     * the cost of retrieving a page doesn't depend on its position.
+     * @param conversationId
+     * @param cursor the cursor returned with the previous page or empty for
+     * the first page.
+     * @param pageSize
+     * @return 
+     * @throws IllegalArgumentException if the cursor is not valid.
+     */
+    public Page<Message> listMessagesByConversationId(String conversationId, Optional<String> cursor, int pageSize);
+    
     /**
      * Queries the Conversation store and retrieves all the Conversations matching
-     * the provided query and filters.
+     * the provided query and filters. A Conversation matches if any of its
+     * Messages matches or, if the query only has conversationId criteria,
+     * if its id matches.
+     * See {@link MessageQuery} for the syntax of the query.
      * @param query
      * @param filters
      * @return 
+     * @throws IllegalArgumentException if the query or filters are not valid.
      */
     public List<Conversation> queryConversations(String query, List<QueryFilter> filters);
     
@@ -85,6 +107,14 @@ public interface MessageStoreController extends ControllerService {
      */
     public void saveMessage(Message message);
     
+    /**
+     * Persists a group of messages in the store. The result is the same as
+     * invoking {@link #saveMessage(Message)} for each of them, but the
+     * store is only synchronized once.
+     * @param messages 
+     */
+    public void saveMessages(Collection<Message> messages);
+    
     /**
      * Updates a message in the store.
      * @param message 
@@ -98,6 +128,23 @@ public interface MessageStoreController extends ControllerService {
      */
     public Optional<Message> getMessageById(String messageId);
     
+    /**
+     * Returns the Messages with the given ids. Unknown ids are not present
+     * in the returned Map.
+     * @param messageIds
+     * @return messageId -> Message
+     */
+    public Map<String, Message> getMessagesByIds(Collection<String> messageIds);
+    
+    /**
+     * Returns which of the given ids belong to a Message in the store. 
+     * Unlike {@link #getMessagesByIds(Collection)}, the Messages are not
+     * retrieved.
+     * @param messageIds
+     * @return 
+     */
+    public Set<String> existsMessageIds(Collection<String> messageIds);
+    
     /**
      * Returns all Messages in the store.
      * @param messageId
@@ -113,6 +160,43 @@ public interface MessageStoreController extends ControllerService {
      */
     public List<Message> listMessages(long from, long total);
     
+    /**
+     * Returns a page of, at most, pageSize Messages in the order they were
+     * saved. Unlike {@link #listMessages(long, long)}, the cost of retrieving 
+     * a page doesn't depend on its position.
+     * @param cursor the cursor returned with the previous page or empty for
+     * the first page.
+     * @param pageSize
+     * @return 
+     * @throws IllegalArgumentException if the cursor is not valid.
+     */
+    public Page<Message> listMessages(Optional<String> cursor, int pageSize);
+    
+    /**
+     * Returns all the Messages matching the provided query and filters, in 
+     * the order they were saved.
+     * See {@link MessageQuery} for the syntax of the query.
+     * @param query
+     * @param filters
+     * @return 
+     * @throws IllegalArgumentException if the query or filters are not valid.
+     */
+    public List<Message> queryMessages(String query, List<QueryFilter> filters);
+    
+    /**
+     * Same as {@link #queryMessages(String, List)} but returning a page of, 
+     * at most, pageSize Messages.
+     * @param query
+     * @param filters
+     * @param cursor the cursor returned with the previous page or empty for
+     * the first page.
+     * @param pageSize
+     * @return 
+     * @throws IllegalArgumentException if the query, filters or cursor are 
+     * not valid.
+     */
+    public Page<Message> queryMessages(String query, List<QueryFilter> filters, Optional<String> cursor, int pageSize);
+    
     /**
      * Associates a reference tag to a {@link MessageRecipientTuple}.
      * @param reference
@@ -120,6 +204,13 @@ public interface MessageStoreController extends ControllerService {
      */
     public void addMessageReference(String reference, MessageRecipientTuple messageRecipient);
     
+    /**
+     * Same as {@link #addMessageReference(String, MessageRecipientTuple)} 
+     * for a group of references.
+     * @param messageRecipientsByReference reference -> MessageRecipientTuple
+     */
+    public void addMessageReferences(Map<String, MessageRecipientTuple> messageRecipientsByReference);
+    
     /**
      * Returns the {@link MessageRecipientTuple} associated to a reference tag.
      * @param reference
@@ -143,4 +234,52 @@ public interface MessageStoreController extends ControllerService {
      */
     public Set<Message> getRelatedMessages(String messageId);
     
+    /**
+     * Sets the listener notified with the id of each Message the store 
+     * removes on its own (i.e. when it is evicted because of the limits of
+     * the store). Stores that never remove Messages can ignore it.
+     * @param listener 
+     */
+    public void setMessageRemovalListener(Consumer<String> listener);
+    
+    //Metrics API
+    /**
+     * Number of Messages currently in the store.
+     * @return 
+     */
+    public long getMessageCount();
+    
+    /**
+     * Estimated size, in bytes, of the Messages currently in the store.
+     * @return 
+     */
+    public long getEstimatedSize();
+    
+    /**
+     * Number of Messages evicted because of the limits of the store. Stores
+     * that never remove Messages return 0.
+     * @return 
+     */
+    public default long getEvictedMessageCount() {
+        return 0;
+    }
+    
+    /**
+     * Number of Messages removed because their TTL expired. Stores that 
+     * never remove Messages return 0.
+     * @return 
+     */
+    public default long getExpiredMessageCount() {
+        return 0;
+    }
+    
+    /**
+     * Number of distinct Messages archived by the store. Stores without an
+     * archive return 0.
+     * @return 
+     */
+    public default long getArchivedMessageCount() {
+        return 0;
+    }
+    
 }
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.controller.user;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnDisabled;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.socraticgrid.hl7.services.uc.model.UserContactInfo;
+
+/**
+ * UserContactInfoResolverController that caches the results of another
+ * resolver (i.e. the LDAP one).
+ *
+ * The cache is a LRU bounded by number of entries. Entries expire after a
+ * TTL. Unknown users are cached too, using their own (usually shorter)
+ * TTL, so a misspelled recipient doesn't hit the backend on every message.
+ * Concurrent lookups of the same user are coalesced: only one of them
+ * calls the backend resolver and the others wait for its result.
+ *
+ * @author esteban
+ */
+@Tags({"UCS", "user", "cache"})
+@CapabilityDescription("Caches the UserContactInfo resolved by another UserContactInfoResolverController.")
+public class CachingUserContactInfoResolverControllerImpl extends AbstractControllerService implements UserContactInfoResolverController {
+
+    public static final PropertyDescriptor USER_CONTACT_INFO_RESOLVER_IMPL = new PropertyDescriptor.Builder()
+            .name("UserContactInfoController")
+            .description("The UserContactInfoResolverController whose results are cached.")
+            .required(true)
+            .identifiesControllerService(UserContactInfoResolverController.class)
+            .build();
+
+    public static final PropertyDescriptor MAX_ENTRIES = new PropertyDescriptor.Builder()
+            .name("Max Entries")
+            .description("The maximum number of users (known or unknown) kept in the cache. When exceeded, the least recently used user is evicted.")
+            .required(true)
+            .defaultValue("10000")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor TTL = new PropertyDescriptor.Builder()
+            .name("TTL")
+            .description("How long a resolved user is kept in the cache, i.e. '10 mins'.")
+            .required(true)
+            .defaultValue("10 mins")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor UNKNOWN_USER_TTL = new PropertyDescriptor.Builder()
+            .name("Unknown User TTL")
+            .description("How long a user that couldn't be resolved is kept in the cache, i.e. '1 min'. '0 secs' disables the caching of unknown users.")
+            .required(true)
+            .defaultValue("1 min")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    private static class CacheEntry {
+
+        //null for unknown users.
+        private final UserContactInfo userContactInfo;
+        private final long expiration;
+
+        public CacheEntry(UserContactInfo userContactInfo, long expiration) {
+            this.userContactInfo = userContactInfo;
+            this.expiration = expiration;
+        }
+    }
+
+    private UserContactInfoResolverController resolver;
+    private volatile int maxEntries = 10000;
+    private long ttl;
+    private long unknownUserTTL;
+    private Clock clock = Clock.systemUTC();
+
+    //Access ordered: the eldest entry is the least recently used one.
+    //Guarded by itself.
+    private final LinkedHashMap<String, CacheEntry> cache = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            if (size() > maxEntries) {
+                evictionCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    //userId -> lookup being performed by another thread.
+    private final Map<String, CompletableFuture<UserContactInfo>> pendingLookups = new ConcurrentHashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong loadTime = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        final List<PropertyDescriptor> descriptors = new ArrayList<>();
+        descriptors.add(USER_CONTACT_INFO_RESOLVER_IMPL);
+        descriptors.add(MAX_ENTRIES);
+        descriptors.add(TTL);
+        descriptors.add(UNKNOWN_USER_TTL);
+        return descriptors;
+    }
+
+    @OnEnabled
+    public void onEnabled(final ConfigurationContext context) throws Exception {
+        this.resolver = context.getProperty(USER_CONTACT_INFO_RESOLVER_IMPL).asControllerService(UserContactInfoResolverController.class);
+        this.maxEntries = context.getProperty(MAX_ENTRIES).asInteger();
+        this.ttl = context.getProperty(TTL).asTimePeriod(TimeUnit.MILLISECONDS);
+        this.unknownUserTTL = context.getProperty(UNKNOWN_USER_TTL).asTimePeriod(TimeUnit.MILLISECONDS);
+        this.invalidateAll();
+    }
+
+    @OnDisabled
+    public void onDisabled() {
+        this.invalidateAll();
+    }
+
+    @Override
+    public UserContactInfo resolveUserContactInfo(String userId) {
+        return this.resolveUserContactInfos(Collections.singleton(userId)).get(userId);
+    }
+
+    /**
+     * Users not found in the cache are resolved using a single call to the
+     * backend resolver. Users already being resolved by another thread are
+     * not resolved again: their result is awaited instead.
+     * @param userIds
+     * @return
+     */
+    @Override
+    public Map<String, UserContactInfo> resolveUserContactInfos(Collection<String> userIds) {
+        Map<String, UserContactInfo> result = new HashMap<>();
+        Map<String, CompletableFuture<UserContactInfo>> ownLookups = new HashMap<>();
+        Map<String, CompletableFuture<UserContactInfo>> otherLookups = new HashMap<>();
+
+        long now = clock.millis();
+        for (String userId : userIds) {
+            if (userId == null || result.containsKey(userId) || ownLookups.containsKey(userId) || otherLookups.containsKey(userId)) {
+                continue;
+            }
+
+            CacheEntry entry = this.getEntry(userId, now);
+            if (entry != null) {
+                hitCount.incrementAndGet();
+                if (entry.userContactInfo != null) {
+                    result.put(userId, entry.userContactInfo);
+                }
+                continue;
+            }
+
+            missCount.incrementAndGet();
+            CompletableFuture<UserContactInfo> lookup = new CompletableFuture<>();
+            CompletableFuture<UserContactInfo> pendingLookup = pendingLookups.putIfAbsent(userId, lookup);
+            if (pendingLookup == null) {
+                ownLookups.put(userId, lookup);
+            } else {
+                otherLookups.put(userId, pendingLookup);
+            }
+        }
+
+        if (!ownLookups.isEmpty()) {
+            result.putAll(this.load(ownLookups));
+        }
+
+        for (Map.Entry<String, CompletableFuture<UserContactInfo>> lookup : otherLookups.entrySet()) {
+            UserContactInfo userContactInfo = this.await(lookup.getValue());
+            if (userContactInfo != null) {
+                result.put(lookup.getKey(), userContactInfo);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Resolves the users of the given lookups using the backend resolver.
+     * The results are cached and used to complete the lookups.
+     */
+    private Map<String, UserContactInfo> load(Map<String, CompletableFuture<UserContactInfo>> lookups) {
+        Map<String, UserContactInfo> loaded;
+        long start = System.nanoTime();
+        try {
+            loaded = lookups.size() == 1
+                    ? this.loadOne(lookups.keySet().iterator().next())
+                    : resolver.resolveUserContactInfos(lookups.keySet());
+        } catch (RuntimeException ex) {
+            //failures are not cached.
+            lookups.forEach((userId, lookup) -> {
+                pendingLookups.remove(userId, lookup);
+                lookup.completeExceptionally(ex);
+            });
+            throw ex;
+        } finally {
+            loadCount.incrementAndGet();
+            loadTime.addAndGet(System.nanoTime() - start);
+        }
+
+        long now = clock.millis();
+        synchronized (cache) {
+            for (String userId : lookups.keySet()) {
+                UserContactInfo userContactInfo = loaded.get(userId);
+                if (userContactInfo != null) {
+                    cache.put(userId, new CacheEntry(userContactInfo, now + ttl));
+                } else if (unknownUserTTL > 0) {
+                    cache.put(userId, new CacheEntry(null, now + unknownUserTTL));
+                }
+            }
+        }
+
+        lookups.forEach((userId, lookup) -> {
+            pendingLookups.remove(userId, lookup);
+            lookup.complete(loaded.get(userId));
+        });
+
+        return loaded;
+    }
+
+    private Map<String, UserContactInfo> loadOne(String userId) {
+        UserContactInfo userContactInfo = resolver.resolveUserContactInfo(userId);
+        return userContactInfo == null ? Collections.emptyMap() : Collections.singletonMap(userId, userContactInfo);
+    }
+
+    private UserContactInfo await(CompletableFuture<UserContactInfo> lookup) {
+        try {
+            return lookup.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    private CacheEntry getEntry(String userId, long now) {
+        synchronized (cache) {
+            CacheEntry entry = cache.get(userId);
+            if (entry != null && entry.expiration <= now) {
+                cache.remove(userId);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Removes a user from the cache, i.e. because its contact information
+     * changed.
+     * @param userId
+     */
+    public void invalidate(String userId) {
+        synchronized (cache) {
+            cache.remove(userId);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Number of users (known or unknown) in the cache, including expired
+     * entries not yet removed.
+     * @return
+     */
+    public int getCachedEntryCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Number of lookups answered by the cache, including unknown users.
+     * @return
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Number of lookups not answered by the cache. Coalesced lookups are
+     * also counted as misses.
+     * @return
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Number of calls to the backend resolver.
+     * @return
+     */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    /**
+     * Total time spent in calls to the backend resolver.
+     * @param unit
+     * @return
+     */
+    public long getTotalLoadTime(TimeUnit unit) {
+        return unit.convert(loadTime.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Number of entries evicted because of the Max Entries limit.
+     * @return
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Returns cachedEntryCount, hitCount, missCount, loadCount, 
+     * totalLoadTimeMillis and evictionCount.
+     * @return
+     */
+    @Override
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("cachedEntryCount", getCachedEntryCount());
+        metrics.put("hitCount", getHitCount());
+        metrics.put("missCount", getMissCount());
+        metrics.put("loadCount", getLoadCount());
+        metrics.put("totalLoadTimeMillis", getTotalLoadTime(TimeUnit.MILLISECONDS));
+        metrics.put("evictionCount", getEvictionCount());
+        return metrics;
+    }
+
+    void setClock(Clock clock) {
+        this.clock = clock;
+    }
+}
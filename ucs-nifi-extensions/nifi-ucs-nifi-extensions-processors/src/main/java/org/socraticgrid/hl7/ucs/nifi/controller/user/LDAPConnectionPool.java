@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.controller.user;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapConnectionConfig;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+
+/**
+ * Bounded pool of LDAP connections. Connections are bound when they are
+ * created and reused afterwards, so there is a single bind per connection
+ * instead of one per search. Connections that failed or got disconnected
+ * are discarded and replaced by new ones on demand.
+ *
+ * @author esteban
+ */
+class LDAPConnectionPool implements Closeable {
+
+    private final LdapConnectionConfig config;
+    private final long timeout;
+    private final Semaphore permits;
+    private final BlockingQueue<LdapConnection> idleConnections = new LinkedBlockingQueue<>();
+    private volatile boolean closed;
+
+    /**
+     * @param config host, port and bind credentials of the connections.
+     * @param maxConnections max. number of connections (idle or in use).
+     * @param timeout max. time, in milliseconds, to wait for a connection
+     * and for the response of each operation.
+     */
+    public LDAPConnectionPool(LdapConnectionConfig config, int maxConnections, long timeout) {
+        this.config = config;
+        this.timeout = timeout;
+        this.permits = new Semaphore(maxConnections, true);
+    }
+
+    /**
+     * Returns an idle connection or opens a new one. The connection must
+     * be given back using {@link #release(LdapConnection, boolean)}.
+     * @return a bound connection.
+     * @throws LdapException if a new connection couldn't be opened or bound.
+     * @throws TimeoutException if all the connections are in use for longer
+     * than the timeout.
+     * @throws InterruptedException
+     */
+    public LdapConnection borrow() throws LdapException, TimeoutException, InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("The LDAP connection pool is closed");
+        }
+        if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("No LDAP connection available after " + timeout + "ms");
+        }
+
+        LdapConnection connection;
+        while ((connection = idleConnections.poll()) != null) {
+            if (connection.isConnected() && connection.isAuthenticated()) {
+                return connection;
+            }
+            this.closeQuietly(connection);
+        }
+
+        try {
+            return this.open();
+        } catch (LdapException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * @param connection a connection obtained from {@link #borrow()}.
+     * @param reusable false if the connection failed and must be discarded.
+     */
+    public void release(LdapConnection connection, boolean reusable) {
+        if (reusable && !closed && connection.isConnected()) {
+            idleConnections.offer(connection);
+        } else {
+            this.closeQuietly(connection);
+        }
+        permits.release();
+
+        if (closed) {
+            //close() could have run while the connection was in use.
+            this.closeIdleConnections();
+        }
+    }
+
+    private LdapConnection open() throws LdapException {
+        LdapConnection connection = new LdapNetworkConnection(config);
+        connection.setTimeOut(timeout);
+        try {
+            connection.connect();
+            connection.bind(config.getName(), config.getCredentials());
+            return connection;
+        } catch (LdapException | RuntimeException ex) {
+            this.closeQuietly(connection);
+            throw ex;
+        }
+    }
+
+    public int getIdleConnectionCount() {
+        return idleConnections.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        this.closeIdleConnections();
+    }
+
+    private void closeIdleConnections() {
+        LdapConnection connection;
+        while ((connection = idleConnections.poll()) != null) {
+            this.closeQuietly(connection);
+        }
+    }
+
+    private void closeQuietly(LdapConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException | RuntimeException ex) {
+            //nothing we can do.
+        }
+    }
+}
@@ -17,13 +17,25 @@ package org.socraticgrid.hl7.ucs.nifi.controller.user;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.directory.api.ldap.model.cursor.SearchCursor;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.message.Response;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
 import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
@@ -32,7 +44,7 @@ import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.ldap.client.api.LdapConnection;
 import org.apache.directory.ldap.client.api.LdapConnectionConfig;
-import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.apache.nifi.annotation.lifecycle.OnDisabled;
 import org.apache.nifi.annotation.lifecycle.OnEnabled;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.controller.AbstractControllerService;
@@ -45,6 +57,11 @@ import org.socraticgrid.hl7.services.uc.model.UserContactInfo;
  * This is just a LDAP implementation of UserContactInfoResolverController. This
  * class gets user information from LDAP server.
  *
+ * Connections are taken from a bounded pool and bound only once. Groups of
+ * users are resolved using a single '(|(sn=a)(sn=b)...)' search for each
+ * 'ldap-search-batch-size' users. Lookups can also be performed
+ * asynchronously: every LDAP operation is limited by 'ldap-timeout'.
+ *
  * @author pavan
  */
 public class LDAPUserContactInfoResolverControllerImpl extends AbstractControllerService implements
@@ -59,6 +76,7 @@ public class LDAPUserContactInfoResolverControllerImpl extends AbstractControlle
     public static final String SERVICE_TYPE_EMAIL = "EMAIL";
     public static final String SERVICE_TYPE_CHAT = "CHAT";
     public static final String SERVICE_TYPE_TEXT_TO_VOICE = "TEXT-TO-VOICE";
+    public static final String SEARCH_ATTR_SN = "sn";
     public static final String SEARCH_ATTR_MAIL = "mail";
     public static final String SEARCH_ATTR_HOMEPHONE = "homephone";
     public static final String SEARCH_ATTR_CHAT = "chat";
@@ -99,6 +117,38 @@ public class LDAPUserContactInfoResolverControllerImpl extends AbstractControlle
             .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
             .build();
 
+    public static final PropertyDescriptor LDAP_MAX_CONNECTIONS = new PropertyDescriptor.Builder()
+            .name("ldap-max-connections")
+            .description("Max. number of simultaneous connections to the Ldap server. Connections are reused between lookups.")
+            .required(true)
+            .defaultValue("4")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor LDAP_SEARCH_BATCH_SIZE = new PropertyDescriptor.Builder()
+            .name("ldap-search-batch-size")
+            .description("Max. number of users looked up in a single Ldap search.")
+            .required(true)
+            .defaultValue("50")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor LDAP_TIMEOUT = new PropertyDescriptor.Builder()
+            .name("ldap-timeout")
+            .description("Max. time to wait for a connection to the Ldap server or for the result of a search, i.e. '10 secs'.")
+            .required(true)
+            .defaultValue("10 secs")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    private int searchBatchSize = 50;
+    private long timeout;
+    private Dn systemDn;
+    private LDAPConnectionPool connectionPool;
+    private ExecutorService executor;
+
+    private final AtomicLong searchCount = new AtomicLong();
+
     @Override
     protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
         final List<PropertyDescriptor> descriptors = new ArrayList<>();
@@ -107,6 +157,9 @@ public class LDAPUserContactInfoResolverControllerImpl extends AbstractControlle
         descriptors.add(LDAP_BIND_DN);
         descriptors.add(LDAP_BASE_DN);
         descriptors.add(LDAP_PWD);
+        descriptors.add(LDAP_MAX_CONNECTIONS);
+        descriptors.add(LDAP_SEARCH_BATCH_SIZE);
+        descriptors.add(LDAP_TIMEOUT);
         return descriptors;
     }
 
@@ -117,66 +170,253 @@ public class LDAPUserContactInfoResolverControllerImpl extends AbstractControlle
         ldapBindDn = context.getProperty(LDAP_BIND_DN).getValue();
         ldapBaseDn = context.getProperty(LDAP_BASE_DN).getValue();
         ldapPwd = context.getProperty(LDAP_PWD).getValue();
-    }
+        searchBatchSize = context.getProperty(LDAP_SEARCH_BATCH_SIZE).asInteger();
+        timeout = context.getProperty(LDAP_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS);
+        int maxConnections = context.getProperty(LDAP_MAX_CONNECTIONS).asInteger();
 
-    @Override
-    public UserContactInfo resolveUserContactInfo(String userId) {
-        return loadUserContactInfo(userId);
-    }
-
-    private UserContactInfo loadUserContactInfo(String userId) {
-        UserContactInfo uci = null;
+        systemDn = new Dn(ldapBaseDn);
 
         LdapConnectionConfig config = new LdapConnectionConfig();
         config.setLdapHost(ldapHost);
         config.setLdapPort(ldapPort);
         config.setName(ldapBindDn);
         config.setCredentials(ldapPwd);
+        connectionPool = new LDAPConnectionPool(config, maxConnections, timeout);
+
+        executor = Executors.newFixedThreadPool(maxConnections, r -> {
+            Thread t = new Thread(r, "ucs-ldap-resolver");
+            t.setDaemon(true);
+            return t;
+        });
+    }
 
+    @OnDisabled
+    public void onDisabled() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (connectionPool != null) {
+            connectionPool.close();
+            connectionPool = null;
+        }
+    }
+
+    @Override
+    public UserContactInfo resolveUserContactInfo(String userId) {
+        return resolveUserContactInfos(Collections.singleton(userId)).get(userId);
+    }
+
+    /**
+     * Groups that fit in a single search are resolved in the calling
+     * thread. Bigger groups are split and searched in parallel.
+     * @throws IllegalStateException if the Ldap server couldn't be queried.
+     */
+    @Override
+    public Map<String, UserContactInfo> resolveUserContactInfos(Collection<String> userIds) {
+        List<List<String>> batches = this.split(userIds);
+        if (batches.isEmpty()) {
+            return new HashMap<>();
+        }
+        if (batches.size() == 1) {
+            return this.search(batches.get(0));
+        }
         try {
-            Dn systemDn = new Dn(ldapBaseDn);
-            LdapConnection connection = new LdapNetworkConnection(config);
-            connection.connect();
+            return this.resolveUserContactInfosAsync(userIds).join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Resolves a user without blocking the calling thread.
+     * @param userId
+     * @return a future completed with the UserContactInfo of the user, or
+     * with null if the user is unknown.
+     */
+    public CompletableFuture<UserContactInfo> resolveUserContactInfoAsync(String userId) {
+        return this.resolveUserContactInfosAsync(Collections.singleton(userId))
+                .thenApply(result -> result.get(userId));
+    }
+
+    /**
+     * Resolves a group of users without blocking the calling thread. The
+     * searches are performed by a dedicated executor, using up to
+     * 'ldap-max-connections' connections in parallel. The returned future
+     * is completed exceptionally if any of the searches fails or times out.
+     * @param userIds
+     * @return a future completed with the users that could be resolved.
+     */
+    public CompletableFuture<Map<String, UserContactInfo>> resolveUserContactInfosAsync(Collection<String> userIds) {
+        ExecutorService currentExecutor = executor;
+        if (currentExecutor == null) {
+            CompletableFuture<Map<String, UserContactInfo>> result = new CompletableFuture<>();
+            result.completeExceptionally(new IllegalStateException("The Ldap resolver is not enabled"));
+            return result;
+        }
+
+        List<CompletableFuture<Map<String, UserContactInfo>>> searches = new ArrayList<>();
+        for (List<String> batch : this.split(userIds)) {
+            searches.add(CompletableFuture.supplyAsync(() -> this.search(batch), currentExecutor));
+        }
+
+        return CompletableFuture.allOf(searches.toArray(new CompletableFuture<?>[searches.size()]))
+                .thenApply(v -> {
+                    Map<String, UserContactInfo> result = new HashMap<>();
+                    searches.forEach(search -> result.putAll(search.join()));
+                    return result;
+                });
+    }
+
+    private List<List<String>> split(Collection<String> userIds) {
+        List<String> distinctUserIds = new ArrayList<>(new LinkedHashSet<>(userIds));
+        distinctUserIds.remove(null);
+
+        List<List<String>> batches = new ArrayList<>();
+        for (int i = 0; i < distinctUserIds.size(); i += searchBatchSize) {
+            batches.add(distinctUserIds.subList(i, Math.min(i + searchBatchSize, distinctUserIds.size())));
+        }
+        return batches;
+    }
+
+    /**
+     * Looks up all the given users in a single search.
+     */
+    private Map<String, UserContactInfo> search(List<String> userIds) {
+        LDAPConnectionPool pool = connectionPool;
+        if (pool == null) {
+            throw new IllegalStateException("The Ldap resolver is not enabled");
+        }
+
+        //users are matched case-insensitively, like 'sn' values are.
+        Map<String, Set<String>> userIdsBySn = new HashMap<>();
+        for (String userId : userIds) {
+            userIdsBySn.computeIfAbsent(userId.toLowerCase(Locale.ROOT), k -> new HashSet<>()).add(userId);
+        }
+
+        Map<String, UserContactInfo> result = new HashMap<>();
+        LdapConnection connection = null;
+        boolean reusable = false;
+        try {
+            connection = pool.borrow();
+
             SearchRequest searchRequest = new SearchRequestImpl();
-            String filter = "(sn=" + userId + ")";
             searchRequest.setBase(systemDn);
-            searchRequest.setFilter(filter);
+            searchRequest.setFilter(this.createFilter(userIds));
             searchRequest.setScope(SearchScope.SUBTREE);
             searchRequest.setTypesOnly(false);
-            searchRequest.addAttributes(SEARCH_ATTR_MAIL,
+            searchRequest.setTimeLimit((int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(timeout)));
+            searchRequest.addAttributes(SEARCH_ATTR_SN, SEARCH_ATTR_MAIL,
                     SEARCH_ATTR_HOMEPHONE, SEARCH_ATTR_CHAT, SEARCH_ATTR_VOIP);
+
+            searchCount.incrementAndGet();
             SearchCursor cursor = connection.search(searchRequest);
-            uci = new UserContactInfo();
-            uci.setName(userId);
-            while (cursor.next()) {
-                Response resp = cursor.get();
-                // process the SearchResultEntry
-                if (resp instanceof SearchResultEntry) {
-                    Entry resultEntry = ((SearchResultEntry) resp).getEntry();
-                    Collection<Attribute> attr = resultEntry.getAttributes();
-                    Map<String, PhysicalAddress> addressesByType = new HashMap<>();
-                    for (Attribute attribute : attr) {
-
-                        if (SEARCH_ATTR_MAIL.equalsIgnoreCase(attribute.getId())) {
-                            addressesByType.put(SERVICE_TYPE_EMAIL, new PhysicalAddress(SERVICE_TYPE_EMAIL, attribute.getString()));
-                        } else if (SEARCH_ATTR_HOMEPHONE.equalsIgnoreCase(attribute.getId())) {
-                            addressesByType.put(SERVICE_TYPE_SMS, new PhysicalAddress(SERVICE_TYPE_SMS, attribute.getString()));
-                        } else if (SEARCH_ATTR_CHAT.equalsIgnoreCase(attribute.getId())) {
-                            addressesByType.put(SERVICE_TYPE_CHAT, new PhysicalAddress(SERVICE_TYPE_CHAT, attribute.getString()));
-                        } else if (SEARCH_ATTR_VOIP.equalsIgnoreCase(attribute.getId())) {
-                            addressesByType.put(SERVICE_TYPE_TEXT_TO_VOICE, new PhysicalAddress(SERVICE_TYPE_TEXT_TO_VOICE, attribute.getString()));
-                        }
-                        uci.setAddressesByType(addressesByType);
-                        uci.setPreferredAddress(addressesByType.values().iterator().next());
+            try {
+                while (cursor.next()) {
+                    Response resp = cursor.get();
+                    // process the SearchResultEntry
+                    if (resp instanceof SearchResultEntry) {
+                        this.processEntry(((SearchResultEntry) resp).getEntry(), userIdsBySn, result);
                     }
                 }
+            } finally {
+                cursor.close();
+            }
+            reusable = true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while resolving users " + userIds, ex);
+        } catch (Exception ex) {
+            getLogger().error("Error resolving users {} from Ldap server {}:{}", new Object[]{userIds, ldapHost, ldapPort}, ex);
+            throw new IllegalStateException("Error resolving users " + userIds + " from Ldap server", ex);
+        } finally {
+            if (connection != null) {
+                pool.release(connection, reusable);
+            }
+        }
+        return result;
+    }
+
+    private void processEntry(Entry resultEntry, Map<String, Set<String>> userIdsBySn, Map<String, UserContactInfo> result) {
+        Set<String> userIds = new HashSet<>();
+        Map<String, PhysicalAddress> addressesByType = new HashMap<>();
+        for (Attribute attribute : resultEntry.getAttributes()) {
+            if (SEARCH_ATTR_SN.equalsIgnoreCase(attribute.getId())) {
+                for (Value<?> value : attribute) {
+                    userIds.addAll(userIdsBySn.getOrDefault(value.getString().toLowerCase(Locale.ROOT), Collections.emptySet()));
+                }
+            } else if (SEARCH_ATTR_MAIL.equalsIgnoreCase(attribute.getId())) {
+                addressesByType.put(SERVICE_TYPE_EMAIL, new PhysicalAddress(SERVICE_TYPE_EMAIL, attribute.getString()));
+            } else if (SEARCH_ATTR_HOMEPHONE.equalsIgnoreCase(attribute.getId())) {
+                addressesByType.put(SERVICE_TYPE_SMS, new PhysicalAddress(SERVICE_TYPE_SMS, attribute.getString()));
+            } else if (SEARCH_ATTR_CHAT.equalsIgnoreCase(attribute.getId())) {
+                addressesByType.put(SERVICE_TYPE_CHAT, new PhysicalAddress(SERVICE_TYPE_CHAT, attribute.getString()));
+            } else if (SEARCH_ATTR_VOIP.equalsIgnoreCase(attribute.getId())) {
+                addressesByType.put(SERVICE_TYPE_TEXT_TO_VOICE, new PhysicalAddress(SERVICE_TYPE_TEXT_TO_VOICE, attribute.getString()));
+            }
+        }
+
+        for (String userId : userIds) {
+            UserContactInfo uci = new UserContactInfo();
+            uci.setName(userId);
+            uci.setAddressesByType(new HashMap<>(addressesByType));
+            if (!addressesByType.isEmpty()) {
+                uci.setPreferredAddress(uci.getAddressesByType().values().iterator().next());
             }
-            cursor.close();
-            connection.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+            result.put(userId, uci);
         }
-        return uci;
+    }
+
+    /**
+     * @return '(sn=a)' for a single user, '(|(sn=a)(sn=b)...)' for many.
+     */
+    String createFilter(Collection<String> userIds) {
+        StringBuilder filter = new StringBuilder();
+        for (String userId : userIds) {
+            filter.append("(").append(SEARCH_ATTR_SN).append("=").append(this.escapeFilterValue(userId)).append(")");
+        }
+        return userIds.size() == 1 ? filter.toString() : "(|" + filter + ")";
+    }
+
+    /**
+     * Escapes the special characters of a filter value (RFC 4515), so a
+     * userId can't alter the filter it is part of.
+     */
+    private String escapeFilterValue(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '*':
+                    escaped.append("\\2a");
+                    break;
+                case '(':
+                    escaped.append("\\28");
+                    break;
+                case ')':
+                    escaped.append("\\29");
+                    break;
+                case '\\':
+                    escaped.append("\\5c");
+                    break;
+                case '\0':
+                    escaped.append("\\00");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Number of searches sent to the Ldap server.
+     * @return
+     */
+    public long getSearchCount() {
+        return searchCount.get();
     }
 
 }
@@ -18,6 +18,7 @@ package org.socraticgrid.hl7.ucs.nifi.controller.user;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -87,6 +88,15 @@ public class MOCKUserContactInfoResolverControllerImpl extends AbstractControlle
         return data.get(userId);
     }
     
+    @Override
+    public Map<String, UserContactInfo> resolveUserContactInfos(Collection<String> userIds) {
+        Map<String, UserContactInfo> result = new HashMap<>();
+        userIds.stream()
+                .filter(data::containsKey)
+                .forEach(userId -> result.put(userId, data.get(userId)));
+        return result;
+    }
+    
     private UserContactInfo mockUserContactInfo(String name, String email, String phoneNumber, String chatHandle, String textToVoiceNumber){
         Map<String, PhysicalAddress> addressesByType = new HashMap<>();
         
@@ -15,6 +15,9 @@
  */
 package org.socraticgrid.hl7.ucs.nifi.controller.user;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
 
@@ -29,4 +32,21 @@ import org.socraticgrid.hl7.services.uc.model.UserContactInfo;
 @CapabilityDescription("")
 public interface UserContactInfoResolverController extends ControllerService {
     public UserContactInfo resolveUserContactInfo(String userId);
+    
+    /**
+     * Resolves a group of users at once. Users that couldn't be resolved
+     * are not present in the returned Map.
+     * @param userIds
+     * @return userId -> UserContactInfo
+     */
+    public Map<String, UserContactInfo> resolveUserContactInfos(Collection<String> userIds);
+    
+    /**
+     * Metrics of this resolver (i.e. cache hits and misses) by name. 
+     * Resolvers without metrics return an empty Map.
+     * @return metric name -> value
+     */
+    public default Map<String, Number> getMetrics() {
+        return Collections.emptyMap();
+    }
 }
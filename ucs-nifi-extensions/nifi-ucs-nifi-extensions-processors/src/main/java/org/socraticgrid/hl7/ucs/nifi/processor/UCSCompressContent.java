@@ -0,0 +1,217 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.processor;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.commons.io.IOUtils;
+import org.apache.nifi.annotation.behavior.EventDriven;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.logging.ProcessorLog;
+import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.util.ObjectHolder;
+import org.socraticgrid.hl7.services.uc.exceptions.ExceptionType;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.ContentEncoding;
+
+/**
+ *
+ * @author esteban
+ */
+@EventDriven
+@SupportsBatching
+@Tags({"UCS", "compression", "gzip", "deflate"})
+@CapabilityDescription("Compresses or decompresses the content of the FlowFiles exchanged with UCS clients. "
+        + "In 'compress' mode, only FlowFiles bigger than the size threshold are compressed and the applied encoding is set in the "
+        + "'ucs.content.encoding' attribute (to be sent as the 'Content-Encoding' header). "
+        + "In 'decompress' mode, the encoding is taken from the 'ucs.content.encoding' attribute or, if not present, guessed from the content; "
+        + "uncompressed FlowFiles are left untouched.")
+public class UCSCompressContent extends AbstractProcessor {
+
+    public static final String MODE_COMPRESS = "compress";
+    public static final String MODE_DECOMPRESS = "decompress";
+
+    public static final PropertyDescriptor MODE = new PropertyDescriptor.Builder()
+            .name("Mode")
+            .description("Whether the content of the FlowFiles is compressed or decompressed.")
+            .required(true)
+            .allowableValues(MODE_COMPRESS, MODE_DECOMPRESS)
+            .defaultValue(MODE_COMPRESS)
+            .build();
+
+    public static final PropertyDescriptor COMPRESSION_FORMAT = new PropertyDescriptor.Builder()
+            .name("Compression Format")
+            .description("The compression applied in 'compress' mode.")
+            .required(true)
+            .allowableValues(ContentEncoding.GZIP.getName(), ContentEncoding.DEFLATE.getName())
+            .defaultValue(ContentEncoding.GZIP.getName())
+            .build();
+
+    public static final PropertyDescriptor SIZE_THRESHOLD = new PropertyDescriptor.Builder()
+            .name("Size Threshold")
+            .description("In 'compress' mode, FlowFiles smaller than this size are not compressed.")
+            .required(true)
+            .defaultValue("1 KB")
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor ACCEPT_ENCODING_ATTRIBUTE = new PropertyDescriptor.Builder()
+            .name("Accept-Encoding Attribute")
+            .description("The attribute holding the 'Accept-Encoding' header sent by the client (i.e. 'http.headers.Accept-Encoding'). "
+                    + "If set, in 'compress' mode only the FlowFiles of clients accepting the compression format are compressed.")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final String CONTENT_ENCODING_ATTRIBUTE = "ucs.content.encoding";
+
+    public static final Relationship REL_SUCCESS = new Relationship.Builder().name("success").description("FlowFiles are routed to this relationship after being (de)compressed or if they didn't need to be.").build();
+    public static final Relationship REL_FAILURE = new Relationship.Builder().name("failure").description("FlowFiles whose content couldn't be (de)compressed are routed to this relationship.").build();
+
+    private final AtomicReference<Set<Relationship>> relationships = new AtomicReference<>();
+    private List<PropertyDescriptor> properties;
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        final Set<Relationship> relationships = new HashSet<>();
+        relationships.add(REL_SUCCESS);
+        relationships.add(REL_FAILURE);
+        this.relationships.set(Collections.unmodifiableSet(relationships));
+
+        final List<PropertyDescriptor> properties = new ArrayList<>();
+        properties.add(MODE);
+        properties.add(COMPRESSION_FORMAT);
+        properties.add(SIZE_THRESHOLD);
+        properties.add(ACCEPT_ENCODING_ATTRIBUTE);
+        this.properties = Collections.unmodifiableList(properties);
+    }
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return properties;
+    }
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return relationships.get();
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) {
+        FlowFile flowFile = session.get();
+        if (flowFile == null) {
+            return;
+        }
+
+        final ProcessorLog logger = getLogger();
+
+        try {
+            if (MODE_COMPRESS.equals(context.getProperty(MODE).getValue())) {
+                flowFile = this.compress(context, session, flowFile);
+            } else {
+                flowFile = this.decompress(session, flowFile);
+            }
+        } catch (ProcessException | IllegalArgumentException ex) {
+            logger.error("Error (de)compressing FlowFile {}. Routing to {}.", new Object[]{flowFile, REL_FAILURE}, ex);
+            UCSCreateException.routeFlowFileToException(
+                    context,
+                    session,
+                    logger,
+                    flowFile,
+                    REL_FAILURE,
+                    null,
+                    "Error (de)compressing FlowFile: " + ex.getMessage(),
+                    ExceptionType.InvalidInput,
+                    null,
+                    null);
+            return;
+        }
+
+        session.transfer(flowFile, REL_SUCCESS);
+    }
+
+    private FlowFile compress(final ProcessContext context, final ProcessSession session, FlowFile flowFile) {
+        final ProcessorLog logger = getLogger();
+
+        ContentEncoding current = ContentEncoding.fromName(flowFile.getAttribute(CONTENT_ENCODING_ATTRIBUTE));
+        if (current != ContentEncoding.IDENTITY) {
+            logger.debug("FlowFile {} is already compressed using {}.", new Object[]{flowFile, current});
+            return flowFile;
+        }
+
+        final ContentEncoding format = ContentEncoding.fromName(context.getProperty(COMPRESSION_FORMAT).getValue());
+        int threshold = context.getProperty(SIZE_THRESHOLD).asDataSize(DataUnit.B).intValue();
+        if (format.forSize((int) Math.min(flowFile.getSize(), Integer.MAX_VALUE), threshold) == ContentEncoding.IDENTITY) {
+            return flowFile;
+        }
+
+        String acceptEncodingAttribute = context.getProperty(ACCEPT_ENCODING_ATTRIBUTE).getValue();
+        if (acceptEncodingAttribute != null && !format.isAcceptedBy(flowFile.getAttribute(acceptEncodingAttribute))) {
+            logger.debug("The client of FlowFile {} doesn't accept {}.", new Object[]{flowFile, format});
+            return flowFile;
+        }
+
+        long originalSize = flowFile.getSize();
+        flowFile = session.write(flowFile, (final InputStream in, final OutputStream out) -> {
+            try (OutputStream encoded = format.encode(out)) {
+                IOUtils.copy(in, encoded);
+            }
+        });
+        flowFile = session.putAttribute(flowFile, CONTENT_ENCODING_ATTRIBUTE, format.getName());
+        logger.debug("FlowFile {} compressed using {}: {} -> {} bytes.", new Object[]{flowFile, format, originalSize, flowFile.getSize()});
+        return flowFile;
+    }
+
+    private FlowFile decompress(final ProcessSession session, FlowFile flowFile) {
+        ContentEncoding encoding = ContentEncoding.fromName(flowFile.getAttribute(CONTENT_ENCODING_ATTRIBUTE));
+        if (encoding == ContentEncoding.IDENTITY) {
+            final ObjectHolder<ContentEncoding> detected = new ObjectHolder<>(ContentEncoding.IDENTITY);
+            session.read(flowFile, (final InputStream in) -> {
+                byte[] prefix = new byte[2];
+                detected.set(ContentEncoding.detect(prefix, IOUtils.read(in, prefix)));
+            });
+            encoding = detected.get();
+        }
+
+        if (encoding == ContentEncoding.IDENTITY) {
+            return flowFile;
+        }
+
+        final ContentEncoding format = encoding;
+        flowFile = session.write(flowFile, (final InputStream in, final OutputStream out) -> {
+            try (InputStream decoded = format.decode(in)) {
+                IOUtils.copy(decoded, out);
+            }
+        });
+        return session.removeAttribute(flowFile, CONTENT_ENCODING_ATTRIBUTE);
+    }
+}
@@ -200,7 +200,7 @@ public class UCSConvertChatResponseToMessage extends AbstractProcessor {
                 @Override
                 public void process(final OutputStream out) throws IOException {
                     try {
-                        out.write(MessageSerializer.serializeMessageWrapper(new MessageWrapper(ucsMessage)).getBytes());
+                        MessageSerializer.serializeMessageWrapper(new MessageWrapper(ucsMessage), out);
                     } catch (MessageSerializationException ex) {
                         //should never happen
                         errorHolder.set(ex);
@@ -23,6 +23,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +33,7 @@ import java.util.UUID;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.nifi.annotation.behavior.EventDriven;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.components.PropertyDescriptor;
@@ -44,6 +46,7 @@ import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.io.InputStreamCallback;
 import org.apache.nifi.processor.io.OutputStreamCallback;
+import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.stream.io.StreamUtils;
 import org.apache.nifi.util.IntegerHolder;
 import org.apache.nifi.util.ObjectHolder;
@@ -66,6 +69,7 @@ import org.socraticgrid.hl7.ucs.nifi.controller.UCSController;
  *
  */
 @EventDriven
+@SupportsBatching
 @Tags({ "UCS", "Email", "Message" })
 @CapabilityDescription("Converts an Email response into a UCS Message. This processor"
 		+ "uses the message id in the Email subject to retrieve the message that originated this response.")
@@ -78,6 +82,14 @@ public class UCSConvertEmailResponseToMessage extends AbstractProcessor {
 			.identifiesControllerService(UCSController.class).required(true)
 			.build();
 
+	public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+			.name("Batch Size")
+			.description(
+					"The maximum number of Email responses converted in a single execution.")
+			.required(true)
+			.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+			.defaultValue("10").build();
+
 	public static final Relationship REL_SUCCESS = new Relationship.Builder()
 			.name("success").description("").build();
 	public static final Relationship REL_FAILURE = new Relationship.Builder()
@@ -101,6 +113,7 @@ public class UCSConvertEmailResponseToMessage extends AbstractProcessor {
 
 		final List<PropertyDescriptor> properties = new ArrayList<>();
 		properties.add(UCS_CONTROLLER_SERVICE);
+		properties.add(BATCH_SIZE);
 		this.properties = Collections.unmodifiableList(properties);
 	}
 
@@ -117,9 +130,8 @@ public class UCSConvertEmailResponseToMessage extends AbstractProcessor {
 	@Override
 	public void onTrigger(final ProcessContext context,
 			final ProcessSession session) {
-		final List<FlowFile> flowFiles = session.get(1);
-		boolean isMessageIdFound = true;
-		boolean isMessageFoundByMessageId = true;
+		final List<FlowFile> flowFiles = session.get(context.getProperty(
+				BATCH_SIZE).asInteger());
 		if (flowFiles.isEmpty()) {
 			return;
 		}
@@ -129,7 +141,13 @@ public class UCSConvertEmailResponseToMessage extends AbstractProcessor {
 		UCSController ucsService = context.getProperty(UCS_CONTROLLER_SERVICE)
 				.asControllerService(UCSController.class);
 
+		// Several responses in the same batch usually refer to the same
+		// original message.
+		final Map<String, Optional<Message>> originalMessages = new HashMap<>();
+
 		for (FlowFile flowFile : flowFiles) {
+			boolean isMessageIdFound = true;
+			boolean isMessageFoundByMessageId = true;
 			final ObjectHolder<Throwable> errorHolder = new ObjectHolder<>(null);
 			final byte[] buffer = new byte[10240];
 			final IntegerHolder bufferedByteCount = new IntegerHolder(0);
@@ -188,8 +206,8 @@ public class UCSConvertEmailResponseToMessage extends AbstractProcessor {
 				isMessageIdFound = false;
 			}
 
-			Optional<Message> messageById = ucsService
-					.getMessageById(messageId);
+			Optional<Message> messageById = originalMessages.computeIfAbsent(
+					messageId, id -> ucsService.getMessageById(id));
 
 			String conversationId = "";
 
@@ -244,8 +262,8 @@ public class UCSConvertEmailResponseToMessage extends AbstractProcessor {
 				@Override
 				public void process(final OutputStream out) throws IOException {
 					try {
-						out.write(MessageSerializer.serializeMessageWrapper(
-								new MessageWrapper(responseMessage)).getBytes());
+						MessageSerializer.serializeMessageWrapper(
+								new MessageWrapper(responseMessage), out);
 					} catch (MessageSerializationException ex) {
 						// should never happen
 						errorHolder.set(ex);
@@ -213,7 +213,7 @@ public class UCSConvertSMSResponseToMessage extends AbstractProcessor {
                 @Override
                 public void process(final OutputStream out) throws IOException {
                     try {
-                        out.write(MessageSerializer.serializeMessageWrapper(new MessageWrapper(responseMessage)).getBytes());
+                        MessageSerializer.serializeMessageWrapper(new MessageWrapper(responseMessage), out);
                     } catch (MessageSerializationException ex) {
                         //should never happen
                         errorHolder.set(ex);
@@ -36,6 +36,7 @@ import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.expression.AttributeExpression;
 import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.logging.ProcessorLog;
 import org.apache.nifi.processor.AbstractProcessor;
 import org.apache.nifi.processor.ProcessContext;
@@ -54,6 +55,7 @@ import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.ExceptionWrapperSerializer;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializationException;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializer;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.WrapperCodecs;
 
 /**
  *
@@ -228,7 +230,8 @@ public class UCSCreateException extends AbstractProcessor {
             @Override
             public void process(final OutputStream out) throws IOException {
                 try {
-                    out.write(ExceptionWrapperSerializer.serializeExceptionWrapper(ew).getBytes());
+                    //exceptions are sent to the clients: always use XML
+                    ExceptionWrapperSerializer.serializeExceptionWrapper(ew, out, WrapperCodecs.XML);
                 } catch (MessageSerializationException ex) {
                     logger.error("Error serializing ExceptionWrapper instance: {}.", new Object[]{ex.getMessage()}, ex);
                     errorHolder.set(new RuntimeException("Error serializing ExceptionWrapper instance: " + ex.getMessage(), ex));
@@ -243,6 +246,8 @@ public class UCSCreateException extends AbstractProcessor {
             return;
         }
         
+        flowFile = session.putAttribute(flowFile, CoreAttributes.MIME_TYPE.key(), WrapperCodecs.XML.getMimeType());
+        
         logger.debug("ExceptionWrapper created and written as FlowFile content. Routing FlowFile to {}", new Object[]{REL_SUCCESS});
         session.transfer(flowFile, REL_SUCCESS);
         session.getProvenanceReporter().route(flowFile, REL_SUCCESS);
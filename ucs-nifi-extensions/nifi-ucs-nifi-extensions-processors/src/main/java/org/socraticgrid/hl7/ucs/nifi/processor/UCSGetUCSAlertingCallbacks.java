@@ -15,7 +15,11 @@
  */
 package org.socraticgrid.hl7.ucs.nifi.processor;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -24,19 +28,28 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
+import javax.xml.stream.XMLStreamException;
+import org.apache.commons.io.IOUtils;
 import org.apache.nifi.annotation.behavior.EventDriven;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.logging.ProcessorLog;
 import org.apache.nifi.processor.AbstractProcessor;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.io.StreamCallback;
 import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.util.ObjectHolder;
+import org.socraticgrid.hl7.services.uc.model.Message;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializationException;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializer;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.WrapperCodecs;
+import org.socraticgrid.hl7.ucs.nifi.controller.CallbackDispatcherController;
 import org.socraticgrid.hl7.ucs.nifi.controller.UCSController;
 
 /**
@@ -45,7 +58,8 @@ import org.socraticgrid.hl7.ucs.nifi.controller.UCSController;
  */
 @EventDriven
 @Tags({"UCS", "Alert"})
-@CapabilityDescription("Gets any previously registered UCSAlertingCallback. For each callback found, this processor will clone the original FlowFile adding the callback URL as an attribute.")
+@CapabilityDescription("Gets any previously registered UCSAlertingCallback. For each callback found, this processor will clone the original FlowFile adding the callback URL as an attribute. "
+        + "If a Callback Dispatcher is configured, the FlowFile is not cloned: its content is queued in the dispatcher for each callback instead.")
 public class UCSGetUCSAlertingCallbacks extends AbstractProcessor {
 
     public static final PropertyDescriptor UCS_CONTROLLER_SERVICE = new PropertyDescriptor.Builder()
@@ -71,6 +85,25 @@ public class UCSGetUCSAlertingCallbacks extends AbstractProcessor {
             .allowableValues("true", "false")
             .build();
 
+    public static final PropertyDescriptor CALLBACK_DISPATCHER = new PropertyDescriptor.Builder()
+            .name("Callback Dispatcher")
+            .description("Optional Callback Dispatcher used to deliver the FlowFile to the callbacks. If set, the FlowFile is not "
+                    + "cloned: the original FlowFile is routed to 'success' once its content was queued for every callback.")
+            .identifiesControllerService(CallbackDispatcherController.class)
+            .required(false)
+            .build();
+
+    public static final PropertyDescriptor CALLBACK_ACTION = new PropertyDescriptor.Builder()
+            .name("Callback Action")
+            .description("The callback action (i.e. 'newMessage') the FlowFile is delivered to. Only used if a Callback Dispatcher is configured.")
+            .required(true)
+            .defaultValue("${ucs.alerting.action}")
+            .expressionLanguageSupported(true)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final String DISPATCHED_ATTRIBUTE_KEY = "ucs.alerting.callback.dispatched";
+
     public static final Relationship REL_SUCCESS = new Relationship.Builder().name("success").description("For each callback found, this processor will clone the original FlowFile adding the callback URL as an attribute and routing it through this relationship").build();
     public static final Relationship REL_EMPTY = new Relationship.Builder().name("empty").description("This relationship is used in the case that no callback is currently registered in UCSController.").build();
     public static final Relationship REL_FAILURE = new Relationship.Builder().name("failure").description("").build();
@@ -90,6 +123,8 @@ public class UCSGetUCSAlertingCallbacks extends AbstractProcessor {
         properties.add(UCS_CONTROLLER_SERVICE);
         properties.add(CALLBACK_ATTRIBUTE_NAME);
         properties.add(REMOVE_PROTOCOL_FROM_URL);
+        properties.add(CALLBACK_DISPATCHER);
+        properties.add(CALLBACK_ACTION);
         this.properties = Collections.unmodifiableList(properties);
     }
 
@@ -123,6 +158,36 @@ public class UCSGetUCSAlertingCallbacks extends AbstractProcessor {
             return;
         }
         
+        //Callbacks are the edge of UCS: clients only understand XML.
+        if (WrapperCodecs.isBinary(flowFile.getAttribute(CoreAttributes.MIME_TYPE.key()))) {
+            final ObjectHolder<Throwable> errorHolder = new ObjectHolder<>(null);
+            flowFile = session.write(flowFile, new StreamCallback() {
+                @Override
+                public void process(final InputStream in, final OutputStream out) throws IOException {
+                    try {
+                        WrapperCodecs.transcode(in, out, WrapperCodecs.XML);
+                    } catch (XMLStreamException ex) {
+                        errorHolder.set(ex);
+                    }
+                }
+            });
+            
+            if (errorHolder.get() != null) {
+                logger.error("Error converting FlowFile {} into XML. Routing to {}", new Object[]{flowFile, REL_FAILURE}, errorHolder.get());
+                session.transfer(flowFile, REL_FAILURE);
+                session.getProvenanceReporter().route(flowFile, REL_FAILURE);
+                return;
+            }
+            
+            flowFile = session.putAttribute(flowFile, CoreAttributes.MIME_TYPE.key(), WrapperCodecs.XML.getMimeType());
+            session.getProvenanceReporter().modifyContent(flowFile);
+        }
+        
+        if (context.getProperty(CALLBACK_DISPATCHER).isSet()) {
+            this.dispatch(context, session, flowFile, ucsAlertingCallbacks);
+            return;
+        }
+        
         Iterator<URL> iterator = ucsAlertingCallbacks.iterator();
 
         ObjectHolder<FlowFile> originalFlowFileHolder = new ObjectHolder<>(flowFile);
@@ -150,6 +215,56 @@ public class UCSGetUCSAlertingCallbacks extends AbstractProcessor {
         
     }
     
+    /**
+     * Queues the content of the FlowFile in the Callback Dispatcher for each 
+     * of the callbacks. If any of the callback queues is full, the FlowFile
+     * is penalized and returned to its incoming queue.
+     */
+    private void dispatch(final ProcessContext context, final ProcessSession session, FlowFile flowFile, Collection<URL> callbacks) {
+        final ProcessorLog logger = getLogger();
+        CallbackDispatcherController dispatcher = context.getProperty(CALLBACK_DISPATCHER).asControllerService(CallbackDispatcherController.class);
+        
+        if (!callbacks.stream().allMatch(dispatcher::hasCapacity)) {
+            logger.debug("Callback queues are full. Returning FlowFile {} to its queue.", new Object[]{flowFile});
+            session.transfer(session.penalize(flowFile));
+            context.yield();
+            return;
+        }
+        
+        final String action = context.getProperty(CALLBACK_ACTION).evaluateAttributeExpressions(flowFile).getValue();
+        final ObjectHolder<String> bodyHolder = new ObjectHolder<>(null);
+        session.read(flowFile, in -> bodyHolder.set(IOUtils.toString(in, StandardCharsets.UTF_8)));
+        
+        Message message = null;
+        if (dispatcher.isBatchable(action)) {
+            try {
+                message = MessageSerializer.deserializeMessageWrapper(bodyHolder.get()).getMessage();
+            } catch (MessageSerializationException ex) {
+                logger.debug("FlowFile {} doesn't contain a Message. It will not be batched.", new Object[]{flowFile});
+            }
+        }
+        
+        int dispatched = 0;
+        for (URL callback : callbacks) {
+            if (dispatcher.dispatch(callback, action, bodyHolder.get(), message)) {
+                dispatched++;
+                continue;
+            }
+            //the queue got full after the check.
+            FlowFile clone = session.clone(flowFile);
+            clone = session.putAttribute(clone, context.getProperty(CALLBACK_ATTRIBUTE_NAME).getValue(), processURL(callback, context.getProperty(REMOVE_PROTOCOL_FROM_URL).asBoolean()));
+            session.getProvenanceReporter().clone(flowFile, clone);
+            logger.warn("Queue of callback {} is full. Routing FlowFile {} to {}.", new Object[]{callback, clone, REL_FAILURE});
+            session.transfer(clone, REL_FAILURE);
+            session.getProvenanceReporter().route(clone, REL_FAILURE);
+        }
+        
+        flowFile = session.putAttribute(flowFile, DISPATCHED_ATTRIBUTE_KEY, String.valueOf(dispatched));
+        logger.debug("FlowFile {} queued for {} callbacks. Routing it to {}.", new Object[]{flowFile, dispatched, REL_SUCCESS});
+        session.transfer(flowFile, REL_SUCCESS);
+        session.getProvenanceReporter().route(flowFile, REL_SUCCESS);
+    }
+    
     private String processURL(URL url, boolean removeProtocol){
         String urlAsString = url.toString();
         
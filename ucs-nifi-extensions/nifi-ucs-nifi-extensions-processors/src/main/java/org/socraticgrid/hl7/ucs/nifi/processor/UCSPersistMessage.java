@@ -19,7 +19,9 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -31,6 +33,7 @@ import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.behavior.EventDriven;
 import org.apache.nifi.annotation.behavior.SupportsBatching;
@@ -57,6 +60,14 @@ public class UCSPersistMessage extends AbstractProcessor {
             .identifiesControllerService(UCSController.class)
             .required(true)
             .build();
+
+    public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+            .name("Batch Size")
+            .description("The maximum number of FlowFiles persisted in a single execution. All the messages of the batch are stored at once.")
+            .required(true)
+            .defaultValue("10")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
     
     public static final Relationship REL_FAILURE = new Relationship.Builder().name("failure").description("").build();
     public static final Relationship REL_SUCCESS = new Relationship.Builder().name("success").description("").build();
@@ -73,6 +84,7 @@ public class UCSPersistMessage extends AbstractProcessor {
 
         final List<PropertyDescriptor> properties = new ArrayList<>();
         properties.add(UCS_CONTROLLER_SERVICE);
+        properties.add(BATCH_SIZE);
         this.properties = Collections.unmodifiableList(properties);
     }
 
@@ -92,13 +104,16 @@ public class UCSPersistMessage extends AbstractProcessor {
 
     @Override
     public void onTrigger(final ProcessContext context, final ProcessSession session) {
-        final List<FlowFile> flowFiles = session.get(1);
+        final List<FlowFile> flowFiles = session.get(context.getProperty(BATCH_SIZE).asInteger());
         if (flowFiles.isEmpty()) {
             return;
         }
         
         final ProcessorLog logger = getLogger();
+        final UCSController ucsService = context.getProperty(UCS_CONTROLLER_SERVICE).asControllerService(UCSController.class);
 
+        //successfully deserialized messages of this batch.
+        final Map<FlowFile, Message> messages = new LinkedHashMap<>();
 
         for (FlowFile flowFile : flowFiles) {
             final ObjectHolder<Throwable> errorHolder = new ObjectHolder<>(null);
@@ -128,12 +143,21 @@ public class UCSPersistMessage extends AbstractProcessor {
                 continue;
             }
             
-            Message message = messageWrapperHolder.get().getMessage();
-            UCSController ucsService = context.getProperty(UCS_CONTROLLER_SERVICE).asControllerService(UCSController.class);
+            messages.put(flowFile, messageWrapperHolder.get().getMessage());
+        }
+
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        //all the messages of the batch are persisted at once.
+        logger.debug("Persisting {} messages.", new Object[]{messages.size()});
+        ucsService.saveMessages(messages.values());
+
+        for (Map.Entry<FlowFile, Message> entry : messages.entrySet()) {
+            FlowFile flowFile = entry.getKey();
+            Message message = entry.getValue();
 
-            logger.debug("Persisting message {}.", new Object[]{message});
-            ucsService.saveMessage(message);
-            
             //if the message meets the requirements for escalation, a timeout 
             //job is setup.
             if (message.getHeader().isReceiptNotification() && message.getHeader().getRespondBy() > 0){
@@ -141,7 +165,7 @@ public class UCSPersistMessage extends AbstractProcessor {
                 try {
                     ucsService.setupResponseTimeout(message);
                 } catch (SchedulerException ex) {
-                    logger.error(errorHolder.get().getMessage(), errorHolder.get().getCause());
+                    logger.error("Error setting up Escalation Job", ex);
                     UCSCreateException.routeFlowFileToException(
                             context, 
                             session, 
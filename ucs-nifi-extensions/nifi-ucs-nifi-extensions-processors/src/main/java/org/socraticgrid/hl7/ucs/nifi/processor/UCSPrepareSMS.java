@@ -28,6 +28,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import org.apache.nifi.annotation.behavior.EventDriven;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.components.PropertyDescriptor;
@@ -55,6 +56,7 @@ import org.socraticgrid.hl7.ucs.nifi.services.MessageBodyResolver;
  * @author esteban
  */
 @EventDriven
+@SupportsBatching
 @Tags({"UCS", "SMS"})
 @CapabilityDescription("Given a serialized MessageWrapper as the content of a FlowFile, this processor will extract the require information to send an SMS to each of the participants. "
         + "This processor generates as many outgoing FlowFiles as SMS Recipients the original message has.")
@@ -99,6 +101,14 @@ public class UCSPrepareSMS extends AbstractProcessor {
             .addValidator(StandardValidators.ATTRIBUTE_KEY_PROPERTY_NAME_VALIDATOR)
             .build();
 
+    public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+            .name("Batch Size")
+            .description("The maximum number of FlowFiles processed in a single execution.")
+            .required(true)
+            .defaultValue("10")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
     public static final Relationship REL_SUCCESS = new Relationship.Builder().name("success").description("").build();
     public static final Relationship REL_FAILURE = new Relationship.Builder().name("failure").description("").build();
 
@@ -118,6 +128,7 @@ public class UCSPrepareSMS extends AbstractProcessor {
         properties.add(PHONE_ATTRIBUTE_NAME);
         properties.add(TEXT_ATTRIBUTE_NAME);
         properties.add(REFERENCE_ATTRIBUTE_NAME);
+        properties.add(BATCH_SIZE);
         this.properties = Collections.unmodifiableList(properties);
     }
 
@@ -133,13 +144,17 @@ public class UCSPrepareSMS extends AbstractProcessor {
 
     @Override
     public void onTrigger(final ProcessContext context, final ProcessSession session) {
-        final List<FlowFile> flowFiles = session.get(1);
+        final List<FlowFile> flowFiles = session.get(context.getProperty(BATCH_SIZE).asInteger());
         if (flowFiles.isEmpty()) {
             return;
         }
 
         final ProcessorLog logger = getLogger();
-
+        final UCSController ucsService = context.getProperty(UCS_CONTROLLER_SERVICE).asControllerService(UCSController.class);
+        final String smsServiceId = context.getProperty(SMS_SERVICE_ID).getValue();
+        final String phoneAttributeName = context.getProperty(PHONE_ATTRIBUTE_NAME).getValue();
+        final String textAttributeName = context.getProperty(TEXT_ATTRIBUTE_NAME).getValue();
+        final String referenceAttributeName = context.getProperty(REFERENCE_ATTRIBUTE_NAME).getValue();
 
         for (FlowFile flowFile : flowFiles) {
             final ObjectHolder<Throwable> errorHolder = new ObjectHolder<>(null);
@@ -197,13 +212,13 @@ public class UCSPrepareSMS extends AbstractProcessor {
             }
 
             List<Recipient> recipients = recipientsByType.getOrDefault("YES", new ArrayList<>()).stream()
-                    .filter(r -> context.getProperty(SMS_SERVICE_ID).getValue().equals(r.getDeliveryAddress().getPhysicalAddress().getServiceId()))
+                    .filter(r -> smsServiceId.equals(r.getDeliveryAddress().getPhysicalAddress().getServiceId()))
                     .collect(Collectors.toList());
 
             if (recipients.isEmpty()) {
                 //We shouldn't reach this point ideally. If somebody routed a message
                 //to this processor, it must be because we at least have 1 SMS address.
-                logger.error("The message didn't contain any Address with ServiceId '{}'.", new Object[]{context.getProperty(SMS_SERVICE_ID).getValue()});
+                logger.error("The message didn't contain any Address with ServiceId '{}'.", new Object[]{smsServiceId});
                 UCSCreateException.routeFlowFileToException(
                         context,
                         session,
@@ -211,7 +226,7 @@ public class UCSPrepareSMS extends AbstractProcessor {
                         flowFile,
                         REL_FAILURE,
                         null,
-                        "Error processing Message: The message didn't contain any Address with ServiceId '"+context.getProperty(SMS_SERVICE_ID).getValue()+"'.",
+                        "Error processing Message: The message didn't contain any Address with ServiceId '"+smsServiceId+"'.",
                         ExceptionType.InvalidContext,
                         null,
                         null);
@@ -219,18 +234,14 @@ public class UCSPrepareSMS extends AbstractProcessor {
             }
 
             Map<String, String> generatedReferences = new HashMap<>();
-            
-            String phoneAttributeName = context.getProperty(PHONE_ATTRIBUTE_NAME).getValue();
-            String textAttributeName = context.getProperty(TEXT_ATTRIBUTE_NAME).getValue();
-            String referenceAttributeName = context.getProperty(REFERENCE_ATTRIBUTE_NAME).getValue();
 
             Recipient firstRecpient = recipients.remove(0);
-            MessageBody body = MessageBodyResolver.resolveMessagePart(message, context.getProperty(SMS_SERVICE_ID).getValue(), firstRecpient.getRecipientId(), firstRecpient.getDeliveryAddress().getPhysicalAddress().getAddress());
+            MessageBody body = MessageBodyResolver.resolveMessagePart(message, smsServiceId, firstRecpient.getRecipientId(), firstRecpient.getDeliveryAddress().getPhysicalAddress().getAddress());
             String text = body.getContent();
             
             for (Recipient r : recipients) {
             	
-            	MessageBody msgBody = MessageBodyResolver.resolveMessagePart(message, context.getProperty(SMS_SERVICE_ID).getValue(), r.getRecipientId(), r.getDeliveryAddress().getPhysicalAddress().getAddress());
+            	MessageBody msgBody = MessageBodyResolver.resolveMessagePart(message, smsServiceId, r.getRecipientId(), r.getDeliveryAddress().getPhysicalAddress().getAddress());
                 String content = msgBody.getContent();
                 
                 generatedReferences.put(r.getRecipientId(), UUID.randomUUID().toString());
@@ -269,12 +280,9 @@ public class UCSPrepareSMS extends AbstractProcessor {
             //if we expect a response from these SMS messages we need to 
             //keep track of the generated references
             //TODO: is this check correct/enough?
-            UCSController ucsService = context.getProperty(UCS_CONTROLLER_SERVICE).asControllerService(UCSController.class);
             if (message.getHeader().isReceiptNotification()){
                 logger.debug("The message has ReceiptNotification flag enabled -> We are persisting it.");
-                generatedReferences.entrySet().stream().forEach((gr) -> {
-                    ucsService.saveMessageReference(message, gr.getKey(), gr.getValue());
-                });
+                ucsService.saveMessageReferences(message, generatedReferences);
             } else {
                 logger.debug("The message doesn't have ReceiptNotification flag enabled -> We are not persisting it.");
             }
@@ -167,7 +167,7 @@ public class UCSProcessMessagesWithUnreachableHandlers extends AbstractProcessor
                         @Override
                         public void process(final OutputStream out) throws IOException {
                             try {
-                                out.write(MessageSerializer.serializeMessageWrapper(new MessageWrapper(message)).getBytes());
+                                MessageSerializer.serializeMessageWrapper(new MessageWrapper(message), out);
                             } catch (MessageSerializationException ex) {
                                 //should never happen
                                 errorHolder.set(ex);
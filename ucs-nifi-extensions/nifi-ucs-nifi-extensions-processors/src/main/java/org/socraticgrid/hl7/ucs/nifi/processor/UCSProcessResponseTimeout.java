@@ -124,7 +124,7 @@ public class UCSProcessResponseTimeout extends AbstractProcessor {
                             @Override
                             public void process(final OutputStream out) throws IOException {
                                 try {
-                                	out.write(MessageSerializer.serializeMessageWrapper(new MessageWrapper(msg)).getBytes());
+                                	MessageSerializer.serializeMessageWrapper(new MessageWrapper(msg), out);
                                 } catch (MessageSerializationException ex) {
                                     //should never happen
                                     errorHolder.set(ex);
@@ -164,7 +164,7 @@ public class UCSProcessResponseTimeout extends AbstractProcessor {
                             @Override
                             public void process(final OutputStream out) throws IOException {
                                 try {
-                                    out.write(MessageSerializer.serializeMessageWrapper(new MessageWrapper(msg)).getBytes()); 
+                                    MessageSerializer.serializeMessageWrapper(new MessageWrapper(msg), out); 
                                 } catch (MessageSerializationException ex) {
                                     //should never happen
                                     errorHolder.set(ex);
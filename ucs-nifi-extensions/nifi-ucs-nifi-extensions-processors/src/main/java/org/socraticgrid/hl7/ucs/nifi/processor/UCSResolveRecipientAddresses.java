@@ -22,7 +22,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicReference;
@@ -33,6 +35,7 @@ import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.logging.ProcessorLog;
 import org.apache.nifi.processor.AbstractProcessor;
 import org.apache.nifi.processor.ProcessContext;
@@ -40,6 +43,7 @@ import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.io.OutputStreamCallback;
+import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.util.ObjectHolder;
 import org.socraticgrid.hl7.services.uc.exceptions.ExceptionType;
 import org.socraticgrid.hl7.services.uc.model.DeliveryStatus;
@@ -50,6 +54,8 @@ import org.socraticgrid.hl7.services.uc.model.UserContactInfo;
 import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializationException;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializer;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.WrapperCodec;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.WrapperCodecs;
 import org.socraticgrid.hl7.ucs.nifi.controller.UCSController;
 
 /**
@@ -70,6 +76,15 @@ public class UCSResolveRecipientAddresses extends AbstractProcessor {
             .required(true)
             .build();
 
+    public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+            .name("Batch Size")
+            .description("The maximum number of FlowFiles processed in a single execution. All the addresses found in the batch are resolved "
+                    + "using a single call to the UCS Controller Service.")
+            .required(true)
+            .defaultValue("10")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
     public static final Relationship REL_SUCCESS = new Relationship.Builder().name("success").description("").build();
     public static final Relationship REL_UNKNOWN_RECIPIENT = new Relationship.Builder().name("unknown recipient").description("").build();
     public static final Relationship REL_FAILURE = new Relationship.Builder().name("failure").description("").build();
@@ -87,6 +102,7 @@ public class UCSResolveRecipientAddresses extends AbstractProcessor {
 
         final List<PropertyDescriptor> properties = new ArrayList<>();
         properties.add(UCS_CONTROLLER_SERVICE);
+        properties.add(BATCH_SIZE);
         this.properties = Collections.unmodifiableList(properties);
     }
 
@@ -102,12 +118,18 @@ public class UCSResolveRecipientAddresses extends AbstractProcessor {
 
     @Override
     public void onTrigger(final ProcessContext context, final ProcessSession session) {
-        final List<FlowFile> flowFiles = session.get(1);
+        final List<FlowFile> flowFiles = session.get(context.getProperty(BATCH_SIZE).asInteger());
         if (flowFiles.isEmpty()) {
             return;
         }
 
         final ProcessorLog logger = getLogger();
+        final UCSController ucsService = context.getProperty(UCS_CONTROLLER_SERVICE).asControllerService(UCSController.class);
+
+        //successfully deserialized messages of this batch.
+        final Map<FlowFile, MessageWrapper> messageWrappers = new LinkedHashMap<>();
+        //addresses of the batch that need to be resolved.
+        final Set<String> addresses = new HashSet<>();
 
         for (FlowFile flowFile : flowFiles) {
             final ObjectHolder<Throwable> errorHolder = new ObjectHolder<>(null);
@@ -137,10 +159,28 @@ public class UCSResolveRecipientAddresses extends AbstractProcessor {
                 continue;
             }
 
-            Message message = messageWrapperHolder.get().getMessage();
+            messageWrappers.put(flowFile, messageWrapperHolder.get());
+            for (Recipient r : messageWrapperHolder.get().getMessage().getHeader().getRecipientsList()) {
+                PhysicalAddress physicalAddress = r.getDeliveryAddress().getPhysicalAddress();
+                if (physicalAddress != null && !isGroupChatAddress(physicalAddress)) {
+                    addresses.add(physicalAddress.getAddress());
+                }
+            }
+        }
+
+        //resolve all the addresses of the batch at once.
+        final Map<String, UserContactInfo> resolvedContacts = addresses.isEmpty()
+                ? Collections.emptyMap()
+                : ucsService.resolveUserContactInfos(addresses);
+
+        for (Map.Entry<FlowFile, MessageWrapper> entry : messageWrappers.entrySet()) {
+            FlowFile flowFile = entry.getKey();
+            final MessageWrapper messageWrapper = entry.getValue();
+            final ObjectHolder<Throwable> errorHolder = new ObjectHolder<>(null);
+
+            Message message = messageWrapper.getMessage();
 
             //resolve each PhysicalAddress
-            UCSController ucsService = context.getProperty(UCS_CONTROLLER_SERVICE).asControllerService(UCSController.class);
             for (Recipient r : message.getHeader().getRecipientsList()) {
                 PhysicalAddress physicalAddress = r.getDeliveryAddress().getPhysicalAddress();
 
@@ -167,7 +207,7 @@ public class UCSResolveRecipientAddresses extends AbstractProcessor {
                 }
 
                 //Awful solution for Group Chat.
-                if ("CHAT".equals(physicalAddress.getServiceId()) && physicalAddress.getAddress().startsWith("GROUP:")) {
+                if (isGroupChatAddress(physicalAddress)) {
                     //We decided to treat GROUP CHAT as a special case of a 
                     //PhysicalAddress whose address starts with "GROUP:".
                     //We could have also used a GroupAddress, but this class
@@ -179,7 +219,7 @@ public class UCSResolveRecipientAddresses extends AbstractProcessor {
                 }
                 
                 
-                UserContactInfo uci = ucsService.resolveUserContactInfo(physicalAddress.getAddress());
+                UserContactInfo uci = resolvedContacts.get(physicalAddress.getAddress());
 
                 //We don't know this recipient
                 if (uci == null) {
@@ -241,12 +281,22 @@ public class UCSResolveRecipientAddresses extends AbstractProcessor {
             
             //TODO: check if the final message has at least 1 resolvedAddress!
 
-            String serializedMessage;
-            try {
-                //serialize the new version of the message
-                serializedMessage = MessageSerializer.serializeMessageWrapper(messageWrapperHolder.get());
-            } catch (MessageSerializationException ex) {
-                logger.error("Error serializing result message:", ex);
+            //serialize the new version of the message keeping its original format
+            final WrapperCodec codec = WrapperCodecs.forMimeType(flowFile.getAttribute(CoreAttributes.MIME_TYPE.key()));
+            flowFile = session.write(flowFile, new OutputStreamCallback() {
+                @Override
+                public void process(OutputStream out) throws IOException {
+                    try {
+                        MessageSerializer.serializeMessageWrapper(messageWrapper, out, codec);
+                    } catch (MessageSerializationException ex) {
+                        errorHolder.set(ex);
+                    }
+                    out.flush();
+                }
+            });
+
+            if (errorHolder.get() != null) {
+                logger.error("Error serializing result message:", errorHolder.get());
                 UCSCreateException.routeFlowFileToException(
                         context,
                         session,
@@ -254,25 +304,21 @@ public class UCSResolveRecipientAddresses extends AbstractProcessor {
                         flowFile,
                         REL_FAILURE,
                         null,
-                        "Error deserializing FlowFile: " + ex.getMessage(),
+                        "Error deserializing FlowFile: " + errorHolder.get().getMessage(),
                         ExceptionType.InvalidMessage,
                         null,
                         null);
                 continue;
             }
 
-            flowFile = session.write(flowFile, new OutputStreamCallback() {
-                @Override
-                public void process(OutputStream out) throws IOException {
-                    out.write(serializedMessage.getBytes());
-                    out.flush();
-                }
-            });
-
             logger.debug("Addresses resolved. Routing message {} to {}.", new Object[]{flowFile, REL_SUCCESS.getName()});
             session.transfer(flowFile, REL_SUCCESS);
             session.getProvenanceReporter().route(flowFile, REL_SUCCESS);
 
         }
     }
+
+    private boolean isGroupChatAddress(PhysicalAddress physicalAddress) {
+        return "CHAT".equals(physicalAddress.getServiceId()) && physicalAddress.getAddress().startsWith("GROUP:");
+    }
 }
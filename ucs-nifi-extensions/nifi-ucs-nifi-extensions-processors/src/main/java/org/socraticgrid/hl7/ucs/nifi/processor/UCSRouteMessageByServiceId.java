@@ -34,8 +34,10 @@ package org.socraticgrid.hl7.ucs.nifi.processor;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -62,11 +64,8 @@ import org.apache.nifi.components.Validator;
 import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.util.ObjectHolder;
 import org.socraticgrid.hl7.services.uc.exceptions.ExceptionType;
-import org.socraticgrid.hl7.services.uc.model.Message;
-import org.socraticgrid.hl7.services.uc.model.Recipient;
-import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageHeaderView;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializationException;
-import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializer;
 import org.socraticgrid.hl7.ucs.nifi.controller.UCSController;
 
 @EventDriven
@@ -95,6 +94,14 @@ public class UCSRouteMessageByServiceId extends AbstractProcessor {
             .addValidator(Validator.VALID)
             .build();
 
+    public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+            .name("Batch Size")
+            .description("The maximum number of FlowFiles routed in a single execution.")
+            .required(true)
+            .defaultValue("10")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
     public static final Relationship REL_FAILURE = new Relationship.Builder().name("failure").description("").build();
     public static final Relationship REL_ORIGINAL = new Relationship.Builder().name("original")
             .description("The original FlowFile will be sent through this relationships.").build();
@@ -115,6 +122,7 @@ public class UCSRouteMessageByServiceId extends AbstractProcessor {
         final List<PropertyDescriptor> properties = new ArrayList<>();
         properties.add(UCS_CONTROLLER_SERVICE);
         properties.add(REL_NO_MATCH_AS_EXCEPTION);
+        properties.add(BATCH_SIZE);
         this.properties = Collections.unmodifiableList(properties);
     }
 
@@ -162,22 +170,24 @@ public class UCSRouteMessageByServiceId extends AbstractProcessor {
 
     @Override
     public void onTrigger(final ProcessContext context, final ProcessSession session) {
-        final List<FlowFile> flowFiles = session.get(1);
+        final List<FlowFile> flowFiles = session.get(context.getProperty(BATCH_SIZE).asInteger());
         if (flowFiles.isEmpty()) {
             return;
         }
 
         final ProcessorLog logger = getLogger();
+        final boolean treatNoMatchAsException = context.getProperty(REL_NO_MATCH_AS_EXCEPTION).asBoolean();
+        //all the FlowFiles of the batch are routed using the same relationships
+        final Set<Relationship> relationships = this.relationships.get();
 
         for (FlowFile flowFile : flowFiles) {
             final ObjectHolder<Throwable> errorHolder = new ObjectHolder<>(null);
-            final ObjectHolder<MessageWrapper> messageWrapperHolder = new ObjectHolder<>(null);
-
-            final boolean treatNoMatchAsException = context.getProperty(REL_NO_MATCH_AS_EXCEPTION).asBoolean();
+            final ObjectHolder<MessageHeaderView> headerHolder = new ObjectHolder<>(null);
 
             session.read(flowFile, (final InputStream rawIn) -> {
                 try {
-                    messageWrapperHolder.set(MessageSerializer.deserializeMessageWrapper(rawIn));
+                    //only the recipients are needed, the content is forwarded untouched
+                    headerHolder.set(MessageHeaderView.read(rawIn, EnumSet.of(MessageHeaderView.Field.RECIPIENTS)));
                 } catch (MessageSerializationException ex) {
                     errorHolder.set(new RuntimeException("Error deserializing FlowFile content into a MessageWrapper instance. Routing to FAILURE", ex));
                 }
@@ -199,20 +209,17 @@ public class UCSRouteMessageByServiceId extends AbstractProcessor {
                 continue;
             }
 
-            Message message = messageWrapperHolder.get().getMessage();
-
-            //separate each Recipient according to its serviceId
-            Map<String, List<Recipient>> recipientsByServiceId = message.getHeader().getRecipientsList().stream()
-                    .collect(Collectors.groupingBy(r -> r.getDeliveryAddress().getPhysicalAddress().getServiceId()));
+            //collect the different serviceIds of the Recipients
+            Set<String> serviceIds = headerHolder.get().getRecipients().stream()
+                    .map(r -> r.getServiceId())
+                    .collect(Collectors.toCollection(LinkedHashSet::new));
 
             //Send each service type trhough the configured relationship (if any).
             ObjectHolder<FlowFile> originalFlowFile = new ObjectHolder<>(flowFile);
-            recipientsByServiceId.entrySet().stream()
-                    .forEach(e -> {
-
-                        String serviceId = e.getKey();
+            serviceIds.stream()
+                    .forEach(serviceId -> {
 
-                        Optional<Relationship> rel = this.relationships.get().stream()
+                        Optional<Relationship> rel = relationships.stream()
                         .filter(r -> r.getName().equals(serviceId))
                         .findFirst();
 
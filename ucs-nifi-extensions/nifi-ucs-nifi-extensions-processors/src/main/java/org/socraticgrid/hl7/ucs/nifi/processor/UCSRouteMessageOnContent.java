@@ -23,6 +23,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
@@ -33,6 +34,7 @@ import org.apache.nifi.annotation.behavior.SideEffectFree;
 import org.apache.nifi.annotation.behavior.SupportsBatching;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.expression.AttributeValueDecorator;
 import org.apache.nifi.flowfile.FlowFile;
@@ -49,6 +51,7 @@ import org.socraticgrid.hl7.services.uc.model.Message;
 import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializationException;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializer;
+import org.socraticgrid.hl7.ucs.nifi.processor.util.KeywordMatcher;
 
 /**
  * 
@@ -98,6 +101,23 @@ public class UCSRouteMessageOnContent extends AbstractProcessor {
 			.addValidator(StandardValidators.CHARACTER_SET_VALIDATOR)
 			.defaultValue("UTF-8").build();
 
+	public static final PropertyDescriptor MULTI_PATTERN = new PropertyDescriptor.Builder()
+			.name("Multi-Pattern Matching")
+			.description(
+					"If true, the rules whose value is a literal text (no regular expression metacharacters and no Expression Language) are "
+					+ "compiled together into a single keyword automaton, so one pass over the content of the message finds all of them. "
+					+ "Any other rule is still evaluated as a Regular Expression.")
+			.required(true).allowableValues(TRUE, FALSE).defaultValue(FALSE)
+			.build();
+
+	public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+			.name("Batch Size")
+			.description(
+					"The maximum number of FlowFiles routed in a single execution.")
+			.required(true)
+			.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+			.defaultValue("10").build();
+
 	public static final Relationship REL_NO_MATCH = new Relationship.Builder()
 			.name("unmatched")
 			.description(
@@ -107,9 +127,44 @@ public class UCSRouteMessageOnContent extends AbstractProcessor {
 	public static final Relationship REL_FAILURE = new Relationship.Builder()
 			.name("failure").description("").build();
 
+	/**
+	 * Max. number of patterns of Expression Language rules kept in
+	 * {@link #dynamicPatterns}.
+	 */
+	private static final int MAX_DYNAMIC_PATTERNS = 1000;
+
+	private static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}";
+
+	/**
+	 * A Dynamic Property. Rules without Expression Language are compiled
+	 * when the processor is scheduled.
+	 */
+	private static class Rule {
+
+		private final PropertyDescriptor descriptor;
+		private final Relationship relationship;
+		//null if the rule uses Expression Language.
+		private final Pattern pattern;
+
+		public Rule(PropertyDescriptor descriptor, Relationship relationship, Pattern pattern) {
+			this.descriptor = descriptor;
+			this.relationship = relationship;
+			this.pattern = pattern;
+		}
+	}
+
 	private final AtomicReference<Set<Relationship>> relationships = new AtomicReference<>();
 	private List<PropertyDescriptor> properties;
 
+	//Rules evaluated one by one.
+	private volatile List<Rule> rules = Collections.emptyList();
+	//Literal rules evaluated together when MULTI_PATTERN is enabled.
+	private volatile KeywordMatcher<Relationship> keywordMatcher;
+	private volatile int patternFlags;
+	//Patterns resulting from the evaluation of Expression Language rules,
+	//by flags and regex.
+	private final Map<String, Pattern> dynamicPatterns = new ConcurrentHashMap<>();
+
 	@Override
 	protected void init(final ProcessorInitializationContext context) {
 		final Set<Relationship> relationships = new HashSet<>();
@@ -121,6 +176,8 @@ public class UCSRouteMessageOnContent extends AbstractProcessor {
 		properties.add(MATCH_REQUIREMENT);
 		properties.add(CASE_SENSITIVE);
 		properties.add(CHARACTER_SET);
+		properties.add(MULTI_PATTERN);
+		properties.add(BATCH_SIZE);
 		this.properties = Collections.unmodifiableList(properties);
 	}
 
@@ -169,10 +226,75 @@ public class UCSRouteMessageOnContent extends AbstractProcessor {
 		}
 	}
 
+	@OnScheduled
+	public void onScheduled(final ProcessContext context) {
+		final boolean caseSensitive = context.getProperty(CASE_SENSITIVE).asBoolean();
+		final boolean multiPattern = context.getProperty(MULTI_PATTERN).asBoolean();
+		final int flags = caseSensitive ? 0 : Pattern.CASE_INSENSITIVE;
+
+		final List<Rule> rules = new ArrayList<>();
+		final KeywordMatcher.Builder<Relationship> keywordMatcherBuilder = new KeywordMatcher.Builder<>(caseSensitive);
+		boolean keywordsFound = false;
+
+		for (final PropertyDescriptor descriptor : context.getProperties().keySet()) {
+			if (!descriptor.isDynamic()) {
+				continue;
+			}
+
+			final String value = context.getProperty(descriptor).getValue();
+			final Relationship relationship = new Relationship.Builder()
+					.name(descriptor.getName()).build();
+
+			if (value.contains("${")) {
+				//Expression Language: the regex is only known for each FlowFile.
+				rules.add(new Rule(descriptor, relationship, null));
+			} else if (multiPattern && this.isLiteral(value)) {
+				keywordMatcherBuilder.addKeyword(value, relationship);
+				keywordsFound = true;
+			} else {
+				rules.add(new Rule(descriptor, relationship, Pattern.compile(value, flags)));
+			}
+		}
+
+		this.rules = Collections.unmodifiableList(rules);
+		this.keywordMatcher = keywordsFound ? keywordMatcherBuilder.build() : null;
+		this.patternFlags = flags;
+		this.dynamicPatterns.clear();
+	}
+
+	/**
+	 * @param regex
+	 * @return whether the regex matches only the exact same text.
+	 */
+	private boolean isLiteral(String regex) {
+		if (regex.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < regex.length(); i++) {
+			if (REGEX_METACHARACTERS.indexOf(regex.charAt(i)) >= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compiles the regex resulting from the evaluation of an Expression
+	 * Language rule. The compiled patterns are cached, given that the
+	 * evaluation usually results in the same few values.
+	 */
+	private Pattern getDynamicPattern(String regex, int flags) {
+		if (dynamicPatterns.size() >= MAX_DYNAMIC_PATTERNS) {
+			dynamicPatterns.clear();
+		}
+		return dynamicPatterns.computeIfAbsent(flags + "/" + regex, k -> Pattern.compile(regex, flags));
+	}
+
 	@Override
 	public void onTrigger(final ProcessContext context,
 			final ProcessSession session) {
-		final List<FlowFile> flowFiles = session.get(1);
+		final List<FlowFile> flowFiles = session.get(context.getProperty(
+				BATCH_SIZE).asInteger());
 		if (flowFiles.isEmpty()) {
 			return;
 		}
@@ -188,7 +310,11 @@ public class UCSRouteMessageOnContent extends AbstractProcessor {
 		final Map<FlowFile, Set<Relationship>> flowFileDestinationMap = new HashMap<>();
 		final ProcessorLog logger = getLogger();
 
-		boolean caseSensitive = context.getProperty(CASE_SENSITIVE).asBoolean();
+		boolean matchAll = context.getProperty(MATCH_REQUIREMENT).getValue()
+				.equalsIgnoreCase(MATCH_ALL);
+		final List<Rule> rules = this.rules;
+		final KeywordMatcher<Relationship> keywordMatcher = this.keywordMatcher;
+		final int flags = this.patternFlags;
 
 		for (final FlowFile flowFile : flowFiles) {
 			final Set<Relationship> destinations = new HashSet<>();
@@ -225,35 +351,31 @@ public class UCSRouteMessageOnContent extends AbstractProcessor {
 			}
 
 			Message message = messageWrapperHolder.get().getMessage();
+			final String content = message.getParts()[0].getContent();
 
-			// MessageSerializer
-			for (final PropertyDescriptor descriptor : context.getProperties()
-					.keySet()) {
-				if (!descriptor.isDynamic()) {
-					continue;
-				}
+			// all the literal rules in a single pass
+			if (keywordMatcher != null) {
+				destinations.addAll(matchAll ? keywordMatcher
+						.findExact(content) : keywordMatcher.findAll(content));
+			}
 
-				final String regex = context.getProperty(descriptor)
-						.evaluateAttributeExpressions(flowFile, quoteDecorator)
-						.getValue();
-				Pattern pattern = Pattern.compile(regex);
-				if (!caseSensitive) {
-					pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+			for (final Rule rule : rules) {
+				Pattern pattern = rule.pattern;
+				if (pattern == null) {
+					final String regex = context.getProperty(rule.descriptor)
+							.evaluateAttributeExpressions(flowFile, quoteDecorator)
+							.getValue();
+					pattern = this.getDynamicPattern(regex, flags);
 				}
 				final boolean matches;
-				if (context.getProperty(MATCH_REQUIREMENT).getValue()
-						.equalsIgnoreCase(MATCH_ALL)) {
-					matches = pattern.matcher(
-							message.getParts()[0].getContent()).matches();
+				if (matchAll) {
+					matches = pattern.matcher(content).matches();
 				} else {
-					matches = pattern.matcher(
-							message.getParts()[0].getContent()).find();
+					matches = pattern.matcher(content).find();
 				}
 
 				if (matches) {
-					final Relationship relationship = new Relationship.Builder()
-							.name(descriptor.getName()).build();
-					destinations.add(relationship);
+					destinations.add(rule.relationship);
 				}
 			}
 		}
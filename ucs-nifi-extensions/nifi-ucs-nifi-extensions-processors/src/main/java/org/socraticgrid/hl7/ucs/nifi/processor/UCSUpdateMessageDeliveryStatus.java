@@ -269,7 +269,7 @@ public class UCSUpdateMessageDeliveryStatus extends AbstractProcessor {
                     @Override
                     public void process(final OutputStream out) throws IOException {
                         try {
-                            out.write(MessageSerializer.serializeMessageWrapper(new MessageWrapper(finalMessage)).getBytes());
+                            MessageSerializer.serializeMessageWrapper(new MessageWrapper(finalMessage), out);
                         } catch (MessageSerializationException ex) {
                             //should never happen
                             errorHolder.set(ex);
@@ -20,13 +20,18 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.nifi.annotation.behavior.EventDriven;
 import org.apache.nifi.annotation.behavior.SupportsBatching;
@@ -34,6 +39,7 @@ import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.logging.ProcessorLog;
 import org.apache.nifi.processor.AbstractProcessor;
 import org.apache.nifi.processor.ProcessContext;
@@ -41,6 +47,7 @@ import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.io.OutputStreamCallback;
+import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.util.ObjectHolder;
 import org.socraticgrid.hl7.services.uc.exceptions.ExceptionType;
 import org.socraticgrid.hl7.services.uc.model.AlertMessage;
@@ -48,8 +55,13 @@ import org.socraticgrid.hl7.services.uc.model.AlertStatus;
 import org.socraticgrid.hl7.services.uc.model.Message;
 import org.socraticgrid.hl7.services.uc.model.Recipient;
 import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.FastInfosetWrapperCodec;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageHeaderView;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializationException;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializer;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.WrapperCodec;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.WrapperCodecs;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.XMLWrapperCodec;
 import org.socraticgrid.hl7.ucs.nifi.controller.UCSController;
 
 /**
@@ -84,6 +96,23 @@ public class UCSValidateMessage extends AbstractProcessor {
             .required(true).allowableValues(FAIL, UPDATE_ID)
             .defaultValue(FAIL).build();
 
+    public static final PropertyDescriptor SERIALIZATION_FORMAT = new PropertyDescriptor.Builder()
+            .name("Serialization Format")
+            .description("The format used to write the validated message. '" + XMLWrapperCodec.MIME_TYPE + "' is understood everywhere. '" 
+                    + FastInfosetWrapperCodec.MIME_TYPE + "' is a compact binary format that is faster to process and is meant to be used between UCS processors. "
+                    + "UCS processors detect the format of incoming messages automatically. The format is also set as the 'mime.type' attribute of the FlowFile.")
+            .required(true).allowableValues(XMLWrapperCodec.MIME_TYPE, FastInfosetWrapperCodec.MIME_TYPE)
+            .defaultValue(XMLWrapperCodec.MIME_TYPE).build();
+
+    public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+            .name("Batch Size")
+            .description("The maximum number of FlowFiles validated in a single execution. The message ids of all the FlowFiles of the same execution "
+                    + "are looked up in UCS at once.")
+            .required(true)
+            .defaultValue("10")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
     public static final Relationship REL_SUCCESS = new Relationship.Builder().name("success").description("").build();
     public static final Relationship REL_FAILURE = new Relationship.Builder().name("failure").description("").build();
 
@@ -100,6 +129,8 @@ public class UCSValidateMessage extends AbstractProcessor {
         final List<PropertyDescriptor> properties = new ArrayList<>();
         properties.add(UCS_CONTROLLER_SERVICE);
         properties.add(ON_DUPLICATED_MESSAGE_ID);
+        properties.add(SERIALIZATION_FORMAT);
+        properties.add(BATCH_SIZE);
         this.properties = Collections.unmodifiableList(properties);
     }
 
@@ -115,20 +146,25 @@ public class UCSValidateMessage extends AbstractProcessor {
 
     @Override
     public void onTrigger(final ProcessContext context, final ProcessSession session) {
-        final List<FlowFile> flowFiles = session.get(1);
+        final List<FlowFile> flowFiles = session.get(context.getProperty(BATCH_SIZE).asInteger());
         if (flowFiles.isEmpty()) {
             return;
         }
 
         final ProcessorLog logger = getLogger();
+        final UCSController ucsService = context.getProperty(UCS_CONTROLLER_SERVICE).asControllerService(UCSController.class);
+
+        final Map<FlowFile, MessageHeaderView> headers = new LinkedHashMap<>();
 
         for (FlowFile flowFile : flowFiles) {
             final ObjectHolder<Throwable> errorHolder = new ObjectHolder<>(null);
-            final ObjectHolder<MessageWrapper> messageWrapperHolder = new ObjectHolder<>(null);
+            final ObjectHolder<MessageHeaderView> headerHolder = new ObjectHolder<>(null);
 
+            //The validations only need the header of the message. The whole
+            //message is deserialized only if it has to be modified.
             session.read(flowFile, (final InputStream rawIn) -> {
                 try {
-                    messageWrapperHolder.set(MessageSerializer.deserializeMessageWrapper(rawIn));
+                    headerHolder.set(MessageHeaderView.read(rawIn));
                 } catch (MessageSerializationException ex) {
                     errorHolder.set(new RuntimeException("Error deserializing FlowFile content into a MessageWrapper instance. Routing to FAILURE", ex));
                 }
@@ -150,25 +186,26 @@ public class UCSValidateMessage extends AbstractProcessor {
                 continue;
             }
 
-            final Message message = messageWrapperHolder.get().getMessage();
-
-            //Check if all the recipients have an id. If don't, create a new one.
-            for (Recipient r : message.getHeader().getRecipientsList()) {
-                //if the recipient doesn't have an id, then create one
-                if (r.getRecipientId() == null) {
-                    r.setRecipientId(UUID.randomUUID().toString());
-                }
-
-            }
+            headers.put(flowFile, headerHolder.get());
+        }
 
-            UCSController ucsService = context.getProperty(UCS_CONTROLLER_SERVICE).asControllerService(UCSController.class);
+        //The ids of all the messages in the batch are looked up in UCS at once.
+        //Nothing is persisted in UCS by this processor, so the results remain
+        //valid for the whole batch.
+        final Set<String> knownMessageIds = ucsService.existsMessageIds(headers.values().stream()
+                .flatMap(h -> Stream.concat(h.getNestedMessageIds().stream(), Stream.of(h.getMessageId())))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet()));
+        final Map<String, Boolean> knownConversationIds = new HashMap<>();
 
-            Set<Message> messages = UCSValidateMessage.collectNestedMessages(message);
-            messages.add(message);
+        for (Map.Entry<FlowFile, MessageHeaderView> entry : headers.entrySet()) {
+            FlowFile flowFile = entry.getKey();
+            final MessageHeaderView header = entry.getValue();
 
             //Assert that the conversation Id of the message is known in UCS.
-            if (!StringUtils.isEmpty(message.getHeader().getRelatedConversationId()) && !ucsService.getConversationById(message.getHeader().getRelatedConversationId()).isPresent()) {
-                logger.debug("Failing because of unknown conversation id:{} ", new Object[]{message.getHeader().getRelatedConversationId()});
+            if (!StringUtils.isEmpty(header.getRelatedConversationId())
+                    && !knownConversationIds.computeIfAbsent(header.getRelatedConversationId(), id -> ucsService.getConversationById(id).isPresent())) {
+                logger.debug("Failing because of unknown conversation id:{} ", new Object[]{header.getRelatedConversationId()});
                 UCSCreateException.routeFlowFileToException(
                         context,
                         session,
@@ -176,39 +213,31 @@ public class UCSValidateMessage extends AbstractProcessor {
                         flowFile,
                         REL_FAILURE,
                         null,
-                        "Unknown Conversation Id: " + message.getHeader().getRelatedConversationId(),
+                        "Unknown Conversation Id: " + header.getRelatedConversationId(),
                         ExceptionType.InvalidConversation,
                         null,
                         null);
                 continue;
             }
 
-            //Check for duplicated message ids. 
-            //first check for duplicated ids inside the same message.
-            //This is no so easy to implement beacuse messages could have a 
-            //null id.
-            Set<Message> duplicatedMessages = messages.stream()
-                    .filter(m -> m.getHeader().getMessageId() != null)
-                    .collect(Collectors.groupingBy(m -> m.getHeader().getMessageId())).entrySet().stream()
-                    .filter(e -> e.getValue().size() > 1)
+            //Check for duplicated message ids: duplicated ids inside the same 
+            //message and ids already present in UCS.
+            List<String> messageIds = new ArrayList<>(header.getNestedMessageIds());
+            if (header.getMessageId() != null) {
+                messageIds.add(header.getMessageId());
+            }
+            List<String> duplicatedIds = messageIds.stream()
+                    .collect(Collectors.groupingBy(id -> id)).entrySet().stream()
+                    .filter(e -> e.getValue().size() > 1 || knownMessageIds.contains(e.getKey()))
                     .flatMap(e -> e.getValue().stream())
-                    .collect(Collectors.toSet());
-
-            //Also include in duplicatedIds duplicated messages in UCS 
-            messages.stream()
-                    .filter(m -> m.getHeader().getMessageId() != null)
-                    .filter(m -> ucsService.getMessageById(m.getHeader().getMessageId()).isPresent())
-                    .forEach(duplicatedMessages::add);
+                    .collect(Collectors.toList());
 
-            //process duplicated ids.
-            if (!duplicatedMessages.isEmpty()) {
-                logger.debug("Duplicated Message Ids found: {}", new Object[]{duplicatedMessages.stream().map(m -> m.getHeader().getMessageId()).collect(Collectors.joining(","))});
+            final boolean updateDuplicatedIds = !duplicatedIds.isEmpty();
+            if (updateDuplicatedIds) {
+                logger.debug("Duplicated Message Ids found: {}", new Object[]{duplicatedIds.stream().collect(Collectors.joining(","))});
 
-                if (context.getProperty(ON_DUPLICATED_MESSAGE_ID).getValue()
+                if (!context.getProperty(ON_DUPLICATED_MESSAGE_ID).getValue()
                         .equalsIgnoreCase(UPDATE_ID)) {
-                    logger.debug("Updating Messages Ids.");
-                    duplicatedMessages.forEach(m -> m.getHeader().setMessageId(UUID.randomUUID().toString()));
-                } else {
                     logger.debug("Failing because of duplicated messages ids");
                     UCSCreateException.routeFlowFileToException(
                             context,
@@ -217,7 +246,7 @@ public class UCSValidateMessage extends AbstractProcessor {
                             flowFile,
                             REL_FAILURE,
                             null,
-                            "Duplicated Message Ids found: " + duplicatedMessages.stream().map(m -> m.getHeader().getMessageId()).collect(Collectors.joining(",")),
+                            "Duplicated Message Ids found: " + duplicatedIds.stream().collect(Collectors.joining(",")),
                             ExceptionType.InvalidMessage,
                             null,
                             null);
@@ -225,42 +254,26 @@ public class UCSValidateMessage extends AbstractProcessor {
                 }
             }
 
-            //If the Message is an AlertMessage, then change its alertStatus
-            //to 'Pending'
-            if (message instanceof AlertMessage) {
-                ((AlertMessage) message).getHeader().setAlertStatus(AlertStatus.Pending);
-            }
-
-            //Write the message back to the FlowFile (in case it has been modified)
+            final WrapperCodec codec = WrapperCodecs.forMimeType(context.getProperty(SERIALIZATION_FORMAT).getValue());
             flowFile = session.putAttribute(flowFile, VALID_ATTRIBUTE_KEY, "true");
+            flowFile = session.putAttribute(flowFile, CoreAttributes.MIME_TYPE.key(), codec.getMimeType());
             session.getProvenanceReporter().modifyAttributes(flowFile);
 
-            flowFile = session.write(flowFile, new OutputStreamCallback() {
-                @Override
-                public void process(OutputStream out) throws IOException {
-                    try {
-                        out.write(MessageSerializer.serializeMessageWrapper(new MessageWrapper(message)).getBytes());
-                    } catch (MessageSerializationException ex) {
-                        errorHolder.set(ex);
-                    }
-                    out.flush();
+            //The message needs to be rewritten if any of its recipients doesn't
+            //have an id, if it has duplicated ids, if it is (or could be) an 
+            //AlertMessage or if it has to be written in a different format.
+            //Otherwise, the original content is forwarded untouched.
+            boolean rewrite = updateDuplicatedIds
+                    || header.getRecipients().stream().anyMatch(r -> r.getRecipientId() == null)
+                    || header.getMessageType() == null
+                    || header.getMessageType().toLowerCase().contains("alert")
+                    || !codec.getMimeType().equals(header.getMimeType());
+
+            if (rewrite) {
+                flowFile = rewriteMessage(context, session, flowFile, codec, updateDuplicatedIds, knownMessageIds);
+                if (flowFile == null) {
+                    continue;
                 }
-            });
-
-            if (errorHolder.get() != null) {
-                logger.error(errorHolder.get().getMessage(), errorHolder.get().getCause());
-                UCSCreateException.routeFlowFileToException(
-                        context,
-                        session,
-                        logger,
-                        flowFile,
-                        REL_FAILURE,
-                        null,
-                        "Error deserializing FlowFile: " + errorHolder.get().getCause(),
-                        ExceptionType.InvalidMessage,
-                        null,
-                        null);
-                continue;
             }
 
             logger.debug("Message validated. Routing message {} to {}.", new Object[]{flowFile, REL_SUCCESS.getName()});
@@ -269,6 +282,114 @@ public class UCSValidateMessage extends AbstractProcessor {
         }
     }
 
+    /**
+     * Deserializes the whole message, fixes it and writes it back to the
+     * FlowFile using the given codec. knownMessageIds are the ids of the
+     * current batch that are already present in UCS.
+     * Returns null if the FlowFile was routed to failure.
+     */
+    private FlowFile rewriteMessage(final ProcessContext context, final ProcessSession session, FlowFile flowFile, final WrapperCodec codec, boolean updateDuplicatedIds, final Set<String> knownMessageIds) {
+        final ProcessorLog logger = getLogger();
+        final ObjectHolder<Throwable> errorHolder = new ObjectHolder<>(null);
+        final ObjectHolder<MessageWrapper> messageWrapperHolder = new ObjectHolder<>(null);
+
+        session.read(flowFile, (final InputStream rawIn) -> {
+            try {
+                messageWrapperHolder.set(MessageSerializer.deserializeMessageWrapper(rawIn));
+            } catch (MessageSerializationException ex) {
+                errorHolder.set(new RuntimeException("Error deserializing FlowFile content into a MessageWrapper instance. Routing to FAILURE", ex));
+            }
+        });
+
+        if (errorHolder.get() != null) {
+            logger.error(errorHolder.get().getMessage(), errorHolder.get().getCause());
+            UCSCreateException.routeFlowFileToException(
+                    context,
+                    session,
+                    logger,
+                    flowFile,
+                    REL_FAILURE,
+                    null,
+                    "Error deserializing FlowFile: " + errorHolder.get().getCause(),
+                    ExceptionType.InvalidMessage,
+                    null,
+                    null);
+            return null;
+        }
+
+        final Message message = messageWrapperHolder.get().getMessage();
+
+        //Check if all the recipients have an id. If don't, create a new one.
+        for (Recipient r : message.getHeader().getRecipientsList()) {
+            //if the recipient doesn't have an id, then create one
+            if (r.getRecipientId() == null) {
+                r.setRecipientId(UUID.randomUUID().toString());
+            }
+
+        }
+
+        if (updateDuplicatedIds) {
+            Set<Message> messages = UCSValidateMessage.collectNestedMessages(message);
+            messages.add(message);
+
+            //first check for duplicated ids inside the same message.
+            //This is no so easy to implement beacuse messages could have a 
+            //null id.
+            Set<Message> duplicatedMessages = messages.stream()
+                    .filter(m -> m.getHeader().getMessageId() != null)
+                    .collect(Collectors.groupingBy(m -> m.getHeader().getMessageId())).entrySet().stream()
+                    .filter(e -> e.getValue().size() > 1)
+                    .flatMap(e -> e.getValue().stream())
+                    .collect(Collectors.toSet());
+
+            //Also include in duplicatedIds duplicated messages in UCS 
+            messages.stream()
+                    .filter(m -> m.getHeader().getMessageId() != null)
+                    .filter(m -> knownMessageIds.contains(m.getHeader().getMessageId()))
+                    .forEach(duplicatedMessages::add);
+
+            logger.debug("Updating Messages Ids.");
+            duplicatedMessages.forEach(m -> m.getHeader().setMessageId(UUID.randomUUID().toString()));
+        }
+
+        //If the Message is an AlertMessage, then change its alertStatus
+        //to 'Pending'
+        if (message instanceof AlertMessage) {
+            ((AlertMessage) message).getHeader().setAlertStatus(AlertStatus.Pending);
+        }
+
+        //Write the message back to the FlowFile
+        flowFile = session.write(flowFile, new OutputStreamCallback() {
+            @Override
+            public void process(OutputStream out) throws IOException {
+                try {
+                    MessageSerializer.serializeMessageWrapper(new MessageWrapper(message), out, codec);
+                } catch (MessageSerializationException ex) {
+                    errorHolder.set(ex);
+                }
+                out.flush();
+            }
+        });
+
+        if (errorHolder.get() != null) {
+            logger.error(errorHolder.get().getMessage(), errorHolder.get().getCause());
+            UCSCreateException.routeFlowFileToException(
+                    context,
+                    session,
+                    logger,
+                    flowFile,
+                    REL_FAILURE,
+                    null,
+                    "Error deserializing FlowFile: " + errorHolder.get().getCause(),
+                    ExceptionType.InvalidMessage,
+                    null,
+                    null);
+            return null;
+        }
+
+        return flowFile;
+    }
+
     protected static Set<Message> collectNestedMessages(Message message) {
         Set<Message> messages = new HashSet<>();
 
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.processor.command;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+import org.apache.commons.io.IOUtils;
+import org.apache.nifi.annotation.behavior.TriggerSerially;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.logging.ProcessorLog;
+import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.FlowFileFilter.FlowFileFilterResult;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.util.ObjectHolder;
+import org.socraticgrid.hl7.services.uc.exceptions.ExceptionType;
+import org.socraticgrid.hl7.ucs.nifi.common.model.CommandResult;
+import org.socraticgrid.hl7.ucs.nifi.common.model.XMLListWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.CommandResultSerializer;
+import org.socraticgrid.hl7.ucs.nifi.processor.UCSCreateException;
+
+/**
+ *
+ * @author esteban
+ */
+@TriggerSerially
+@Tags({"UCS", "Command", "Batch"})
+@CapabilityDescription("Aggregates the results of the commands created by UCSSplitCommands into a single FlowFile containing "
+        + "one CommandResult per command, ordered by the position of the command in the original envelope. The result of a "
+        + "command is the content of the FlowFile plus the attributes matching the 'Result Attributes' regular expression. "
+        + "A command is considered failed if its FlowFile has a 'ucs.exception.type' attribute. The 'response.*' attributes of "
+        + "the aggregated FlowFile are restored from the 'ucs.commands.response.*' attributes so it can be sent back to the "
+        + "client. If not every result arrives before 'Max Wait' expires, the missing commands are reported as failed and "
+        + "the results arriving afterwards are routed to 'original' without being aggregated again.")
+public class UCSAggregateCommandResults extends AbstractProcessor {
+
+    public static final PropertyDescriptor MAX_WAIT = new PropertyDescriptor.Builder()
+            .name("Max Wait")
+            .description("The maximum amount of time to wait for the results of every command of an envelope. "
+                    + "Once expired, the results received so far are sent.")
+            .required(true)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .defaultValue("10 sec")
+            .build();
+
+    public static final PropertyDescriptor RESULT_ATTRIBUTES = new PropertyDescriptor.Builder()
+            .name("Result Attributes")
+            .description("A regular expression matching the attributes of each command that are sent back as part of its result. "
+                    + "The 'ucs.commands.*' attributes are never sent.")
+            .required(true)
+            .addValidator(StandardValidators.REGULAR_EXPRESSION_VALIDATOR)
+            .defaultValue("ucs\\..*")
+            .build();
+
+    public static final Relationship REL_SUCCESS = new Relationship.Builder()
+            .name("success")
+            .description("The aggregated results of each envelope are transfered to this relation.")
+            .build();
+
+    public static final Relationship REL_ORIGINAL = new Relationship.Builder()
+            .name("original")
+            .description("The results of each command are transfered to this relation once they were aggregated.")
+            .build();
+
+    public static final Relationship REL_FAILURE = new Relationship.Builder()
+            .name("failure")
+            .description("FlowFiles that weren't created by UCSSplitCommands are routed to this destination")
+            .build();
+
+    private static final Pattern COMMANDS_ATTRIBUTES = Pattern.compile("ucs\\.commands\\..*");
+    private static final Pattern UCS_ATTRIBUTES = Pattern.compile("ucs\\..*");
+    private static final String[] RESPONSE_ATTRIBUTES = {"response.host", "response.port", "response.context"};
+    private static final int MAX_AGGREGATED_ENVELOPES = 10000;
+
+    private final AtomicReference<Set<Relationship>> relationships = new AtomicReference<>();
+    private List<PropertyDescriptor> properties;
+
+    //ids of the last aggregated envelopes, used to recognize the results 
+    //arriving after their envelope expired. Only accessed from onTrigger().
+    private final Map<String, Boolean> aggregatedEnvelopes = new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return this.size() > MAX_AGGREGATED_ENVELOPES;
+        }
+    };
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        final Set<Relationship> relationships = new HashSet<>();
+        relationships.add(REL_SUCCESS);
+        relationships.add(REL_ORIGINAL);
+        relationships.add(REL_FAILURE);
+        this.relationships.set(Collections.unmodifiableSet(relationships));
+
+        final List<PropertyDescriptor> descriptors = new ArrayList<>();
+        descriptors.add(MAX_WAIT);
+        descriptors.add(RESULT_ATTRIBUTES);
+        this.properties = Collections.unmodifiableList(descriptors);
+    }
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return properties;
+    }
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return relationships.get();
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) {
+        final ProcessorLog logger = getLogger();
+
+        final long maxWait = context.getProperty(MAX_WAIT).asTimePeriod(TimeUnit.MILLISECONDS);
+        final Pattern resultAttributes = Pattern.compile(context.getProperty(RESULT_ATTRIBUTES).getValue());
+        final long now = System.currentTimeMillis();
+
+        //first pass: find out which envelopes are complete (or expired)
+        //without pulling their FlowFiles from the queue. FlowFiles missing
+        //the 'ucs.commands.*' attributes are pulled to be routed to failure
+        //and the results of already aggregated envelopes to original.
+        final Map<String, Set<Integer>> receivedIndexes = new HashMap<>();
+        final Map<String, Integer> expectedCounts = new HashMap<>();
+        final Set<String> expired = new HashSet<>();
+        List<FlowFile> pulled = session.get(flowFile -> {
+            if (!this.isCommandResult(flowFile) || this.isLate(flowFile)) {
+                return FlowFileFilterResult.ACCEPT_AND_CONTINUE;
+            }
+            String id = flowFile.getAttribute(UCSSplitCommands.COMMANDS_ID_ATTRIBUTE_KEY);
+            Integer index = this.getInteger(flowFile, UCSSplitCommands.COMMANDS_INDEX_ATTRIBUTE_KEY);
+            Integer count = this.getInteger(flowFile, UCSSplitCommands.COMMANDS_COUNT_ATTRIBUTE_KEY);
+            receivedIndexes.computeIfAbsent(id, k -> new HashSet<>()).add(index);
+            expectedCounts.put(id, count);
+
+            Long timestamp = this.getLong(flowFile, UCSSplitCommands.COMMANDS_TIMESTAMP_ATTRIBUTE_KEY);
+            if (timestamp == null || now - timestamp >= maxWait) {
+                expired.add(id);
+            }
+            return FlowFileFilterResult.REJECT_AND_CONTINUE;
+        });
+
+        for (FlowFile flowFile : pulled) {
+            if (this.isCommandResult(flowFile)) {
+                logger.warn("{} arrived after {} was aggregated. Routing it to {}.", new Object[]{flowFile, flowFile.getAttribute(UCSSplitCommands.COMMANDS_ID_ATTRIBUTE_KEY), REL_ORIGINAL});
+                session.transfer(flowFile, REL_ORIGINAL);
+                continue;
+            }
+            logger.error("{} doesn't have the attributes set by UCSSplitCommands. Routing it to {}.", new Object[]{flowFile, REL_FAILURE});
+            UCSCreateException.routeFlowFileToException(
+                    context,
+                    session,
+                    logger,
+                    flowFile,
+                    REL_FAILURE,
+                    null,
+                    "The FlowFile doesn't have the attributes set by UCSSplitCommands",
+                    ExceptionType.InvalidInput,
+                    null,
+                    null);
+        }
+
+        final Set<String> ready = new HashSet<>(expired);
+        receivedIndexes.forEach((id, indexes) -> {
+            if (indexes.size() >= expectedCounts.get(id)) {
+                ready.add(id);
+            }
+        });
+
+        if (ready.isEmpty()) {
+            if (pulled.isEmpty()) {
+                context.yield();
+            }
+            return;
+        }
+
+        //second pass: pull the results of every complete envelope.
+        List<FlowFile> results = session.get(flowFile
+                -> ready.contains(flowFile.getAttribute(UCSSplitCommands.COMMANDS_ID_ATTRIBUTE_KEY))
+                        ? FlowFileFilterResult.ACCEPT_AND_CONTINUE
+                        : FlowFileFilterResult.REJECT_AND_CONTINUE);
+
+        Map<String, List<FlowFile>> groups = new HashMap<>();
+        results.forEach(f -> groups.computeIfAbsent(f.getAttribute(UCSSplitCommands.COMMANDS_ID_ATTRIBUTE_KEY), k -> new ArrayList<>()).add(f));
+
+        for (Map.Entry<String, List<FlowFile>> group : groups.entrySet()) {
+            this.aggregate(session, logger, group.getKey(), group.getValue(), expectedCounts.get(group.getKey()), resultAttributes);
+        }
+        groups.keySet().forEach(id -> aggregatedEnvelopes.put(id, Boolean.TRUE));
+    }
+
+    private void aggregate(final ProcessSession session, final ProcessorLog logger, final String id, final List<FlowFile> parts, final int count, final Pattern resultAttributes) {
+
+        //duplicated results (if any) are ignored.
+        final TreeMap<Integer, CommandResult> results = new TreeMap<>();
+        for (FlowFile part : parts) {
+            int index = this.getInteger(part, UCSSplitCommands.COMMANDS_INDEX_ATTRIBUTE_KEY);
+            if (results.containsKey(index)) {
+                logger.warn("Ignoring duplicated result of command #{} of {}: {}", new Object[]{index, id, part});
+                continue;
+            }
+
+            Map<String, String> attributes = new HashMap<>();
+            part.getAttributes().forEach((k, v) -> {
+                if (resultAttributes.matcher(k).matches() && !COMMANDS_ATTRIBUTES.matcher(k).matches()) {
+                    attributes.put(k, v);
+                }
+            });
+
+            final ObjectHolder<String> body = new ObjectHolder<>(null);
+            session.read(part, (final InputStream in) -> body.set(IOUtils.toString(in, StandardCharsets.UTF_8)));
+
+            results.put(index, new CommandResult(
+                    index,
+                    part.getAttribute(UCSSplitCommands.COMMANDS_NAME_ATTRIBUTE_KEY),
+                    attributes.get(UCSCreateException.TYPE_DEFAULT_ATTRIBUTE_NAME) == null,
+                    attributes,
+                    body.get()));
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (!results.containsKey(i)) {
+                logger.warn("The result of command #{} of {} didn't arrive on time.", new Object[]{i, id});
+                Map<String, String> attributes = new HashMap<>();
+                attributes.put(UCSCreateException.TYPE_DEFAULT_ATTRIBUTE_NAME, ExceptionType.General.name());
+                attributes.put(UCSCreateException.FAULT_DEFAULT_ATTRIBUTE_NAME, "The result of the command didn't arrive on time");
+                results.put(i, new CommandResult(i, null, false, attributes, null));
+            }
+        }
+
+        final String content;
+        try {
+            content = CommandResultSerializer.serializeCommandResults(new XMLListWrapper<>(new ArrayList<>(results.values())));
+        } catch (Exception ex) {
+            throw new ProcessException("Exception serializing the results of " + id, ex);
+        }
+
+        FlowFile aggregate = session.create(parts);
+        //the attributes common to every part must not be sent as if they
+        //were the headers of the whole response.
+        aggregate = session.removeAllAttributes(aggregate, UCS_ATTRIBUTES);
+        Map<String, String> responseAttributes = new HashMap<>();
+        FlowFile first = parts.get(0);
+        for (String attribute : RESPONSE_ATTRIBUTES) {
+            String value = first.getAttribute(UCSSplitCommands.COMMANDS_RESPONSE_ATTRIBUTE_PREFIX + attribute);
+            if (value != null) {
+                responseAttributes.put(attribute, value);
+            }
+        }
+        aggregate = session.putAllAttributes(aggregate, responseAttributes);
+        aggregate = session.write(aggregate, (final OutputStream out) -> out.write(content.getBytes(StandardCharsets.UTF_8)));
+
+        logger.debug("Aggregated {} results of {} into {}. Routing it to {}.", new Object[]{parts.size(), id, aggregate, REL_SUCCESS});
+        session.transfer(aggregate, REL_SUCCESS);
+        session.transfer(parts, REL_ORIGINAL);
+    }
+
+    private boolean isCommandResult(FlowFile flowFile) {
+        return flowFile.getAttribute(UCSSplitCommands.COMMANDS_ID_ATTRIBUTE_KEY) != null
+                && this.getInteger(flowFile, UCSSplitCommands.COMMANDS_INDEX_ATTRIBUTE_KEY) != null
+                && this.getInteger(flowFile, UCSSplitCommands.COMMANDS_COUNT_ATTRIBUTE_KEY) != null;
+    }
+
+    /**
+     * Whether the envelope of the result was already aggregated, i.e. the 
+     * result arrived after the envelope expired.
+     */
+    private boolean isLate(FlowFile flowFile) {
+        return aggregatedEnvelopes.containsKey(flowFile.getAttribute(UCSSplitCommands.COMMANDS_ID_ATTRIBUTE_KEY));
+    }
+
+    private Integer getInteger(FlowFile flowFile, String attribute) {
+        Long value = this.getLong(flowFile, attribute);
+        return value == null ? null : value.intValue();
+    }
+
+    private Long getLong(FlowFile flowFile, String attribute) {
+        String value = flowFile.getAttribute(attribute);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+}
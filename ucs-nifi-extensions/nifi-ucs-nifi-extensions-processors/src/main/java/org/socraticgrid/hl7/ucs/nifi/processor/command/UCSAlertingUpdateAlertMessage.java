@@ -238,7 +238,7 @@ public class UCSAlertingUpdateAlertMessage extends AbstractProcessor {
                             messages.add(MessageSerializer.deserializeMessageWrapper(originalMessageAsString));
                             //updated message.
                             messages.add(new MessageWrapper(originalAlertMessage));
-                            out.write(MessageSerializer.serializeMessageWrappers(messages).getBytes());
+                            MessageSerializer.serializeMessageWrappers(messages, out);
                         } catch (MessageSerializationException ex) {
                             //should never happen
                         }
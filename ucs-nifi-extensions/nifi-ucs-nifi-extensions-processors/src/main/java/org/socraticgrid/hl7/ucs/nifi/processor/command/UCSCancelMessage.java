@@ -207,7 +207,7 @@ public class UCSCancelMessage extends AbstractProcessor {
                     @Override
                     public void process(final OutputStream out) throws IOException {
                         try {
-                            out.write(MessageSerializer.serializeMessageWrapper(new MessageWrapper(originalAlertMessage)).getBytes());
+                            MessageSerializer.serializeMessageWrapper(new MessageWrapper(originalAlertMessage), out);
                         } catch (MessageSerializationException ex) {
                             //should never happen
                         }
@@ -238,7 +238,7 @@ public class UCSCancelMessage extends AbstractProcessor {
                     @Override
                     public void process(final OutputStream out) throws IOException {
                         try {
-                            out.write(MessageSerializer.serializeMessageWrapper(new MessageWrapper(originalAlertMessage)).getBytes());
+                            MessageSerializer.serializeMessageWrapper(new MessageWrapper(originalAlertMessage), out);
                         } catch (MessageSerializationException ex) {
                             //should never happen
                         }
@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
@@ -36,12 +37,17 @@ import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.io.OutputStreamCallback;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.socraticgrid.hl7.services.uc.exceptions.ExceptionType;
 import org.socraticgrid.hl7.services.uc.model.Message;
 import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.model.Page;
+import org.socraticgrid.hl7.ucs.nifi.common.query.MessageQuery;
 import org.socraticgrid.hl7.ucs.nifi.common.model.XMLListWrapper;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializationException;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializer;
 import org.socraticgrid.hl7.ucs.nifi.controller.UCSController;
+import org.socraticgrid.hl7.ucs.nifi.processor.UCSCreateException;
 
 /**
  *
@@ -49,7 +55,11 @@ import org.socraticgrid.hl7.ucs.nifi.controller.UCSController;
  */
 @EventDriven
 @Tags({"UCS", "Message", "Command"})
-@CapabilityDescription("Retrieve messages from UCSController and starts a new FlowFile for each of them.")
+@CapabilityDescription("Retrieve messages from UCSController and starts a new FlowFile for each of them. "
+        + "If the incoming FlowFile has a 'command.args' attribute with the format '<page size>[:<cursor>]', only a page of messages is retrieved "
+        + "and the cursor to the next page, if any, is set in the 'ucs.next.cursor' attribute of the created FlowFile/s. "
+        + "If the incoming FlowFile has a 'command.args.2' attribute, it is used as a query (i.e. \"sender = 'eafry' AND created >= 2015-06-01\") "
+        + "and only the matching messages are retrieved.")
 public class UCSGetMessages extends AbstractProcessor {
 
     public static final PropertyDescriptor UCS_CONTROLLER_SERVICE = new PropertyDescriptor.Builder()
@@ -75,7 +85,18 @@ public class UCSGetMessages extends AbstractProcessor {
             .defaultValue("true")
             .build();
 
+    public static final PropertyDescriptor MAX_PAGE_SIZE = new PropertyDescriptor.Builder()
+            .name("Max Page Size")
+            .description("The maximum number of messages retrieved in a single page. Bigger page sizes requested in 'command.args' are reduced to this value.")
+            .required(true)
+            .defaultValue("1000")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final String NEXT_CURSOR_ATTRIBUTE = "ucs.next.cursor";
+    
     public static final Relationship REL_SUCCESS = new Relationship.Builder().name("success").description("Each message found in UCS Controller will start a new FileFlow through this relationship.").build();
+    public static final Relationship REL_FAILURE = new Relationship.Builder().name("failure").description("If the paging arguments are not valid, the original FlowFile is routed to this relationship.").build();
 
     private final AtomicReference<Set<Relationship>> relationships = new AtomicReference<>();
     private List<PropertyDescriptor> properties;
@@ -84,12 +105,14 @@ public class UCSGetMessages extends AbstractProcessor {
     protected void init(final ProcessorInitializationContext context) {
         final Set<Relationship> relationships = new HashSet<>();
         relationships.add(REL_SUCCESS);
+        relationships.add(REL_FAILURE);
         this.relationships.set(Collections.unmodifiableSet(relationships));
 
         final List<PropertyDescriptor> properties = new ArrayList<>();
         properties.add(UCS_CONTROLLER_SERVICE);
         properties.add(KEEP_ORIGINAL_ATTRIBUTES);
         properties.add(UNIQUE_FLOWFILE);
+        properties.add(MAX_PAGE_SIZE);
         this.properties = Collections.unmodifiableList(properties);
     }
 
@@ -116,8 +139,64 @@ public class UCSGetMessages extends AbstractProcessor {
         
         UCSController ucsService = context.getProperty(UCS_CONTROLLER_SERVICE).asControllerService(UCSController.class);
 
-        //TODO: add filtering capabilities.
-        List<Message> messages = ucsService.listMessages();
+        List<Message> messages;
+        final Optional<String> nextCursor;
+        
+        //optional query
+        String query = originalFlowFile == null ? null : originalFlowFile.getAttribute("command.args.2");
+        if (query != null && !query.trim().isEmpty()) {
+            try {
+                MessageQuery.parse(query);
+            } catch (IllegalArgumentException e) {
+                logger.error("Invalid query '{}': {}. Routing FlowFile {} to {}.", new Object[]{query, e.getMessage(), originalFlowFile, REL_FAILURE});
+                UCSCreateException.routeFlowFileToException(
+                        context,
+                        session,
+                        logger,
+                        originalFlowFile,
+                        REL_FAILURE,
+                        null,
+                        e.getMessage(),
+                        ExceptionType.InvalidQuery,
+                        null,
+                        null);
+                return;
+            }
+        } else {
+            query = null;
+        }
+        
+        //optional paging arguments: <page size>[:<cursor>]
+        String pagingArgs = originalFlowFile == null ? null : originalFlowFile.getAttribute("command.args");
+        if (pagingArgs == null || pagingArgs.trim().isEmpty()) {
+            messages = query == null ? ucsService.listMessages() : ucsService.queryMessages(query, null);
+            nextCursor = Optional.empty();
+        } else {
+            try {
+                String[] args = pagingArgs.trim().split(":", 2);
+                int pageSize = Math.min(Integer.parseInt(args[0]), context.getProperty(MAX_PAGE_SIZE).asInteger());
+                Optional<String> cursor = args.length > 1 && !args[1].isEmpty() ? Optional.of(args[1]) : Optional.empty();
+                
+                Page<Message> page = query == null ? ucsService.listMessages(cursor, pageSize) : ucsService.queryMessages(query, null, cursor, pageSize);
+                messages = page.getItems();
+                nextCursor = page.getNextCursor();
+            } catch (IllegalArgumentException e) {
+                //NumberFormatException is also an IllegalArgumentException
+                logger.error("Invalid paging arguments '{}': {}. Routing FlowFile {} to {}.", new Object[]{pagingArgs, e.getMessage(), originalFlowFile, REL_FAILURE});
+                UCSCreateException.routeFlowFileToException(
+                        context,
+                        session,
+                        logger,
+                        originalFlowFile,
+                        REL_FAILURE,
+                        null,
+                        "Invalid paging arguments '" + pagingArgs + "': " + e.getMessage(),
+                        ExceptionType.InvalidInput,
+                        null,
+                        null);
+                return;
+            }
+        }
 
         //wrap each Message with a MessageWrapper and Serialize them
         final List<MessageWrapper> result = messages.parallelStream()
@@ -129,11 +208,12 @@ public class UCSGetMessages extends AbstractProcessor {
         if (context.getProperty(UNIQUE_FLOWFILE).asBoolean()) {
             logger.debug("Kep original attributes of FileFlow {}? {}", new Object[]{originalFlowFile, context.getProperty(KEEP_ORIGINAL_ATTRIBUTES).asBoolean()});
             FlowFile flowFile = context.getProperty(KEEP_ORIGINAL_ATTRIBUTES).asBoolean() && originalFlowFile != null ? session.create(originalFlowFile) : session.create();
+            flowFile = this.putNextCursor(session, flowFile, nextCursor);
             flowFile = session.write(flowFile, new OutputStreamCallback() {
                 @Override
                 public void process(final OutputStream out) throws IOException {
                     try {
-                        out.write(MessageSerializer.serializeMessageWrappers(new XMLListWrapper<>(result)).getBytes());
+                        MessageSerializer.serializeMessageWrappers(new XMLListWrapper<>(result), out);
                     } catch (MessageSerializationException ex) {
                         //should never happen
                     }
@@ -147,11 +227,12 @@ public class UCSGetMessages extends AbstractProcessor {
             for (final MessageWrapper mw : result) {
                 logger.debug("Keep original attributes of FileFlow {}? {}", new Object[]{originalFlowFile, context.getProperty(KEEP_ORIGINAL_ATTRIBUTES).asBoolean()});
                 FlowFile flowFile = context.getProperty(KEEP_ORIGINAL_ATTRIBUTES).asBoolean() && originalFlowFile != null ? session.create(originalFlowFile) : session.create();
+                flowFile = this.putNextCursor(session, flowFile, nextCursor);
                 flowFile = session.write(flowFile, new OutputStreamCallback() {
                     @Override
                     public void process(final OutputStream out) throws IOException {
                         try {
-                            out.write(MessageSerializer.serializeMessageWrapper(mw).getBytes());
+                            MessageSerializer.serializeMessageWrapper(mw, out);
                         } catch (MessageSerializationException ex) {
                             //should never happen
                         }
@@ -171,4 +252,11 @@ public class UCSGetMessages extends AbstractProcessor {
         }
 
     }
+    
+    private FlowFile putNextCursor(ProcessSession session, FlowFile flowFile, Optional<String> nextCursor) {
+        if (nextCursor.isPresent()) {
+            return session.putAttribute(flowFile, NEXT_CURSOR_ATTRIBUTE, nextCursor.get());
+        }
+        return flowFile;
+    }
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.processor.command;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.nifi.annotation.behavior.EventDriven;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.logging.ProcessorLog;
+import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.io.OutputStreamCallback;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.socraticgrid.hl7.services.uc.exceptions.ExceptionType;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageChanges;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageChangesSerializer;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializationException;
+import org.socraticgrid.hl7.ucs.nifi.controller.UCSController;
+import org.socraticgrid.hl7.ucs.nifi.processor.UCSCreateException;
+
+/**
+ *
+ * @author esteban
+ */
+@EventDriven
+@Tags({"UCS", "Message", "Command", "Sync"})
+@CapabilityDescription("Retrieve a page of the messages saved or updated and the ids of the messages removed from UCSController since a sync point "
+        + "and places them in a single FlowFile, together with the sync point to be used in the next call (also set in the 'ucs.sync.point' attribute). "
+        + "The incoming FlowFile may have a 'command.args' attribute with the format '<page size>[:<cursor>]', where the cursor is a sync point or "
+        + "the cursor to the next page of a previous call. If there are more changes, the cursor to the next page is set in the 'ucs.next.cursor' "
+        + "attribute. If no cursor is given or the changes after the sync point are no longer known, every message is retrieved, one page at a time, "
+        + "and the result is flagged as a full sync.")
+public class UCSGetMessagesSince extends AbstractProcessor {
+
+    public static final PropertyDescriptor UCS_CONTROLLER_SERVICE = new PropertyDescriptor.Builder()
+            .name("UCS Controller Service")
+            .description("The UCS Controller Service that this Processor uses behind the scenes.")
+            .identifiesControllerService(UCSController.class)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor KEEP_ORIGINAL_ATTRIBUTES = new PropertyDescriptor.Builder()
+            .name("Keep Attributes")
+            .description("If true, all the attributes present in the incoming FlowFile will be kept in the created FlowFile.")
+            .required(true)
+            .allowableValues("true", "false")
+            .defaultValue("true")
+            .build();
+
+    public static final PropertyDescriptor MAX_PAGE_SIZE = new PropertyDescriptor.Builder()
+            .name("Max Page Size")
+            .description("The maximum number of changes retrieved in a single page. Bigger page sizes requested in 'command.args' are reduced to this value.")
+            .required(true)
+            .defaultValue("1000")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final String SYNC_POINT_ATTRIBUTE = "ucs.sync.point";
+    public static final String NEXT_CURSOR_ATTRIBUTE = "ucs.next.cursor";
+
+    public static final Relationship REL_SUCCESS = new Relationship.Builder().name("success").description("A page of the changes since the given sync point is sent in a single FlowFile through this relationship.").build();
+    public static final Relationship REL_FAILURE = new Relationship.Builder().name("failure").description("If the paging arguments are not valid or the changes can't be serialized, the original FlowFile is routed to this relationship.").build();
+
+    private final AtomicReference<Set<Relationship>> relationships = new AtomicReference<>();
+    private List<PropertyDescriptor> properties;
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        final Set<Relationship> relationships = new HashSet<>();
+        relationships.add(REL_SUCCESS);
+        relationships.add(REL_FAILURE);
+        this.relationships.set(Collections.unmodifiableSet(relationships));
+
+        final List<PropertyDescriptor> properties = new ArrayList<>();
+        properties.add(UCS_CONTROLLER_SERVICE);
+        properties.add(KEEP_ORIGINAL_ATTRIBUTES);
+        properties.add(MAX_PAGE_SIZE);
+        this.properties = Collections.unmodifiableList(properties);
+    }
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return properties;
+    }
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return relationships.get();
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) {
+
+        FlowFile originalFlowFile = session.get();
+
+        final ProcessorLog logger = getLogger();
+
+        UCSController ucsService = context.getProperty(UCS_CONTROLLER_SERVICE).asControllerService(UCSController.class);
+
+        //optional paging arguments: <page size>[:<cursor>]
+        String pagingArgs = originalFlowFile == null ? null : originalFlowFile.getAttribute("command.args");
+
+        MessageChanges changes;
+        try {
+            int pageSize = context.getProperty(MAX_PAGE_SIZE).asInteger();
+            Optional<String> cursor = Optional.empty();
+            if (pagingArgs != null && !pagingArgs.trim().isEmpty()) {
+                String[] args = pagingArgs.trim().split(":", 2);
+                pageSize = Math.min(Integer.parseInt(args[0]), pageSize);
+                cursor = args.length > 1 && !args[1].isEmpty() ? Optional.of(args[1]) : Optional.empty();
+            }
+            changes = ucsService.listMessageChanges(cursor, pageSize);
+        } catch (IllegalArgumentException e) {
+            //NumberFormatException is also an IllegalArgumentException
+            logger.error("Invalid paging arguments '{}': {}. Routing FlowFile {} to {}.", new Object[]{pagingArgs, e.getMessage(), originalFlowFile, REL_FAILURE});
+            UCSCreateException.routeFlowFileToException(
+                    context,
+                    session,
+                    logger,
+                    originalFlowFile,
+                    REL_FAILURE,
+                    null,
+                    "Invalid paging arguments '" + pagingArgs + "': " + e.getMessage(),
+                    ExceptionType.InvalidInput,
+                    null,
+                    null);
+            return;
+        }
+
+        logger.debug("Changes for paging arguments {}: {}", new Object[]{pagingArgs, changes});
+
+        final byte[] serializedChanges;
+        try {
+            serializedChanges = MessageChangesSerializer.serializeMessageChanges(changes).getBytes(StandardCharsets.UTF_8);
+        } catch (MessageSerializationException e) {
+            FlowFile failedFlowFile = originalFlowFile != null ? originalFlowFile : session.create();
+            logger.error("Error serializing {}: {}. Routing FlowFile {} to {}.", new Object[]{changes, e.getMessage(), failedFlowFile, REL_FAILURE}, e);
+            UCSCreateException.routeFlowFileToException(
+                    context,
+                    session,
+                    logger,
+                    failedFlowFile,
+                    REL_FAILURE,
+                    null,
+                    "Error serializing the changes: " + e.getMessage(),
+                    ExceptionType.SystemFault,
+                    null,
+                    null);
+            return;
+        }
+
+        FlowFile flowFile = context.getProperty(KEEP_ORIGINAL_ATTRIBUTES).asBoolean() && originalFlowFile != null ? session.create(originalFlowFile) : session.create();
+        flowFile = session.putAttribute(flowFile, SYNC_POINT_ATTRIBUTE, changes.getSyncPoint());
+        if (changes.hasNext()) {
+            flowFile = session.putAttribute(flowFile, NEXT_CURSOR_ATTRIBUTE, changes.getNextCursor());
+        }
+        flowFile = session.write(flowFile, new OutputStreamCallback() {
+            @Override
+            public void process(final OutputStream out) throws IOException {
+                out.write(serializedChanges);
+            }
+        });
+
+        session.getProvenanceReporter().create(flowFile);
+        session.transfer(flowFile, REL_SUCCESS);
+        logger.debug("Changes retrieved and sent in FlowFile {} through {}", new Object[]{flowFile, REL_SUCCESS});
+
+        if (originalFlowFile != null) {
+            logger.debug("Removing original FlowFile");
+            session.remove(originalFlowFile);
+        }
+    }
+}
@@ -51,7 +51,8 @@ import org.socraticgrid.hl7.ucs.nifi.processor.UCSCreateException;
  */
 @EventDriven
 @Tags({"UCS", "Conversation", "Command"})
-@CapabilityDescription("Queries Conversations in UCS.")
+@CapabilityDescription("Queries Conversations in UCS. If the incoming FlowFile has a 'command.args' attribute, it is used as a query "
+        + "(i.e. \"sender = 'eafry' AND status = OK\"): only the Conversations with matching Messages are retrieved.")
 public class UCSQueryConversations extends AbstractProcessor {
 
     public static final PropertyDescriptor UCS_CONTROLLER_SERVICE = new PropertyDescriptor.Builder()
@@ -110,7 +111,27 @@ public class UCSQueryConversations extends AbstractProcessor {
         UCSController ucsService = context.getProperty(UCS_CONTROLLER_SERVICE).asControllerService(UCSController.class);
 
         try{
-            List<Conversation> conversations = ucsService.queryConversations(null, null);
+            //optional query
+            String query = flowFile.getAttribute("command.args");
+            
+            List<Conversation> conversations;
+            try {
+                conversations = ucsService.queryConversations(query, null);
+            } catch (IllegalArgumentException e) {
+                logger.error("Invalid query '{}': {}. Routing FlowFile {} to {}.", new Object[]{query, e.getMessage(), flowFile, REL_FAILURE});
+                UCSCreateException.routeFlowFileToException(
+                        context,
+                        session,
+                        logger,
+                        flowFile,
+                        REL_FAILURE,
+                        null,
+                        e.getMessage(),
+                        ExceptionType.InvalidQuery,
+                        null,
+                        null);
+                return;
+            }
             logger.debug("{} conversations found.", new Object[]{conversations.size()});
 
             //wrap each Conversation with a ConversationWrapper and Serialize them
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.processor.command;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.apache.nifi.annotation.behavior.EventDriven;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.logging.ProcessorLog;
+import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.util.ObjectHolder;
+import org.socraticgrid.hl7.services.uc.exceptions.ExceptionType;
+import org.socraticgrid.hl7.ucs.nifi.processor.UCSCreateException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ *
+ * @author esteban
+ */
+@EventDriven
+@Tags({"UCS", "Command", "Batch"})
+@CapabilityDescription("Splits a <commands> envelope, containing several commands and a single <response> element, into one FlowFile "
+        + "per command. Each command is routed to 'command' with the same content and attributes ('command.name', 'command.args', "
+        + "'command.args.N') a command sent individually would have, but without the 'response.*' attributes: they are kept in "
+        + "the 'ucs.commands.response.*' attributes instead, together with the 'ucs.commands.id', 'ucs.commands.index' and "
+        + "'ucs.commands.count' attributes used by UCSAggregateCommandResults to send the responses of every command back "
+        + "in a single callback. The 'ucs.commands.endpoint' attribute contains the interface (client, alerting, management "
+        + "or conversation) the command belongs to.")
+public class UCSSplitCommands extends AbstractProcessor {
+
+    public static final String COMMANDS_ID_ATTRIBUTE_KEY = "ucs.commands.id";
+    public static final String COMMANDS_INDEX_ATTRIBUTE_KEY = "ucs.commands.index";
+    public static final String COMMANDS_COUNT_ATTRIBUTE_KEY = "ucs.commands.count";
+    public static final String COMMANDS_NAME_ATTRIBUTE_KEY = "ucs.commands.name";
+    public static final String COMMANDS_ENDPOINT_ATTRIBUTE_KEY = "ucs.commands.endpoint";
+    public static final String COMMANDS_TIMESTAMP_ATTRIBUTE_KEY = "ucs.commands.timestamp";
+    public static final String COMMANDS_RESPONSE_ATTRIBUTE_PREFIX = "ucs.commands.";
+
+    private static final String[] RESPONSE_ATTRIBUTES = {"response.host", "response.port", "response.context"};
+    private static final Pattern COMMAND_ATTRIBUTES = Pattern.compile("command\\..*");
+    private static final Pattern RESPONSE_ATTRIBUTES_PATTERN = Pattern.compile("response\\..*");
+
+    public static final Relationship REL_COMMAND = new Relationship.Builder()
+            .name("command")
+            .description("Each command of the envelope is transfered to this relation as an individual flowfile.")
+            .build();
+
+    public static final Relationship REL_ORIGINAL = new Relationship.Builder()
+            .name("original")
+            .description("The incoming flowfile is transfered to this relation once it was split.")
+            .build();
+
+    public static final Relationship REL_FAILURE = new Relationship.Builder()
+            .name("failure")
+            .description("If some error occurred, exception will be routed to this destination")
+            .build();
+
+    private final AtomicReference<Set<Relationship>> relationships = new AtomicReference<>();
+    private List<PropertyDescriptor> properties;
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        final Set<Relationship> relationships = new HashSet<>();
+        relationships.add(REL_COMMAND);
+        relationships.add(REL_ORIGINAL);
+        relationships.add(REL_FAILURE);
+        this.relationships.set(Collections.unmodifiableSet(relationships));
+
+        this.properties = Collections.unmodifiableList(new ArrayList<>());
+    }
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return properties;
+    }
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return relationships.get();
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) {
+
+        FlowFile flowFile = session.get();
+        if (flowFile == null) {
+            return;
+        }
+
+        final ProcessorLog logger = getLogger();
+
+        final ObjectHolder<Document> envelope = new ObjectHolder<>(null);
+        try {
+            session.read(flowFile, (final InputStream in) -> {
+                try {
+                    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+                    factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+                    DocumentBuilder builder = factory.newDocumentBuilder();
+                    envelope.set(builder.parse(in));
+                } catch (Exception ex) {
+                    throw new ProcessException(ex);
+                }
+            });
+        } catch (ProcessException ex) {
+            this.routeToFailure(context, session, logger, flowFile, "Exception parsing commands: " + ex.getMessage(), ex);
+            return;
+        }
+
+        Element root = envelope.get().getDocumentElement();
+        if (!"commands".equals(root.getTagName())) {
+            this.routeToFailure(context, session, logger, flowFile, "Unexpected root element: " + root.getTagName(), null);
+            return;
+        }
+
+        //the response attributes are set first so the errors can be sent
+        //back to the client.
+        Map<String, String> responseAttributes = new HashMap<>();
+        Element response = this.getChild(root, "response");
+        if (response != null) {
+            for (String attribute : RESPONSE_ATTRIBUTES) {
+                Element value = this.getChild(response, attribute.substring("response.".length()));
+                if (value != null) {
+                    responseAttributes.put(attribute, value.getTextContent().trim());
+                }
+            }
+            flowFile = session.putAllAttributes(flowFile, responseAttributes);
+        }
+
+        final List<Element> commands = this.getChildren(root, "command");
+        if (commands.isEmpty()) {
+            this.routeToFailure(context, session, logger, flowFile, "The envelope doesn't contain any command", null);
+            return;
+        }
+
+        final String commandsId = flowFile.getAttribute(CoreAttributes.UUID.key());
+        final String timestamp = String.valueOf(System.currentTimeMillis());
+
+        List<FlowFile> commandFlowFiles = new ArrayList<>(commands.size());
+        try {
+            final Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+
+            for (int i = 0; i < commands.size(); i++) {
+                final Element command = commands.get(i);
+
+                Element name = this.getChild(command, "name");
+                if (name == null || name.getTextContent().trim().isEmpty()) {
+                    throw new IllegalArgumentException("Missing name of command #" + i);
+                }
+
+                Map<String, String> attributes = new HashMap<>();
+                attributes.put("command.name", name.getTextContent().trim());
+                Element args = this.getChild(command, "args");
+                if (args != null) {
+                    List<Element> argList = this.getChildren(args, "arg");
+                    //'command.args' always contains the first argument.
+                    for (int j = 0; j < argList.size(); j++) {
+                        if (j == 0) {
+                            attributes.put("command.args", argList.get(j).getTextContent());
+                        }
+                        if (argList.size() > 1) {
+                            attributes.put("command.args." + (j + 1), argList.get(j).getTextContent());
+                        }
+                    }
+                }
+                attributes.put(COMMANDS_ID_ATTRIBUTE_KEY, commandsId);
+                attributes.put(COMMANDS_INDEX_ATTRIBUTE_KEY, String.valueOf(i));
+                attributes.put(COMMANDS_COUNT_ATTRIBUTE_KEY, String.valueOf(commands.size()));
+                attributes.put(COMMANDS_NAME_ATTRIBUTE_KEY, name.getTextContent().trim());
+                attributes.put(COMMANDS_ENDPOINT_ATTRIBUTE_KEY, command.getAttribute("endpoint"));
+                attributes.put(COMMANDS_TIMESTAMP_ATTRIBUTE_KEY, timestamp);
+                responseAttributes.forEach((k, v) -> attributes.put(COMMANDS_RESPONSE_ATTRIBUTE_PREFIX + k, v));
+
+                FlowFile commandFlowFile = session.create(flowFile);
+                try {
+                    commandFlowFile = session.removeAllAttributes(commandFlowFile, COMMAND_ATTRIBUTES);
+                    commandFlowFile = session.removeAllAttributes(commandFlowFile, RESPONSE_ATTRIBUTES_PATTERN);
+                    commandFlowFile = session.putAllAttributes(commandFlowFile, attributes);
+                    commandFlowFile = session.write(commandFlowFile, (final OutputStream out) -> {
+                        try {
+                            transformer.transform(new DOMSource(command), new StreamResult(out));
+                        } catch (Exception ex) {
+                            throw new ProcessException(ex);
+                        }
+                    });
+                } finally {
+                    //keep track of the latest version so it can be removed
+                    //if something goes wrong.
+                    commandFlowFiles.add(commandFlowFile);
+                }
+            }
+        } catch (Exception ex) {
+            session.remove(commandFlowFiles);
+            this.routeToFailure(context, session, logger, flowFile, "Exception splitting commands: " + ex.getMessage(), ex);
+            return;
+        }
+
+        session.transfer(commandFlowFiles, REL_COMMAND);
+        logger.debug("{} split into {} commands. Routing it to {} relation.", new Object[]{flowFile, commands.size(), REL_ORIGINAL});
+        session.transfer(flowFile, REL_ORIGINAL);
+    }
+
+    private void routeToFailure(ProcessContext context, ProcessSession session, ProcessorLog logger, FlowFile flowFile, String fault, Exception ex) {
+        if (ex == null) {
+            logger.error("{}. Routing FlowFile {} to {}.", new Object[]{fault, flowFile, REL_FAILURE});
+        } else {
+            logger.error("{}. Routing FlowFile {} to {}.", new Object[]{fault, flowFile, REL_FAILURE}, ex);
+        }
+        UCSCreateException.routeFlowFileToException(
+                context,
+                session,
+                logger,
+                flowFile,
+                REL_FAILURE,
+                null,
+                fault,
+                ExceptionType.InvalidInput,
+                null,
+                null);
+    }
+
+    private Element getChild(Element parent, String tagName) {
+        List<Element> children = this.getChildren(parent, tagName);
+        return children.isEmpty() ? null : children.get(0);
+    }
+
+    private List<Element> getChildren(Element parent, String tagName) {
+        List<Element> result = new ArrayList<>();
+        NodeList nodes = parent.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Node node = nodes.item(i);
+            if (node.getNodeType() == Node.ELEMENT_NODE && tagName.equals(((Element) node).getTagName())) {
+                result.add((Element) node);
+            }
+        }
+        return result;
+    }
+}
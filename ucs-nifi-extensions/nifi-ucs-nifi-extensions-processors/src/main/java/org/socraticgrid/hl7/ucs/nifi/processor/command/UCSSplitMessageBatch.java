@@ -0,0 +1,278 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.processor.command;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.nifi.annotation.behavior.EventDriven;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.logging.ProcessorLog;
+import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.io.OutputStreamCallback;
+import org.apache.nifi.util.ObjectHolder;
+import org.socraticgrid.hl7.services.uc.exceptions.ExceptionType;
+import org.socraticgrid.hl7.services.uc.model.Message;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageSubmissionResult;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.model.XMLListWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializationException;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializer;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSubmissionResultSerializer;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.XMLWrapperCodec;
+import org.socraticgrid.hl7.ucs.nifi.controller.UCSController;
+import org.socraticgrid.hl7.ucs.nifi.processor.UCSCreateException;
+
+/**
+ *
+ * @author esteban
+ */
+@EventDriven
+@Tags({"UCS", "Message", "Command", "Batch"})
+@CapabilityDescription("Splits a batch of messages sent using the 'sendMessages' command. The content of the incoming FlowFile "
+        + "is the serialized list of Messages. Every message in the batch is validated: messages without an id get a new one "
+        + "and messages with an id that is duplicated in the batch or already present in UCS, or related to an unknown conversation, are rejected. "
+        + "Each valid message is routed to 'message' as an individual FlowFile, created in the same session, so it can follow the same path as "
+        + "a message sent individually. The incoming FlowFile is routed to 'success' with the per-message ids and validation results as its content.")
+public class UCSSplitMessageBatch extends AbstractProcessor {
+
+    public static final String BATCH_ID_ATTRIBUTE_KEY = "ucs.batch.id";
+    public static final String BATCH_INDEX_ATTRIBUTE_KEY = "ucs.batch.index";
+    public static final String BATCH_SIZE_ATTRIBUTE_KEY = "ucs.batch.size";
+    public static final String BATCH_VALID_COUNT_ATTRIBUTE_KEY = "ucs.batch.valid.count";
+
+    private static final Pattern COMMAND_ATTRIBUTES = Pattern.compile("command\\..*");
+
+    public static final PropertyDescriptor UCS_CONTROLLER_SERVICE = new PropertyDescriptor.Builder()
+            .name("UCS Controller Service")
+            .description("The UCS Controller Service that this Processor uses behind the scenes.")
+            .identifiesControllerService(UCSController.class)
+            .required(true)
+            .build();
+
+    public static final Relationship REL_SUCCESS = new Relationship.Builder()
+            .name("success")
+            .description("The incoming flowfile, containing the validation results of every message in the batch, will be transfered to this relation.")
+            .build();
+
+    public static final Relationship REL_MESSAGE = new Relationship.Builder()
+            .name("message")
+            .description("Each valid message of the batch is transfered to this relation as an individual flowfile.")
+            .build();
+
+    public static final Relationship REL_FAILURE = new Relationship.Builder()
+            .name("failure")
+            .description("If some error occurred, exception will be routed to this destination")
+            .build();
+
+    private final AtomicReference<Set<Relationship>> relationships = new AtomicReference<>();
+    private List<PropertyDescriptor> properties;
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        final Set<Relationship> relationships = new HashSet<>();
+        relationships.add(REL_SUCCESS);
+        relationships.add(REL_MESSAGE);
+        relationships.add(REL_FAILURE);
+        this.relationships.set(Collections.unmodifiableSet(relationships));
+
+        final List<PropertyDescriptor> properties = new ArrayList<>();
+        properties.add(UCS_CONTROLLER_SERVICE);
+        this.properties = Collections.unmodifiableList(properties);
+    }
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return properties;
+    }
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return relationships.get();
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) {
+
+        FlowFile flowFile = session.get();
+        if (flowFile == null) {
+            return;
+        }
+
+        final ProcessorLog logger = getLogger();
+
+        UCSController ucsService = context.getProperty(UCS_CONTROLLER_SERVICE).asControllerService(UCSController.class);
+
+        //The content of the incoming flowfile is the serialized batch
+        if (flowFile.getSize() == 0) {
+            logger.error("Missing batch of messages. Routing FlowFile {} to {}.", new Object[]{flowFile, REL_FAILURE});
+            UCSCreateException.routeFlowFileToException(
+                    context,
+                    session,
+                    logger,
+                    flowFile,
+                    REL_FAILURE,
+                    null,
+                    "Missing batch of messages",
+                    ExceptionType.InvalidInput,
+                    null,
+                    null);
+            return;
+        }
+
+        final ObjectHolder<Throwable> errorHolder = new ObjectHolder<>(null);
+        final ObjectHolder<XMLListWrapper<MessageWrapper>> batchHolder = new ObjectHolder<>(null);
+
+        session.read(flowFile, (final InputStream in) -> {
+            try {
+                batchHolder.set(MessageSerializer.deserializeMessageWrappers(in));
+            } catch (Exception ex) {
+                errorHolder.set(ex);
+            }
+        });
+
+        if (errorHolder.get() != null) {
+            Throwable ex = errorHolder.get();
+            logger.error("Exception deserializing batch of messages. Routing FlowFile {} to {}.", new Object[]{flowFile, REL_FAILURE}, ex);
+            UCSCreateException.routeFlowFileToException(
+                    context,
+                    session,
+                    logger,
+                    flowFile,
+                    REL_FAILURE,
+                    null,
+                    "Exception deserializing batch of messages: " + ex.getMessage(),
+                    ExceptionType.InvalidMessage,
+                    null,
+                    null);
+            return;
+        }
+
+        final List<MessageWrapper> messageWrappers = batchHolder.get().getItems();
+        final List<MessageSubmissionResult> results = new ArrayList<>(messageWrappers.size());
+        final Set<String> batchIds = new HashSet<>();
+
+        //The ids of all the messages in the batch are looked up in UCS at
+        //once. Each conversation is only looked up once per batch.
+        final Set<String> knownMessageIds = ucsService.existsMessageIds(messageWrappers.stream()
+                .map(MessageWrapper::getMessage)
+                .filter(m -> m != null && m.getHeader() != null && !StringUtils.isEmpty(m.getHeader().getMessageId()))
+                .map(m -> m.getHeader().getMessageId())
+                .collect(Collectors.toSet()));
+        final Map<String, Boolean> knownConversationIds = new HashMap<>();
+        final String batchId = flowFile.getAttribute(CoreAttributes.UUID.key());
+
+        for (int i = 0; i < messageWrappers.size(); i++) {
+            final Message message = messageWrappers.get(i).getMessage();
+
+            MessageSubmissionResult result = this.validate(ucsService, message, i, batchIds, knownMessageIds, knownConversationIds);
+            results.add(result);
+            if (!result.isValid()) {
+                logger.debug("Message #{} of batch {} is not valid: {}", new Object[]{i, batchId, result.getError()});
+                continue;
+            }
+
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put(BATCH_ID_ATTRIBUTE_KEY, batchId);
+            attributes.put(BATCH_INDEX_ATTRIBUTE_KEY, String.valueOf(i));
+            attributes.put(BATCH_SIZE_ATTRIBUTE_KEY, String.valueOf(messageWrappers.size()));
+            attributes.put(CoreAttributes.MIME_TYPE.key(), XMLWrapperCodec.MIME_TYPE);
+
+            //the command attributes are not copied into each message.
+            FlowFile messageFlowFile = session.create(flowFile);
+            messageFlowFile = session.removeAllAttributes(messageFlowFile, COMMAND_ATTRIBUTES);
+            messageFlowFile = session.putAllAttributes(messageFlowFile, attributes);
+            messageFlowFile = session.write(messageFlowFile, new OutputStreamCallback() {
+                @Override
+                public void process(final OutputStream out) throws IOException {
+                    try {
+                        MessageSerializer.serializeMessageWrapper(new MessageWrapper(message), out);
+                    } catch (MessageSerializationException ex) {
+                        throw new IOException(ex);
+                    }
+                }
+            });
+            session.transfer(messageFlowFile, REL_MESSAGE);
+        }
+
+        final long validCount = results.stream().filter(MessageSubmissionResult::isValid).count();
+        flowFile = session.putAttribute(flowFile, BATCH_SIZE_ATTRIBUTE_KEY, String.valueOf(messageWrappers.size()));
+        flowFile = session.putAttribute(flowFile, BATCH_VALID_COUNT_ATTRIBUTE_KEY, String.valueOf(validCount));
+        flowFile = session.write(flowFile, new OutputStreamCallback() {
+            @Override
+            public void process(final OutputStream out) throws IOException {
+                try {
+                    out.write(MessageSubmissionResultSerializer.serializeMessageSubmissionResults(results).getBytes(StandardCharsets.UTF_8));
+                } catch (MessageSerializationException ex) {
+                    throw new IOException(ex);
+                }
+            }
+        });
+
+        logger.debug("Batch of {} messages ({} valid) split. Routing {} to {} relation.", new Object[]{messageWrappers.size(), validCount, flowFile, REL_SUCCESS});
+        session.transfer(flowFile, REL_SUCCESS);
+    }
+
+    /**
+     * Validates a single message of a batch. Messages without an id (or with
+     * an empty one) get a new one. The id of a valid message is added to batchIds.
+     * knownMessageIds are the ids of the batch already present in UCS and
+     * knownConversationIds caches the conversations looked up in this batch.
+     */
+    private MessageSubmissionResult validate(UCSController ucsService, Message message, int index, Set<String> batchIds, Set<String> knownMessageIds, Map<String, Boolean> knownConversationIds) {
+        if (message == null || message.getHeader() == null) {
+            return MessageSubmissionResult.invalid(index, null, "Missing message header");
+        }
+
+        String messageId = message.getHeader().getMessageId();
+        if (StringUtils.isEmpty(messageId)) {
+            messageId = UUID.randomUUID().toString();
+            message.getHeader().setMessageId(messageId);
+        } else if (batchIds.contains(messageId) || knownMessageIds.contains(messageId)) {
+            return MessageSubmissionResult.invalid(index, messageId, "Duplicated Message Id: " + messageId);
+        }
+
+        String conversationId = message.getHeader().getRelatedConversationId();
+        if (!StringUtils.isEmpty(conversationId)
+                && !knownConversationIds.computeIfAbsent(conversationId, id -> ucsService.getConversationById(id).isPresent())) {
+            return MessageSubmissionResult.invalid(index, messageId, "Unknown Conversation Id: " + conversationId);
+        }
+
+        batchIds.add(messageId);
+        return MessageSubmissionResult.valid(index, messageId);
+    }
+}
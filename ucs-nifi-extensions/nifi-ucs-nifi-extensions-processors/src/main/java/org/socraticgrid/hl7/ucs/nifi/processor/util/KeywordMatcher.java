@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.processor.util;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Aho-Corasick automaton over a group of keywords. A single pass over a
+ * text finds every keyword it contains, no matter how many keywords there
+ * are. Each keyword is associated with a value (i.e. a Relationship); the
+ * matching methods return the values of the keywords found.
+ *
+ * Case insensitive matchers only fold US-ASCII characters, like
+ * {@link java.util.regex.Pattern#CASE_INSENSITIVE} does.
+ *
+ * Instances are immutable and thread-safe. They are created using
+ * {@link Builder}.
+ *
+ * @author esteban
+ * @param <T>
+ */
+public class KeywordMatcher<T> {
+
+    public static class Builder<T> {
+
+        private final boolean caseSensitive;
+        private final Map<String, Set<T>> keywords = new HashMap<>();
+
+        public Builder(boolean caseSensitive) {
+            this.caseSensitive = caseSensitive;
+        }
+
+        /**
+         * @param keyword must not be empty.
+         * @param value
+         * @return
+         */
+        public Builder<T> addKeyword(String keyword, T value) {
+            if (keyword == null || keyword.isEmpty()) {
+                throw new IllegalArgumentException("Keywords can't be empty");
+            }
+            keywords.computeIfAbsent(keyword, k -> new HashSet<>()).add(value);
+            return this;
+        }
+
+        public KeywordMatcher<T> build() {
+            return new KeywordMatcher<>(this);
+        }
+    }
+
+    private static class Node<T> {
+
+        private final Map<Character, Node<T>> children = new HashMap<>();
+        private Node<T> failure;
+        //values of the keywords ending exactly at this node.
+        private final Set<T> values = new HashSet<>();
+        //values of the keywords ending at this node or at any node of its
+        //failure chain.
+        private Set<T> outputs = Collections.emptySet();
+    }
+
+    private final boolean caseSensitive;
+    private final Node<T> root = new Node<>();
+    private final int valueCount;
+
+    private KeywordMatcher(Builder<T> builder) {
+        this.caseSensitive = builder.caseSensitive;
+
+        Set<T> allValues = new HashSet<>();
+        for (Map.Entry<String, Set<T>> entry : builder.keywords.entrySet()) {
+            Node<T> node = root;
+            for (int i = 0; i < entry.getKey().length(); i++) {
+                node = node.children.computeIfAbsent(this.fold(entry.getKey().charAt(i)), c -> new Node<>());
+            }
+            node.values.addAll(entry.getValue());
+            allValues.addAll(entry.getValue());
+        }
+        this.valueCount = allValues.size();
+
+        this.linkFailures();
+    }
+
+    /**
+     * Breadth-first computation of the failure links and the outputs of
+     * every node.
+     */
+    private void linkFailures() {
+        Queue<Node<T>> queue = new ArrayDeque<>();
+        root.failure = root;
+        root.outputs = root.values;
+        for (Node<T> child : root.children.values()) {
+            child.failure = root;
+            queue.add(child);
+        }
+
+        while (!queue.isEmpty()) {
+            Node<T> node = queue.poll();
+
+            if (node.failure.outputs.isEmpty()) {
+                node.outputs = node.values;
+            } else {
+                node.outputs = new HashSet<>(node.values);
+                node.outputs.addAll(node.failure.outputs);
+            }
+
+            for (Map.Entry<Character, Node<T>> entry : node.children.entrySet()) {
+                Node<T> failure = node.failure;
+                while (failure != root && !failure.children.containsKey(entry.getKey())) {
+                    failure = failure.failure;
+                }
+                Node<T> target = failure.children.get(entry.getKey());
+                entry.getValue().failure = (target == null || target == entry.getValue()) ? root : target;
+                queue.add(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @param text
+     * @return the values of all the keywords contained in text.
+     */
+    public Set<T> findAll(CharSequence text) {
+        Set<T> result = new HashSet<>();
+        Node<T> node = root;
+        for (int i = 0; i < text.length(); i++) {
+            char c = this.fold(text.charAt(i));
+            Node<T> next = node.children.get(c);
+            while (next == null && node != root) {
+                node = node.failure;
+                next = node.children.get(c);
+            }
+            node = next == null ? root : next;
+
+            if (!node.outputs.isEmpty()) {
+                result.addAll(node.outputs);
+                if (result.size() == valueCount) {
+                    //nothing else to find.
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param text
+     * @return the values of the keywords equal to text.
+     */
+    public Set<T> findExact(CharSequence text) {
+        Node<T> node = root;
+        for (int i = 0; i < text.length() && node != null; i++) {
+            node = node.children.get(this.fold(text.charAt(i)));
+        }
+        return node == null ? Collections.emptySet() : Collections.unmodifiableSet(node.values);
+    }
+
+    private char fold(char c) {
+        if (!caseSensitive && c >= 'A' && c <= 'Z') {
+            return (char) (c + ('a' - 'A'));
+        }
+        return c;
+    }
+}
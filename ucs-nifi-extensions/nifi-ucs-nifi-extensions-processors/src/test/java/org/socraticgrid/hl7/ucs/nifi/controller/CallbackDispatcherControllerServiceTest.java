@@ -0,0 +1,336 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.controller;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.IOUtils;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import org.junit.After;
+import org.junit.Test;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.ContentEncoding;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializer;
+import org.socraticgrid.hl7.ucs.nifi.common.util.MessageBuilder;
+import org.socraticgrid.hl7.ucs.nifi.processor.UCSControllerServiceBasedTest;
+import org.socraticgrid.hl7.ucs.nifi.processor.UCSGetUCSClientCallbacks;
+import org.socraticgrid.hl7.ucs.nifi.processor.model.MessageWithUnreachableHandlers;
+
+/**
+ *
+ * @author esteban
+ */
+public class CallbackDispatcherControllerServiceTest extends UCSControllerServiceBasedTest {
+
+    private static class Request {
+
+        private final String path;
+        private final String body;
+        private final String contentEncoding;
+
+        public Request(String path, String body, String contentEncoding) {
+            this.path = path;
+            this.body = body;
+            this.contentEncoding = contentEncoding;
+        }
+    }
+
+    private CallbackDispatcherControllerService dispatcher;
+    private HttpServer server;
+    private URL callback;
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    private volatile int responseStatus = 200;
+    private volatile CountDownLatch release;
+
+    @Override
+    protected void afterInit() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", he -> {
+            CountDownLatch latch = release;
+            if (latch != null) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            String contentEncoding = he.getRequestHeaders().getFirst("Content-Encoding");
+            InputStream body = ContentEncoding.fromName(contentEncoding).decode(he.getRequestBody());
+            requests.add(new Request(he.getRequestURI().getPath(), IOUtils.toString(body, StandardCharsets.UTF_8), contentEncoding));
+            he.sendResponseHeaders(responseStatus, -1);
+            he.close();
+        });
+        server.start();
+        callback = new URL("http://localhost:" + server.getAddress().getPort() + "/listener");
+        controller.registerUCSClientCallback(callback);
+    }
+
+    @After
+    public void doAfter() {
+        if (release != null) {
+            release.countDown();
+        }
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testBatching() throws Exception {
+        this.enableDispatcher(this.createProperties("500 millis", "1", "3"));
+
+        List<MessageWrapper> messages = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            MessageWrapper mw = this.createMessageWrapper();
+            messages.add(mw);
+            assertThat(dispatcher.dispatch(callback, "newMessage", MessageSerializer.serializeMessageWrapper(mw), mw.getMessage()), is(true));
+        }
+
+        Request request = requests.poll(5, TimeUnit.SECONDS);
+        assertThat(request.path, is("/listener/newMessage"));
+
+        //all the notifications were delivered in a single request and in order.
+        List<MessageWrapper> delivered = MessageSerializer.deserializeMessageWrapperBatch(request.body);
+        assertThat(delivered, hasSize(5));
+        for (int i = 0; i < 5; i++) {
+            assertThat(delivered.get(i).getMessage().getHeader().getMessageId(), is(messages.get(i).getMessage().getHeader().getMessageId()));
+        }
+        assertThat(requests.poll(200, TimeUnit.MILLISECONDS), nullValue());
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        MessageWrapper mw = this.createMessageWrapper();
+        String serialized = MessageSerializer.serializeMessageWrapper(mw);
+
+        Map<String, String> properties = this.createProperties("200 millis", "1", "3");
+        properties.put(CallbackDispatcherControllerService.COMPRESSION_FORMAT.getName(), "gzip");
+        properties.put(CallbackDispatcherControllerService.COMPRESSION_THRESHOLD.getName(), (serialized.getBytes(StandardCharsets.UTF_8).length * 2) + " B");
+        this.enableDispatcher(properties);
+
+        //a single message is below the threshold.
+        dispatcher.dispatch(callback, "handleNotification", serialized, mw.getMessage());
+        Request request = requests.poll(5, TimeUnit.SECONDS);
+        assertThat(request.contentEncoding, nullValue());
+        assertThat(MessageSerializer.deserializeMessageWrapper(request.body).getMessage().getHeader().getMessageId(), is(mw.getMessage().getHeader().getMessageId()));
+
+        //a batch is above it.
+        for (int i = 0; i < 10; i++) {
+            mw = this.createMessageWrapper();
+            dispatcher.dispatch(callback, "newMessage", MessageSerializer.serializeMessageWrapper(mw), mw.getMessage());
+        }
+        request = requests.poll(5, TimeUnit.SECONDS);
+        assertThat(request.contentEncoding, is("gzip"));
+        assertThat(MessageSerializer.deserializeMessageWrapperBatch(request.body), hasSize(10));
+    }
+
+    @Test
+    public void testNonBatchableActions() throws Exception {
+        this.enableDispatcher(this.createProperties("200 millis", "1", "3"));
+
+        for (int i = 0; i < 3; i++) {
+            MessageWrapper mw = this.createMessageWrapper();
+            dispatcher.dispatch(callback, "exception", "<exception" + i + "/>", mw.getMessage());
+        }
+
+        for (int i = 0; i < 3; i++) {
+            Request request = requests.poll(5, TimeUnit.SECONDS);
+            assertThat(request.path, is("/listener/exception"));
+            assertThat(request.body, is("<exception" + i + "/>"));
+        }
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        responseStatus = 500;
+        this.enableDispatcher(this.createProperties("1 millis", "1", "1"));
+
+        MessageWrapper mw = this.createMessageWrapper();
+        dispatcher.dispatch(callback, "newMessage", MessageSerializer.serializeMessageWrapper(mw), mw.getMessage());
+
+        //the original request and its retry.
+        assertThat(requests.poll(5, TimeUnit.SECONDS).path, is("/listener/newMessage"));
+        assertThat(requests.poll(5, TimeUnit.SECONDS).path, is("/listener/newMessage"));
+
+        long timeout = System.currentTimeMillis() + 5000;
+        while (!dispatcher.isCircuitOpen(callback) && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertThat(dispatcher.isCircuitOpen(callback), is(true));
+
+        //notifications for a dead callback are not sent.
+        MessageWrapper other = this.createMessageWrapper();
+        assertThat(dispatcher.dispatch(callback, "newMessage", MessageSerializer.serializeMessageWrapper(other), other.getMessage()), is(true));
+        assertThat(requests.poll(200, TimeUnit.MILLISECONDS), nullValue());
+
+        Set<MessageWithUnreachableHandlers> unreachable = controller.consumeMessagesWithUnreachableHandlers();
+        assertThat(unreachable, hasSize(2));
+        for (MessageWithUnreachableHandlers m : unreachable) {
+            assertThat(m.getReason(), is(MessageWithUnreachableHandlers.Reason.ALL_HANDLERS));
+        }
+    }
+
+    @Test
+    public void testDispatchFromProcessor() throws Exception {
+        this.enableDispatcher(this.createProperties("1 millis", "1", "3"));
+
+        MessageWrapper mw = this.createMessageWrapper();
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("ucs.client.action", "newMessage");
+        testRunner.enqueue(MessageSerializer.serializeMessageWrapper(mw).getBytes(StandardCharsets.UTF_8), attributes);
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(UCSGetUCSClientCallbacks.REL_SUCCESS, 1);
+        MockFlowFile flowFile = testRunner.getFlowFilesForRelationship(UCSGetUCSClientCallbacks.REL_SUCCESS).get(0);
+        assertThat(flowFile.getAttribute(UCSGetUCSClientCallbacks.DISPATCHED_ATTRIBUTE_KEY), is("1"));
+
+        Request request = requests.poll(5, TimeUnit.SECONDS);
+        assertThat(request.path, is("/listener/newMessage"));
+        assertThat(MessageSerializer.deserializeMessageWrapper(request.body).getMessage().getHeader().getMessageId(),
+                is(mw.getMessage().getHeader().getMessageId()));
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        release = new CountDownLatch(1);
+        Map<String, String> properties = this.createProperties("1 millis", "1", "3");
+        properties.put(CallbackDispatcherControllerService.QUEUE_CAPACITY.getName(), "1");
+        this.enableDispatcher(properties);
+
+        //the first one is being delivered (the callback is blocked) and the
+        //second one fills the queue.
+        AtomicInteger accepted = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            MessageWrapper mw = this.createMessageWrapper();
+            if (dispatcher.dispatch(callback, "newMessage", MessageSerializer.serializeMessageWrapper(mw), mw.getMessage())) {
+                accepted.incrementAndGet();
+            }
+            Thread.sleep(100);
+        }
+        assertThat(accepted.get(), is(2));
+        assertThat(dispatcher.hasCapacity(callback), is(false));
+
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("ucs.client.action", "newMessage");
+        testRunner.enqueue(MessageSerializer.serializeMessageWrapper(this.createMessageWrapper()).getBytes(StandardCharsets.UTF_8), attributes);
+        testRunner.run();
+
+        //the FlowFile is kept in its queue.
+        testRunner.assertTransferCount(UCSGetUCSClientCallbacks.REL_SUCCESS, 0);
+        testRunner.assertTransferCount(UCSGetUCSClientCallbacks.REL_FAILURE, 0);
+        assertThat(testRunner.getQueueSize().getObjectCount(), is(1));
+
+        release.countDown();
+        assertThat(requests.poll(5, TimeUnit.SECONDS), notNullValue());
+        assertThat(requests.poll(5, TimeUnit.SECONDS), notNullValue());
+    }
+
+    @Test
+    public void testUnregisteredCallbacks() throws Exception {
+        release = new CountDownLatch(1);
+        this.enableDispatcher(this.createProperties("1 millis", "0", "1"));
+
+        //a second callback that is never reachable.
+        URL deadCallback = new URL("http://localhost:1/listener");
+        String deadRegistrationId = controller.registerUCSAlertingCallback(deadCallback);
+
+        MessageWrapper mw = this.createMessageWrapper();
+        dispatcher.dispatch(callback, "newMessage", MessageSerializer.serializeMessageWrapper(mw), mw.getMessage());
+        dispatcher.dispatch(deadCallback, "newMessage", MessageSerializer.serializeMessageWrapper(mw), mw.getMessage());
+        assertThat(dispatcher.getEndpointCount(), is(2));
+
+        //'callback' is still alive.
+        Set<MessageWithUnreachableHandlers> unreachable = this.awaitMessagesWithUnreachableHandlers(1);
+        assertThat(unreachable.iterator().next().getReason(), is(MessageWithUnreachableHandlers.Reason.SOME_HANDLERS));
+
+        //once unregistered, the endpoint is removed on the next dispatch.
+        controller.unregisterUCSAlertingCallback(deadRegistrationId);
+        dispatcher.dispatch(callback, "newMessage", MessageSerializer.serializeMessageWrapper(mw), mw.getMessage());
+        assertThat(dispatcher.getEndpointCount(), is(1));
+        assertThat(dispatcher.isCircuitOpen(deadCallback), is(false));
+
+        //notifications for unregistered callbacks are discarded.
+        assertThat(dispatcher.dispatch(deadCallback, "newMessage", MessageSerializer.serializeMessageWrapper(mw), mw.getMessage()), is(true));
+        assertThat(dispatcher.getEndpointCount(), is(1));
+        release.countDown();
+        assertThat(requests.poll(5, TimeUnit.SECONDS).path, is("/listener/newMessage"));
+        assertThat(controller.consumeMessagesWithUnreachableHandlers().isEmpty(), is(true));
+    }
+
+    private Set<MessageWithUnreachableHandlers> awaitMessagesWithUnreachableHandlers(int count) throws InterruptedException {
+        Set<MessageWithUnreachableHandlers> result = new HashSet<>();
+        long timeout = System.currentTimeMillis() + 5000;
+        while (result.size() < count && System.currentTimeMillis() < timeout) {
+            result.addAll(controller.consumeMessagesWithUnreachableHandlers());
+            Thread.sleep(10);
+        }
+        assertThat(result, hasSize(count));
+        return result;
+    }
+
+    @Override
+    protected TestRunner createTestRunner() {
+        return TestRunners.newTestRunner(new UCSGetUCSClientCallbacks());
+    }
+
+    private Map<String, String> createProperties(String batchWait, String maxRetries, String circuitBreakerThreshold) {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(CallbackDispatcherControllerService.UCS_CONTROLLER_SERVICE.getName(), "ucs-controller");
+        properties.put(CallbackDispatcherControllerService.BATCH_WAIT.getName(), batchWait);
+        properties.put(CallbackDispatcherControllerService.MAX_RETRIES.getName(), maxRetries);
+        properties.put(CallbackDispatcherControllerService.RETRY_BACKOFF.getName(), "10 millis");
+        properties.put(CallbackDispatcherControllerService.CIRCUIT_BREAKER_THRESHOLD.getName(), circuitBreakerThreshold);
+        return properties;
+    }
+
+    private void enableDispatcher(Map<String, String> properties) throws Exception {
+        dispatcher = new CallbackDispatcherControllerService();
+        testRunner.addControllerService("callback-dispatcher", dispatcher, properties);
+        testRunner.enableControllerService(dispatcher);
+        testRunner.setProperty(UCSGetUCSClientCallbacks.CALLBACK_DISPATCHER, "callback-dispatcher");
+    }
+
+    private MessageWrapper createMessageWrapper() throws Exception {
+        return new MessageBuilder()
+                .withMessageId(UUID.randomUUID().toString())
+                .withSender("eafry")
+                .withSubject("Subject")
+                .withBody("Body")
+                .buildMessageWrapper();
+    }
+}
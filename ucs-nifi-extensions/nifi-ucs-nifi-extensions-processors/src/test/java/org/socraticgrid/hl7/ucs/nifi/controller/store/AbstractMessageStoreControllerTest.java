@@ -0,0 +1,462 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.controller.store;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.socraticgrid.hl7.services.uc.model.Conversation;
+import org.socraticgrid.hl7.services.uc.model.DeliveryStatus;
+import org.socraticgrid.hl7.services.uc.model.Message;
+import org.socraticgrid.hl7.ucs.nifi.common.model.Page;
+import org.socraticgrid.hl7.ucs.nifi.common.util.MessageBuilder;
+import org.socraticgrid.hl7.ucs.nifi.processor.UCSPersistMessage;
+
+/**
+ * Tests that every {@link MessageStoreController} implementation must pass.
+ *
+ * @author esteban
+ */
+public abstract class AbstractMessageStoreControllerTest {
+
+    protected TestRunner testRunner;
+    protected MessageStoreController store;
+
+    @Before
+    public void init() throws Exception {
+        testRunner = TestRunners.newTestRunner(new UCSPersistMessage());
+        store = this.enableStore("ucs-message-store");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.stop();
+    }
+
+    /**
+     * Creates, configures and enables a new instance of the store under test.
+     * @param identifier
+     * @return
+     * @throws Exception
+     */
+    protected MessageStoreController enableStore(String identifier) throws Exception {
+        MessageStoreController messageStore = this.createMessageStoreController();
+        testRunner.addControllerService(identifier, messageStore, this.getMessageStoreControllerProperties());
+        testRunner.enableControllerService(messageStore);
+        messageStore.start();
+        return messageStore;
+    }
+
+    protected abstract MessageStoreController createMessageStoreController() throws Exception;
+
+    protected Map<String, String> getMessageStoreControllerProperties() throws Exception {
+        return Collections.emptyMap();
+    }
+
+    protected Message createMessage(String messageId, String conversationId) throws Exception {
+        MessageBuilder builder = new MessageBuilder()
+                .withMessageId(messageId)
+                .withSender("eafry")
+                .withSubject("Subject of " + messageId)
+                .withBody("Some Body")
+                .addRecipient(new MessageBuilder.Recipient("ealiverti", "SMS"));
+        if (conversationId != null) {
+            builder.withConversationId(conversationId);
+        }
+        return builder.buildMessage();
+    }
+
+    protected Conversation createConversation(String conversationId) {
+        Conversation conversation = new Conversation();
+        conversation.setConversationId(conversationId);
+        return conversation;
+    }
+
+    protected List<String> ids(List<Message> messages) {
+        return messages.stream().map(m -> m.getHeader().getMessageId()).collect(toList());
+    }
+
+    @Test
+    public void testSaveAndGetMessage() throws Exception {
+        assertThat(store.getMessageById("M1").isPresent(), is(false));
+
+        store.saveMessage(this.createMessage("M1", null));
+
+        Optional<Message> message = store.getMessageById("M1");
+        assertThat(message.isPresent(), is(true));
+        assertThat(message.get().getHeader().getSubject(), is("Subject of M1"));
+        assertThat(message.get().getHeader().getRecipientsList().size(), is(1));
+    }
+
+    @Test
+    public void testUpdateMessage() throws Exception {
+        Message message = this.createMessage("M1", null);
+        store.saveMessage(message);
+
+        message.getHeader().setSubject("Updated Subject");
+        store.updateMessage(message);
+
+        assertThat(store.getMessageById("M1").get().getHeader().getSubject(), is("Updated Subject"));
+        assertThat(store.listMessages().size(), is(1));
+    }
+
+    @Test
+    public void testListMessages() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            store.saveMessage(this.createMessage("M" + i, null));
+        }
+
+        assertThat(ids(store.listMessages()), contains("M0", "M1", "M2", "M3", "M4", "M5", "M6", "M7", "M8", "M9"));
+        assertThat(ids(store.listMessages(0, 3)), contains("M0", "M1", "M2"));
+        assertThat(ids(store.listMessages(8, 5)), contains("M8", "M9"));
+        assertThat(store.listMessages(10, 5).isEmpty(), is(true));
+    }
+
+    @Test
+    public void testConversations() throws Exception {
+        assertThat(store.getConversationById("C1").isPresent(), is(false));
+
+        store.saveConversation(this.createConversation("C1"));
+        store.saveConversation(this.createConversation("C2"));
+
+        assertThat(store.getConversationById("C1").get().getConversationId(), is("C1"));
+        assertThat(store.queryConversations(null, null).stream().map(Conversation::getConversationId).collect(toList()), contains("C1", "C2"));
+
+        try {
+            store.saveConversation(this.createConversation("C1"));
+            fail("Exception expected");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testListMessagesByConversationId() throws Exception {
+        store.saveMessage(this.createMessage("M1", "C1"));
+        store.saveMessage(this.createMessage("M2", "C2"));
+        store.saveMessage(this.createMessage("M3", "C1"));
+        store.saveMessage(this.createMessage("M4", null));
+
+        assertThat(store.isKnownConversation("C1"), is(true));
+        assertThat(store.isKnownConversation("C2"), is(true));
+        assertThat(store.isKnownConversation("C3"), is(false));
+
+        assertThat(ids(store.listMessagesByConversationId("C1")), contains("M1", "M3"));
+        assertThat(ids(store.listMessagesByConversationId("C2")), contains("M2"));
+        assertThat(store.listMessagesByConversationId("C3").isEmpty(), is(true));
+    }
+
+    @Test
+    public void testListMessagesByConversationIdFromTotal() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            store.saveMessage(this.createMessage("M" + i, "C1"));
+        }
+
+        assertThat(ids(store.listMessagesByConversationId("C1", Optional.of(1L), Optional.of(2L))), contains("M1", "M2"));
+        assertThat(ids(store.listMessagesByConversationId("C1", Optional.of(3L), Optional.empty())), contains("M3", "M4"));
+        assertThat(ids(store.listMessagesByConversationId("C1", Optional.empty(), Optional.of(1L))), contains("M0"));
+    }
+
+    @Test
+    public void testCursorPagination() throws Exception {
+        for (int i = 0; i < 7; i++) {
+            store.saveMessage(this.createMessage("M" + i, i % 2 == 0 ? "C1" : "C2"));
+        }
+
+        List<String> all = new ArrayList<>();
+        List<Integer> pageSizes = new ArrayList<>();
+        Optional<String> cursor = Optional.empty();
+        do {
+            Page<Message> page = store.listMessages(cursor, 3);
+            all.addAll(ids(page.getItems()));
+            pageSizes.add(page.getItems().size());
+            cursor = page.getNextCursor();
+        } while (cursor.isPresent());
+        assertThat(all, contains("M0", "M1", "M2", "M3", "M4", "M5", "M6"));
+        assertThat(pageSizes, contains(3, 3, 1));
+
+        //a page that ends exactly at the end of the store has no next cursor.
+        Page<Message> page = store.listMessages(Optional.empty(), 7);
+        assertThat(page.getItems().size(), is(7));
+        assertThat(page.hasNext(), is(false));
+
+        //messages saved after a cursor was created are visible in the next pages.
+        page = store.listMessages(Optional.empty(), 6);
+        store.saveMessage(this.createMessage("M7", "C1"));
+        assertThat(ids(store.listMessages(page.getNextCursor(), 6).getItems()), contains("M6", "M7"));
+
+        List<String> conversation = new ArrayList<>();
+        cursor = Optional.empty();
+        do {
+            page = store.listMessagesByConversationId("C1", cursor, 2);
+            conversation.addAll(ids(page.getItems()));
+            cursor = page.getNextCursor();
+        } while (cursor.isPresent());
+        assertThat(conversation, contains("M0", "M2", "M4", "M6", "M7"));
+
+        assertThat(store.listMessagesByConversationId("C3", Optional.empty(), 2).getItems().isEmpty(), is(true));
+
+        try {
+            store.listMessages(Optional.of("not-a-cursor"), 2);
+            fail("Exception expected");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        
+        try {
+            store.listMessages(Optional.empty(), 0);
+            fail("Exception expected");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    protected Message createMessage(String messageId, String conversationId, String sender, String recipient, String serviceId, Date created) throws Exception {
+        return new MessageBuilder()
+                .withMessageId(messageId)
+                .withConversationId(conversationId)
+                .withSender(sender)
+                .withSubject("Subject of " + messageId)
+                .withBody("Some Body")
+                .withCreatedDate(created)
+                .addRecipient(new MessageBuilder.Recipient(recipient, serviceId))
+                .buildMessage();
+    }
+
+    @Test
+    public void testQueryMessages() throws Exception {
+        long day = TimeUnit.DAYS.toMillis(1);
+        long start = Instant.parse("2015-06-01T00:00:00Z").toEpochMilli();
+        for (int i = 0; i < 10; i++) {
+            store.saveMessage(this.createMessage("M" + i, "C" + (i % 3), i % 2 == 0 ? "eafry" : "ealiverti", "jhughes" + (i % 2), i < 5 ? "SMS" : "EMAIL", new Date(start + i * day)));
+        }
+        
+        Message delivered = store.getMessageById("M4").get();
+        DeliveryStatus deliveryStatus = new DeliveryStatus();
+        deliveryStatus.setRecipient(delivered.getHeader().getRecipientsList().iterator().next());
+        deliveryStatus.setStatus("OK");
+        List<DeliveryStatus> deliveryStatusList = new ArrayList<>();
+        deliveryStatusList.add(deliveryStatus);
+        delivered.getHeader().setDeliveryStatusList(deliveryStatusList);
+        store.updateMessage(delivered);
+
+        assertThat(ids(store.queryMessages(null, null)).size(), is(10));
+        assertThat(ids(store.queryMessages("sender = eafry", null)), contains("M0", "M2", "M4", "M6", "M8"));
+        assertThat(ids(store.queryMessages("sender = 'eafry' AND serviceId = EMAIL", null)), contains("M6", "M8"));
+        assertThat(ids(store.queryMessages("recipient = jhughes1 and conversationId = C1", null)), contains("M1", "M7"));
+        assertThat(ids(store.queryMessages("status = OK", null)), contains("M4"));
+        assertThat(ids(store.queryMessages("created >= 2015-06-03 AND created < 2015-06-06", null)), contains("M2", "M3", "M4"));
+        assertThat(ids(store.queryMessages("created > '2015-06-09T00:00:00Z'", null)), contains("M9"));
+        assertThat(store.queryMessages("sender = nobody", null).isEmpty(), is(true));
+        
+        //updates are reindexed
+        Message updated = store.getMessageById("M1").get();
+        updated.getHeader().setRelatedConversationId("C2");
+        store.updateMessage(updated);
+        assertThat(ids(store.queryMessages("conversationId = C1", null)), contains("M4", "M7"));
+        assertThat(ids(store.queryMessages("conversationId = C2", null)), contains("M1", "M2", "M5", "M8"));
+
+        List<String> all = new ArrayList<>();
+        Optional<String> cursor = Optional.empty();
+        do {
+            Page<Message> page = store.queryMessages("sender = eafry", null, cursor, 2);
+            all.addAll(ids(page.getItems()));
+            cursor = page.getNextCursor();
+        } while (cursor.isPresent());
+        assertThat(all, contains("M0", "M2", "M4", "M6", "M8"));
+
+        for (String invalidQuery : new String[]{"unknown = 1", "sender > eafry", "sender = 'eafry", "sender = eafry OR sender = ealiverti", "created >= yesterday"}) {
+            try {
+                store.queryMessages(invalidQuery, null);
+                fail("Exception expected for query: " + invalidQuery);
+            } catch (IllegalArgumentException e) {
+                //expected
+            }
+        }
+    }
+
+    @Test
+    public void testQueryConversations() throws Exception {
+        store.saveConversation(this.createConversation("C1"));
+        store.saveConversation(this.createConversation("C2"));
+        store.saveConversation(this.createConversation("C3"));
+        
+        store.saveMessage(this.createMessage("M1", "C1", "eafry", "ealiverti", "SMS", new Date()));
+        store.saveMessage(this.createMessage("M2", "C2", "ealiverti", "eafry", "EMAIL", new Date()));
+
+        assertThat(store.queryConversations(null, null).stream().map(Conversation::getConversationId).collect(toList()), contains("C1", "C2", "C3"));
+        assertThat(store.queryConversations("sender = ealiverti", null).stream().map(Conversation::getConversationId).collect(toList()), contains("C2"));
+        assertThat(store.queryConversations("recipient = ealiverti AND serviceId = SMS", null).stream().map(Conversation::getConversationId).collect(toList()), contains("C1"));
+        //a conversation without messages
+        assertThat(store.queryConversations("conversationId = C3", null).stream().map(Conversation::getConversationId).collect(toList()), contains("C3"));
+        assertThat(store.queryConversations("sender = nobody", null).isEmpty(), is(true));
+    }
+
+    @Test
+    public void testMessageReferences() throws Exception {
+        assertThat(store.getMessageRecipientTupleByReferece("R1").isPresent(), is(false));
+
+        store.addMessageReference("R1", new MessageRecipientTuple("M1", "Recipient1"));
+
+        Optional<MessageRecipientTuple> tuple = store.getMessageRecipientTupleByReferece("R1");
+        assertThat(tuple.isPresent(), is(true));
+        assertThat(tuple.get().getMessageId(), is("M1"));
+        assertThat(tuple.get().getRecipientId(), is("Recipient1"));
+    }
+
+    @Test
+    public void testBulkOperations() throws Exception {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            messages.add(this.createMessage("M" + i, "C1"));
+        }
+        store.saveMessages(messages);
+
+        assertThat(ids(store.listMessagesByConversationId("C1")), contains("M0", "M1", "M2", "M3", "M4"));
+
+        Map<String, Message> found = store.getMessagesByIds(Arrays.asList("M1", "M3", "M9"));
+        assertThat(found.keySet(), containsInAnyOrder("M1", "M3"));
+        assertThat(found.get("M3").getHeader().getSubject(), is("Subject of M3"));
+
+        assertThat(store.existsMessageIds(Arrays.asList("M0", "M4", "M9")), containsInAnyOrder("M0", "M4"));
+        assertThat(store.existsMessageIds(Collections.emptyList()).isEmpty(), is(true));
+
+        Map<String, MessageRecipientTuple> references = new HashMap<>();
+        references.put("R1", new MessageRecipientTuple("M1", "Recipient1"));
+        references.put("R2", new MessageRecipientTuple("M1", "Recipient2"));
+        store.addMessageReferences(references);
+
+        assertThat(store.getMessageRecipientTupleByReferece("R1").get().getRecipientId(), is("Recipient1"));
+        assertThat(store.getMessageRecipientTupleByReferece("R2").get().getRecipientId(), is("Recipient2"));
+    }
+
+    @Test
+    public void testRelatedMessages() throws Exception {
+        store.saveMessage(this.createMessage("M1", null));
+
+        Message m2 = this.createMessage("M2", null);
+        m2.getHeader().setRelatedMessageId("M1");
+        store.saveMessage(m2);
+
+        Message m3 = this.createMessage("M3", null);
+        m3.getHeader().setRelatedMessageId("M1");
+        store.saveMessage(m3);
+
+        Set<String> related = store.getRelatedMessages("M1").stream().map(m -> m.getHeader().getMessageId()).collect(toSet());
+        assertThat(related, containsInAnyOrder("M2", "M3"));
+        assertThat(store.getRelatedMessages("M2").isEmpty(), is(true));
+        assertThat(store.getRelatedMessages(null).isEmpty(), is(true));
+
+        //an update changing the relation
+        m3.getHeader().setRelatedMessageId("M2");
+        store.updateMessage(m3);
+
+        related = store.getRelatedMessages("M1").stream().map(m -> m.getHeader().getMessageId()).collect(toSet());
+        assertThat(related, containsInAnyOrder("M2"));
+        related = store.getRelatedMessages("M2").stream().map(m -> m.getHeader().getMessageId()).collect(toSet());
+        assertThat(related, containsInAnyOrder("M3"));
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final int writers = 8;
+        final int messagesPerWriter = 250;
+        final int pageSize = 7;
+
+        ExecutorService executor = Executors.newFixedThreadPool(writers + 1);
+        try {
+            AtomicBoolean writing = new AtomicBoolean(true);
+            List<Future<?>> writes = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                final String conversationId = "C" + w;
+                writes.add(executor.submit(() -> {
+                    for (int i = 0; i < messagesPerWriter; i++) {
+                        store.saveMessage(this.createMessage(conversationId + "-M" + i, conversationId));
+                    }
+                    return null;
+                }));
+            }
+
+            //pages read while the store is being written must never contain
+            //duplicates and the listing can only grow.
+            Future<?> reads = executor.submit(() -> {
+                int previousSize = 0;
+                while (writing.get()) {
+                    List<String> all = ids(store.listMessages());
+                    assertThat(all.size() >= previousSize, is(true));
+                    assertThat(new HashSet<>(all).size(), is(all.size()));
+                    previousSize = all.size();
+
+                    List<String> paged = new ArrayList<>();
+                    for (int from = 0; from < previousSize; from += pageSize) {
+                        paged.addAll(ids(store.listMessages(from, pageSize)));
+                    }
+                    assertThat(paged.subList(0, previousSize), is(all));
+                }
+                return null;
+            });
+
+            for (Future<?> write : writes) {
+                write.get(60, TimeUnit.SECONDS);
+            }
+            writing.set(false);
+            reads.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<String> all = ids(store.listMessages());
+        assertThat(all.size(), is(writers * messagesPerWriter));
+        assertThat(new HashSet<>(all).size(), is(all.size()));
+
+        for (int w = 0; w < writers; w++) {
+            String conversationId = "C" + w;
+            List<String> expected = IntStream.range(0, messagesPerWriter)
+                    .mapToObj(i -> conversationId + "-M" + i)
+                    .collect(toList());
+            //each writer's messages keep their relative order.
+            assertThat(all.stream().filter(id -> id.startsWith(conversationId + "-")).collect(toList()), is(expected));
+            assertThat(ids(store.listMessagesByConversationId(conversationId)), is(expected));
+        }
+    }
+
+}
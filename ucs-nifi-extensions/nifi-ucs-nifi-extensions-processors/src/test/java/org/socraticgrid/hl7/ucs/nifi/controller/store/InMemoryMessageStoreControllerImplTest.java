@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.controller.store;
+
+import java.io.File;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.socraticgrid.hl7.services.uc.model.DeliveryStatus;
+import org.socraticgrid.hl7.services.uc.model.Message;
+
+/**
+ *
+ * @author esteban
+ */
+public class InMemoryMessageStoreControllerImplTest extends AbstractMessageStoreControllerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private final Map<String, String> properties = new HashMap<>();
+    
+    @Override
+    protected MessageStoreController createMessageStoreController() throws Exception {
+        return new InMemoryMessageStoreControllerImpl();
+    }
+
+    @Override
+    protected Map<String, String> getMessageStoreControllerProperties() throws Exception {
+        return properties;
+    }
+    
+    private InMemoryMessageStoreControllerImpl enableStore(String identifier, Map<String, String> storeProperties) throws Exception {
+        store.stop();
+        properties.clear();
+        properties.putAll(storeProperties);
+        store = this.enableStore(identifier);
+        return (InMemoryMessageStoreControllerImpl) store;
+    }
+    
+    private void deliver(Message message) {
+        DeliveryStatus deliveryStatus = new DeliveryStatus();
+        deliveryStatus.setRecipient(message.getHeader().getRecipientsList().iterator().next());
+        deliveryStatus.setStatus("OK");
+        
+        List<DeliveryStatus> deliveryStatusList = new ArrayList<>();
+        deliveryStatusList.add(deliveryStatus);
+        message.getHeader().setDeliveryStatusList(deliveryStatusList);
+    }
+    
+    @Test
+    public void testMaxMessagesEviction() throws Exception {
+        Map<String, String> storeProperties = new HashMap<>();
+        storeProperties.put(InMemoryMessageStoreControllerImpl.MAX_MESSAGES.getName(), "3");
+        InMemoryMessageStoreControllerImpl boundedStore = this.enableStore("bounded-store", storeProperties);
+        
+        for (int i = 0; i < 5; i++) {
+            boundedStore.saveMessage(this.createMessage("M" + i, "C1"));
+            boundedStore.addMessageReference("R" + i, new MessageRecipientTuple("M" + i, "ealiverti"));
+        }
+        
+        assertThat(ids(boundedStore.listMessages()), contains("M2", "M3", "M4"));
+        assertThat(ids(boundedStore.listMessages(1, 5)), contains("M3", "M4"));
+        assertThat(ids(boundedStore.listMessagesByConversationId("C1")), contains("M2", "M3", "M4"));
+        assertThat(boundedStore.isKnownConversation("C1"), is(true));
+        
+        assertThat(boundedStore.getMessageById("M0").isPresent(), is(false));
+        assertThat(boundedStore.getMessageRecipientTupleByReferece("R0").isPresent(), is(false));
+        assertThat(boundedStore.getMessageRecipientTupleByReferece("R2").isPresent(), is(true));
+        
+        assertThat(boundedStore.getMessageCount(), is(3L));
+        assertThat(boundedStore.getEvictedMessageCount(), is(2L));
+        assertThat(boundedStore.getArchivedMessageCount(), is(0L));
+        
+        //updating a message doesn't change its position
+        boundedStore.updateMessage(boundedStore.getMessageById("M2").get());
+        boundedStore.saveMessage(this.createMessage("M5", "C1"));
+        assertThat(ids(boundedStore.listMessages()), contains("M3", "M4", "M5"));
+    }
+    
+    @Test
+    public void testMaxSizeEviction() throws Exception {
+        Map<String, String> storeProperties = new HashMap<>();
+        storeProperties.put(InMemoryMessageStoreControllerImpl.MAX_SIZE.getName(), "5 KB");
+        InMemoryMessageStoreControllerImpl boundedStore = this.enableStore("bounded-store", storeProperties);
+        
+        for (int i = 0; i < 50; i++) {
+            boundedStore.saveMessage(this.createMessage("M" + i, null));
+        }
+        
+        assertThat(boundedStore.getEstimatedSize(), lessThanOrEqualTo(5L * 1024));
+        assertThat(boundedStore.getEvictedMessageCount(), greaterThan(0L));
+        assertThat(boundedStore.getMessageCount() + boundedStore.getEvictedMessageCount(), is(50L));
+        assertThat(boundedStore.getMessageById("M49").isPresent(), is(true));
+        assertThat(boundedStore.getMessageById("M0").isPresent(), is(false));
+    }
+    
+    @Test
+    public void testTerminalMessageTTL() throws Exception {
+        Map<String, String> storeProperties = new HashMap<>();
+        storeProperties.put(InMemoryMessageStoreControllerImpl.TERMINAL_MESSAGE_TTL.getName(), "1 hour");
+        InMemoryMessageStoreControllerImpl ttlStore = this.enableStore("ttl-store", storeProperties);
+        
+        Message m1 = this.createMessage("M1", null);
+        ttlStore.saveMessage(m1);
+        Message m2 = this.createMessage("M2", null);
+        m2.getHeader().setRelatedMessageId("M1");
+        ttlStore.saveMessage(m2);
+        
+        //M2 gets delivered
+        this.deliver(m2);
+        ttlStore.updateMessage(m2);
+        
+        //not expired yet
+        ttlStore.evictExpiredMessages();
+        assertThat(ids(ttlStore.listMessages()), contains("M1", "M2"));
+        
+        ttlStore.setClock(Clock.offset(Clock.systemUTC(), Duration.ofMinutes(61)));
+        ttlStore.evictExpiredMessages();
+        
+        assertThat(ids(ttlStore.listMessages()), contains("M1"));
+        assertThat(ttlStore.getRelatedMessages("M1").isEmpty(), is(true));
+        assertThat(ttlStore.getExpiredMessageCount(), is(1L));
+        assertThat(ttlStore.getEvictedMessageCount(), is(0L));
+    }
+    
+    @Test
+    public void testArchive() throws Exception {
+        File archiveFile = new File(folder.getRoot(), "archive/messages.archive");
+        
+        Map<String, String> storeProperties = new HashMap<>();
+        storeProperties.put(InMemoryMessageStoreControllerImpl.MAX_MESSAGES.getName(), "2");
+        storeProperties.put(InMemoryMessageStoreControllerImpl.ARCHIVE_FILE.getName(), archiveFile.getAbsolutePath());
+        InMemoryMessageStoreControllerImpl archivedStore = this.enableStore("archived-store", storeProperties);
+        
+        for (int i = 0; i < 4; i++) {
+            archivedStore.saveMessage(this.createMessage("M" + i, null));
+        }
+        
+        assertThat(ids(archivedStore.listMessages()), contains("M2", "M3"));
+        assertThat(archivedStore.getArchivedMessageCount(), is(2L));
+        assertThat(archivedStore.getMessageById("M0").get().getHeader().getSubject(), is("Subject of M0"));
+        assertThat(archivedStore.getMessageById("M1").get().getHeader().getSubject(), is("Subject of M1"));
+        assertThat(archivedStore.getMessageById("M9").isPresent(), is(false));
+        
+        //bulk lookups combine memory and archive
+        assertThat(archivedStore.getMessagesByIds(Arrays.asList("M0", "M1", "M3", "M9")).keySet(), containsInAnyOrder("M0", "M1", "M3"));
+        assertThat(archivedStore.existsMessageIds(Arrays.asList("M0", "M2", "M9")), containsInAnyOrder("M0", "M2"));
+        
+        //the archive survives a restart
+        archivedStore = this.enableStore("archived-store-restarted", storeProperties);
+        assertThat(archivedStore.listMessages().isEmpty(), is(true));
+        assertThat(archivedStore.getArchivedMessageCount(), is(2L));
+        assertThat(archivedStore.getMessageById("M1").get().getHeader().getSubject(), is("Subject of M1"));
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.controller.store;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.socraticgrid.hl7.services.uc.model.Message;
+
+/**
+ *
+ * @author esteban
+ */
+public class MVStoreMessageStoreControllerImplTest extends AbstractMessageStoreControllerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File storeFile;
+    private String syncWrites = "true";
+
+    @Override
+    protected MessageStoreController createMessageStoreController() throws Exception {
+        return new MVStoreMessageStoreControllerImpl();
+    }
+
+    @Override
+    protected Map<String, String> getMessageStoreControllerProperties() throws Exception {
+        if (storeFile == null) {
+            storeFile = new File(folder.getRoot(), "message-store.mv.db");
+        }
+        Map<String, String> properties = new HashMap<>();
+        properties.put(MVStoreMessageStoreControllerImpl.STORE_FILE.getName(), storeFile.getAbsolutePath());
+        properties.put(MVStoreMessageStoreControllerImpl.SYNC_WRITES.getName(), syncWrites);
+        return properties;
+    }
+
+    @Test
+    public void testPersistenceAcrossRestarts() throws Exception {
+        store.saveConversation(this.createConversation("C1"));
+        store.saveMessage(this.createMessage("M1", "C1"));
+        Message m2 = this.createMessage("M2", null);
+        m2.getHeader().setRelatedMessageId("M1");
+        store.saveMessage(m2);
+        store.addMessageReference("R1", new MessageRecipientTuple("M1", "Recipient1"));
+
+        store.stop();
+
+        store = this.enableStore("ucs-message-store-restarted");
+
+        assertThat(store.getConversationById("C1").isPresent(), is(true));
+        assertThat(ids(store.listMessages()), contains("M1", "M2"));
+        assertThat(ids(store.listMessagesByConversationId("C1")), contains("M1"));
+        assertThat(store.getRelatedMessages("M1").stream().map(m -> m.getHeader().getMessageId()).collect(toList()), contains("M2"));
+        assertThat(store.getMessageRecipientTupleByReferece("R1").get().getRecipientId(), is("Recipient1"));
+
+        //new messages are appended after the recovered ones
+        store.saveMessage(this.createMessage("M3", "C1"));
+        assertThat(ids(store.listMessages()), contains("M1", "M2", "M3"));
+        assertThat(ids(store.listMessagesByConversationId("C1")), contains("M1", "M3"));
+        assertThat(store.getMessageCount(), is(3L));
+        assertThat(store.getEstimatedSize(), greaterThan(0L));
+        assertThat(store.getEvictedMessageCount(), is(0L));
+    }
+
+    @Test
+    public void testCrashRecovery() throws Exception {
+        //Sync Writes is enabled by default: every write is committed before
+        //returning.
+        store.saveConversation(this.createConversation("C1"));
+        store.saveMessage(this.createMessage("M1", "C1"));
+        store.saveMessage(this.createMessage("M2", "C1"));
+        store.addMessageReference("R1", new MessageRecipientTuple("M2", "Recipient1"));
+
+        //simulate a crash: nothing is flushed or closed properly.
+        ((MVStoreMessageStoreControllerImpl) store).closeImmediately();
+
+        store = this.enableStore("ucs-message-store-recovered");
+
+        assertThat(store.getConversationById("C1").isPresent(), is(true));
+        assertThat(store.isKnownConversation("C1"), is(true));
+        assertThat(ids(store.listMessages()), contains("M1", "M2"));
+        assertThat(ids(store.listMessagesByConversationId("C1")), contains("M1", "M2"));
+        assertThat(store.getMessageRecipientTupleByReferece("R1").get().getMessageId(), is("M2"));
+    }
+
+    @Test
+    public void testBackgroundCommits() throws Exception {
+        store.stop();
+        syncWrites = "false";
+        store = this.enableStore("ucs-message-store-async");
+
+        store.saveMessage(this.createMessage("M1", "C1"));
+        store.saveMessage(this.createMessage("M2", "C1"));
+        //the update moves M2 to another conversation: its indexes are 
+        //committed together with it.
+        store.updateMessage(this.createMessage("M2", "C2"));
+
+        //wait for the background commit.
+        Thread.sleep(2500);
+        ((MVStoreMessageStoreControllerImpl) store).closeImmediately();
+
+        store = this.enableStore("ucs-message-store-async-recovered");
+
+        assertThat(ids(store.listMessages()), contains("M1", "M2"));
+        assertThat(ids(store.listMessagesByConversationId("C1")), contains("M1"));
+        assertThat(ids(store.listMessagesByConversationId("C2")), contains("M2"));
+    }
+
+}
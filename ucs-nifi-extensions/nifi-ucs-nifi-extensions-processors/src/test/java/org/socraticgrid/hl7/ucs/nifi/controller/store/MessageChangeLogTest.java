@@ -0,0 +1,105 @@
+/* 
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.controller.store;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+/**
+ *
+ * @author esteban
+ */
+public class MessageChangeLogTest {
+
+    @Test
+    public void testOnlyTheLatestChangeIsKept() {
+        MessageChangeLog changeLog = new MessageChangeLog();
+        String syncPoint = changeLog.currentSyncPoint();
+
+        changeLog.modified("M0");
+        changeLog.modified("M1");
+        changeLog.modified("M0");
+        changeLog.removed("M1");
+        changeLog.modified("M2");
+
+        MessageChangeLog.Changes changes = changeLog.changesSince(syncPoint, 100).get();
+        assertThat(this.describe(changes), contains("M0", "-M1", "M2"));
+
+        assertThat(changeLog.changesSince(changes.getSyncPoint(), 100).get().getChanges().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testPaging() {
+        MessageChangeLog changeLog = new MessageChangeLog();
+        String syncPoint = changeLog.currentSyncPoint();
+        for (int i = 0; i < 5; i++) {
+            changeLog.modified("M" + i);
+        }
+        changeLog.modified("M1");
+
+        MessageChangeLog.Changes changes = changeLog.changesSince(syncPoint, 2).get();
+        assertThat(this.describe(changes), contains("M0", "M2"));
+        assertThat(changes.hasMore(), is(true));
+
+        changes = changeLog.changesSince(changes.getSyncPoint(), 2).get();
+        assertThat(this.describe(changes), contains("M3", "M4"));
+        assertThat(changes.hasMore(), is(true));
+
+        changes = changeLog.changesSince(changes.getSyncPoint(), 2).get();
+        assertThat(this.describe(changes), contains("M1"));
+        assertThat(changes.hasMore(), is(false));
+    }
+
+    @Test
+    public void testTrimmedChangesForceAFullResync() {
+        MessageChangeLog changeLog = new MessageChangeLog(3);
+        String syncPoint = changeLog.currentSyncPoint();
+
+        changeLog.modified("M0");
+        changeLog.modified("M1");
+        changeLog.modified("M2");
+        String lastSyncPoint = changeLog.currentSyncPoint();
+        assertThat(changeLog.changesSince(syncPoint, 100).isPresent(), is(true));
+
+        //M0 is trimmed.
+        changeLog.modified("M3");
+        assertThat(changeLog.changesSince(syncPoint, 100).isPresent(), is(false));
+        assertThat(this.describe(changeLog.changesSince(lastSyncPoint, 100).get()), contains("M3"));
+    }
+
+    @Test
+    public void testSyncPointsOfOtherLogs() {
+        MessageChangeLog changeLog = new MessageChangeLog();
+        changeLog.modified("M0");
+
+        assertThat(changeLog.changesSince(new MessageChangeLog().currentSyncPoint(), 100).isPresent(), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSyncPoint() {
+        new MessageChangeLog().changesSince("yesterday", 100);
+    }
+
+    private List<String> describe(MessageChangeLog.Changes changes) {
+        return changes.getChanges().stream()
+                .map(c -> (c.isRemoved() ? "-" : "") + c.getMessageId())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.controller.store;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.socraticgrid.hl7.services.uc.model.Message;
+import org.socraticgrid.hl7.services.uc.model.SimpleMessage;
+import org.socraticgrid.hl7.services.uc.model.SimpleMessageHeader;
+
+/**
+ * Measures the throughput of InMemoryMessageStoreControllerImpl when many
+ * processor threads save, update, get and page through messages at the same
+ * time. The benchmark is run with 1, 2, 4, 8, 16, 32 and 64 threads.
+ *
+ * Run it with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.socraticgrid.hl7.ucs.nifi.controller.store.MessageStoreContentionBenchmark
+ *
+ * @author esteban
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class MessageStoreContentionBenchmark {
+
+    private static final int INITIAL_MESSAGES = 100000;
+    private static final int CONVERSATIONS = 100;
+    private static final int PAGE_SIZE = 20;
+
+    private InMemoryMessageStoreControllerImpl store;
+    private final AtomicLong nextMessageId = new AtomicLong();
+
+    @Setup
+    public void setup() {
+        store = new InMemoryMessageStoreControllerImpl();
+        for (int i = 0; i < INITIAL_MESSAGES; i++) {
+            store.saveMessage(this.createMessage(nextMessageId.getAndIncrement()));
+        }
+    }
+
+    private Message createMessage(long id) {
+        SimpleMessageHeader header = new SimpleMessageHeader();
+        header.setMessageId("M" + id);
+        header.setRelatedConversationId("C" + (id % CONVERSATIONS));
+        header.setCreated(new Date());
+        header.setSubject("Subject of M" + id);
+        return new SimpleMessage(header);
+    }
+
+    private long randomExistingId() {
+        return ThreadLocalRandom.current().nextInt(INITIAL_MESSAGES);
+    }
+
+    @Benchmark
+    public Message saveMessage() {
+        Message message = this.createMessage(nextMessageId.getAndIncrement());
+        store.saveMessage(message);
+        return message;
+    }
+
+    @Benchmark
+    public Optional<Message> getMessageById() {
+        return store.getMessageById("M" + this.randomExistingId());
+    }
+
+    @Benchmark
+    public Message updateMessage() {
+        Message message = store.getMessageById("M" + this.randomExistingId()).get();
+        store.updateMessage(message);
+        return message;
+    }
+
+    @Benchmark
+    public List<Message> listMessagesPage() {
+        return store.listMessages(this.randomExistingId(), PAGE_SIZE);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 2, 4, 8, 16, 32, 64}) {
+            new Runner(new OptionsBuilder()
+                    .include(MessageStoreContentionBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+}
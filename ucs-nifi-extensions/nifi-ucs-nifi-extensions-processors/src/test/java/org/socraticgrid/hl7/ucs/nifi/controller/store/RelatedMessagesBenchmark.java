@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.controller.store;
+
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.socraticgrid.hl7.services.uc.model.Message;
+import org.socraticgrid.hl7.services.uc.model.SimpleMessage;
+import org.socraticgrid.hl7.services.uc.model.SimpleMessageHeader;
+
+/**
+ * Measures the cost of the lookup TimedoutMessageConfigurationJob performs
+ * for each timed out message (getRelatedMessages()) as the number of
+ * messages in InMemoryMessageStoreControllerImpl grows.
+ *
+ * Every message in the store has RESPONSES_PER_MESSAGE related responses.
+ * The cost of a lookup is expected to stay flat regardless of the size of
+ * the store.
+ *
+ * Run it with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.socraticgrid.hl7.ucs.nifi.controller.store.RelatedMessagesBenchmark
+ *
+ * @author esteban
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class RelatedMessagesBenchmark {
+
+    private static final int RESPONSES_PER_MESSAGE = 3;
+
+    @Param({"10000", "100000", "1000000"})
+    private int storeSize;
+
+    private InMemoryMessageStoreControllerImpl store;
+    private int originalMessages;
+    private int next;
+
+    @Setup
+    public void setup() {
+        store = new InMemoryMessageStoreControllerImpl();
+        originalMessages = storeSize / (RESPONSES_PER_MESSAGE + 1);
+
+        for (int i = 0; i < originalMessages; i++) {
+            String messageId = "M" + i;
+            store.saveMessage(this.createMessage(messageId, null));
+            for (int j = 0; j < RESPONSES_PER_MESSAGE; j++) {
+                store.saveMessage(this.createMessage(messageId + "-R" + j, messageId));
+            }
+        }
+    }
+
+    private Message createMessage(String messageId, String relatedMessageId) {
+        SimpleMessageHeader header = new SimpleMessageHeader();
+        header.setMessageId(messageId);
+        header.setRelatedMessageId(relatedMessageId);
+        header.setCreated(new Date());
+        header.setSubject("Subject of " + messageId);
+        return new SimpleMessage(header);
+    }
+
+    @Benchmark
+    public Set<Message> getRelatedMessages() {
+        next = (next + 1) % originalMessages;
+        return store.getRelatedMessages("M" + next);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RelatedMessagesBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
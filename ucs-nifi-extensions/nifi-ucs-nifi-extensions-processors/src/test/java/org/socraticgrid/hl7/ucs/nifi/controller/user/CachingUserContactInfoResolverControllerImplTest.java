@@ -0,0 +1,245 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.controller.user;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static java.util.stream.Collectors.toList;
+import java.util.stream.IntStream;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.socraticgrid.hl7.services.uc.model.UserContactInfo;
+import org.socraticgrid.hl7.ucs.nifi.processor.UCSResolveRecipientAddresses;
+
+/**
+ *
+ * @author esteban
+ */
+public class CachingUserContactInfoResolverControllerImplTest {
+
+    /**
+     * Resolves any user whose id doesn't start with 'unknown' and counts
+     * the calls it receives.
+     */
+    private static class CountingUserContactInfoResolverController extends AbstractControllerService implements UserContactInfoResolverController {
+
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger resolvedUsers = new AtomicInteger();
+        private volatile CountDownLatch release = new CountDownLatch(0);
+
+        @Override
+        public UserContactInfo resolveUserContactInfo(String userId) {
+            calls.incrementAndGet();
+            this.awaitRelease();
+            return this.resolve(userId);
+        }
+
+        @Override
+        public Map<String, UserContactInfo> resolveUserContactInfos(Collection<String> userIds) {
+            calls.incrementAndGet();
+            this.awaitRelease();
+            Map<String, UserContactInfo> result = new HashMap<>();
+            for (String userId : userIds) {
+                UserContactInfo uci = this.resolve(userId);
+                if (uci != null) {
+                    result.put(userId, uci);
+                }
+            }
+            return result;
+        }
+
+        private UserContactInfo resolve(String userId) {
+            resolvedUsers.incrementAndGet();
+            if (userId.startsWith("unknown")) {
+                return null;
+            }
+            UserContactInfo uci = new UserContactInfo();
+            uci.setName(userId);
+            return uci;
+        }
+
+        private void awaitRelease() {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private TestRunner testRunner;
+    private CountingUserContactInfoResolverController backend;
+    private CachingUserContactInfoResolverControllerImpl cache;
+    private ExecutorService executor;
+
+    @Before
+    public void init() throws Exception {
+        testRunner = TestRunners.newTestRunner(new UCSResolveRecipientAddresses());
+        backend = new CountingUserContactInfoResolverController();
+        testRunner.addControllerService("backend-resolver", backend);
+        testRunner.enableControllerService(backend);
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private CachingUserContactInfoResolverControllerImpl enableCache(String identifier, Map<String, String> cacheProperties) throws Exception {
+        Map<String, String> properties = new HashMap<>(cacheProperties);
+        properties.put(CachingUserContactInfoResolverControllerImpl.USER_CONTACT_INFO_RESOLVER_IMPL.getName(), "backend-resolver");
+
+        CachingUserContactInfoResolverControllerImpl controller = new CachingUserContactInfoResolverControllerImpl();
+        testRunner.addControllerService(identifier, controller, properties);
+        testRunner.enableControllerService(controller);
+        return controller;
+    }
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        cache = this.enableCache("cache", new HashMap<>());
+
+        assertThat(cache.resolveUserContactInfo("eafry").getName(), is("eafry"));
+        assertThat(cache.resolveUserContactInfo("eafry").getName(), is("eafry"));
+        assertThat(cache.resolveUserContactInfo("eafry").getName(), is("eafry"));
+
+        assertThat(backend.calls.get(), is(1));
+        assertThat(cache.getHitCount(), is(2L));
+        assertThat(cache.getMissCount(), is(1L));
+        assertThat(cache.getLoadCount(), is(1L));
+        assertThat(cache.getMetrics().get("hitCount").longValue(), is(2L));
+        assertThat(cache.getMetrics().get("missCount").longValue(), is(1L));
+
+        cache.invalidate("eafry");
+        cache.resolveUserContactInfo("eafry");
+        assertThat(backend.calls.get(), is(2));
+    }
+
+    @Test
+    public void testUnknownUsers() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(CachingUserContactInfoResolverControllerImpl.TTL.getName(), "1 hour");
+        properties.put(CachingUserContactInfoResolverControllerImpl.UNKNOWN_USER_TTL.getName(), "1 min");
+        cache = this.enableCache("cache", properties);
+
+        assertThat(cache.resolveUserContactInfo("unknown1"), nullValue());
+        assertThat(cache.resolveUserContactInfo("unknown1"), nullValue());
+        assertThat(backend.calls.get(), is(1));
+
+        //unknown users expire before known users
+        cache.resolveUserContactInfo("eafry");
+        cache.setClock(Clock.offset(Clock.systemUTC(), Duration.ofMinutes(2)));
+        cache.resolveUserContactInfo("eafry");
+        cache.resolveUserContactInfo("unknown1");
+        assertThat(backend.calls.get(), is(3));
+
+        cache.setClock(Clock.offset(Clock.systemUTC(), Duration.ofMinutes(61)));
+        cache.resolveUserContactInfo("eafry");
+        assertThat(backend.calls.get(), is(4));
+    }
+
+    @Test
+    public void testUnknownUsersNotCached() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(CachingUserContactInfoResolverControllerImpl.UNKNOWN_USER_TTL.getName(), "0 secs");
+        cache = this.enableCache("cache", properties);
+
+        cache.resolveUserContactInfo("unknown1");
+        cache.resolveUserContactInfo("unknown1");
+        assertThat(backend.calls.get(), is(2));
+        assertThat(cache.getCachedEntryCount(), is(0));
+    }
+
+    @Test
+    public void testMaxEntries() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(CachingUserContactInfoResolverControllerImpl.MAX_ENTRIES.getName(), "2");
+        cache = this.enableCache("cache", properties);
+
+        cache.resolveUserContactInfo("u1");
+        cache.resolveUserContactInfo("u2");
+        //u1 becomes the most recently used
+        cache.resolveUserContactInfo("u1");
+        cache.resolveUserContactInfo("u3");
+
+        assertThat(cache.getCachedEntryCount(), is(2));
+        assertThat(cache.getEvictionCount(), is(1L));
+
+        cache.resolveUserContactInfo("u1");
+        cache.resolveUserContactInfo("u3");
+        assertThat(backend.calls.get(), is(3));
+
+        //u2 was evicted
+        cache.resolveUserContactInfo("u2");
+        assertThat(backend.calls.get(), is(4));
+    }
+
+    @Test
+    public void testBulkLookups() throws Exception {
+        cache = this.enableCache("cache", new HashMap<>());
+
+        cache.resolveUserContactInfo("u1");
+
+        Map<String, UserContactInfo> result = cache.resolveUserContactInfos(Arrays.asList("u1", "u2", "u3", "unknown1", "u2"));
+        assertThat(result.keySet(), containsInAnyOrder("u1", "u2", "u3"));
+        //u2, u3 and unknown1 are resolved in a single call
+        assertThat(backend.calls.get(), is(2));
+        assertThat(backend.resolvedUsers.get(), is(4));
+
+        cache.resolveUserContactInfos(Arrays.asList("u1", "u2", "u3", "unknown1"));
+        assertThat(backend.calls.get(), is(2));
+    }
+
+    @Test
+    public void testConcurrentLookupsAreCoalesced() throws Exception {
+        cache = this.enableCache("cache", new HashMap<>());
+        backend.release = new CountDownLatch(1);
+
+        List<Future<UserContactInfo>> lookups = IntStream.range(0, 8)
+                .mapToObj(i -> executor.submit(() -> cache.resolveUserContactInfo("eafry")))
+                .collect(toList());
+
+        //give every thread the chance to join the pending lookup
+        Thread.sleep(200);
+        backend.release.countDown();
+
+        for (Future<UserContactInfo> lookup : lookups) {
+            assertThat(lookup.get(5, TimeUnit.SECONDS).getName(), is("eafry"));
+        }
+        assertThat(backend.calls.get(), is(1));
+        assertThat(cache.getLoadCount(), is(1L));
+    }
+}
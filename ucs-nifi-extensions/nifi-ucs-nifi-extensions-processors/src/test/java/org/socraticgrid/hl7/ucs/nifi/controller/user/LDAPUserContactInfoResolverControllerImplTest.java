@@ -0,0 +1,220 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.controller.user;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSimpleBindRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.LDAPException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static java.util.stream.Collectors.toList;
+import java.util.stream.IntStream;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.socraticgrid.hl7.services.uc.model.UserContactInfo;
+import org.socraticgrid.hl7.ucs.nifi.processor.UCSResolveRecipientAddresses;
+
+/**
+ * Tests LDAPUserContactInfoResolverControllerImpl against an in-process
+ * LDAP server.
+ *
+ * @author esteban
+ */
+public class LDAPUserContactInfoResolverControllerImplTest {
+
+    private static final String BASE_DN = "dc=socraticgrid,dc=org";
+    private static final String BIND_DN = "cn=admin," + BASE_DN;
+    private static final String BIND_PWD = "secret";
+
+    private InMemoryDirectoryServer server;
+    private final AtomicInteger searches = new AtomicInteger();
+    private final AtomicInteger binds = new AtomicInteger();
+
+    private TestRunner testRunner;
+    private LDAPUserContactInfoResolverControllerImpl controller;
+
+    @Before
+    public void init() throws Exception {
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE_DN);
+        config.addAdditionalBindCredentials(BIND_DN, BIND_PWD);
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("default", 0));
+        //'chat' and 'voip' are not part of the standard schema.
+        config.setSchema(null);
+        config.addInMemoryOperationInterceptor(new InMemoryOperationInterceptor() {
+            @Override
+            public void processSearchRequest(InMemoryInterceptedSearchRequest request) throws LDAPException {
+                searches.incrementAndGet();
+            }
+
+            @Override
+            public void processSimpleBindRequest(InMemoryInterceptedSimpleBindRequest request) throws LDAPException {
+                binds.incrementAndGet();
+            }
+        });
+
+        server = new InMemoryDirectoryServer(config);
+        server.add("dn: " + BASE_DN, "objectClass: domain", "dc: socraticgrid");
+        server.add("dn: ou=people," + BASE_DN, "objectClass: organizationalUnit", "ou: people");
+        this.addUser("eafry", "eafry@socraticgrid.org", "+15555555555", "eafry@chat.socraticgrid.org", "5555");
+        this.addUser("ealiverti", "ealiverti@socraticgrid.org", "+15555555556", "ealiverti@chat.socraticgrid.org", "5556");
+        for (int i = 0; i < 10; i++) {
+            this.addUser("user" + i, "user" + i + "@socraticgrid.org", null, null, null);
+        }
+        server.startListening();
+
+        testRunner = TestRunners.newTestRunner(new UCSResolveRecipientAddresses());
+    }
+
+    @After
+    public void tearDown() {
+        if (controller != null) {
+            controller.onDisabled();
+        }
+        server.shutDown(true);
+    }
+
+    private void addUser(String sn, String mail, String homePhone, String chat, String voip) throws LDAPException {
+        List<String> entry = new ArrayList<>(Arrays.asList(
+                "dn: cn=" + sn + ",ou=people," + BASE_DN,
+                "objectClass: inetOrgPerson",
+                "cn: " + sn,
+                "sn: " + sn,
+                "mail: " + mail));
+        if (homePhone != null) {
+            entry.add("homePhone: " + homePhone);
+        }
+        if (chat != null) {
+            entry.add("chat: " + chat);
+        }
+        if (voip != null) {
+            entry.add("voip: " + voip);
+        }
+        server.add(entry.toArray(new String[entry.size()]));
+    }
+
+    private LDAPUserContactInfoResolverControllerImpl enableController(Map<String, String> extraProperties) throws Exception {
+        Map<String, String> properties = new HashMap<>(extraProperties);
+        properties.put(LDAPUserContactInfoResolverControllerImpl.LDAP_HOST.getName(), "localhost");
+        properties.put(LDAPUserContactInfoResolverControllerImpl.LDAP_PORT.getName(), String.valueOf(server.getListenPort()));
+        properties.put(LDAPUserContactInfoResolverControllerImpl.LDAP_BIND_DN.getName(), BIND_DN);
+        properties.put(LDAPUserContactInfoResolverControllerImpl.LDAP_PWD.getName(), BIND_PWD);
+        properties.put(LDAPUserContactInfoResolverControllerImpl.LDAP_BASE_DN.getName(), BASE_DN);
+
+        controller = new LDAPUserContactInfoResolverControllerImpl();
+        testRunner.addControllerService("ldap-resolver", controller, properties);
+        testRunner.enableControllerService(controller);
+        return controller;
+    }
+
+    @Test
+    public void testResolveUserContactInfo() throws Exception {
+        this.enableController(new HashMap<>());
+
+        UserContactInfo uci = controller.resolveUserContactInfo("eafry");
+        assertThat(uci.getName(), is("eafry"));
+        assertThat(uci.getAddressesByType().size(), is(4));
+        assertThat(uci.getAddressesByType().get(LDAPUserContactInfoResolverControllerImpl.SERVICE_TYPE_EMAIL).getAddress(), is("eafry@socraticgrid.org"));
+        assertThat(uci.getAddressesByType().get(LDAPUserContactInfoResolverControllerImpl.SERVICE_TYPE_SMS).getAddress(), is("+15555555555"));
+        assertThat(uci.getAddressesByType().get(LDAPUserContactInfoResolverControllerImpl.SERVICE_TYPE_CHAT).getAddress(), is("eafry@chat.socraticgrid.org"));
+        assertThat(uci.getAddressesByType().get(LDAPUserContactInfoResolverControllerImpl.SERVICE_TYPE_TEXT_TO_VOICE).getAddress(), is("5555"));
+
+        assertThat(controller.resolveUserContactInfo("unknown"), nullValue());
+    }
+
+    @Test
+    public void testBatchedSearches() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(LDAPUserContactInfoResolverControllerImpl.LDAP_SEARCH_BATCH_SIZE.getName(), "5");
+        this.enableController(properties);
+
+        Map<String, UserContactInfo> result = controller.resolveUserContactInfos(Arrays.asList("eafry", "ealiverti", "unknown", "eafry"));
+        assertThat(result.keySet(), containsInAnyOrder("eafry", "ealiverti"));
+        assertThat(result.get("ealiverti").getAddressesByType().get(LDAPUserContactInfoResolverControllerImpl.SERVICE_TYPE_EMAIL).getAddress(), is("ealiverti@socraticgrid.org"));
+        assertThat(searches.get(), is(1));
+
+        //12 users -> 3 searches of up to 5 users each.
+        List<String> userIds = IntStream.range(0, 10).mapToObj(i -> "user" + i).collect(toList());
+        userIds.add("eafry");
+        userIds.add("unknown");
+        result = controller.resolveUserContactInfos(userIds);
+        assertThat(result.size(), is(11));
+        assertThat(result.get("user7").getPreferredAddress().getAddress(), is("user7@socraticgrid.org"));
+        assertThat(searches.get(), is(4));
+        assertThat(controller.getSearchCount(), is(4L));
+    }
+
+    @Test
+    public void testConnectionsAreReused() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(LDAPUserContactInfoResolverControllerImpl.LDAP_MAX_CONNECTIONS.getName(), "1");
+        this.enableController(properties);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(controller.resolveUserContactInfo("user" + i).getName(), is("user" + i));
+        }
+        assertThat(searches.get(), is(10));
+        assertThat(binds.get(), is(1));
+    }
+
+    @Test
+    public void testFilterValuesAreEscaped() throws Exception {
+        this.enableController(new HashMap<>());
+
+        assertThat(controller.resolveUserContactInfo("eali*"), nullValue());
+        assertThat(controller.resolveUserContactInfo("*)(sn=eafry"), nullValue());
+        assertThat(controller.createFilter(Arrays.asList("a*", "b(c)\\")), is("(|(sn=a\\2a)(sn=b\\28c\\29\\5c))"));
+    }
+
+    @Test
+    public void testAsyncLookups() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(LDAPUserContactInfoResolverControllerImpl.LDAP_SEARCH_BATCH_SIZE.getName(), "2");
+        this.enableController(properties);
+
+        Map<String, UserContactInfo> result = controller.resolveUserContactInfosAsync(Arrays.asList("eafry", "ealiverti", "user1", "unknown"))
+                .get(5, TimeUnit.SECONDS);
+        assertThat(result.keySet(), containsInAnyOrder("eafry", "ealiverti", "user1"));
+        assertThat(searches.get(), is(2));
+
+        assertThat(controller.resolveUserContactInfoAsync("eafry").get(5, TimeUnit.SECONDS).getName(), is("eafry"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testServerDown() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(LDAPUserContactInfoResolverControllerImpl.LDAP_TIMEOUT.getName(), "2 secs");
+        this.enableController(properties);
+
+        server.shutDown(true);
+        controller.resolveUserContactInfo("eafry");
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.processor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.nifi.processor.Processor;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.socraticgrid.hl7.ucs.nifi.common.util.MessageBuilder;
+import org.socraticgrid.hl7.ucs.nifi.controller.ServiceStatusControllerService;
+import org.socraticgrid.hl7.ucs.nifi.controller.UCSControllerServiceProxy;
+import org.socraticgrid.hl7.ucs.nifi.controller.store.InMemoryMessageStoreControllerImpl;
+import org.socraticgrid.hl7.ucs.nifi.controller.user.MOCKUserContactInfoResolverControllerImpl;
+
+/**
+ * Measures the time a processor takes to consume FLOWFILES incoming
+ * FlowFiles using different values for its 'Batch Size' property. Every
+ * benchmark invocation enqueues FLOWFILES messages and triggers the
+ * processor until its queue is empty.
+ *
+ * Run it with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.socraticgrid.hl7.ucs.nifi.processor.UCSBatchSizeBenchmark
+ *
+ * @author esteban
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class UCSBatchSizeBenchmark {
+
+    private static final int FLOWFILES = 100;
+
+    @Param({"UCSValidateMessage", "UCSResolveRecipientAddresses", "UCSPrepareSMS"})
+    private String processor;
+
+    @Param({"1", "10", "100"})
+    private int batchSize;
+
+    private TestRunner testRunner;
+    private final List<byte[]> messages = new ArrayList<>();
+
+    @Setup
+    public void setup() throws Exception {
+        testRunner = TestRunners.newTestRunner(this.createProcessor());
+
+        InMemoryMessageStoreControllerImpl messageStoreController = new InMemoryMessageStoreControllerImpl();
+        testRunner.addControllerService("ucs-message-store", messageStoreController);
+        testRunner.enableControllerService(messageStoreController);
+
+        MOCKUserContactInfoResolverControllerImpl userContactInfoResolverController = new MOCKUserContactInfoResolverControllerImpl();
+        testRunner.addControllerService("ucs-user-contact-info-resolver", userContactInfoResolverController);
+        testRunner.enableControllerService(userContactInfoResolverController);
+
+        ServiceStatusControllerService serviceStatusControllerService = new ServiceStatusControllerService();
+        testRunner.addControllerService("service-status-controller", serviceStatusControllerService);
+        testRunner.enableControllerService(serviceStatusControllerService);
+
+        Map<String, String> ucsControllerServiceProxyConfig = new HashMap<>();
+        ucsControllerServiceProxyConfig.put(UCSControllerServiceProxy.MESSAGE_STORE_IMPL.getName(), "ucs-message-store");
+        ucsControllerServiceProxyConfig.put(UCSControllerServiceProxy.USER_CONTACT_INFO_RESOLVER_IMPL.getName(), "ucs-user-contact-info-resolver");
+        ucsControllerServiceProxyConfig.put(UCSControllerServiceProxy.SERVICE_STATUS_CONTROLLER_SERVICE.getName(), "service-status-controller");
+
+        UCSControllerServiceProxy controller = new UCSControllerServiceProxy();
+        testRunner.addControllerService("ucs-controller", controller, ucsControllerServiceProxyConfig);
+        testRunner.enableControllerService(controller);
+
+        testRunner.setProperty(UCSValidateMessage.UCS_CONTROLLER_SERVICE, "ucs-controller");
+        testRunner.setProperty(UCSValidateMessage.BATCH_SIZE, String.valueOf(batchSize));
+
+        //The same few users are the recipients of every message, like in a
+        //burst of notifications.
+        for (int i = 0; i < FLOWFILES; i++) {
+            messages.add(new MessageBuilder()
+                    .withMessageId("M" + i)
+                    .withSender("eafry")
+                    .withSubject("Subject of M" + i)
+                    .withBody("Body of M" + i)
+                    .withReceiptNotification(true)
+                    .addRecipient(new MessageBuilder.Recipient("ealiverti", "SMS"))
+                    .addRecipient(new MessageBuilder.Recipient("jhughes", "SMS"))
+                    .buildSerializedMessageWrapper().getBytes());
+        }
+    }
+
+    private Processor createProcessor() {
+        switch (processor) {
+            case "UCSValidateMessage":
+                return new UCSValidateMessage();
+            case "UCSResolveRecipientAddresses":
+                return new UCSResolveRecipientAddresses();
+            case "UCSPrepareSMS":
+                return new UCSPrepareSMS();
+            default:
+                throw new IllegalArgumentException("Unknown processor: " + processor);
+        }
+    }
+
+    @Benchmark
+    public void consumeQueue() {
+        for (byte[] message : messages) {
+            testRunner.enqueue(message);
+        }
+
+        testRunner.run((FLOWFILES + batchSize - 1) / batchSize);
+        testRunner.assertQueueEmpty();
+        testRunner.clearTransferState();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(UCSBatchSizeBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
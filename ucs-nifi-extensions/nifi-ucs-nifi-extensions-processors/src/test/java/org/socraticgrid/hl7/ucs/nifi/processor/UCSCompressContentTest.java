@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.processor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import org.junit.Before;
+import org.junit.Test;
+import org.socraticgrid.hl7.services.uc.exceptions.ExceptionType;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.ContentEncoding;
+import org.socraticgrid.hl7.ucs.nifi.common.util.MessageBuilder;
+
+/**
+ *
+ * @author esteban
+ */
+public class UCSCompressContentTest {
+
+    private TestRunner testRunner;
+    private String message;
+
+    @Before
+    public void init() throws Exception {
+        testRunner = TestRunners.newTestRunner(new UCSCompressContent());
+        testRunner.setProperty(UCSCompressContent.SIZE_THRESHOLD, "512 B");
+
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            body.append("Body of the message ").append(i).append(". ");
+        }
+        message = new MessageBuilder()
+                .withSender("eafry")
+                .withSubject("Subject")
+                .withBody(body.toString())
+                .addRecipient(new MessageBuilder.Recipient("ealiverti", "SMS"))
+                .buildSerializedMessageWrapper();
+    }
+
+    @Test
+    public void testCompress() throws Exception {
+        testRunner.setProperty(UCSCompressContent.COMPRESSION_FORMAT, ContentEncoding.DEFLATE.getName());
+        testRunner.enqueue(message.getBytes(StandardCharsets.UTF_8));
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(UCSCompressContent.REL_SUCCESS, 1);
+        MockFlowFile ff = testRunner.getFlowFilesForRelationship(UCSCompressContent.REL_SUCCESS).get(0);
+        ff.assertAttributeEquals(UCSCompressContent.CONTENT_ENCODING_ATTRIBUTE, ContentEncoding.DEFLATE.getName());
+        assertThat(ff.getSize(), lessThan((long) message.length()));
+        assertThat(new String(ContentEncoding.DEFLATE.decode(testRunner.getContentAsByteArray(ff)), StandardCharsets.UTF_8), is(message));
+    }
+
+    @Test
+    public void testCompressBelowThreshold() throws Exception {
+        testRunner.setProperty(UCSCompressContent.SIZE_THRESHOLD, "1 MB");
+        testRunner.enqueue(message.getBytes(StandardCharsets.UTF_8));
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(UCSCompressContent.REL_SUCCESS, 1);
+        MockFlowFile ff = testRunner.getFlowFilesForRelationship(UCSCompressContent.REL_SUCCESS).get(0);
+        ff.assertAttributeNotExists(UCSCompressContent.CONTENT_ENCODING_ATTRIBUTE);
+        ff.assertContentEquals(message);
+    }
+
+    @Test
+    public void testCompressNotAccepted() throws Exception {
+        testRunner.setProperty(UCSCompressContent.ACCEPT_ENCODING_ATTRIBUTE, "http.headers.Accept-Encoding");
+
+        //old clients don't send the header.
+        testRunner.enqueue(message.getBytes(StandardCharsets.UTF_8));
+        testRunner.enqueue(message.getBytes(StandardCharsets.UTF_8), Collections.singletonMap("http.headers.Accept-Encoding", "deflate"));
+        testRunner.enqueue(message.getBytes(StandardCharsets.UTF_8), Collections.singletonMap("http.headers.Accept-Encoding", ContentEncoding.ACCEPT_ALL));
+        testRunner.run(3);
+
+        testRunner.assertAllFlowFilesTransferred(UCSCompressContent.REL_SUCCESS, 3);
+        testRunner.getFlowFilesForRelationship(UCSCompressContent.REL_SUCCESS).get(0).assertAttributeNotExists(UCSCompressContent.CONTENT_ENCODING_ATTRIBUTE);
+        testRunner.getFlowFilesForRelationship(UCSCompressContent.REL_SUCCESS).get(1).assertAttributeNotExists(UCSCompressContent.CONTENT_ENCODING_ATTRIBUTE);
+        testRunner.getFlowFilesForRelationship(UCSCompressContent.REL_SUCCESS).get(2).assertAttributeEquals(UCSCompressContent.CONTENT_ENCODING_ATTRIBUTE, ContentEncoding.GZIP.getName());
+    }
+
+    @Test
+    public void testDecompress() throws Exception {
+        testRunner.setProperty(UCSCompressContent.MODE, UCSCompressContent.MODE_DECOMPRESS);
+
+        //using the attribute, guessing the encoding and uncompressed content.
+        testRunner.enqueue(ContentEncoding.GZIP.encode(message.getBytes(StandardCharsets.UTF_8)), Collections.singletonMap(UCSCompressContent.CONTENT_ENCODING_ATTRIBUTE, "gzip"));
+        testRunner.enqueue(ContentEncoding.DEFLATE.encode(message.getBytes(StandardCharsets.UTF_8)));
+        testRunner.enqueue(message.getBytes(StandardCharsets.UTF_8));
+        testRunner.run(3);
+
+        testRunner.assertAllFlowFilesTransferred(UCSCompressContent.REL_SUCCESS, 3);
+        for (MockFlowFile ff : testRunner.getFlowFilesForRelationship(UCSCompressContent.REL_SUCCESS)) {
+            ff.assertAttributeNotExists(UCSCompressContent.CONTENT_ENCODING_ATTRIBUTE);
+            ff.assertContentEquals(message);
+        }
+    }
+
+    @Test
+    public void testDecompressInvalidContent() throws Exception {
+        testRunner.setProperty(UCSCompressContent.MODE, UCSCompressContent.MODE_DECOMPRESS);
+        testRunner.enqueue(message.getBytes(StandardCharsets.UTF_8), Collections.singletonMap(UCSCompressContent.CONTENT_ENCODING_ATTRIBUTE, "gzip"));
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(UCSCompressContent.REL_FAILURE, 1);
+        MockFlowFile ff = testRunner.getFlowFilesForRelationship(UCSCompressContent.REL_FAILURE).get(0);
+        ff.assertAttributeEquals(UCSCreateException.TYPE_DEFAULT_ATTRIBUTE_NAME, ExceptionType.InvalidInput.name());
+        ff.assertContentEquals(message);
+    }
+}
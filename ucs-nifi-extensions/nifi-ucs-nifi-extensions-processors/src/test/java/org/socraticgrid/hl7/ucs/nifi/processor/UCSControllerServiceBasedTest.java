@@ -15,6 +15,7 @@
  */
 package org.socraticgrid.hl7.ucs.nifi.processor;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -23,6 +24,7 @@ import org.junit.Before;
 import org.socraticgrid.hl7.ucs.nifi.controller.ServiceStatusControllerService;
 import org.socraticgrid.hl7.ucs.nifi.controller.UCSControllerServiceProxy;
 import org.socraticgrid.hl7.ucs.nifi.controller.store.InMemoryMessageStoreControllerImpl;
+import org.socraticgrid.hl7.ucs.nifi.controller.store.MessageStoreController;
 import org.socraticgrid.hl7.ucs.nifi.controller.user.MOCKUserContactInfoResolverControllerImpl;
 
 /**
@@ -33,7 +35,7 @@ public abstract class UCSControllerServiceBasedTest {
     
     protected TestRunner testRunner;
     
-    protected InMemoryMessageStoreControllerImpl messageStoreController;
+    protected MessageStoreController messageStoreController;
     protected MOCKUserContactInfoResolverControllerImpl userContactInfoResolverController;
     protected ServiceStatusControllerService serviceStatusControllerService;
     protected UCSControllerServiceProxy controller;
@@ -41,14 +43,14 @@ public abstract class UCSControllerServiceBasedTest {
     @Before
     public void init() throws Exception {
         
-        messageStoreController = new InMemoryMessageStoreControllerImpl();
+        messageStoreController = this.createMessageStoreController();
         userContactInfoResolverController = new MOCKUserContactInfoResolverControllerImpl();
         serviceStatusControllerService = new ServiceStatusControllerService();
         controller = this.createUCSControllerService();
         
         this.testRunner = this.createTestRunner();
         
-        testRunner.addControllerService("ucs-message-store", messageStoreController);
+        testRunner.addControllerService("ucs-message-store", messageStoreController, this.getMessageStoreControllerProperties());
         testRunner.enableControllerService(messageStoreController);
         
         testRunner.addControllerService("ucs-user-contact-info-resolver", userContactInfoResolverController);
@@ -73,6 +75,14 @@ public abstract class UCSControllerServiceBasedTest {
     protected void afterInit() throws Exception {
     }
     
+    protected MessageStoreController createMessageStoreController() throws Exception {
+        return new InMemoryMessageStoreControllerImpl();
+    }
+    
+    protected Map<String, String> getMessageStoreControllerProperties() throws Exception {
+        return Collections.emptyMap();
+    }
+    
     protected UCSControllerServiceProxy createUCSControllerService() {
         return new UCSControllerServiceProxy();
     }
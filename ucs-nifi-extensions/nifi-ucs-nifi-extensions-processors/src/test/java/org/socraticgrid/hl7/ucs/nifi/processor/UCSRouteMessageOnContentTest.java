@@ -16,6 +16,8 @@
 package org.socraticgrid.hl7.ucs.nifi.processor;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.nifi.reporting.InitializationException;
 import org.apache.nifi.util.MockFlowFile;
@@ -117,6 +119,74 @@ public class UCSRouteMessageOnContentTest {
 
     }
 
+    @Test
+    public void doTestMultiPatternRoute() throws InitializationException, IOException {
+        String message = new MessageBuilder()
+                .withConversationId("testC")
+                .withSender("eafry")
+                .withBody(
+                        "Patient in room 12 reports CHEST PAIN and shortness of breath")
+                .addRecipient(
+                        new MessageBuilder.Recipient("491623342171", "SMS"))
+                .buildSerializedMessageWrapper();
+
+        testRunner.setProperty(UCSRouteMessageOnContent.MATCH_REQUIREMENT,
+                UCSRouteMessageOnContent.MATCH_SUBSEQUENCE);
+        testRunner.setProperty(UCSRouteMessageOnContent.MULTI_PATTERN,
+                UCSRouteMessageOnContent.TRUE);
+        //literal rules
+        testRunner.setProperty("Pain", "chest pain");
+        testRunner.setProperty("Breath", "of breath");
+        testRunner.setProperty("Fever", "fever");
+        //regular expression rule
+        testRunner.setProperty("Room", "room \\d+");
+
+        testRunner.enqueue(message.getBytes());
+        testRunner.run();
+        testRunner.assertTransferCount("Pain", 1);
+        testRunner.assertTransferCount("Breath", 1);
+        testRunner.assertTransferCount("Room", 1);
+        testRunner.assertTransferCount("Fever", 0);
+        testRunner.assertTransferCount(UCSRouteMessageOnContent.REL_NO_MATCH, 0);
+        testRunner.getFlowFilesForRelationship("Breath").get(0)
+                .assertAttributeEquals(UCSRouteMessageOnContent.ROUTE_ATTRIBUTE_KEY, "Breath");
+    }
+
+    @Test
+    public void doTestMultiPatternMatchAllRoute() throws InitializationException, IOException {
+        testRunner.setProperty(UCSRouteMessageOnContent.MULTI_PATTERN,
+                UCSRouteMessageOnContent.TRUE);
+        testRunner.setProperty("Yes", "yes");
+        testRunner.setProperty("No", "no");
+
+        testRunner.enqueue(this.createMessage("YES").getBytes());
+        testRunner.enqueue(this.createMessage("yes please").getBytes());
+        testRunner.run();
+        testRunner.assertTransferCount("Yes", 1);
+        testRunner.assertTransferCount("No", 0);
+        testRunner.assertTransferCount(UCSRouteMessageOnContent.REL_NO_MATCH, 1);
+    }
+
+    @Test
+    public void doTestExpressionLanguageRoute() throws InitializationException, IOException {
+        testRunner.setProperty(UCSRouteMessageOnContent.MATCH_REQUIREMENT,
+                UCSRouteMessageOnContent.MATCH_SUBSEQUENCE);
+        testRunner.setProperty(UCSRouteMessageOnContent.MULTI_PATTERN,
+                UCSRouteMessageOnContent.TRUE);
+        testRunner.setProperty("Keyword", "${keyword}");
+
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("keyword", "yes");
+        testRunner.enqueue(this.createMessage("I say yes").getBytes(), attributes);
+        testRunner.enqueue(this.createMessage("I say no").getBytes(), attributes);
+        //the value of the attribute is a literal, not a regular expression.
+        attributes.put("keyword", ".*");
+        testRunner.enqueue(this.createMessage("I say no").getBytes(), attributes);
+        testRunner.run();
+        testRunner.assertTransferCount("Keyword", 1);
+        testRunner.assertTransferCount(UCSRouteMessageOnContent.REL_NO_MATCH, 2);
+    }
+
     @Test
     public void doTestFailureRoute() throws InitializationException,
             IOException {
@@ -133,4 +203,13 @@ public class UCSRouteMessageOnContentTest {
         out.assertContentEquals(message);
     }
 
+    private String createMessage(String body) throws IOException {
+        return new MessageBuilder()
+                .withConversationId("testC")
+                .withSender("eafry")
+                .withBody(body)
+                .addRecipient(
+                        new MessageBuilder.Recipient("491623342171", "SMS"))
+                .buildSerializedMessageWrapper();
+    }
 }
@@ -15,10 +15,12 @@
  */
 package org.socraticgrid.hl7.ucs.nifi.processor;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.Set;
 import java.util.stream.Collectors;
 import static java.util.stream.Collectors.toSet;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
@@ -36,6 +38,7 @@ import org.socraticgrid.hl7.services.uc.model.AlertStatus;
 import org.socraticgrid.hl7.services.uc.model.Conversation;
 import org.socraticgrid.hl7.services.uc.model.Message;
 import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.FastInfosetWrapperCodec;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializationException;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializer;
 import org.socraticgrid.hl7.ucs.nifi.common.util.AlertMessageBuilder;
@@ -76,6 +79,58 @@ public class UCSValidateMessageTest extends UCSControllerServiceBasedTest {
                 is(2));
     }
 
+    @Test
+    public void testValidMessageContentIsNotModified() throws MessageSerializationException, IOException {
+
+        String message = new MessageBuilder()
+                .withSender("eafry")
+                .withSubject("Some Subject")
+                .withBody("Some Body")
+                .addRecipient(new MessageBuilder.Recipient("ealiverti", "CHAT"))
+                .addOnNoResponseAll(new MessageBuilder()
+                        .withSender("eafry")
+                        .withSubject("Nested Message")
+                        .withBody("Some Body")
+                        .addRecipient(new MessageBuilder.Recipient("jhughes", "SMS")))
+                .buildSerializedMessageWrapper();
+
+        testRunner.enqueue(message.getBytes());
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(UCSValidateMessage.REL_SUCCESS, 1);
+        MockFlowFile ff = testRunner.getFlowFilesForRelationship(UCSValidateMessage.REL_SUCCESS).get(0);
+
+        assertThat(ff.getAttribute(UCSValidateMessage.VALID_ATTRIBUTE_KEY), is("true"));
+
+        //nothing to fix in the message: the original content is forwarded.
+        ff.assertContentEquals(message);
+    }
+
+    @Test
+    public void testFastInfosetSerializationFormat() throws MessageSerializationException, IOException {
+
+        testRunner.setProperty(UCSValidateMessage.SERIALIZATION_FORMAT, FastInfosetWrapperCodec.MIME_TYPE);
+
+        String message = new MessageBuilder()
+                .withSender("eafry")
+                .withSubject("Some Subject")
+                .withBody("Some Body")
+                .addRecipient(new MessageBuilder.Recipient("ealiverti", "CHAT"))
+                .buildSerializedMessageWrapper();
+
+        testRunner.enqueue(message.getBytes());
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(UCSValidateMessage.REL_SUCCESS, 1);
+        MockFlowFile ff = testRunner.getFlowFilesForRelationship(UCSValidateMessage.REL_SUCCESS).get(0);
+
+        ff.assertAttributeEquals(CoreAttributes.MIME_TYPE.key(), FastInfosetWrapperCodec.MIME_TYPE);
+
+        MessageWrapper messageWrapper = MessageSerializer.deserializeMessageWrapper(new ByteArrayInputStream(ff.toByteArray()));
+
+        assertThat(messageWrapper.getMessage().getHeader().getSubject(), is("Some Subject"));
+    }
+
     @Test
     public void testDuplicatedIdsOnMessageFAIL() throws MessageSerializationException, IOException {
 
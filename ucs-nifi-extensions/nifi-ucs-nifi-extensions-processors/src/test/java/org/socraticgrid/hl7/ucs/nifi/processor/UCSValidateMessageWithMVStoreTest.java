@@ -0,0 +1,54 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.processor;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import org.socraticgrid.hl7.ucs.nifi.controller.store.MVStoreMessageStoreControllerImpl;
+import org.socraticgrid.hl7.ucs.nifi.controller.store.MessageStoreController;
+
+/**
+ * Runs all the tests of {@link UCSValidateMessageTest} using the persistent
+ * {@link MVStoreMessageStoreControllerImpl}.
+ * 
+ * @author esteban
+ */
+public class UCSValidateMessageWithMVStoreTest extends UCSValidateMessageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Override
+    protected MessageStoreController createMessageStoreController() throws Exception {
+        return new MVStoreMessageStoreControllerImpl();
+    }
+
+    @Override
+    protected Map<String, String> getMessageStoreControllerProperties() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(MVStoreMessageStoreControllerImpl.STORE_FILE.getName(), new File(folder.getRoot(), "message-store.mv.db").getAbsolutePath());
+        return properties;
+    }
+
+    @After
+    public void closeMessageStore() {
+        messageStoreController.stop();
+    }
+}
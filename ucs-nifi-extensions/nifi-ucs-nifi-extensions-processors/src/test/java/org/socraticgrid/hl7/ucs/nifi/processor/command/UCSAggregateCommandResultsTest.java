@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.processor.command;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import org.junit.Before;
+import org.junit.Test;
+import org.socraticgrid.hl7.services.uc.exceptions.ExceptionType;
+import org.socraticgrid.hl7.ucs.nifi.common.model.CommandResult;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.CommandResultSerializer;
+import org.socraticgrid.hl7.ucs.nifi.processor.UCSCreateException;
+
+/**
+ *
+ * @author esteban
+ */
+public class UCSAggregateCommandResultsTest {
+
+    private TestRunner testRunner;
+
+    @Before
+    public void init() {
+        testRunner = TestRunners.newTestRunner(new UCSAggregateCommandResults());
+    }
+
+    @Test
+    public void testAggregate() throws Exception {
+        long timestamp = System.currentTimeMillis();
+
+        //results arrive out of order and mixed with the results of another
+        //(incomplete) envelope.
+        this.enqueueResult("A", 2, 3, timestamp, "discoverChannels", "<channels/>", null);
+        this.enqueueResult("B", 0, 2, timestamp, "getStatus", "<status/>", null);
+        Map<String, String> failed = new HashMap<>();
+        failed.put(UCSCreateException.TYPE_DEFAULT_ATTRIBUTE_NAME, ExceptionType.InvalidInput.name());
+        failed.put(UCSCreateException.FAULT_DEFAULT_ATTRIBUTE_NAME, "Invalid argument");
+        this.enqueueResult("A", 1, 3, timestamp, "getMessages", "", failed);
+        Map<String, String> cursor = new HashMap<>();
+        cursor.put("ucs.next.cursor", "100");
+        cursor.put("some.other.attribute", "value");
+        this.enqueueResult("A", 0, 3, timestamp, "getMessages", "<messages/>", cursor);
+
+        testRunner.run();
+
+        testRunner.assertTransferCount(UCSAggregateCommandResults.REL_SUCCESS, 1);
+        testRunner.assertTransferCount(UCSAggregateCommandResults.REL_ORIGINAL, 3);
+        testRunner.assertTransferCount(UCSAggregateCommandResults.REL_FAILURE, 0);
+        //the result of envelope 'B' is still waiting
+        testRunner.assertQueueNotEmpty();
+
+        MockFlowFile aggregate = testRunner.getFlowFilesForRelationship(UCSAggregateCommandResults.REL_SUCCESS).get(0);
+        aggregate.assertAttributeEquals("response.host", "localhost");
+        aggregate.assertAttributeEquals("response.port", "8889");
+        aggregate.assertAttributeEquals("response.context", "commandResponse/A");
+        aggregate.assertAttributeNotExists(UCSSplitCommands.COMMANDS_ID_ATTRIBUTE_KEY);
+        aggregate.assertAttributeNotExists(UCSCreateException.TYPE_DEFAULT_ATTRIBUTE_NAME);
+
+        List<CommandResult> results = CommandResultSerializer.deserializeCommandResults(new String(aggregate.toByteArray(), StandardCharsets.UTF_8)).getItems();
+        assertThat(results, hasSize(3));
+        for (int i = 0; i < results.size(); i++) {
+            assertThat(results.get(i).getIndex(), is(i));
+        }
+
+        assertThat(results.get(0).isSuccessful(), is(true));
+        assertThat(results.get(0).getName(), is("getMessages"));
+        assertThat(results.get(0).getBody(), is("<messages/>"));
+        assertThat(results.get(0).getAttributes().get("ucs.next.cursor"), is("100"));
+        assertThat(results.get(0).getAttributes().get("some.other.attribute"), nullValue());
+        assertThat(results.get(0).getAttributes().get(UCSSplitCommands.COMMANDS_ID_ATTRIBUTE_KEY), nullValue());
+
+        assertThat(results.get(1).isSuccessful(), is(false));
+        assertThat(results.get(1).getAttributes().get(UCSCreateException.TYPE_DEFAULT_ATTRIBUTE_NAME), is(ExceptionType.InvalidInput.name()));
+        assertThat(results.get(1).getAttributes().get(UCSCreateException.FAULT_DEFAULT_ATTRIBUTE_NAME), is("Invalid argument"));
+
+        assertThat(results.get(2).isSuccessful(), is(true));
+        assertThat(results.get(2).getBody(), is("<channels/>"));
+    }
+
+    @Test
+    public void testIncomplete() throws Exception {
+        this.enqueueResult("A", 0, 2, System.currentTimeMillis(), "getStatus", "<status/>", null);
+
+        testRunner.run();
+
+        testRunner.assertTransferCount(UCSAggregateCommandResults.REL_SUCCESS, 0);
+        testRunner.assertTransferCount(UCSAggregateCommandResults.REL_ORIGINAL, 0);
+        testRunner.assertQueueNotEmpty();
+    }
+
+    @Test
+    public void testExpired() throws Exception {
+        testRunner.setProperty(UCSAggregateCommandResults.MAX_WAIT, "1 sec");
+        this.enqueueResult("A", 1, 3, System.currentTimeMillis() - 5000, "getStatus", "<status/>", null);
+
+        testRunner.run();
+
+        testRunner.assertTransferCount(UCSAggregateCommandResults.REL_SUCCESS, 1);
+        testRunner.assertTransferCount(UCSAggregateCommandResults.REL_ORIGINAL, 1);
+        testRunner.assertQueueEmpty();
+
+        MockFlowFile aggregate = testRunner.getFlowFilesForRelationship(UCSAggregateCommandResults.REL_SUCCESS).get(0);
+        List<CommandResult> results = CommandResultSerializer.deserializeCommandResults(new String(aggregate.toByteArray(), StandardCharsets.UTF_8)).getItems();
+        assertThat(results, hasSize(3));
+        assertThat(results.get(0).isSuccessful(), is(false));
+        assertThat(results.get(0).getAttributes().get(UCSCreateException.TYPE_DEFAULT_ATTRIBUTE_NAME), is(ExceptionType.General.name()));
+        assertThat(results.get(1).isSuccessful(), is(true));
+        assertThat(results.get(2).isSuccessful(), is(false));
+    }
+
+    @Test
+    public void testLateResults() throws Exception {
+        testRunner.setProperty(UCSAggregateCommandResults.MAX_WAIT, "1 sec");
+        long timestamp = System.currentTimeMillis() - 5000;
+        this.enqueueResult("A", 1, 3, timestamp, "getStatus", "<status/>", null);
+
+        testRunner.run();
+
+        testRunner.assertTransferCount(UCSAggregateCommandResults.REL_SUCCESS, 1);
+        testRunner.assertTransferCount(UCSAggregateCommandResults.REL_ORIGINAL, 1);
+
+        //the results arriving after the envelope was aggregated don't 
+        //produce a new aggregate.
+        this.enqueueResult("A", 0, 3, timestamp, "getMessages", "<messages/>", null);
+        this.enqueueResult("A", 2, 3, timestamp, "discoverChannels", "<channels/>", null);
+
+        testRunner.run();
+
+        testRunner.assertTransferCount(UCSAggregateCommandResults.REL_SUCCESS, 1);
+        testRunner.assertTransferCount(UCSAggregateCommandResults.REL_ORIGINAL, 3);
+        testRunner.assertTransferCount(UCSAggregateCommandResults.REL_FAILURE, 0);
+        testRunner.assertQueueEmpty();
+    }
+
+    @Test
+    public void testInvalidFlowFile() throws Exception {
+        testRunner.enqueue("<status/>".getBytes(StandardCharsets.UTF_8));
+
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(UCSAggregateCommandResults.REL_FAILURE, 1);
+        testRunner.getFlowFilesForRelationship(UCSAggregateCommandResults.REL_FAILURE).get(0)
+                .assertAttributeEquals(UCSCreateException.TYPE_DEFAULT_ATTRIBUTE_NAME, ExceptionType.InvalidInput.name());
+    }
+
+    private void enqueueResult(String id, int index, int count, long timestamp, String name, String content, Map<String, String> extraAttributes) {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put(UCSSplitCommands.COMMANDS_ID_ATTRIBUTE_KEY, id);
+        attributes.put(UCSSplitCommands.COMMANDS_INDEX_ATTRIBUTE_KEY, String.valueOf(index));
+        attributes.put(UCSSplitCommands.COMMANDS_COUNT_ATTRIBUTE_KEY, String.valueOf(count));
+        attributes.put(UCSSplitCommands.COMMANDS_TIMESTAMP_ATTRIBUTE_KEY, String.valueOf(timestamp));
+        attributes.put(UCSSplitCommands.COMMANDS_NAME_ATTRIBUTE_KEY, name);
+        attributes.put("ucs.commands.response.host", "localhost");
+        attributes.put("ucs.commands.response.port", "8889");
+        attributes.put("ucs.commands.response.context", "commandResponse/" + id);
+        if (extraAttributes != null) {
+            attributes.putAll(extraAttributes);
+        }
+        testRunner.enqueue(content.getBytes(StandardCharsets.UTF_8), attributes);
+    }
+}
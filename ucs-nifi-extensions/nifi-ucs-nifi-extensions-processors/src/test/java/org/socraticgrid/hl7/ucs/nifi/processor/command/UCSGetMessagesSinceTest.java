@@ -0,0 +1,208 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.processor.command;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+import org.socraticgrid.hl7.services.uc.model.Message;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageChanges;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageChangesSerializer;
+import org.socraticgrid.hl7.ucs.nifi.common.util.MessageBuilder;
+import org.socraticgrid.hl7.ucs.nifi.controller.store.InMemoryMessageStoreControllerImpl;
+import org.socraticgrid.hl7.ucs.nifi.controller.store.MessageChangeLog;
+import org.socraticgrid.hl7.ucs.nifi.processor.UCSControllerServiceBasedTest;
+import org.socraticgrid.hl7.ucs.nifi.processor.UCSCreateException;
+
+/**
+ *
+ * @author esteban
+ */
+public class UCSGetMessagesSinceTest extends UCSControllerServiceBasedTest {
+
+    @Test
+    public void doTestGetMessagesSince() throws Exception {
+
+        controller.saveMessage(this.createMessage("M0"));
+        controller.saveMessage(this.createMessage("M1"));
+
+        //no sync point: every message.
+        MockFlowFile result = this.getMessagesSince(null);
+        MessageChanges changes = this.getChanges(result);
+        assertThat(this.getMessageIds(changes), containsInAnyOrder("M0", "M1"));
+        assertThat(changes.isFullSync(), is(true));
+        assertThat(changes.getSyncPoint(), notNullValue());
+        result.assertAttributeEquals(UCSGetMessagesSince.SYNC_POINT_ATTRIBUTE, changes.getSyncPoint());
+        Date m0LastModified = changes.getMessages().stream()
+                .map(MessageWrapper::getMessage)
+                .filter(m -> m.getHeader().getMessageId().equals("M0"))
+                .findFirst().get().getHeader().getLastModified();
+
+        Message m0 = controller.getMessageById("M0").get();
+        m0.getHeader().setSubject("Updated Subject");
+        controller.updateMessage(m0);
+        controller.saveMessage(this.createMessage("M2"));
+
+        //only the modified messages, in the order they were modified.
+        changes = this.getChanges(this.getMessagesSince("10:" + changes.getSyncPoint()));
+        assertThat(this.getMessageIds(changes), contains("M0", "M2"));
+        assertThat(changes.isFullSync(), is(false));
+        assertThat(changes.getMessages().get(0).getMessage().getHeader().getLastModified().after(m0LastModified), is(true));
+
+        //nothing new.
+        changes = this.getChanges(this.getMessagesSince("10:" + changes.getSyncPoint()));
+        assertThat(this.getMessageIds(changes).isEmpty(), is(true));
+        assertThat(changes.getRemovedMessageIds().isEmpty(), is(true));
+
+        //changes after a sync point of another log (i.e. before the service 
+        //was restarted) are unknown: full resync.
+        changes = this.getChanges(this.getMessagesSince("10:" + new MessageChangeLog().currentSyncPoint()));
+        assertThat(this.getMessageIds(changes), containsInAnyOrder("M0", "M1", "M2"));
+        assertThat(changes.isFullSync(), is(true));
+    }
+
+    @Test
+    public void doTestRemovedMessages() throws Exception {
+
+        controller.saveMessage(this.createMessage("M0"));
+        controller.saveMessage(this.createMessage("M1"));
+        controller.saveMessage(this.createMessage("M2"));
+        MessageChanges changes = this.getChanges(this.getMessagesSince(null));
+
+        //M0 is evicted.
+        controller.saveMessage(this.createMessage("M3"));
+
+        changes = this.getChanges(this.getMessagesSince("10:" + changes.getSyncPoint()));
+        assertThat(this.getMessageIds(changes), contains("M3"));
+        assertThat(changes.getRemovedMessageIds(), contains("M0"));
+    }
+
+    @Test
+    public void doTestPaging() throws Exception {
+
+        controller.saveMessage(this.createMessage("M0"));
+        controller.saveMessage(this.createMessage("M1"));
+        controller.saveMessage(this.createMessage("M2"));
+
+        //full resync in pages of 2 messages.
+        MockFlowFile result = this.getMessagesSince("2");
+        MessageChanges changes = this.getChanges(result);
+        assertThat(this.getMessageIds(changes), contains("M0", "M1"));
+        assertThat(changes.isFullSync(), is(true));
+        result.assertAttributeEquals(UCSGetMessagesSince.NEXT_CURSOR_ATTRIBUTE, changes.getNextCursor());
+        String syncPoint = changes.getSyncPoint();
+
+        result = this.getMessagesSince("2:" + changes.getNextCursor());
+        changes = this.getChanges(result);
+        assertThat(this.getMessageIds(changes), contains("M2"));
+        assertThat(changes.isFullSync(), is(true));
+        assertThat(changes.hasNext(), is(false));
+        assertThat(changes.getSyncPoint(), is(syncPoint));
+        result.assertAttributeNotExists(UCSGetMessagesSince.NEXT_CURSOR_ATTRIBUTE);
+
+        for (String messageId : new String[]{"M2", "M0", "M1"}) {
+            Message message = controller.getMessageById(messageId).get();
+            message.getHeader().setSubject("Updated Subject");
+            controller.updateMessage(message);
+        }
+
+        //changes in pages of 2 messages.
+        changes = this.getChanges(this.getMessagesSince("2:" + syncPoint));
+        assertThat(this.getMessageIds(changes), contains("M2", "M0"));
+        assertThat(changes.isFullSync(), is(false));
+
+        changes = this.getChanges(this.getMessagesSince("2:" + changes.getNextCursor()));
+        assertThat(this.getMessageIds(changes), contains("M1"));
+        assertThat(changes.hasNext(), is(false));
+    }
+
+    @Test
+    public void doTestInvalidPagingArgs() {
+
+        for (String args : new String[]{"yesterday", "0", "10:yesterday", "10:yesterday.yesterday"}) {
+            testRunner.clearTransferState();
+
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put("command.args", args);
+            testRunner.enqueue(new byte[0], attributes);
+            testRunner.run();
+
+            testRunner.assertAllFlowFilesTransferred(UCSGetMessagesSince.REL_FAILURE, 1);
+            MockFlowFile result = testRunner.getFlowFilesForRelationship(UCSGetMessagesSince.REL_FAILURE).get(0);
+            result.assertAttributeEquals(UCSCreateException.TYPE_DEFAULT_ATTRIBUTE_NAME, "InvalidInput");
+        }
+    }
+
+    private MockFlowFile getMessagesSince(String pagingArgs) {
+        testRunner.clearTransferState();
+
+        Map<String, String> attributes = new HashMap<>();
+        if (pagingArgs != null) {
+            attributes.put("command.args", pagingArgs);
+        }
+        testRunner.enqueue(new byte[0], attributes);
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(UCSGetMessagesSince.REL_SUCCESS, 1);
+        return testRunner.getFlowFilesForRelationship(UCSGetMessagesSince.REL_SUCCESS).get(0);
+    }
+
+    private MessageChanges getChanges(MockFlowFile flowFile) throws Exception {
+        return MessageChangesSerializer.deserializeMessageChanges(new String(flowFile.toByteArray()));
+    }
+
+    private List<String> getMessageIds(MessageChanges changes) {
+        return changes.getMessages().stream()
+                .map(MessageWrapper::getMessage)
+                .map(m -> m.getHeader().getMessageId())
+                .collect(Collectors.toList());
+    }
+
+    private Message createMessage(String messageId) throws Exception {
+        return new MessageBuilder()
+                .withConversationId("testC")
+                .withMessageId(messageId)
+                .withSender("eafry")
+                .withSubject("Subject " + messageId)
+                .withBody("Body " + messageId)
+                .addRecipient(new MessageBuilder.Recipient("ealiverti", "CHAT"))
+                .buildMessage();
+    }
+
+    @Override
+    protected Map<String, String> getMessageStoreControllerProperties() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(InMemoryMessageStoreControllerImpl.MAX_MESSAGES.getName(), "3");
+        return properties;
+    }
+
+    @Override
+    protected TestRunner createTestRunner() {
+        return TestRunners.newTestRunner(new UCSGetMessagesSince());
+    }
+}
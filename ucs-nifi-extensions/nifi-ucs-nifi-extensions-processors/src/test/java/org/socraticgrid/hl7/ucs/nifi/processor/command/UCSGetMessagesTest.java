@@ -16,11 +16,16 @@
 package org.socraticgrid.hl7.ucs.nifi.processor.command;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import org.junit.Test;
@@ -29,6 +34,7 @@ import org.socraticgrid.hl7.ucs.nifi.common.model.XMLListWrapper;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializationException;
 import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializer;
 import org.socraticgrid.hl7.ucs.nifi.processor.UCSControllerServiceBasedTest;
+import org.socraticgrid.hl7.ucs.nifi.processor.UCSCreateException;
 import org.socraticgrid.hl7.ucs.nifi.common.util.MessageBuilder;
 
 /**
@@ -95,6 +101,118 @@ public class UCSGetMessagesTest extends UCSControllerServiceBasedTest {
         
     }
     
+    @Test
+    public void doTestGetMessagesByPage() throws MessageSerializationException, IOException{
+        
+        List<String> messageIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            String messageId = "M"+i;
+            messageIds.add(messageId);
+            controller.saveMessage(new MessageBuilder()
+                .withConversationId("testC")
+                .withMessageId(messageId)
+                .withSender("eafry")
+                .withSubject("Subject "+i)
+                .withBody("Body "+i)
+                .addRecipient(new MessageBuilder.Recipient("ealiverti", "CHAT"))
+                .buildMessage());
+        }
+        
+        testRunner.setProperty(UCSGetMessages.UNIQUE_FLOWFILE, "true");
+        
+        //page through the messages, 2 at a time.
+        List<String> result = new ArrayList<>();
+        String args = "2";
+        int pages = 0;
+        while (args != null){
+            testRunner.clearTransferState();
+            
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put("command.args", args);
+            testRunner.enqueue(new byte[0], attributes);
+            testRunner.run();
+            
+            testRunner.assertAllFlowFilesTransferred(UCSGetMessages.REL_SUCCESS, 1);
+            MockFlowFile page = testRunner.getFlowFilesForRelationship(UCSGetMessages.REL_SUCCESS).get(0);
+            
+            XMLListWrapper<MessageWrapper> items = MessageSerializer.deserializeMessageWrappers(new String(page.toByteArray()));
+            assertThat(items.getItems().size() <= 2, is(true));
+            items.getItems().stream()
+                .map(mw -> mw.getMessage().getHeader().getMessageId())
+                .forEach(result::add);
+            
+            String nextCursor = page.getAttribute(UCSGetMessages.NEXT_CURSOR_ATTRIBUTE);
+            args = nextCursor == null ? null : "2:"+nextCursor;
+            pages++;
+        }
+        
+        assertThat(pages, is(3));
+        assertThat(result, contains(messageIds.toArray(new String[messageIds.size()])));
+    }
+    
+    @Test
+    public void doTestInvalidPagingArguments() {
+        
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("command.args", "2:not-a-cursor");
+        testRunner.enqueue(new byte[0], attributes);
+        testRunner.run();
+        
+        testRunner.assertAllFlowFilesTransferred(UCSGetMessages.REL_FAILURE, 1);
+        MockFlowFile result = testRunner.getFlowFilesForRelationship(UCSGetMessages.REL_FAILURE).get(0);
+        result.assertAttributeEquals(UCSCreateException.TYPE_DEFAULT_ATTRIBUTE_NAME, "InvalidInput");
+        
+        testRunner.clearTransferState();
+        attributes.put("command.args", "abc");
+        testRunner.enqueue(new byte[0], attributes);
+        testRunner.run();
+        
+        testRunner.assertAllFlowFilesTransferred(UCSGetMessages.REL_FAILURE, 1);
+    }
+    
+    @Test
+    public void doTestGetMessagesByQuery() throws MessageSerializationException, IOException{
+        
+        for (int i = 0; i < 4; i++) {
+            controller.saveMessage(new MessageBuilder()
+                .withConversationId("testC")
+                .withMessageId("M"+i)
+                .withSender(i % 2 == 0 ? "eafry" : "ealiverti")
+                .withSubject("Subject "+i)
+                .withBody("Body "+i)
+                .addRecipient(new MessageBuilder.Recipient("jhughes", "CHAT"))
+                .buildMessage());
+        }
+        
+        testRunner.setProperty(UCSGetMessages.UNIQUE_FLOWFILE, "true");
+        
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("command.args", "10");
+        attributes.put("command.args.2", "sender = ealiverti");
+        testRunner.enqueue(new byte[0], attributes);
+        testRunner.run();
+        
+        testRunner.assertAllFlowFilesTransferred(UCSGetMessages.REL_SUCCESS, 1);
+        MockFlowFile result = testRunner.getFlowFilesForRelationship(UCSGetMessages.REL_SUCCESS).get(0);
+        
+        XMLListWrapper<MessageWrapper> items = MessageSerializer.deserializeMessageWrappers(new String(result.toByteArray()));
+        assertThat(items.getItems().stream()
+                .map(mw -> mw.getMessage().getHeader().getMessageId())
+                .collect(Collectors.toList()),
+                contains("M1", "M3")
+        );
+        
+        //invalid query
+        testRunner.clearTransferState();
+        attributes.put("command.args.2", "sender > ealiverti");
+        testRunner.enqueue(new byte[0], attributes);
+        testRunner.run();
+        
+        testRunner.assertAllFlowFilesTransferred(UCSGetMessages.REL_FAILURE, 1);
+        testRunner.getFlowFilesForRelationship(UCSGetMessages.REL_FAILURE).get(0)
+                .assertAttributeEquals(UCSCreateException.TYPE_DEFAULT_ATTRIBUTE_NAME, "InvalidQuery");
+    }
+    
     @Override
     protected TestRunner createTestRunner() {
         return TestRunners.newTestRunner(new UCSGetMessages());
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.processor.command;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+import org.junit.Before;
+import org.junit.Test;
+import org.socraticgrid.hl7.services.uc.exceptions.ExceptionType;
+import org.socraticgrid.hl7.ucs.nifi.processor.UCSCreateException;
+
+/**
+ *
+ * @author esteban
+ */
+public class UCSSplitCommandsTest {
+
+    private TestRunner testRunner;
+
+    @Before
+    public void init() {
+        testRunner = TestRunners.newTestRunner(new UCSSplitCommands());
+    }
+
+    @Test
+    public void testSplit() throws Exception {
+        String envelope = "<commands>"
+                + "<command endpoint=\"management\"><name>getStatus</name><args><arg>a</arg><arg>b</arg></args></command>"
+                + "<command endpoint=\"client\"><name>getMessages</name><args><arg>100</arg></args></command>"
+                + "<command endpoint=\"management\"><name>discoverChannels</name></command>"
+                + "<response><host>localhost</host><port>8889</port><context>commandResponse/1234</context></response>"
+                + "</commands>";
+
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("command.name", "");
+        attributes.put("ucs.some.attribute", "value");
+        testRunner.enqueue(envelope.getBytes(StandardCharsets.UTF_8), attributes);
+        testRunner.run();
+
+        testRunner.assertTransferCount(UCSSplitCommands.REL_ORIGINAL, 1);
+        testRunner.assertTransferCount(UCSSplitCommands.REL_COMMAND, 3);
+        testRunner.assertTransferCount(UCSSplitCommands.REL_FAILURE, 0);
+
+        MockFlowFile original = testRunner.getFlowFilesForRelationship(UCSSplitCommands.REL_ORIGINAL).get(0);
+        original.assertAttributeEquals("response.host", "localhost");
+        original.assertAttributeEquals("response.port", "8889");
+        original.assertAttributeEquals("response.context", "commandResponse/1234");
+
+        List<MockFlowFile> commands = testRunner.getFlowFilesForRelationship(UCSSplitCommands.REL_COMMAND);
+        for (int i = 0; i < commands.size(); i++) {
+            MockFlowFile command = commands.get(i);
+            command.assertAttributeEquals(UCSSplitCommands.COMMANDS_ID_ATTRIBUTE_KEY, original.getAttribute("uuid"));
+            command.assertAttributeEquals(UCSSplitCommands.COMMANDS_INDEX_ATTRIBUTE_KEY, String.valueOf(i));
+            command.assertAttributeEquals(UCSSplitCommands.COMMANDS_COUNT_ATTRIBUTE_KEY, "3");
+            command.assertAttributeExists(UCSSplitCommands.COMMANDS_TIMESTAMP_ATTRIBUTE_KEY);
+            command.assertAttributeEquals("ucs.commands.response.host", "localhost");
+            command.assertAttributeEquals("ucs.commands.response.port", "8889");
+            command.assertAttributeEquals("ucs.commands.response.context", "commandResponse/1234");
+            command.assertAttributeEquals("ucs.some.attribute", "value");
+            //the response of each command must not be sent individually.
+            command.assertAttributeNotExists("response.host");
+            command.assertAttributeNotExists("response.port");
+            command.assertAttributeNotExists("response.context");
+
+            String content = new String(command.toByteArray(), StandardCharsets.UTF_8);
+            assertThat(content, containsString("<command"));
+            assertThat(content, not(containsString("<?xml")));
+            assertThat(content, not(containsString("<response>")));
+        }
+
+        MockFlowFile getStatus = commands.get(0);
+        getStatus.assertAttributeEquals("command.name", "getStatus");
+        getStatus.assertAttributeEquals("command.args", "a");
+        getStatus.assertAttributeEquals("command.args.1", "a");
+        getStatus.assertAttributeEquals("command.args.2", "b");
+        getStatus.assertAttributeEquals(UCSSplitCommands.COMMANDS_ENDPOINT_ATTRIBUTE_KEY, "management");
+
+        MockFlowFile getMessages = commands.get(1);
+        getMessages.assertAttributeEquals("command.name", "getMessages");
+        getMessages.assertAttributeEquals("command.args", "100");
+        getMessages.assertAttributeNotExists("command.args.1");
+        getMessages.assertAttributeEquals(UCSSplitCommands.COMMANDS_ENDPOINT_ATTRIBUTE_KEY, "client");
+
+        MockFlowFile discoverChannels = commands.get(2);
+        discoverChannels.assertAttributeEquals("command.name", "discoverChannels");
+        discoverChannels.assertAttributeNotExists("command.args");
+        discoverChannels.assertAttributeEquals(UCSSplitCommands.COMMANDS_NAME_ATTRIBUTE_KEY, "discoverChannels");
+    }
+
+    @Test
+    public void testInvalidContent() throws Exception {
+        testRunner.enqueue("<commands><command>".getBytes(StandardCharsets.UTF_8));
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(UCSSplitCommands.REL_FAILURE, 1);
+        MockFlowFile ff = testRunner.getFlowFilesForRelationship(UCSSplitCommands.REL_FAILURE).get(0);
+        ff.assertAttributeEquals(UCSCreateException.TYPE_DEFAULT_ATTRIBUTE_NAME, ExceptionType.InvalidInput.name());
+    }
+
+    @Test
+    public void testEmptyEnvelope() throws Exception {
+        String envelope = "<commands>"
+                + "<response><host>localhost</host><port>8889</port><context>commandResponse/1234</context></response>"
+                + "</commands>";
+        testRunner.enqueue(envelope.getBytes(StandardCharsets.UTF_8));
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(UCSSplitCommands.REL_FAILURE, 1);
+        MockFlowFile ff = testRunner.getFlowFilesForRelationship(UCSSplitCommands.REL_FAILURE).get(0);
+        ff.assertAttributeEquals(UCSCreateException.TYPE_DEFAULT_ATTRIBUTE_NAME, ExceptionType.InvalidInput.name());
+        //the error can still be sent back to the client
+        ff.assertAttributeEquals("response.host", "localhost");
+        ff.assertAttributeEquals("response.context", "commandResponse/1234");
+    }
+
+    @Test
+    public void testMissingCommandName() throws Exception {
+        String envelope = "<commands>"
+                + "<command endpoint=\"management\"><name>getStatus</name></command>"
+                + "<command endpoint=\"management\"></command>"
+                + "</commands>";
+        testRunner.enqueue(envelope.getBytes(StandardCharsets.UTF_8));
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(UCSSplitCommands.REL_FAILURE, 1);
+        assertThat(testRunner.getFlowFilesForRelationship(UCSSplitCommands.REL_FAILURE).get(0)
+                .getAttribute(UCSCreateException.FAULT_DEFAULT_ATTRIBUTE_NAME), containsString("#1"));
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.processor.command;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageSubmissionResult;
+import org.socraticgrid.hl7.ucs.nifi.common.model.MessageWrapper;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializationException;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSerializer;
+import org.socraticgrid.hl7.ucs.nifi.common.serialization.MessageSubmissionResultSerializer;
+import org.socraticgrid.hl7.ucs.nifi.common.util.MessageBuilder;
+import org.socraticgrid.hl7.ucs.nifi.processor.UCSControllerServiceBasedTest;
+
+/**
+ *
+ * @author esteban
+ */
+public class UCSSplitMessageBatchTest extends UCSControllerServiceBasedTest {
+
+    @Test
+    public void successTest() throws MessageSerializationException {
+        List<MessageWrapper> batch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            batch.add(this.createMessageWrapper(UUID.randomUUID().toString()));
+        }
+
+        testRunner.enqueue(this.serialize(batch), this.createBasicAttributes());
+        testRunner.run();
+
+        testRunner.assertTransferCount(UCSSplitMessageBatch.REL_SUCCESS, 1);
+        testRunner.assertTransferCount(UCSSplitMessageBatch.REL_MESSAGE, 10);
+        testRunner.assertTransferCount(UCSSplitMessageBatch.REL_FAILURE, 0);
+
+        MockFlowFile original = testRunner.getFlowFilesForRelationship(UCSSplitMessageBatch.REL_SUCCESS).get(0);
+        assertThat(original.getAttribute(UCSSplitMessageBatch.BATCH_VALID_COUNT_ATTRIBUTE_KEY), is("10"));
+
+        List<MessageSubmissionResult> results = this.getResults(original);
+        assertThat(results, hasSize(10));
+
+        List<MockFlowFile> messages = testRunner.getFlowFilesForRelationship(UCSSplitMessageBatch.REL_MESSAGE);
+        for (int i = 0; i < 10; i++) {
+            MockFlowFile ff = messages.get(i);
+            assertThat(results.get(i).isValid(), is(true));
+            assertThat(results.get(i).getIndex(), is(i));
+            assertThat(results.get(i).getMessageId(), is(batch.get(i).getMessage().getHeader().getMessageId()));
+
+            assertThat(ff.getAttribute(UCSSplitMessageBatch.BATCH_INDEX_ATTRIBUTE_KEY), is(String.valueOf(i)));
+            assertThat(ff.getAttribute(UCSSplitMessageBatch.BATCH_SIZE_ATTRIBUTE_KEY), is("10"));
+            assertThat(ff.getAttribute(UCSSplitMessageBatch.BATCH_ID_ATTRIBUTE_KEY), is(original.getAttribute("uuid")));
+            //the command attributes are not copied into the individual messages.
+            assertThat(ff.getAttribute("command.name"), nullValue());
+
+            MessageWrapper mw = MessageSerializer.deserializeMessageWrapper(new String(ff.toByteArray()));
+            assertThat(mw.getMessage().getHeader().getMessageId(), is(results.get(i).getMessageId()));
+        }
+    }
+
+    @Test
+    public void invalidMessagesTest() throws MessageSerializationException {
+        String duplicatedId = UUID.randomUUID().toString();
+        String existingId = UUID.randomUUID().toString();
+
+        //persist a message in the store
+        controller.saveMessage(this.createMessageWrapper(existingId).getMessage());
+
+        List<MessageWrapper> batch = Arrays.asList(
+                this.createMessageWrapper(duplicatedId),
+                this.createMessageWrapper(null),
+                this.createMessageWrapper(duplicatedId),
+                this.createMessageWrapper(existingId),
+                new MessageBuilder()
+                        .withMessageId(UUID.randomUUID().toString())
+                        .withConversationId("unknown-conversation")
+                        .withSender("eafry")
+                        .withBody("Body")
+                        .buildMessageWrapper()
+        );
+
+        testRunner.enqueue(this.serialize(batch), this.createBasicAttributes());
+        testRunner.run();
+
+        testRunner.assertTransferCount(UCSSplitMessageBatch.REL_SUCCESS, 1);
+        testRunner.assertTransferCount(UCSSplitMessageBatch.REL_MESSAGE, 2);
+
+        MockFlowFile original = testRunner.getFlowFilesForRelationship(UCSSplitMessageBatch.REL_SUCCESS).get(0);
+        List<MessageSubmissionResult> results = this.getResults(original);
+        assertThat(results, hasSize(5));
+
+        assertThat(results.get(0).isValid(), is(true));
+        //a message without id gets a new one.
+        assertThat(results.get(1).isValid(), is(true));
+        assertThat(results.get(1).getMessageId(), not(nullValue()));
+        assertThat(results.get(1).getMessageId().isEmpty(), is(false));
+        //duplicated id in the same batch
+        assertThat(results.get(2).isValid(), is(false));
+        assertThat(results.get(2).getMessageId(), is(duplicatedId));
+        //id already present in UCS
+        assertThat(results.get(3).isValid(), is(false));
+        //unknown conversation
+        assertThat(results.get(4).isValid(), is(false));
+        assertThat(results.get(4).getError(), not(nullValue()));
+    }
+
+    @Test
+    public void missingBatchTest() {
+        testRunner.enqueue(new byte[]{}, this.createBasicAttributes());
+        testRunner.run();
+        testRunner.assertAllFlowFilesTransferred(UCSSplitMessageBatch.REL_FAILURE);
+    }
+
+    @Override
+    protected TestRunner createTestRunner() {
+        return TestRunners.newTestRunner(new UCSSplitMessageBatch());
+    }
+
+    private MessageWrapper createMessageWrapper(String messageId) throws MessageSerializationException {
+        MessageWrapper messageWrapper = new MessageBuilder()
+                .withMessageId(messageId)
+                .withSender("eafry")
+                .withSubject("Subject")
+                .withBody("Body")
+                .addRecipient(new MessageBuilder.Recipient("ealiverti", "SMS"))
+                .buildMessageWrapper();
+        messageWrapper.getMessage().getHeader().setMessageId(messageId);
+        return messageWrapper;
+    }
+
+    private List<MessageSubmissionResult> getResults(MockFlowFile ff) throws MessageSerializationException {
+        return MessageSubmissionResultSerializer.deserializeMessageSubmissionResults(new String(ff.toByteArray())).getItems();
+    }
+
+    private byte[] serialize(List<MessageWrapper> batch) throws MessageSerializationException {
+        return MessageSerializer.serializeMessageWrappers(batch).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private Map<String, String> createBasicAttributes() {
+        Map<String, String> result = new HashMap<>();
+        result.put("command.name", "sendMessages");
+
+        return result;
+    }
+}
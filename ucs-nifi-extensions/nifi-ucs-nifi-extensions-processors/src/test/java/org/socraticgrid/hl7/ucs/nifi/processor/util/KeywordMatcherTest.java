@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Cognitive Medical Systems, Inc (http://www.cognitivemedicine.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.socraticgrid.hl7.ucs.nifi.processor.util;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+/**
+ *
+ * @author esteban
+ */
+public class KeywordMatcherTest {
+
+    @Test
+    public void testFindAll() {
+        KeywordMatcher<String> matcher = new KeywordMatcher.Builder<String>(true)
+                .addKeyword("he", "HE")
+                .addKeyword("she", "SHE")
+                .addKeyword("his", "HIS")
+                .addKeyword("hers", "HERS")
+                .build();
+
+        assertThat(matcher.findAll("ushers"), containsInAnyOrder("HE", "SHE", "HERS"));
+        assertThat(matcher.findAll("this"), containsInAnyOrder("HIS"));
+        assertThat(matcher.findAll("hhhhis"), containsInAnyOrder("HIS"));
+        assertThat(matcher.findAll("USHERS").isEmpty(), is(true));
+        assertThat(matcher.findAll("").isEmpty(), is(true));
+    }
+
+    @Test
+    public void testOverlappingKeywords() {
+        KeywordMatcher<String> matcher = new KeywordMatcher.Builder<String>(true)
+                .addKeyword("aab", "AAB")
+                .addKeyword("ab", "AB")
+                .addKeyword("b", "B")
+                .addKeyword("aaa", "AAA")
+                .build();
+
+        assertThat(matcher.findAll("aaab"), containsInAnyOrder("AAA", "AAB", "AB", "B"));
+        assertThat(matcher.findAll("abaab"), containsInAnyOrder("AAB", "AB", "B"));
+    }
+
+    @Test
+    public void testCaseInsensitive() {
+        KeywordMatcher<String> matcher = new KeywordMatcher.Builder<String>(false)
+                .addKeyword("Chest Pain", "PAIN")
+                .addKeyword("chest pain", "PAIN2")
+                .addKeyword("fever", "FEVER")
+                .build();
+
+        assertThat(matcher.findAll("Reports CHEST PAIN"), containsInAnyOrder("PAIN", "PAIN2"));
+        assertThat(matcher.findAll("FeVeR"), containsInAnyOrder("FEVER"));
+        //only US-ASCII characters are folded
+        assertThat(new KeywordMatcher.Builder<String>(false).addKeyword("é", "E").build().findAll("É").isEmpty(), is(true));
+    }
+
+    @Test
+    public void testFindExact() {
+        KeywordMatcher<String> matcher = new KeywordMatcher.Builder<String>(false)
+                .addKeyword("yes", "YES")
+                .addKeyword("y", "Y")
+                .build();
+
+        assertThat(matcher.findExact("YES"), containsInAnyOrder("YES"));
+        assertThat(matcher.findExact("y"), containsInAnyOrder("Y"));
+        assertThat(matcher.findExact("ye").isEmpty(), is(true));
+        assertThat(matcher.findExact("yes!").isEmpty(), is(true));
+        assertThat(matcher.findExact("").isEmpty(), is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyKeyword() {
+        new KeywordMatcher.Builder<String>(true).addKeyword("", "EMPTY");
+    }
+}
@@ -154,6 +154,7 @@ public class CreateUCSSessionCommand implements Command {
                         }
 
                     })
+                    .withMessageCache()
                     .build();
 
                 return new JsonObject();